@@ -0,0 +1,100 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+import org.waarp.openr66.protocol.utils.FileUtils;
+
+/**
+ * Creation of Data packets from the received buffer (LocalPacketFactory) and check of their
+ * digest key (DataPacket.isKeyValid)
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DataPacketBenchmark {
+    @Param({ "8192", "65536" })
+    public int blockSize;
+
+    @Param({ "MD5", "SHA1", "CRC32" })
+    public String digest;
+
+    private DigestAlgo algo;
+    private DataPacket dataPacket;
+    private ByteBuf localPacket;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) i;
+        }
+        algo = DigestAlgo.valueOf(digest);
+        ByteBuf data = Unpooled.wrappedBuffer(block);
+        dataPacket = new DataPacket(1, data, FileUtils.getHash(data, algo));
+        localPacket = Unpooled.copiedBuffer(dataPacket.getLocalPacket(null));
+    }
+
+    @TearDown
+    public void tearDown() {
+        localPacket.release();
+    }
+
+    @Benchmark
+    public int createPacketFromByteBuf() throws OpenR66ProtocolPacketException {
+        ByteBuf buf = localPacket.duplicate();
+        // as LocalPacketCodec.decodeNetworkPacket
+        int headerLength = buf.readInt() - 8;
+        int middleLength = buf.readInt();
+        int endLength = buf.readInt();
+        AbstractLocalPacket packet = LocalPacketFactory.createPacketFromByteBuf(headerLength,
+                middleLength, endLength, buf);
+        int rank = ((DataPacket) packet).getPacketRank();
+        packet.clear();
+        return rank;
+    }
+
+    @Benchmark
+    public boolean isKeyValid() {
+        return dataPacket.isKeyValid(algo);
+    }
+}
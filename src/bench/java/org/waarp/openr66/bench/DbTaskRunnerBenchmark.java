@@ -0,0 +1,103 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbHostAuth;
+import org.waarp.openr66.database.data.DbRule;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.model.DbModelFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
+
+/**
+ * Update paths of the DbTaskRunner during a transfer, against an in memory H2 database
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DbTaskRunnerBenchmark {
+    private DbTaskRunner runner;
+    private int rank;
+
+    @Setup
+    public void setup() throws Exception {
+        DbConstant.admin = DbModelFactory.initialize("h2",
+                "jdbc:h2:mem:r66bench;MODE=Oracle;DB_CLOSE_DELAY=-1", "waarp", "waarp", true);
+        DbConstant.noCommitAdmin = DbConstant.admin;
+        DbConstant.admin.getSession().getAdmin().getDbModel().createTables(DbConstant.admin.getSession());
+        Configuration.configuration.setHOST_ID("hosta");
+        new DbHostAuth(DbConstant.admin.getSession(), "hostb", "127.0.0.1", 6676, false, null,
+                false, false).insert();
+        DbRule rule = new DbRule(DbConstant.admin.getSession(), "rule", (String) null,
+                TRANSFERMODE.SENDMODE.ordinal(), null, null, null, null, null, null, null, null,
+                null, null);
+        rule.insert();
+        RequestPacket requestPacket = new RequestPacket(rule.getIdRule(), rule.getMode(),
+                "testfile.txt", Configuration.BUFFERSIZEDEFAULT, 0, DbConstant.ILLEGALVALUE,
+                "benchmark", 0, PartnerConfiguration.BAR_SEPARATOR_FIELD);
+        runner = new DbTaskRunner(DbConstant.admin.getSession(), rule, true, requestPacket,
+                "hostb", null);
+        runner.setTransferTask(0);
+        rank = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        DbConstant.admin.close();
+    }
+
+    /**
+     * Full update of the runner, as at each step change
+     */
+    @Benchmark
+    public int update() throws WaarpDatabaseException {
+        runner.setTransferTask(0);
+        runner.update();
+        return runner.getRank();
+    }
+
+    /**
+     * Rank increment of each received block, saved every 10 blocks
+     */
+    @Benchmark
+    public int incrementRank() throws OpenR66ProtocolPacketException {
+        runner.incrementRank();
+        return ++rank;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacketCodec;
+
+/**
+ * Encoding and decoding of Data packets by the NetworkPacketCodec
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NetworkPacketCodecBenchmark {
+    @Param({ "8192", "65536" })
+    public int blockSize;
+
+    private EmbeddedChannel channel;
+    private ByteBuf localPacket;
+    private ByteBuf networkFrame;
+
+    @Setup
+    public void setup() throws Exception {
+        channel = new EmbeddedChannel(new NetworkPacketCodec());
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) i;
+        }
+        DataPacket dataPacket = new DataPacket(1, Unpooled.wrappedBuffer(block), null);
+        localPacket = Unpooled.copiedBuffer(dataPacket.getLocalPacket(null));
+        NetworkPacket packet = new NetworkPacket(1, 2, LocalPacketFactory.DATAPACKET,
+                localPacket.retainedDuplicate());
+        networkFrame = Unpooled.copiedBuffer(packet.getNetworkPacket());
+        packet.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        localPacket.release();
+        networkFrame.release();
+    }
+
+    @Benchmark
+    public int encode() {
+        NetworkPacket packet = new NetworkPacket(1, 2, LocalPacketFactory.DATAPACKET,
+                localPacket.retainedDuplicate());
+        channel.writeOutbound(packet);
+        ByteBuf out = channel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public int decode() {
+        channel.writeInbound(networkFrame.retainedDuplicate());
+        NetworkPacket packet = channel.readInbound();
+        int length = packet.getBuffer().readableBytes();
+        packet.clear();
+        return length;
+    }
+}
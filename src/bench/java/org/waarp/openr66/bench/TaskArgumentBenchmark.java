@@ -0,0 +1,100 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.waarp.common.database.DbAdmin;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.LogTask;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbRule;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
+
+/**
+ * Substitution of the task arguments (AbstractTask.getReplacedValue), as done for each task of
+ * each transfer
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TaskArgumentBenchmark {
+    @Param({ "/path/to/a/fixed/file/without/variable",
+            "#TRUEFULLPATH# #ORIGINALFILENAME# #DATE#_#HOUR#_%s_%s",
+            "-file #TRUEFULLPATH# -to #REQUESTEDHOST# -rule #RULE# -id #FULLTRANSFERID# -info %s %s" })
+    public String argument;
+
+    private ReplacingTask task;
+
+    /**
+     * Task giving access to the substitution
+     */
+    private static class ReplacingTask extends LogTask {
+        private final String argument;
+
+        private ReplacingTask(String argRule, String argTransfer, R66Session session) {
+            super(argRule, 0, argTransfer, session);
+            this.argument = argRule;
+        }
+
+        private String replace() {
+            return getReplacedValue(argument, getArgTransferArray());
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        DbConstant.admin = new DbAdmin(); // no database
+        Configuration.configuration.setHOST_ID("hosta");
+        String argTransfer = "basic information";
+        R66Session session = new R66Session();
+        session.getAuth().specialNoSessionAuth(false, "false");
+        DbRule rule = new DbRule(null, "idRule", (String) null, TRANSFERMODE.SENDMODE.ordinal(),
+                null, null, null, null, null, null, null, null, null, null);
+        RequestPacket requestPacket = new RequestPacket(rule.getIdRule(), rule.getMode(),
+                "testfile.txt", Configuration.BUFFERSIZEDEFAULT, 1, 1, argTransfer, 0,
+                PartnerConfiguration.BAR_SEPARATOR_FIELD);
+        DbTaskRunner runner = new DbTaskRunner(null, session, rule, false, requestPacket);
+        session.setBadRunner(runner, ErrorCode.QueryAlreadyFinished);
+        task = new ReplacingTask(argument, argTransfer, session);
+    }
+
+    @Benchmark
+    public String getReplacedValue() {
+        return task.replace();
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * JMH micro benchmarks of the hot paths, only compiled with the benchmark profile
+ * 
+ * @apiviz.exclude
+ */
+package org.waarp.openr66.bench;
@@ -6,7 +6,7 @@ var dialog_inputName = '';
 // Current tasks array
 var arrayTasks = new Array();
 // Available Task's types
-var availableTasks = new Array("LOG","SNMP","MOVE","MOVERENAME","COPY","COPYRENAME","LINKRENAME","RENAME","DELETE","VALIDFILEPATH","CHKFILE","TRANSCODE","TAR","ZIP","UNZEROED","CHMOD","EXEC","EXECMOVE","EXECOUTPUT","EXECJAVA","TRANSFER","FTP","RESCHEDULE","RESTART");
+var availableTasks = new Array("LOG","SNMP","MOVE","MOVERENAME","COPY","COPYRENAME","LINKRENAME","RENAME","DELETE","VALIDFILEPATH","CHKFILE","TRANSCODE","TAR","ZIP","BUNDLE","UNZEROED","CHMOD","EXEC","EXECMOVE","EXECOUTPUT","EXECJAVA","TRANSFER","FTP","RESCHEDULE","RESTART");
 var titles= new Array("Task Type","Path or argument","Delay","Comment (optional)","Controls");
 var thead=$("<thead/>"); var tr=$('<tr/>');$.each(titles, function(col, value){tr.append($("<th/>").text(value));}); thead.append(tr);
 // Load dialog
@@ -25,6 +25,7 @@ import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.ftp.client.WaarpFtp4jClient;
+import org.waarp.openr66.context.task.FtpClientPool;
 
 /**
  * FTP client compatible for Waarp Gateway Kernel as JavaExecutor<br>
@@ -70,7 +71,7 @@ import org.waarp.ftp.client.WaarpFtp4jClient;
  * FTP like
  * ACCT,PASS,REIN,USER,APPE,STOR,STOU,RETR,RMD,RNFR,RNTO,ABOR,CWD,CDUP,MODE,PASV,PORT,STRU,TYPE
  * ,MDTM,MLSD,MLST,SIZE,AUTH)<br>
- * 13) QUIT<br>
+ * 13) QUIT, or kept in FtpClientPool for a next transfer to the same target if no pre/post command<br>
  * 
  * 
  * @author "Frederic Bregier"
@@ -206,20 +207,13 @@ public class JavaExecutorWaarpFtp4jClient implements GatewayRunnable {
             timeout = delay;
         }
         WaarpFtp4jClient ftpClient =
-                new WaarpFtp4jClient(requested, port, user, pwd, acct, isPassive, ssl,
-                        5000, timeout);
-        boolean connected = false;
-        for (int i = 0; i < 3; i++) {
-            if (ftpClient.connect()) {
-                connected = true;
-                break;
-            }
-        }
-        if (!connected) {
+                FtpClientPool.getClient(requested, port, user, pwd, acct, isPassive, ssl,
+                        timeout, 3);
+        if (ftpClient == null) {
             status = -3;
-            logger.error(ftpClient.getResult());
             return;
         }
+        boolean reusable = false;
         try {
             if (cwd != null && !ftpClient.changeDir(cwd)) {
                 ftpClient.makeDir(cwd);
@@ -289,8 +283,10 @@ public class JavaExecutorWaarpFtp4jClient implements GatewayRunnable {
                     logger.debug("POST: " + string);
                 }
             }
+            // -pre/-post commands may have changed the session state (TYPE, MODE, SITE...)
+            reusable = preArgs == null && postArgs == null;
         } finally {
-            ftpClient.logout();
+            FtpClientPool.releaseClient(ftpClient, reusable);
         }
         logger.info("FTP transfer in\n    SUCCESS\n    " + filepath +
                 "\n    <REMOTE>" + requested + "</REMOTE>");
@@ -123,6 +123,17 @@ public abstract class AbstractTransfer implements Runnable {
      * @return null if an error occurs or a DbTaskRunner
      */
     protected DbTaskRunner initRequest() {
+        return initRequest(true);
+    }
+
+    /**
+     * Initiate the Request and return a potential DbTaskRunner
+     * 
+     * @param create
+     *            if False, a new DbTaskRunner is only built in memory, not inserted
+     * @return null if an error occurs or a DbTaskRunner
+     */
+    protected DbTaskRunner initRequest(boolean create) {
         DbRule rule;
         try {
             rule = new DbRule(DbConstant.admin.getSession(), rulename);
@@ -188,7 +199,7 @@ public abstract class AbstractTransfer implements Runnable {
             try {
                 taskRunner =
                         new DbTaskRunner(DbConstant.admin.getSession(), rule, isRetrieve, request,
-                                remoteHost, startTime);
+                                remoteHost, startTime, create);
             } catch (WaarpDatabaseException e) {
                 logger.error("Cannot get task", e);
                 future.setResult(new R66Result(new OpenR66DatabaseGlobalException(e), null, true,
@@ -0,0 +1,227 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.client;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.client.utils.OutputFormat;
+import org.waarp.openr66.client.utils.OutputFormat.FIELDS;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Result;
+import org.waarp.openr66.context.task.archive.R66Bundle;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.Messages;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.R66Future;
+
+/**
+ * Direct Transfer of many files as one Bundle (one request, one runner), to be extracted by the
+ * remote host with a BUNDLE task in the post tasks of the rule.<br>
+ * <br>
+ * The -file argument is a list of files or directories separated by ','. A restart with -id sends
+ * again the bundle built by the first run (the original filename of the transfer), which is only
+ * deleted once the transfer succeeded.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class BundleTransfer extends DirectTransfer {
+    /**
+     * Extension of the bundle files
+     */
+    public static final String BUNDLE_EXTENSION = ".r66b";
+
+    private final List<File> sources;
+    private int entries = 0;
+
+    /**
+     * @param future
+     * @param remoteHost
+     * @param sources
+     *            files or directories to send
+     * @param bundle
+     *            the bundle file to create and send
+     * @param rulename
+     * @param fileinfo
+     * @param isMD5
+     * @param blocksize
+     * @param id
+     *            if set, the bundle must exist already (restart), since it cannot be rebuilt
+     *            identical to the one partially transferred
+     * @param networkTransaction
+     */
+    public BundleTransfer(R66Future future, String remoteHost, List<File> sources, File bundle,
+            String rulename, String fileinfo, boolean isMD5, int blocksize, long id,
+            NetworkTransaction networkTransaction) {
+        super(future, remoteHost, bundle.getAbsolutePath(), rulename, fileinfo, isMD5,
+                blocksize, id, networkTransaction);
+        this.sources = sources;
+    }
+
+    /**
+     * @return the number of entries of the bundle
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    @Override
+    protected DbTaskRunner initRequest() {
+        DbTaskRunner taskRunner = super.initRequest();
+        if (taskRunner != null && entries > 0) {
+            // the manifest of the bundle
+            Map<String, Object> bundle = new HashMap<String, Object>();
+            bundle.put("entries", entries);
+            bundle.put("size", new File(filename).length());
+            bundle.put("digest", Configuration.configuration.getDigest().name());
+            Map<String, Object> map = taskRunner.getTransferMap();
+            map.put(DbTaskRunner.JSON_BUNDLE, bundle);
+            taskRunner.setTransferMap(map);
+        }
+        return taskRunner;
+    }
+
+    @Override
+    public void run() {
+        File bundle = new File(filename);
+        if (id == DbConstant.ILLEGALVALUE) {
+            entries = R66Bundle.createBundle(sources, bundle, Configuration.configuration.getDigest());
+            if (entries < 0) {
+                OpenR66ProtocolSystemException e =
+                        new OpenR66ProtocolSystemException("Cannot create Bundle: " + filename);
+                future.setResult(new R66Result(e, null, true, ErrorCode.Internal, null));
+                future.setFailure(e);
+                return;
+            }
+        } else if (!bundle.canRead()) {
+            // a new bundle would not match the rank already transferred
+            OpenR66ProtocolSystemException e =
+                    new OpenR66ProtocolSystemException("Bundle to restart not found: " + filename);
+            future.setResult(new R66Result(e, null, true, ErrorCode.FileNotFound, null));
+            future.setFailure(e);
+            return;
+        }
+        super.run();
+        future.awaitUninterruptibly();
+        if (future.isSuccess()) {
+            bundle.delete();
+        }
+    }
+
+    /**
+     *
+     * @param files
+     *            list of files or directories separated by ','
+     * @return the corresponding list of File
+     */
+    public static List<File> getSources(String files) {
+        String[] names = files.split(",");
+        List<File> sources = new ArrayList<File>(names.length);
+        for (String name : names) {
+            if (!name.trim().isEmpty()) {
+                sources.add(new File(name.trim()));
+            }
+        }
+        return sources;
+    }
+
+    public static void main(String[] args) {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        if (logger == null) {
+            logger = WaarpLoggerFactory.getLogger(BundleTransfer.class);
+        }
+        if (!getParams(args, false)) {
+            logger.error(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
+            if (!OutputFormat.isQuiet()) {
+                System.out.println(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
+            }
+            if (DbConstant.admin != null && DbConstant.admin.isActive()) {
+                DbConstant.admin.close();
+            }
+            ChannelUtils.stopLogger();
+            System.exit(2);
+        }
+        long time1 = System.currentTimeMillis();
+        R66Future future = new R66Future(true);
+        File bundle;
+        List<File> sources;
+        if (idt != DbConstant.ILLEGALVALUE) {
+            // restart: the original filename of the transfer is the bundle itself
+            bundle = new File(localFilename);
+            sources = new ArrayList<File>(0);
+        } else {
+            bundle = new File(System.getProperty("java.io.tmpdir"), "bundle_" + rule + "_" + time1
+                    + BUNDLE_EXTENSION);
+            sources = getSources(localFilename);
+        }
+
+        Configuration.configuration.pipelineInit();
+        NetworkTransaction networkTransaction = new NetworkTransaction();
+        int status = 66;
+        try {
+            BundleTransfer transaction = new BundleTransfer(future, rhost,
+                    sources, bundle, rule, fileInfo, ismd5, block, idt,
+                    networkTransaction);
+            transaction.normalInfoAsWarn = snormalInfoAsWarn;
+            transaction.run();
+            long delay = System.currentTimeMillis() - time1;
+            R66Result result = future.getResult();
+            OutputFormat outputFormat = new OutputFormat(BundleTransfer.class.getSimpleName(), args);
+            outputFormat.setValue(FIELDS.remote.name(), rhost);
+            outputFormat.setValue("entries", transaction.getEntries());
+            outputFormat.setValue("delay", delay);
+            if (result != null && result.getRunner() != null) {
+                outputFormat.setValueString(result.getRunner().getJson());
+            }
+            if (future.isSuccess()) {
+                status = 0;
+                outputFormat.setValue(FIELDS.status.name(), 0);
+                outputFormat.setValue(FIELDS.statusTxt.name(),
+                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+                logger.info(outputFormat.loggerOut());
+            } else {
+                status = result != null ? result.getCode().ordinal() : ErrorCode.Unknown.ordinal();
+                outputFormat.setValue(FIELDS.status.name(), 2);
+                outputFormat.setValue(FIELDS.statusTxt.name(),
+                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+                if (future.getCause() != null) {
+                    outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+                }
+                logger.error(outputFormat.loggerOut(), future.getCause());
+            }
+            if (!OutputFormat.isQuiet()) {
+                outputFormat.sysout();
+            }
+        } catch (Throwable e) {
+            logger.error("Exception", e);
+        } finally {
+            networkTransaction.closeAll();
+            System.exit(status);
+        }
+    }
+}
@@ -19,12 +19,21 @@ package org.waarp.openr66.client;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
 import org.waarp.openr66.client.utils.OutputFormat;
 import org.waarp.openr66.client.utils.OutputFormat.FIELDS;
 import org.waarp.openr66.context.ErrorCode;
@@ -54,6 +63,11 @@ import org.waarp.openr66.protocol.utils.R66Future;
  * -to host2 -file file2<br>
  * -to host3 -file file1<br>
  * -to host3 -file file2<br>
+ * <br>
+ * By default, transfers are done one at a time. With "-parallel n", up to n transfers are running
+ * concurrently (sharing the same network connection to each host), with at most
+ * "-parallelhost m" concurrent transfers to one host (default is n). Remote listings (for
+ * wildcards in receive mode) are then pipelined for all hosts.<br>
  * 
  * @author Frederic Bregier
  * 
@@ -62,6 +76,15 @@ public class MultipleDirectTransfer extends DirectTransfer {
     private int errorMultiple = 0;
     private int doneMultiple = 0;
     private List<OutputFormat> results = new ArrayList<OutputFormat>();
+    private long bytesMultiple = 0;
+    private final Map<String, long[]> hostReport = new LinkedHashMap<String, long[]>();
+    private int parallel = 1;
+    private int parallelHost = 0;
+    private boolean inError = false;
+    private R66Result resultError = null;
+
+    static protected int sparallel = 1;
+    static protected int sparallelHost = 0;
 
     public MultipleDirectTransfer(R66Future future, String remoteHost,
             String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
@@ -84,24 +107,71 @@ public class MultipleDirectTransfer extends DirectTransfer {
                 RequestInformation info = new RequestInformation(futureInfo, requested, rule, filename,
                         (byte) InformationPacket.ASKENUM.ASKLIST.ordinal(), -1, false, networkTransaction);
                 info.run();
-                futureInfo.awaitUninterruptibly();
-                if (futureInfo.isSuccess()) {
-                    ValidPacket valid = (ValidPacket) futureInfo.getResult().getOther();
-                    if (valid != null) {
-                        String line = valid.getSheader();
-                        String[] lines = line.split("\n");
-                        for (String string : lines) {
-                            File tmpFile = new File(string);
-                            files.add(tmpFile.getPath());
-                        }
-                    }
+                addRemoteFiles(futureInfo, filename, requested, files);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Pipelined version of getRemoteFiles: all remote listings for all hosts are sent at once
+     * through the executor (so sharing the network connection of each host), then gathered.
+     * 
+     * @param dbrule
+     * @param localfilenames
+     * @param hosts
+     * @param networkTransaction
+     * @param executor
+     * @return the map of remote files for each requested host
+     */
+    public static Map<String, List<String>> getRemoteFiles(DbRule dbrule, String[] localfilenames,
+            List<String> hosts, NetworkTransaction networkTransaction, ExecutorService executor) {
+        Map<String, R66Future[]> futures = new LinkedHashMap<String, R66Future[]>();
+        for (String requested : hosts) {
+            R66Future[] hostFutures = new R66Future[localfilenames.length];
+            for (int i = 0; i < localfilenames.length; i++) {
+                String filename = localfilenames[i];
+                if (filename.contains("*") || filename.contains("?") || filename.contains("~")) {
+                    hostFutures[i] = new R66Future(true);
+                    logger.info(Messages.getString("Transfer.3") + filename + " to " + requested); //$NON-NLS-1$
+                    executor.execute(new RequestInformation(hostFutures[i], requested, rule, filename,
+                            (byte) InformationPacket.ASKENUM.ASKLIST.ordinal(), -1, false, networkTransaction));
+                }
+            }
+            futures.put(requested, hostFutures);
+        }
+        Map<String, List<String>> filesPerHost = new LinkedHashMap<String, List<String>>();
+        for (Entry<String, R66Future[]> entry : futures.entrySet()) {
+            List<String> files = new ArrayList<String>();
+            R66Future[] hostFutures = entry.getValue();
+            for (int i = 0; i < localfilenames.length; i++) {
+                if (hostFutures[i] == null) {
+                    files.add(localfilenames[i]);
                 } else {
-                    logger.error(Messages.getString("Transfer.6") + filename + " to " + requested + ": " +
-                            (futureInfo.getCause() == null ? "" : futureInfo.getCause().getMessage())); //$NON-NLS-1$
+                    addRemoteFiles(hostFutures[i], localfilenames[i], entry.getKey(), files);
                 }
             }
+            filesPerHost.put(entry.getKey(), files);
+        }
+        return filesPerHost;
+    }
+
+    private static void addRemoteFiles(R66Future futureInfo, String filename, String requested, List<String> files) {
+        futureInfo.awaitUninterruptibly();
+        if (futureInfo.isSuccess()) {
+            ValidPacket valid = (ValidPacket) futureInfo.getResult().getOther();
+            if (valid != null) {
+                String line = valid.getSheader();
+                String[] lines = line.split("\n");
+                for (String string : lines) {
+                    File tmpFile = new File(string);
+                    files.add(tmpFile.getPath());
+                }
+            }
+        } else {
+            logger.error(Messages.getString("Transfer.6") + filename + " to " + requested + ": " +
+                    (futureInfo.getCause() == null ? "" : futureInfo.getCause().getMessage())); //$NON-NLS-1$
         }
-        return files;
     }
 
     public static List<String> getLocalFiles(DbRule dbrule, String[] localfilenames) {
@@ -140,8 +210,6 @@ public class MultipleDirectTransfer extends DirectTransfer {
     public void run() {
         String[] localfilenames = filename.split(",");
         String[] rhosts = remoteHost.split(",");
-        boolean inError = false;
-        R66Result resultError = null;
         // first check if filenames contains wildcards
         DbRule dbrule = null;
         try {
@@ -151,114 +219,31 @@ public class MultipleDirectTransfer extends DirectTransfer {
             this.future.setFailure(e1);
             return;
         }
-        List<String> files = null;
-        if (dbrule.isSendMode()) {
-            files = getLocalFiles(dbrule, localfilenames);
-        }
+        List<String> hosts = new ArrayList<String>();
         for (String host : rhosts) {
             host = host.trim();
             if (host != null && !host.isEmpty()) {
+                hosts.add(host);
+            }
+        }
+        if (parallel <= 1) {
+            List<String> files = null;
+            if (dbrule.isSendMode()) {
+                files = getLocalFiles(dbrule, localfilenames);
+            }
+            for (String host : hosts) {
                 if (dbrule.isRecvMode()) {
                     files = getRemoteFiles(dbrule, localfilenames, host, networkTransaction);
                 }
                 for (String filename : files) {
                     filename = filename.trim();
                     if (filename != null && !filename.isEmpty()) {
-                        logger.info("Launch transfer to " + host + " with file " + filename);
-                        long time1 = System.currentTimeMillis();
-                        R66Future future = new R66Future(true);
-                        DirectTransfer transaction = new DirectTransfer(future,
-                                host, filename, rule, fileInfo, ismd5, block, idt,
-                                networkTransaction);
-                        transaction.normalInfoAsWarn = normalInfoAsWarn;
-                        logger.debug("rhost: " + host + ":" + transaction.remoteHost);
-                        transaction.run();
-                        future.awaitUninterruptibly();
-                        long time2 = System.currentTimeMillis();
-                        logger.debug("finish transfer: " + future.isSuccess());
-                        long delay = time2 - time1;
-                        R66Result result = future.getResult();
-                        OutputFormat outputFormat = new OutputFormat("Unique "
-                                + MultipleDirectTransfer.class.getSimpleName(), null);
-                        if (future.isSuccess()) {
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 0);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
-                                    : "no file"));
-                            outputFormat.setValue("delay", delay);
-                            getResults().add(outputFormat);
-                            setDoneMultiple(getDoneMultiple() + 1);
-                            if (transaction.normalInfoAsWarn) {
-                                logger.warn(outputFormat.loggerOut());
-                            } else {
-                                logger.info(outputFormat.loggerOut());
-                            }
-                            if (nolog || result.getRunner().shallIgnoreSave()) {
-                                // In case of success, delete the runner
-                                try {
-                                    result.getRunner().delete();
-                                } catch (WaarpDatabaseException e) {
-                                    logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
-                                            e);
-                                }
-                            }
-                        } else {
-                            if (result == null || result.getRunner() == null) {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat.setValue(FIELDS.statusTxt.name(),
-                                        Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                                outputFormat.sysout();
-                                networkTransaction.closeAll();
-                                System.exit(ErrorCode.Unknown.ordinal());
-                            }
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                logger.warn(outputFormat.loggerOut(), future.getCause());
-                            } else {
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                            }
-                            outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                            getResults().add(outputFormat);
-                            setErrorMultiple(getErrorMultiple() + 1);
-                            inError = true;
-                            if (result != null) {
-                                inError = true;
-                                resultError = result;
-                            }
-                        }
+                        runTransfer(host, filename);
                     }
                 }
             }
+        } else {
+            runParallel(dbrule, localfilenames, hosts);
         }
         if (inError) {
             if (resultError != null) {
@@ -270,6 +255,250 @@ public class MultipleDirectTransfer extends DirectTransfer {
         }
     }
 
+    /**
+     * Parallel mode: up to parallel transfers at once, at most parallelHost for one host
+     * 
+     * @param dbrule
+     * @param localfilenames
+     * @param hosts
+     */
+    private void runParallel(DbRule dbrule, String[] localfilenames, List<String> hosts) {
+        ExecutorService executor = Executors.newFixedThreadPool(parallel,
+                new WaarpThreadFactory("MultipleDirectTransfer"));
+        try {
+            Map<String, List<String>> filesPerHost;
+            if (dbrule.isRecvMode()) {
+                filesPerHost = getRemoteFiles(dbrule, localfilenames, hosts, networkTransaction, executor);
+            } else {
+                List<String> files = getLocalFiles(dbrule, localfilenames);
+                filesPerHost = new LinkedHashMap<String, List<String>>();
+                for (String host : hosts) {
+                    filesPerHost.put(host, files);
+                }
+            }
+            // Interleave hosts so that all of them are served from the beginning
+            LinkedList<String[]> pending = new LinkedList<String[]>();
+            boolean added = true;
+            for (int rank = 0; added; rank++) {
+                added = false;
+                for (Entry<String, List<String>> entry : filesPerHost.entrySet()) {
+                    if (rank < entry.getValue().size()) {
+                        added = true;
+                        String filename = entry.getValue().get(rank).trim();
+                        if (!filename.isEmpty()) {
+                            pending.add(new String[] { entry.getKey(), filename });
+                        }
+                    }
+                }
+            }
+            final TransferSlots slots = new TransferSlots(parallel,
+                    parallelHost > 0 ? parallelHost : parallel);
+            try {
+                while (!pending.isEmpty()) {
+                    final String[] next = slots.acquire(pending);
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                runTransfer(next[0], next[1]);
+                            } finally {
+                                slots.release(next[0]);
+                            }
+                        }
+                    });
+                }
+                slots.awaitAll();
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while waiting for transfers, " + pending.size() + " not launched");
+                synchronized (this) {
+                    inError = true;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Limit the number of concurrent transfers globally and by host
+     */
+    private static class TransferSlots {
+        private final int global;
+        private final int perHost;
+        private int running = 0;
+        private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+
+        private TransferSlots(int global, int perHost) {
+            this.global = global;
+            this.perHost = perHost;
+        }
+
+        /**
+         * Wait for a free slot and remove from pending the first transfer whose host is not
+         * saturated
+         * 
+         * @param pending
+         * @return the host and filename of the next transfer to launch
+         * @throws InterruptedException
+         */
+        private synchronized String[] acquire(LinkedList<String[]> pending) throws InterruptedException {
+            for (;;) {
+                if (running < global) {
+                    Iterator<String[]> iterator = pending.iterator();
+                    while (iterator.hasNext()) {
+                        String[] next = iterator.next();
+                        Integer nb = runningPerHost.get(next[0]);
+                        if (nb == null || nb < perHost) {
+                            iterator.remove();
+                            runningPerHost.put(next[0], nb == null ? 1 : nb + 1);
+                            running++;
+                            return next;
+                        }
+                    }
+                }
+                wait();
+            }
+        }
+
+        private synchronized void release(String host) {
+            running--;
+            runningPerHost.put(host, runningPerHost.get(host) - 1);
+            notifyAll();
+        }
+
+        private synchronized void awaitAll() throws InterruptedException {
+            while (running > 0) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Run one transfer and add its result
+     * 
+     * @param host
+     * @param filename
+     */
+    private void runTransfer(String host, String filename) {
+        logger.info("Launch transfer to " + host + " with file " + filename);
+        long time1 = System.currentTimeMillis();
+        R66Future future = new R66Future(true);
+        DirectTransfer transaction = new DirectTransfer(future,
+                host, filename, rule, fileInfo, ismd5, block, idt,
+                networkTransaction);
+        transaction.normalInfoAsWarn = normalInfoAsWarn;
+        logger.debug("rhost: " + host + ":" + transaction.remoteHost);
+        transaction.run();
+        future.awaitUninterruptibly();
+        long time2 = System.currentTimeMillis();
+        logger.debug("finish transfer: " + future.isSuccess());
+        addResult(host, transaction, future, time2 - time1);
+    }
+
+    private synchronized void addResult(String host, DirectTransfer transaction, R66Future future, long delay) {
+        R66Result result = future.getResult();
+        OutputFormat outputFormat = new OutputFormat("Unique "
+                + MultipleDirectTransfer.class.getSimpleName(), null);
+        if (future.isSuccess()) {
+            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                outputFormat.setValue(FIELDS.status.name(), 1);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+            } else {
+                outputFormat.setValue(FIELDS.status.name(), 0);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+            }
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(result.getRunner().getJson());
+            outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
+                    : "no file"));
+            outputFormat.setValue("delay", delay);
+            getResults().add(outputFormat);
+            setDoneMultiple(getDoneMultiple() + 1);
+            long size = result.getRunner().getOriginalSize();
+            if (size <= 0) {
+                size = (long) result.getRunner().getRank() * result.getRunner().getBlocksize();
+            }
+            bytesMultiple += size;
+            addHostReport(host, 0, size);
+            if (transaction.normalInfoAsWarn) {
+                logger.warn(outputFormat.loggerOut());
+            } else {
+                logger.info(outputFormat.loggerOut());
+            }
+            if (nolog || result.getRunner().shallIgnoreSave()) {
+                // In case of success, delete the runner
+                try {
+                    result.getRunner().delete();
+                } catch (WaarpDatabaseException e) {
+                    logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
+                            e);
+                }
+            }
+        } else {
+            if (result == null || result.getRunner() == null) {
+                outputFormat.setValue(FIELDS.status.name(), 2);
+                outputFormat.setValue(FIELDS.statusTxt.name(),
+                        Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
+                outputFormat.setValue(FIELDS.remote.name(), host);
+                logger.error(outputFormat.loggerOut(), future.getCause());
+                outputFormat.setValue(FIELDS.error.name(), future.getCause() != null ?
+                        future.getCause().getMessage() : ErrorCode.Unknown.mesg);
+                // only this transfer is in error, the others (maybe running) go on
+                getResults().add(outputFormat);
+                setErrorMultiple(getErrorMultiple() + 1);
+                addHostReport(host, 1, 0);
+                inError = true;
+                return;
+            }
+            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                outputFormat.setValue(FIELDS.status.name(), 1);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+            } else {
+                outputFormat.setValue(FIELDS.status.name(), 2);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+            }
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(result.getRunner().getJson());
+            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                logger.warn(outputFormat.loggerOut(), future.getCause());
+            } else {
+                logger.error(outputFormat.loggerOut(), future.getCause());
+            }
+            outputFormat.setValue(FIELDS.error.name(), future.getCause() != null ?
+                    future.getCause().getMessage() : result.getRunner().getErrorInfo().mesg);
+            getResults().add(outputFormat);
+            setErrorMultiple(getErrorMultiple() + 1);
+            addHostReport(host, 1, 0);
+            inError = true;
+            if (result != null) {
+                inError = true;
+                resultError = result;
+            }
+        }
+    }
+
+    private void addHostReport(String host, int index, long size) {
+        long[] report = hostReport.get(host);
+        if (report == null) {
+            report = new long[3];
+            hostReport.put(host, report);
+        }
+        report[index]++;
+        report[2] += size;
+    }
+
     public static void main(String[] args) {
         WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
         if (logger == null) {
@@ -286,6 +515,20 @@ public class MultipleDirectTransfer extends DirectTransfer {
             ChannelUtils.stopLogger();
             System.exit(2);
         }
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equalsIgnoreCase("-parallel")) {
+                    i++;
+                    sparallel = Integer.parseInt(args[i]);
+                } else if (args[i].equalsIgnoreCase("-parallelhost")) {
+                    i++;
+                    sparallelHost = Integer.parseInt(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Incorrect parallel argument, sequential mode is used: " + e.getMessage());
+            sparallel = 1;
+        }
 
         Configuration.configuration.pipelineInit();
         NetworkTransaction networkTransaction = new NetworkTransaction();
@@ -297,6 +540,7 @@ public class MultipleDirectTransfer extends DirectTransfer {
                             rule, fileInfo, ismd5, block, idt,
                             networkTransaction);
             multipleDirectTransfer.normalInfoAsWarn = snormalInfoAsWarn;
+            multipleDirectTransfer.setParallel(sparallel, sparallelHost);
             multipleDirectTransfer.run();
             future.awaitUninterruptibly();
             long time2 = System.currentTimeMillis();
@@ -312,6 +556,9 @@ public class MultipleDirectTransfer extends DirectTransfer {
                 outputFormat.setValue(FIELDS.remote.name(), rhost);
                 outputFormat.setValue("ok", multipleDirectTransfer.getDoneMultiple());
                 outputFormat.setValue("delay", delay);
+                outputFormat.setValue("bytes", multipleDirectTransfer.getBytesMultiple());
+                outputFormat.setValue("throughput", multipleDirectTransfer.getBytesMultiple() * 1000 / (delay + 1));
+                outputFormat.setValue("hosts", multipleDirectTransfer.getHostReport());
                 if (multipleDirectTransfer.normalInfoAsWarn) {
                     logger.warn(outputFormat.loggerOut());
                 } else {
@@ -334,6 +581,9 @@ public class MultipleDirectTransfer extends DirectTransfer {
                 outputFormat.setValue("ok", multipleDirectTransfer.getDoneMultiple());
                 outputFormat.setValue("ko", multipleDirectTransfer.getErrorMultiple());
                 outputFormat.setValue("delay", delay);
+                outputFormat.setValue("bytes", multipleDirectTransfer.getBytesMultiple());
+                outputFormat.setValue("throughput", multipleDirectTransfer.getBytesMultiple() * 1000 / (delay + 1));
+                outputFormat.setValue("hosts", multipleDirectTransfer.getHostReport());
                 logger.error(outputFormat.loggerOut());
                 if (!OutputFormat.isQuiet()) {
                     outputFormat.sysout();
@@ -387,4 +637,38 @@ public class MultipleDirectTransfer extends DirectTransfer {
     public List<OutputFormat> getResults() {
         return results;
     }
+
+    /**
+     * @return the total number of bytes of successful transfers
+     */
+    public long getBytesMultiple() {
+        return bytesMultiple;
+    }
+
+    /**
+     * @return the aggregated report by host as "host: ok=n ko=m bytes=b" separated by ','
+     */
+    public synchronized String getHostReport() {
+        StringBuilder builder = new StringBuilder();
+        for (Entry<String, long[]> entry : hostReport.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            long[] report = entry.getValue();
+            builder.append(entry.getKey()).append(": ok=").append(report[0]).append(" ko=")
+                    .append(report[1]).append(" bytes=").append(report[2]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param parallel
+     *            the maximum number of concurrent transfers (1 means sequential)
+     * @param parallelHost
+     *            the maximum number of concurrent transfers to one host (0 means parallel)
+     */
+    public void setParallel(int parallel, int parallelHost) {
+        this.parallel = parallel;
+        this.parallelHost = parallelHost;
+    }
 }
@@ -60,6 +60,11 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
     private int errorMultiple = 0;
     private int doneMultiple = 0;
     protected boolean submit = false;
+    protected boolean bulk = false;
+    /**
+     * Number of runners inserted by one JDBC batch in bulk mode
+     */
+    public static final int BULK_CHUNK_SIZE = 1000;
     protected NetworkTransaction networkTransaction = null;
     private List<OutputFormat> results = new ArrayList<OutputFormat>();
 
@@ -76,6 +81,10 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
         String[] localfilenames = filename.split(",");
         String[] rhosts = remoteHost.split(",");
         R66Result resultError = null;
+        // bulk submission only with a database and without resubmission
+        boolean bulk = this.bulk && submit && DbConstant.admin.isActive() && idt == DbConstant.ILLEGALVALUE;
+        List<String> bulkHosts = new ArrayList<String>();
+        List<SubmitTransfer> bulkTransfers = new ArrayList<SubmitTransfer>();
 
         // first check if filenames contains wildcards
         DbRule dbrule = null;
@@ -114,53 +123,31 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                                 host, filename, rule, fileInfo, ismd5, block, idt,
                                 ttimestart);
                         transaction.normalInfoAsWarn = normalInfoAsWarn;
+                        if (bulk) {
+                            bulkHosts.add(host);
+                            bulkTransfers.add(transaction);
+                            continue;
+                        }
                         transaction.run();
                         future.awaitUninterruptibly();
-                        DbTaskRunner runner = future.getResult().getRunner();
-                        OutputFormat outputFormat = new OutputFormat(MultipleSubmitTransfer.class.getSimpleName(), null);
-                        if (future.isSuccess()) {
-                            outputFormat.setValue(FIELDS.status.name(), 0);
-                            outputFormat
-                                    .setValue(
-                                            FIELDS.statusTxt.name(),
-                                            Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(runner.getJson());
-                            getResults().add(outputFormat);
-                            if (transaction.normalInfoAsWarn) {
-                                logger.warn(outputFormat.loggerOut());
-                            } else {
-                                logger.info(outputFormat.loggerOut());
-                            }
-                            setDoneMultiple(getDoneMultiple() + 1);
-                        } else {
-                            outputFormat.setValue(FIELDS.status.name(), 2);
-                            if (runner == null) {
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("SubmitTransfer.3") + Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                            } else {
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                                outputFormat.setValueString(runner.getJson());
-                            }
-                            logger.error(outputFormat.loggerOut(), future.getCause());
-                            if (future.getCause() != null) {
-                                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                            }
-                            getResults().add(outputFormat);
-                            setErrorMultiple(getErrorMultiple() + 1);
-                            resultError = future.getResult();
+                        R66Result result = addResult(host, transaction, future);
+                        if (result != null) {
+                            resultError = result;
                         }
                     }
                 }
             }
         }
+        if (bulk && !bulkTransfers.isEmpty()) {
+            SubmitTransfer.submitBulk(bulkTransfers, BULK_CHUNK_SIZE);
+            for (int i = 0; i < bulkTransfers.size(); i++) {
+                SubmitTransfer transaction = bulkTransfers.get(i);
+                R66Result result = addResult(bulkHosts.get(i), transaction, transaction.future);
+                if (result != null) {
+                    resultError = result;
+                }
+            }
+        }
         if (getErrorMultiple() > 0) {
             if (resultError != null) {
                 this.future.setResult(resultError);
@@ -171,6 +158,59 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
         }
     }
 
+    /**
+     * Add the result of one submission
+     * 
+     * @param host
+     * @param transaction
+     * @param future
+     * @return the R66Result if in error, else null
+     */
+    private R66Result addResult(String host, SubmitTransfer transaction, R66Future future) {
+        DbTaskRunner runner = future.getResult().getRunner();
+        OutputFormat outputFormat = new OutputFormat(MultipleSubmitTransfer.class.getSimpleName(), null);
+        if (future.isSuccess()) {
+            outputFormat.setValue(FIELDS.status.name(), 0);
+            outputFormat
+                    .setValue(
+                            FIELDS.statusTxt.name(),
+                            Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(runner.getJson());
+            getResults().add(outputFormat);
+            if (transaction.normalInfoAsWarn) {
+                logger.warn(outputFormat.loggerOut());
+            } else {
+                logger.info(outputFormat.loggerOut());
+            }
+            setDoneMultiple(getDoneMultiple() + 1);
+        } else {
+            outputFormat.setValue(FIELDS.status.name(), 2);
+            if (runner == null) {
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("SubmitTransfer.3") + Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
+                outputFormat.setValue(FIELDS.remote.name(), host);
+            } else {
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+                outputFormat.setValue(FIELDS.remote.name(), host);
+                outputFormat.setValueString(runner.getJson());
+            }
+            logger.error(outputFormat.loggerOut(), future.getCause());
+            if (future.getCause() != null) {
+                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+            }
+            getResults().add(outputFormat);
+            setErrorMultiple(getErrorMultiple() + 1);
+            return future.getResult();
+        }
+        return null;
+    }
+
     /**
      * 
      * @param args
@@ -184,9 +224,12 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
             logger = WaarpLoggerFactory.getLogger(MultipleSubmitTransfer.class);
         }
         boolean submit = true;
+        boolean bulk = false;
         for (String string : args) {
             if (string.equalsIgnoreCase("-client")) {
                 submit = false;
+            } else if (string.equalsIgnoreCase("-bulk")) {
+                bulk = true;
             }
         }
         if (!getParams(args, submit)) {
@@ -211,6 +254,7 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                     rhost, localFilename, rule, fileInfo, ismd5, block, idt,
                     ttimestart, networkTransaction);
             transaction.normalInfoAsWarn = snormalInfoAsWarn;
+            transaction.bulk = bulk;
             transaction.run();
             future.awaitUninterruptibly();
             OutputFormat outputFormat = new OutputFormat("Unique " + MultipleSubmitTransfer.class.getSimpleName(), args);
@@ -18,6 +18,8 @@
 package org.waarp.openr66.client;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.exception.WaarpDatabaseException;
@@ -116,6 +118,63 @@ public class SubmitTransfer extends AbstractTransfer {
         future.setSuccess();
     }
 
+    /**
+     * Bulk submission: new runners are built in memory, get their Ids by ranges and are inserted
+     * through JDBC batches, one transaction per chunk. A failing item does not abort the others.
+     * Resubmissions (with an existing Id) are done as with run().<br>
+     * <br>
+     * Each transfer's future is set as with run().
+     * 
+     * @param transfers
+     * @param chunkSize
+     *            number of runners per JDBC batch and transaction
+     * @return the number of transfers in error
+     */
+    public static int submitBulk(List<SubmitTransfer> transfers, int chunkSize) {
+        if (logger == null) {
+            logger = WaarpLoggerFactory.getLogger(SubmitTransfer.class);
+        }
+        List<SubmitTransfer> bulk = new ArrayList<SubmitTransfer>(transfers.size());
+        List<DbTaskRunner> runners = new ArrayList<DbTaskRunner>(transfers.size());
+        int nbError = 0;
+        for (SubmitTransfer transfer : transfers) {
+            if (!DbConstant.admin.isActive() || transfer.id != DbConstant.ILLEGALVALUE) {
+                transfer.run();
+                transfer.future.awaitUninterruptibly();
+                if (!transfer.future.isSuccess()) {
+                    nbError++;
+                }
+                continue;
+            }
+            DbTaskRunner taskRunner = transfer.initRequest(false);
+            if (taskRunner == null) {
+                // future already in failure
+                nbError++;
+                continue;
+            }
+            taskRunner.changeUpdatedInfo(AbstractDbData.UpdatedInfo.TOSUBMIT);
+            bulk.add(transfer);
+            runners.add(taskRunner);
+        }
+        String[] errors = DbTaskRunner.insertBulk(runners, chunkSize);
+        for (int i = 0; i < errors.length; i++) {
+            SubmitTransfer transfer = bulk.get(i);
+            DbTaskRunner taskRunner = runners.get(i);
+            if (errors[i] == null) {
+                transfer.future.setResult(new R66Result(null, false, ErrorCode.InitOk, taskRunner));
+                transfer.future.setSuccess();
+            } else {
+                logger.debug("Cannot prepare task: " + errors[i]);
+                R66Result result = new R66Result(new OpenR66DatabaseGlobalException(errors[i]), null, true,
+                        ErrorCode.Internal, taskRunner);
+                transfer.future.setResult(result);
+                transfer.future.setFailure(result.getException());
+                nbError++;
+            }
+        }
+        return nbError;
+    }
+
     /**
      * 
      * @param args
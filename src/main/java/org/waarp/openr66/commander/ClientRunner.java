@@ -38,12 +38,14 @@ import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotYetConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.BlockSizeTuner;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
 import org.waarp.openr66.protocol.utils.TransferUtils;
@@ -547,6 +549,16 @@ public class ClientRunner extends Thread {
                     "Requester is not Sender so new rank is " +
                             taskRunner.getRank() + " {}", taskRunner);
         }
+        BlockSizeTuner tuner = BlockSizeTuner.getTuner();
+        if (tuner != null && !isSendThroughMode && handler == null) {
+            PartnerConfiguration partner = localChannelReference.getPartner();
+            if (taskRunner.isSender()) {
+                taskRunner.setBlocksize(tuner.getBlockSize(host.getHostid(), partner));
+            } else if (partner != null && partner.getBlockSizeMax() > 0) {
+                // the partner sends and tunes the block size below this bound
+                taskRunner.setBlocksize(BlockSizeTuner.getUpperBound(partner));
+            }
+        }
         RequestPacket request = taskRunner.getRequest();
         logger.debug("Will send request {} {}", request, localChannelReference);
         localChannelReference.setClientRunner(this);
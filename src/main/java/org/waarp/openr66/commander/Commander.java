@@ -17,7 +17,11 @@
  */
 package org.waarp.openr66.commander;
 
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+
 import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
 import org.waarp.common.database.exception.WaarpDatabaseException;
@@ -27,6 +31,7 @@ import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbChangeLog;
 import org.waarp.openr66.database.data.DbConfiguration;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbHostConfiguration;
@@ -51,6 +56,10 @@ public class Commander implements CommanderInterface {
             .getLogger(Commander.class);
 
     private static final int LIMITSUBMIT = 100;
+    /**
+     * Delay of retention of the Change Log, and between 2 purges of it
+     */
+    private static final long CHANGELOGDELAY = 3600000;
 
     private InternalRunner internalRunner = null;
     private DbPreparedStatement preparedStatementLock = null;
@@ -59,6 +68,12 @@ public class Commander implements CommanderInterface {
     private DbPreparedStatement preparedStatementHost = null;
     private DbPreparedStatement preparedStatementRule = null;
     private DbPreparedStatement preparedStatementRunner = null;
+    /**
+     * Change Log mode in HA (multiple monitors) instead of the lock on MultipleMonitor
+     */
+    private boolean changeLogMode = false;
+    private long changeLogVersion = 0;
+    private long lastChangeLogPurge = System.currentTimeMillis();
 
     /**
      * Prepare requests that will be executed from time to time
@@ -84,9 +99,43 @@ public class Commander implements CommanderInterface {
     public Commander(InternalRunner runner, boolean fromStartup)
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         this.internalConstructor(runner);
-        if (fromStartup) {
-            // Change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready
-            DbTaskRunner.resetToSubmit(DbConstant.admin.getSession());
+        if (!fromStartup) {
+            // Clean tasks (CompleteOK and ALLDONE => DONE), done in startupRecovery otherwise
+            DbTaskRunner.changeFinishedToDone(DbConstant.admin.getSession());
+        }
+    }
+
+    /**
+     * Change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready, and clean tasks
+     * (CompleteOK and ALLDONE => DONE).<br>
+     * <br>
+     * Only runners not updated since the startup are concerned, such that this might be done while
+     * the server is already accepting new transfers. As it runs in its own thread, a dedicated
+     * connection is used if the database does not allow sharing one between threads.
+     */
+    public void startupRecovery() {
+        Timestamp startup = new Timestamp(ManagementFactory.getRuntimeMXBean().getStartTime());
+        DbSession noconcurrencyDbSession = null;
+        if (DbConstant.admin.isActive() && !DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
+            try {
+                noconcurrencyDbSession = new DbSession(DbConstant.admin, false);
+            } catch (WaarpDatabaseNoConnectionException e) {
+                // Cannot connect so use default connection
+                logger.warn("Use default database connection");
+                noconcurrencyDbSession = null;
+            }
+        }
+        DbSession dbSession = noconcurrencyDbSession != null ? noconcurrencyDbSession
+                : DbConstant.admin.getSession();
+        try {
+            DbTaskRunner.resetToSubmit(dbSession, startup);
+            DbTaskRunner.changeFinishedToDone(dbSession);
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.error("Database No Connection Error: Cannot execute startup recovery", e);
+        } finally {
+            if (noconcurrencyDbSession != null) {
+                noconcurrencyDbSession.forceDisconnect();
+            }
         }
     }
 
@@ -94,9 +143,19 @@ public class Commander implements CommanderInterface {
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         try {
             if (Configuration.configuration.getMultipleMonitors() > 1) {
-                preparedStatementLock =
-                        DbMultipleMonitor
-                                .getUpdatedPrepareStament(DbConstant.noCommitAdmin.getSession());
+                try {
+                    changeLogVersion = DbChangeLog.getLastVersion(DbConstant.admin.getSession());
+                    changeLogMode = true;
+                    preparedStatementLock = null;
+                } catch (WaarpDatabaseSqlException e) {
+                    logger.warn("Change Log table not available (database to upgrade with dbcheck"
+                            + " or ServerInitDatabase -upgradeDb),"
+                            + " lock on MultipleMonitor will be used: " + e.getMessage());
+                    changeLogMode = false;
+                    preparedStatementLock =
+                            DbMultipleMonitor
+                                    .getUpdatedPrepareStament(DbConstant.noCommitAdmin.getSession());
+                }
             } else {
                 preparedStatementLock = null;
             }
@@ -112,8 +171,6 @@ public class Commander implements CommanderInterface {
                     DbTaskRunner.getSelectFromInfoPrepareStatement(DbConstant.admin.getSession(),
                             UpdatedInfo.TOSUBMIT, false, LIMITSUBMIT);
 
-            // Clean tasks (CompleteOK and ALLDONE => DONE)
-            DbTaskRunner.changeFinishedToDone(DbConstant.admin.getSession());
             internalRunner = runner;
         } finally {
             if (internalRunner == null) {
@@ -198,6 +255,32 @@ public class Commander implements CommanderInterface {
         // DbConstant.admin.session.removeLongTermPreparedStatements();
     }
 
+    /**
+     * Reload the configurations changed by the other monitors since the last seen version of the
+     * Change Log, and purge from time to time the old changes
+     */
+    private void applyChangeLog() {
+        try {
+            changeLogVersion = DbChangeLog.applyChanges(DbConstant.admin.getSession(),
+                    changeLogVersion);
+            long now = System.currentTimeMillis();
+            if (now - lastChangeLogPurge > CHANGELOGDELAY) {
+                lastChangeLogPurge = now;
+                int nb = DbChangeLog.purge(DbConstant.admin.getSession(),
+                        new Timestamp(now - CHANGELOGDELAY), changeLogVersion);
+                logger.debug("Change Log purged: " + nb);
+            }
+        } catch (WaarpDatabaseNoConnectionException e) {
+            try {
+                DbConstant.admin.getDbModel().validConnection(DbConstant.admin.getSession());
+            } catch (WaarpDatabaseNoConnectionException e1) {
+            }
+            logger.error("Database No Connection Error: Cannot apply Change Log", e);
+        } catch (WaarpDatabaseSqlException e) {
+            logger.error("Database SQL Error: Cannot apply Change Log", e);
+        }
+    }
+
     public void run() {
         Thread.currentThread().setName("OpenR66Commander");
         if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
@@ -251,6 +334,10 @@ public class Commander implements CommanderInterface {
                             logger.debug("Config " + multipleMonitor);
                         }
                     } else {
+                        if (changeLogMode) {
+                            DbChangeLog.append(DbConstant.admin.getSession(),
+                                    DbChangeLog.Entity.CONFIGURATION, configuration.getHostid());
+                        }
                         configuration.changeUpdatedInfo(AbstractDbData.UpdatedInfo.NOTUPDATED);
                         configuration.update();
                     }
@@ -302,6 +389,10 @@ public class Commander implements CommanderInterface {
                             logger.debug("Config " + multipleMonitor);
                         }
                     } else {
+                        if (changeLogMode) {
+                            DbChangeLog.append(DbConstant.admin.getSession(),
+                                    DbChangeLog.Entity.HOSTCONFIGURATION, configuration.getHostid());
+                        }
                         configuration.changeUpdatedInfo(AbstractDbData.UpdatedInfo.NOTUPDATED);
                         configuration.update();
                     }
@@ -358,6 +449,10 @@ public class Commander implements CommanderInterface {
                             logger.debug("Host " + multipleMonitor);
                         }
                     } else {
+                        if (changeLogMode) {
+                            DbChangeLog.append(DbConstant.admin.getSession(),
+                                    DbChangeLog.Entity.HOSTAUTH, hostAuth.getHostid());
+                        }
                         // Nothing to do except validate
                         hostAuth.changeUpdatedInfo(AbstractDbData.UpdatedInfo.NOTUPDATED);
                         hostAuth.update();
@@ -412,6 +507,10 @@ public class Commander implements CommanderInterface {
                             logger.debug("Rule " + multipleMonitor);
                         }
                     } else {
+                        if (changeLogMode) {
+                            DbChangeLog.append(DbConstant.admin.getSession(),
+                                    DbChangeLog.Entity.RULE, rule.getIdRule());
+                        }
                         // Nothing to do except validate
                         rule.changeUpdatedInfo(AbstractDbData.UpdatedInfo.NOTUPDATED);
                         rule.update();
@@ -449,6 +548,10 @@ public class Commander implements CommanderInterface {
             } finally {
                 preparedStatementRule.close();
             }
+            if (changeLogMode) {
+                // Apply changes done by other monitors
+                applyChangeLog();
+            }
             if (R66ShutdownHook.isShutdownStarting()) {
                 // no more task to submit
                 return;
@@ -457,7 +560,8 @@ public class Commander implements CommanderInterface {
             // Check TaskRunner
             try {
                 DbTaskRunner.finishSelectOrCountPrepareStatement(preparedStatementRunner);
-                // No specific HA mode since the other servers will wait for the commit on Lock
+                // In HA mode, either the other servers will wait for the commit on Lock, or each
+                // runner is claimed through the Change Log mode
                 preparedStatementRunner.executeQuery();
                 while (preparedStatementRunner.getNext()) {
                     if (R66ShutdownHook.isShutdownStarting()) {
@@ -491,6 +595,10 @@ public class Commander implements CommanderInterface {
                         taskRunner.update();
                         continue;
                     }
+                    if (changeLogMode && !taskRunner.claimToSubmit()) {
+                        // already taken by another monitor
+                        continue;
+                    }
                     taskRunner.changeUpdatedInfo(UpdatedInfo.RUNNING);
                     taskRunner.forceSaveStatus();
                     internalRunner.submitTaskRunner(taskRunner);
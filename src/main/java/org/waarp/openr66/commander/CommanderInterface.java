@@ -26,4 +26,10 @@ public interface CommanderInterface extends Runnable {
      * Finalize internal data
      */
     public void finalize();
+
+    /**
+     * Recovery of interrupted runners after a startup of the server, to be called once, possibly
+     * while the Commander is already scheduled
+     */
+    public void startupRecovery();
 }
@@ -18,7 +18,13 @@
 package org.waarp.openr66.commander;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
@@ -30,7 +36,9 @@ import org.waarp.openr66.database.data.DbConfiguration;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.journal.TaskRunnerJournal;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
 import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 
@@ -73,43 +81,202 @@ public class CommanderNoDb implements CommanderInterface {
         this.internalConstructor(runner);
         if (fromStartup) {
             ClientRunner.activeRunners = new ConcurrentLinkedQueue<ClientRunner>();
-            // Change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready
+        }
+    }
+
+    /**
+     * Change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready.<br>
+     * <br>
+     * As with Database, only runners not updated since the startup are concerned, such that this
+     * might be done while the server is already accepting new transfers.<br>
+     * <br>
+     * With the Journal, the index (saved on close, rebuilt by a scan after a crash) gives directly
+     * the runners to reload, such that finished runners are not decoded (they will be lazily loaded
+     * when needed). With XML files, there is no index and all files are parsed. In both cases, the
+     * work is shared among a ForkJoinPool.
+     */
+    public void startupRecovery() {
+        startupRecovery(new Timestamp(ManagementFactory.getRuntimeMXBean().getStartTime()));
+    }
+
+    /**
+     * Change RUNNING or INTERRUPTED to TOSUBMIT for runners not updated since the given time
+     * 
+     * @param notUpdatedSince
+     */
+    public void startupRecovery(final Timestamp notUpdatedSince) {
+        TaskRunnerJournal journal = null;
+        try {
+            journal = Configuration.configuration.getTaskRunnerJournal();
+        } catch (OpenR66ProtocolBusinessException e) {
+            logger.error("Cannot open the TaskRunner Journal", e);
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            if (journal != null) {
+                final TaskRunnerJournal finalJournal = journal;
+                List<String> keys = journal.keys((byte) UpdatedInfo.RUNNING.ordinal(),
+                        (byte) UpdatedInfo.INTERRUPTED.ordinal());
+                logger.info("Startup recovery of " + keys.size() + " runners from Journal");
+                pool.invoke(new RecoveryAction<String>(keys, 0, keys.size()) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected void recover(String key) {
+                        reloadFromJournal(finalJournal, key, notUpdatedSince);
+                    }
+                });
+                return;
+            }
             /*
              * Configuration.configuration.baseDirectory+
              * Configuration.configuration.archivePath+R66Dir.SEPARATOR+
-             * this.requesterHostId+"_"+this.requestedHostId+"_"+this.ruleId+"_"+this.specialId
+             * this.requesterHostId+"_"+this.requestedHostId+"_"+this.specialId
              * +XMLEXTENSION;
              */
             File directory = new File(Configuration.configuration.getBaseDirectory() +
                     Configuration.configuration.getArchivePath());
             File[] files = FileUtils.getFiles(directory,
                     new ExtensionFilter(DbTaskRunner.XMLEXTENSION));
-            for (File file : files) {
-                String shortname = file.getName();
-                String[] info = shortname.split("_");
-                if (info.length < 5) {
-                    continue;
+            logger.info("Startup recovery of " + files.length + " runners from XML files");
+            pool.invoke(new RecoveryAction<File>(Arrays.asList(files), 0, files.length) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void recover(File file) {
+                    reloadFromXml(file, notUpdatedSince);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Split the recovery of a list of items among the ForkJoinPool
+     * 
+     * @param <T>
+     */
+    private static abstract class RecoveryAction<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /**
+         * Number of items handled by one task without splitting
+         */
+        private static final int THRESHOLD = 64;
+        private final List<T> items;
+        private final int from;
+        private final int to;
+
+        private RecoveryAction(List<T> items, int from, int to) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected abstract void recover(T item);
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    if (R66ShutdownHook.isShutdownStarting()) {
+                        return;
+                    }
+                    recover(items.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            final RecoveryAction<T> parent = this;
+            invokeAll(new RecoveryAction<T>(items, from, middle) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void recover(T item) {
+                    parent.recover(item);
+                }
+            }, new RecoveryAction<T>(items, middle, to) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void recover(T item) {
+                    parent.recover(item);
                 }
+            });
+        }
+    }
+
+    /**
+     * Resubmit the task if it was RUNNING or INTERRUPTED and not updated since the given time
+     * 
+     * @param task
+     * @param notUpdatedSince
+     * @throws WaarpDatabaseException
+     */
+    private static void resubmitIfInterrupted(DbTaskRunner task, Timestamp notUpdatedSince)
+            throws WaarpDatabaseException {
+        if (task.getStop() != null && !task.getStop().before(notUpdatedSince)) {
+            // already handled by this instance
+            return;
+        }
+        UpdatedInfo status = task.getUpdatedInfo();
+        if (status == UpdatedInfo.RUNNING || status == UpdatedInfo.INTERRUPTED) {
+            task.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+            task.update();
+        }
+    }
+
+    /**
+     * Reload one runner from the Journal
+     * 
+     * @param journal
+     * @param key
+     * @param notUpdatedSince
+     */
+    private static void reloadFromJournal(TaskRunnerJournal journal, String key,
+            Timestamp notUpdatedSince) {
+        try {
+            resubmitIfInterrupted(DbTaskRunner.getFromJournal(journal.get(key)), notUpdatedSince);
+        } catch (OpenR66ProtocolBusinessException e) {
+            logger.warn("Cannot reload the task from Journal: " + key + " : " + e.getMessage());
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot reload the task from Journal: " + key + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reload one runner from its XML file
+     * 
+     * @param file
+     * @param notUpdatedSince
+     */
+    private static void reloadFromXml(File file, Timestamp notUpdatedSince) {
+        String shortname = file.getName();
+        String[] info = shortname.substring(0,
+                shortname.length() - DbTaskRunner.XMLEXTENSION.length()).split("_");
+        try {
+            DbTaskRunner task;
+            if (info.length == 3) {
+                // requester_requested_specialId
+                task = new DbTaskRunner(null, Long.parseLong(info[2]), info[0], info[1]);
+            } else if (info.length == 4) {
+                // older form requester_requested_rule_specialId
                 DbRule rule;
                 try {
                     rule = new DbRule(null, info[2]);
                 } catch (WaarpDatabaseException e) {
                     logger.warn("Cannot find the rule named: " + info[2]);
-                    continue;
-                }
-                long id = Long.parseLong(info[3]);
-                try {
-                    DbTaskRunner task = new DbTaskRunner(null, null, rule, id, info[0], info[1]);
-                    UpdatedInfo status = task.getUpdatedInfo();
-                    if (status == UpdatedInfo.RUNNING || status == UpdatedInfo.INTERRUPTED) {
-                        task.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
-                        task.update();
-                    }
-                } catch (WaarpDatabaseException e) {
-                    logger.warn("Cannot reload the task named: " + shortname);
-                    continue;
+                    return;
                 }
+                task = new DbTaskRunner(null, null, rule, Long.parseLong(info[3]), info[0], info[1]);
+            } else {
+                return;
             }
+            resubmitIfInterrupted(task, notUpdatedSince);
+        } catch (NumberFormatException e) {
+            logger.warn("Cannot reload the task named: " + shortname);
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot reload the task named: " + shortname);
         }
     }
 
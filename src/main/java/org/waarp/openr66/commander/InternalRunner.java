@@ -19,6 +19,7 @@ package org.waarp.openr66.commander;
 
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -28,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.future.WaarpFuture;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.utility.WaarpThreadFactory;
@@ -35,6 +37,7 @@ import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.R66Metrics;
 
 /**
  * This class launch and control the Commander and enable TaskRunner job submissions
@@ -55,6 +58,10 @@ public class InternalRunner {
     private volatile boolean isRunning = true;
     private final ThreadPoolExecutor threadPoolExecutor;
     private final NetworkTransaction networkTransaction;
+    /**
+     * Done once the startup recovery of interrupted runners is over
+     */
+    private final WaarpFuture startupRecovery = new WaarpFuture(true);
 
     /**
      * Create the structure to enable submission by database
@@ -77,6 +84,48 @@ public class InternalRunner {
                 Configuration.configuration.getDelayCommander(),
                 Configuration.configuration.getDelayCommander(), TimeUnit.MILLISECONDS);
         networkTransaction = new NetworkTransaction();
+        launchStartupRecovery();
+    }
+
+    /**
+     * Launch the startup recovery in background, such that the server is ready to accept new
+     * transfers before the end of the reload of previous runners
+     */
+    private void launchStartupRecovery() {
+        final CommanderInterface startupCommander = commander;
+        ExecutorService executorService = Executors.newSingleThreadExecutor(new WaarpThreadFactory(
+                "StartupRecovery"));
+        executorService.execute(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    startupCommander.startupRecovery();
+                    logger.warn("Startup recovery of runners done in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                    startupRecovery.setSuccess();
+                } catch (Throwable e) {
+                    logger.error("Startup recovery of runners in error", e);
+                    startupRecovery.setFailure(e);
+                }
+            }
+        });
+        executorService.shutdown();
+    }
+
+    /**
+     * 
+     * @return True if the startup recovery of interrupted runners is over
+     */
+    public boolean isStartupRecoveryDone() {
+        return startupRecovery.isDone();
+    }
+
+    /**
+     * 
+     * @return the future of the startup recovery of interrupted runners
+     */
+    public WaarpFuture getStartupRecovery() {
+        return startupRecovery;
     }
 
     public NetworkTransaction getNetworkTransaction() {
@@ -94,9 +143,11 @@ public class InternalRunner {
                 // too many current active threads
                 taskRunner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
                 taskRunner.forceSaveStatus();
+                R66Metrics.increment(R66Metrics.COUNTER.RUNNERPOSTPONED);
                 return;
             }
             logger.debug("Will run {}", taskRunner);
+            R66Metrics.increment(R66Metrics.COUNTER.RUNNERSUBMITTED);
             ClientRunner runner = new ClientRunner(networkTransaction, taskRunner, null);
             if (taskRunner.isSendThrough() && (taskRunner.isRescheduledTransfer()
                     || taskRunner.isPreTaskStarting())) {
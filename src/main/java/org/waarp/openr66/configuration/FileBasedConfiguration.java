@@ -74,6 +74,7 @@ import org.waarp.openr66.protocol.http.adminssl.HttpResponsiveSslHandler;
 import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler.RESTHANDLERS;
 import org.waarp.openr66.protocol.networkhandler.R66ConstraintLimitHandler;
 import org.waarp.openr66.protocol.networkhandler.ssl.NetworkSslServerInitializer;
+import org.waarp.openr66.protocol.networkhandler.ssl.R66SslContexts;
 import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.server.ServerInitDatabase;
 import org.waarp.snmp.SnmpConfiguration;
@@ -246,6 +247,26 @@ public class FileBasedConfiguration {
      */
     private static final String XML_USECLIENT_AUTHENT = "trustuseclientauthenticate";
 
+    /**
+     * SSL: use the OpenSSL engine if available
+     */
+    private static final String XML_SSL_OPENSSL = "sslopenssl";
+
+    /**
+     * SSL: number of cached sessions by role (0 for default)
+     */
+    private static final String XML_SSL_SESSIONCACHESIZE = "sslsessioncachesize";
+
+    /**
+     * SSL: timeout in seconds of cached sessions (0 for default)
+     */
+    private static final String XML_SSL_SESSIONTIMEOUT = "sslsessiontimeout";
+
+    /**
+     * SSL: allow session tickets
+     */
+    private static final String XML_SSL_SESSIONTICKETS = "sslsessiontickets";
+
     /**
      * Limit per session
      */
@@ -333,6 +354,11 @@ public class FileBasedConfiguration {
      */
     private static final String XML_SAVE_TASKRUNNERNODB = "taskrunnernodb";
 
+    /**
+     * In case of No Db Client with taskrunnernodb, Usage of an append-only Journal instead of XML files
+     */
+    private static final String XML_SAVE_TASKRUNNERJOURNAL = "taskrunnerjournal";
+
     /**
      * Use external Waarp Local Exec for ExecTask and ExecMoveTask
      */
@@ -348,6 +374,11 @@ public class FileBasedConfiguration {
      */
     private static final String XML_LEXECPORT = "lexecport";
 
+    /**
+     * Maximum number of connections to Waarp Local Exec used at the same time
+     */
+    private static final String XML_LEXECMAXCONN = "lexecmaxconn";
+
     /**
      * Default number of threads in pool for Server.
      */
@@ -416,6 +447,24 @@ public class FileBasedConfiguration {
      * Thrift support on the TCP port specified by this number
      */
     private static final String XML_USETHRIFT = "usethrift";
+    /**
+     * If True, the Thrift service uses a non blocking server with framed transport
+     */
+    private static final String XML_THRIFTNONBLOCKING = "thriftnonblocking";
+    /**
+     * Number of threads handling the Thrift requests and their database work
+     */
+    private static final String XML_THRIFTWORKERS = "thriftworkers";
+    /**
+     * Number of threads for the parallel archiving of Zip and Tar tasks (0 for the number of
+     * processors)
+     */
+    private static final String XML_ARCHIVETHREADS = "archivethreads";
+    /**
+     * Maximum size in bytes of the transfers whose runner is only saved at milestones (0 for
+     * disabled)
+     */
+    private static final String XML_FASTPATHSIZE = "fastpathsize";
     /**
      * Database Driver as of oracle, mysql, postgresql, h2
      */
@@ -450,6 +499,55 @@ public class FileBasedConfiguration {
      * Global digest by transfer enable
      */
     private static final String XML_GLOBALDIGEST = "globaldigest";
+    /**
+     * Compression of data blocks when supported by the partner
+     */
+    private static final String XML_COMPRESSBLOCKS = "compressblocks";
+    /**
+     * Delta transfer of the files against their previous version when supported by the partner
+     */
+    private static final String XML_DELTATRANSFER = "deltatransfer";
+    /**
+     * Skip of the transfers whose content is already held by the receiver when supported by the
+     * partner
+     */
+    private static final String XML_DEDUPTRANSFER = "deduptransfer";
+    /**
+     * Maximum number of received files in the deduplication index
+     */
+    private static final String XML_DEDUPENTRIES = "dedupentries";
+    /**
+     * Hard link (instead of copy) of the already held content when deduplicated
+     */
+    private static final String XML_DEDUPHARDLINK = "deduphardlink";
+    /**
+     * Block size tuned by partner from the observed throughput
+     */
+    private static final String XML_ADAPTIVEBLOCKSIZE = "adaptiveblocksize";
+    /**
+     * Minimum block size when tuned by partner
+     */
+    private static final String XML_BLOCKSIZEMIN = "blocksizemin";
+    /**
+     * Maximum block size when tuned by partner
+     */
+    private static final String XML_BLOCKSIZEMAX = "blocksizemax";
+    /**
+     * Maximum number of pooled FTP sessions used at the same time for one target
+     */
+    private static final String XML_FTPPOOLMAX = "ftppoolmax";
+    /**
+     * Delay in ms after which an idle pooled FTP session is closed
+     */
+    private static final String XML_FTPPOOLIDLE = "ftppoolidle";
+    /**
+     * GET /metrics served by the REST interfaces
+     */
+    private static final String XML_RESTMETRICS = "restmetrics";
+    /**
+     * Maximum size in bytes of the body of the REST bulk transfer requests
+     */
+    private static final String XML_RESTBULKMAXSIZE = "restbulkmaxsize";
 
     /**
      * SERVER REST interface SHA address usage (and not all available IPs)
@@ -523,6 +621,7 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.BOOLEAN, XML_USELOCALEXEC),
             new XmlDecl(XmlType.STRING, XML_LEXECADDR),
             new XmlDecl(XmlType.INTEGER, XML_LEXECPORT),
+            new XmlDecl(XmlType.INTEGER, XML_LEXECMAXCONN),
             new XmlDecl(XmlType.BOOLEAN, XML_CHECK_ADDRESS),
             new XmlDecl(XmlType.BOOLEAN, XML_CHECK_CLIENTADDRESS),
             new XmlDecl(XmlType.STRING, XML_SERVER_ADMIN),
@@ -562,7 +661,11 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.STRING, XML_PATH_KEYPASS),
             new XmlDecl(XmlType.STRING, XML_PATH_TRUSTKEYPATH),
             new XmlDecl(XmlType.STRING, XML_PATH_TRUSTKEYSTOREPASS),
-            new XmlDecl(XmlType.BOOLEAN, XML_USECLIENT_AUTHENT)
+            new XmlDecl(XmlType.BOOLEAN, XML_USECLIENT_AUTHENT),
+            new XmlDecl(XmlType.BOOLEAN, XML_SSL_OPENSSL),
+            new XmlDecl(XmlType.INTEGER, XML_SSL_SESSIONCACHESIZE),
+            new XmlDecl(XmlType.LONG, XML_SSL_SESSIONTIMEOUT),
+            new XmlDecl(XmlType.BOOLEAN, XML_SSL_SESSIONTICKETS)
     };
     /**
      * Structure of the Configuration file
@@ -575,7 +678,8 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.STRING, XML_DBUSER),
             new XmlDecl(XmlType.STRING, XML_DBPASSWD),
             new XmlDecl(XmlType.BOOLEAN, XML_DBCHECK),
-            new XmlDecl(XmlType.BOOLEAN, XML_SAVE_TASKRUNNERNODB)
+            new XmlDecl(XmlType.BOOLEAN, XML_SAVE_TASKRUNNERNODB),
+            new XmlDecl(XmlType.BOOLEAN, XML_SAVE_TASKRUNNERJOURNAL)
     };
 
     /**
@@ -610,8 +714,24 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.INTEGER, XML_GAPRESTART),
             new XmlDecl(XmlType.INTEGER, XML_BLOCKSIZE),
             new XmlDecl(XmlType.INTEGER, XML_USETHRIFT),
+            new XmlDecl(XmlType.BOOLEAN, XML_THRIFTNONBLOCKING),
+            new XmlDecl(XmlType.INTEGER, XML_THRIFTWORKERS),
+            new XmlDecl(XmlType.INTEGER, XML_ARCHIVETHREADS),
+            new XmlDecl(XmlType.LONG, XML_FASTPATHSIZE),
             new XmlDecl(XmlType.BOOLEAN, XML_CHECKVERSION),
-            new XmlDecl(XmlType.BOOLEAN, XML_GLOBALDIGEST)
+            new XmlDecl(XmlType.BOOLEAN, XML_GLOBALDIGEST),
+            new XmlDecl(XmlType.BOOLEAN, XML_COMPRESSBLOCKS),
+            new XmlDecl(XmlType.BOOLEAN, XML_DELTATRANSFER),
+            new XmlDecl(XmlType.BOOLEAN, XML_DEDUPTRANSFER),
+            new XmlDecl(XmlType.INTEGER, XML_DEDUPENTRIES),
+            new XmlDecl(XmlType.BOOLEAN, XML_DEDUPHARDLINK),
+            new XmlDecl(XmlType.BOOLEAN, XML_ADAPTIVEBLOCKSIZE),
+            new XmlDecl(XmlType.INTEGER, XML_BLOCKSIZEMIN),
+            new XmlDecl(XmlType.INTEGER, XML_BLOCKSIZEMAX),
+            new XmlDecl(XmlType.INTEGER, XML_FTPPOOLMAX),
+            new XmlDecl(XmlType.LONG, XML_FTPPOOLIDLE),
+            new XmlDecl(XmlType.BOOLEAN, XML_RESTMETRICS),
+            new XmlDecl(XmlType.LONG, XML_RESTBULKMAXSIZE)
     };
     /**
      * Structure of the Configuration file
@@ -628,6 +748,7 @@ public class FileBasedConfiguration {
     private static final XmlDecl[] configClientParamDecls = {
             // client
             new XmlDecl(XmlType.BOOLEAN, XML_SAVE_TASKRUNNERNODB),
+            new XmlDecl(XmlType.BOOLEAN, XML_SAVE_TASKRUNNERJOURNAL),
             new XmlDecl(XmlType.STRING, XML_BUSINESS_FACTORY)
     };
     /**
@@ -867,6 +988,10 @@ public class FileBasedConfiguration {
                         port = 9999;
                     }
                     LocalExecClient.address = new InetSocketAddress(addr, port);
+                    value = hashConfig.get(XML_LEXECMAXCONN);
+                    if (value != null && (!value.isEmpty())) {
+                        LocalExecClient.setMaxConnections(value.getInteger());
+                    }
                 }
             }
             value = hashConfig.get(XML_CHECK_ADDRESS);
@@ -1076,6 +1201,10 @@ public class FileBasedConfiguration {
             if (DbConstant.admin == null || DbConstant.admin.getTypeDriver() == DbType.none) {
                 if (value != null && (!value.isEmpty())) {
                     config.setSaveTaskRunnerWithNoDb(value.getBoolean());
+                    value = hashConfig.get(XML_SAVE_TASKRUNNERJOURNAL);
+                    if (value != null && (!value.isEmpty())) {
+                        config.setSaveTaskRunnerWithJournal(value.getBoolean());
+                    }
                     logger.info(Messages.getString("FileBasedConfiguration.NoDB")); //$NON-NLS-1$
                     if (DbConstant.admin == null) {
                         DbConstant.admin = new DbAdmin(); // no database support
@@ -1387,6 +1516,22 @@ public class FileBasedConfiguration {
             if (value != null && (!value.isEmpty())) {
                 config.setThriftport(value.getInteger());
             }
+            value = hashConfig.get(XML_THRIFTNONBLOCKING);
+            if (value != null && (!value.isEmpty())) {
+                config.setThriftNonBlocking(value.getBoolean());
+            }
+            value = hashConfig.get(XML_THRIFTWORKERS);
+            if (value != null && (!value.isEmpty())) {
+                config.setThriftWorkers(value.getInteger());
+            }
+            value = hashConfig.get(XML_ARCHIVETHREADS);
+            if (value != null && (!value.isEmpty())) {
+                config.setArchiveThreads(value.getInteger());
+            }
+            value = hashConfig.get(XML_FASTPATHSIZE);
+            if (value != null && (!value.isEmpty())) {
+                config.setFastPathSize(value.getLong());
+            }
             value = hashConfig.get(XML_TIMEOUTCON);
             if (value != null && (!value.isEmpty())) {
                 config.setTIMEOUTCON((value.getLong() / 10) * 10);
@@ -1401,6 +1546,60 @@ public class FileBasedConfiguration {
             if (value != null && (!value.isEmpty())) {
                 config.setGlobalDigest(value.getBoolean());
             }
+            value = hashConfig.get(XML_COMPRESSBLOCKS);
+            if (value != null && (!value.isEmpty())) {
+                config.setCompressBlocks(value.getBoolean());
+            }
+            value = hashConfig.get(XML_DELTATRANSFER);
+            if (value != null && (!value.isEmpty())) {
+                config.setDeltaTransfer(value.getBoolean());
+            }
+            value = hashConfig.get(XML_DEDUPTRANSFER);
+            if (value != null && (!value.isEmpty())) {
+                config.setDedupTransfer(value.getBoolean());
+            }
+            value = hashConfig.get(XML_DEDUPENTRIES);
+            if (value != null && (!value.isEmpty())) {
+                config.setDedupEntries(value.getInteger());
+            }
+            value = hashConfig.get(XML_DEDUPHARDLINK);
+            if (value != null && (!value.isEmpty())) {
+                config.setDedupHardLink(value.getBoolean());
+            }
+            value = hashConfig.get(XML_ADAPTIVEBLOCKSIZE);
+            if (value != null && (!value.isEmpty())) {
+                config.setAdaptiveBlockSize(value.getBoolean());
+            }
+            value = hashConfig.get(XML_BLOCKSIZEMIN);
+            if (value != null && (!value.isEmpty())) {
+                config.setBlockSizeMin(value.getInteger());
+            }
+            value = hashConfig.get(XML_BLOCKSIZEMAX);
+            if (value != null && (!value.isEmpty())) {
+                config.setBlockSizeMax(value.getInteger());
+            }
+            if (config.getBlockSizeMin() <= 0
+                    || config.getBlockSizeMin() > config.getBlockSizeMax()) {
+                logger.warn("Block size bounds inconsistent, adaptive block size disabled: "
+                        + config.getBlockSizeMin() + " > " + config.getBlockSizeMax());
+                config.setAdaptiveBlockSize(false);
+            }
+            value = hashConfig.get(XML_FTPPOOLMAX);
+            if (value != null && (!value.isEmpty())) {
+                config.setFtpPoolMaxPerTarget(value.getInteger());
+            }
+            value = hashConfig.get(XML_FTPPOOLIDLE);
+            if (value != null && (!value.isEmpty())) {
+                config.setFtpPoolIdleTimeout(value.getLong());
+            }
+            value = hashConfig.get(XML_RESTMETRICS);
+            if (value != null && (!value.isEmpty())) {
+                config.setRestMetrics(value.getBoolean());
+            }
+            value = hashConfig.get(XML_RESTBULKMAXSIZE);
+            if (value != null && (!value.isEmpty())) {
+                config.setRestBulkMaxSize(value.getLong());
+            }
             alreadySetLimit = true;
             return true;
         } finally {
@@ -1495,6 +1694,28 @@ public class FileBasedConfiguration {
                     return false;
                 }
             }
+            // Engine and session caches
+            boolean openSsl = false;
+            value = hashConfig.get(XML_SSL_OPENSSL);
+            if (value != null && (!value.isEmpty())) {
+                openSsl = value.getBoolean();
+            }
+            int cacheSize = 0;
+            value = hashConfig.get(XML_SSL_SESSIONCACHESIZE);
+            if (value != null && (!value.isEmpty())) {
+                cacheSize = value.getInteger();
+            }
+            long timeout = 0;
+            value = hashConfig.get(XML_SSL_SESSIONTIMEOUT);
+            if (value != null && (!value.isEmpty())) {
+                timeout = value.getLong();
+            }
+            Boolean tickets = null;
+            value = hashConfig.get(XML_SSL_SESSIONTICKETS);
+            if (value != null && (!value.isEmpty())) {
+                tickets = value.getBoolean();
+            }
+            R66SslContexts.setOptions(openSsl, cacheSize, timeout, tickets);
             NetworkSslServerInitializer.setWaarpSslContextFactory(new WaarpSslContextFactory(
                     NetworkSslServerInitializer.getWaarpSecureKeyStore()));
             return true;
@@ -1777,6 +1998,10 @@ public class FileBasedConfiguration {
             XmlValue value = hashConfig.get(XML_SAVE_TASKRUNNERNODB);
             if (value != null && (!value.isEmpty())) {
                 config.setSaveTaskRunnerWithNoDb(value.getBoolean());
+                value = hashConfig.get(XML_SAVE_TASKRUNNERJOURNAL);
+                if (value != null && (!value.isEmpty())) {
+                    config.setSaveTaskRunnerWithJournal(value.getBoolean());
+                }
                 logger.info(Messages.getString("FileBasedConfiguration.NoDB")); //$NON-NLS-1$
                 DbConstant.admin = new DbAdmin(); // no database support
                 DbConstant.noCommitAdmin = DbConstant.admin;
@@ -89,7 +89,8 @@ public class RuleFileBasedConfiguration {
             new XmlDecl(XmlType.STRING, DbRule.TASK_TYPE),
             new XmlDecl(XmlType.STRING, DbRule.TASK_PATH),
             new XmlDecl(XmlType.LONG, DbRule.TASK_DELAY),
-            new XmlDecl(XmlType.STRING, DbRule.TASK_COMMENT)
+            new XmlDecl(XmlType.STRING, DbRule.TASK_COMMENT),
+            new XmlDecl(XmlType.STRING, DbRule.TASK_GROUP)
     };
     public static final XmlDecl[] tasksDecl = {
             new XmlDecl(XTASK,
@@ -174,12 +175,13 @@ public class RuleFileBasedConfiguration {
             // Unable to find the tasks for Rule, setting to the default
             return new String[0][0];
         }
-        String[][] taskArray = new String[list.size()][4];
+        String[][] taskArray = new String[list.size()][5];
         for (int i = 0; i < list.size(); i++) {
             taskArray[i][0] = null;
             taskArray[i][1] = null;
             taskArray[i][2] = null;
             taskArray[i][3] = null;
+            taskArray[i][4] = null;
         }
         int rank = 0;
         for (XmlValue[] subvals : list) {
@@ -207,6 +209,13 @@ public class RuleFileBasedConfiguration {
             } else {
                 comment = valcomment.getString();
             }
+            XmlValue valgroup = hash.get(DbRule.TASK_GROUP);
+            String group;
+            if (valgroup == null || (valgroup.isEmpty()) || valgroup.getString().isEmpty()) {
+                group = "";
+            } else {
+                group = valgroup.getString().trim();
+            }
             taskArray[rank][0] = valtype.getString().toUpperCase();
             // CHECK TASK_TYPE
             try {
@@ -219,7 +228,9 @@ public class RuleFileBasedConfiguration {
             taskArray[rank][1] = valpath.getString();
             taskArray[rank][2] = delay;
             taskArray[rank][3] = comment;
-            logger.debug("RuleTask: " + valtype.getString() + ":" + valpath.getString() + ":" + delay + ":" + comment);
+            taskArray[rank][4] = group;
+            logger.debug("RuleTask: " + valtype.getString() + ":" + valpath.getString() + ":" + delay + ":" + comment
+                    + ":" + group);
             rank++;
             hash.clear();
         }
@@ -31,6 +31,7 @@ import org.waarp.common.file.filesystembased.FilesystemBasedFileParameterImpl;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.state.MachineState;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
 import org.waarp.openr66.context.authentication.R66Auth;
 import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.filesystem.R66File;
@@ -41,7 +42,9 @@ import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.utils.BlockSizeTuner;
 import org.waarp.openr66.protocol.utils.FileUtils;
+import org.waarp.openr66.protocol.utils.R66Metrics;
 
 /**
  * The global object session in OpenR66, a session by local channel
@@ -121,6 +124,16 @@ public class R66Session implements SessionInterface {
 
     private final HashMap<String, R66Dir> dirsFromSession = new HashMap<String, R66Dir>();
 
+    /**
+     * Timings of the phases of the transfer
+     */
+    private final R66TransferPhases phases = new R66TransferPhases();
+    /**
+     * True if the transfer was counted as started in the metrics, and its direction
+     */
+    private boolean metricsStarted = false;
+    private boolean metricsInbound = false;
+
     /**
      * Create the session
      */
@@ -132,6 +145,27 @@ public class R66Session implements SessionInterface {
         state = R66FiniteDualStates.newSessionMachineState();
     }
 
+    /**
+     * @return the timings of the phases of the transfer
+     */
+    public R66TransferPhases getPhases() {
+        return phases;
+    }
+
+    /**
+     * Count the transfer as started within the metrics (once), until the session is cleared
+     * 
+     * @param inbound
+     *            True if requested by the partner
+     */
+    public void countTransferStarted(boolean inbound) {
+        if (!metricsStarted) {
+            metricsStarted = true;
+            metricsInbound = inbound;
+            R66Metrics.transferStarted(inbound);
+        }
+    }
+
     /**
      * @return extendedProtocol
      */
@@ -205,6 +239,14 @@ public class R66Session implements SessionInterface {
                 }
             }
         }
+        if (metricsStarted) {
+            metricsStarted = false;
+            R66Metrics.transferEnded(metricsInbound, runner != null && runner.isAllDone());
+            BlockSizeTuner tuner = BlockSizeTuner.getTuner();
+            if (tuner != null) {
+                tuner.transferEnded(this);
+            }
+        }
         if (dir != null) {
             dir.clear();
         }
@@ -648,7 +690,7 @@ public class R66Session implements SessionInterface {
             logger.debug("restart at " + runner.getRank() + " {}", runner);
             logger.debug("restart at " + runner.getRank() + " {}", dir);
             runner.setTransferTask(runner.getRank());
-            restart.restartMarker(runner.getBlocksize() * runner.getRank());
+            restart.restartMarker((long) runner.getBlocksize() * runner.getRank());
         } else {
             restart.restartMarker(0);
         }
@@ -672,7 +714,9 @@ public class R66Session implements SessionInterface {
             }
             this.runner.setPreTask();
             runner.saveStatus();
+            phases.begin(PHASE.PRETASK);
             this.runner.run();
+            phases.end(PHASE.PRETASK);
             if (runner.isSender() && !runner.isSendThrough()) {
                 if (file != null) {
                     try {
@@ -757,7 +801,7 @@ public class R66Session implements SessionInterface {
                                     " curLength: " + length + ":" + newRank);
                             logger.warn("Decreased Rank Restart for {} at " + newRank, runner);
                             runner.setTransferTask(newRank);
-                            restart.restartMarker(this.runner.getBlocksize()
+                            restart.restartMarker((long) this.runner.getBlocksize()
                                     * this.runner.getRank());
                         }
                         try {
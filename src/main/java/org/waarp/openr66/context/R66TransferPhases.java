@@ -0,0 +1,216 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.utils.LatencyHistogram;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Timings of the phases of one transfer (one per session), using the monotonic clock.<br>
+ * <br>
+ * Once the transfer is done, the duration of each phase is saved in the TransferInformation of the
+ * runner under PHASES (list of microseconds in the order of PHASE, -1 if not seen on this side)
+ * and added to the histograms by rule and by partner, exported by the Monitoring.<br>
+ * <br>
+ * begin/end only write into preallocated arrays, such that the recording path does not allocate.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class R66TransferPhases {
+    /**
+     * Phases of a transfer. Each side only sees some of them (CONNECT only on the requester side,
+     * the DIGEST check only on the receiver side).
+     */
+    public static enum PHASE {
+        /**
+         * Network connection and authentication, as seen by the requester
+         */
+        CONNECT,
+        /**
+         * Check of the authentication of the partner
+         */
+        AUTHENT,
+        /**
+         * Validation of the request up to the pre tasks
+         */
+        REQUEST,
+        PRETASK,
+        /**
+         * From the first to the last block
+         */
+        DATA,
+        /**
+         * Check of the size and the global digest at the end of the transfer
+         */
+        DIGEST,
+        POSTTASK,
+        /**
+         * From the end of the post tasks to the validation of the end of the request
+         */
+        ENDREQUEST;
+    }
+
+    private static final int NBPHASE = PHASE.values().length;
+
+    private static final Map<String, LatencyHistogram[]> byRule =
+            new ConcurrentHashMap<String, LatencyHistogram[]>();
+    private static final Map<String, LatencyHistogram[]> byPartner =
+            new ConcurrentHashMap<String, LatencyHistogram[]>();
+
+    private final long[] start = new long[NBPHASE];
+    private final long[] end = new long[NBPHASE];
+    private volatile boolean published = false;
+
+    /**
+     * Start the phase, if not yet started
+     *
+     * @param phase
+     */
+    public void begin(PHASE phase) {
+        if (start[phase.ordinal()] == 0) {
+            start[phase.ordinal()] = System.nanoTime();
+        }
+    }
+
+    /**
+     * End the phase (the last call wins, as for the DATA phase ended at each block)
+     *
+     * @param phase
+     */
+    public void end(PHASE phase) {
+        end[phase.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * Set a phase measured outside of the session
+     *
+     * @param phase
+     * @param startNano
+     * @param endNano
+     */
+    public void set(PHASE phase, long startNano, long endNano) {
+        start[phase.ordinal()] = startNano;
+        end[phase.ordinal()] = endNano;
+    }
+
+    /**
+     *
+     * @param phase
+     * @return the duration of the phase in microseconds, -1 if not measured
+     */
+    public long getMicros(PHASE phase) {
+        long begin = start[phase.ordinal()];
+        long last = end[phase.ordinal()];
+        if (begin == 0 || last == 0 || last < begin) {
+            return -1;
+        }
+        return (last - begin) / 1000;
+    }
+
+    /**
+     * Save the durations within the runner and add them to the histograms of its rule and partner
+     * (once only)
+     *
+     * @param runner
+     */
+    public void publish(DbTaskRunner runner) {
+        if (published || runner == null) {
+            return;
+        }
+        published = true;
+        List<Long> durations = new ArrayList<Long>(NBPHASE);
+        LatencyHistogram[] rule = getHistograms(byRule, runner.getRuleId());
+        LatencyHistogram[] partner = getHistograms(byPartner,
+                runner.isSelfRequested() ? runner.getRequester() : runner.getRequested());
+        for (PHASE phase : PHASE.values()) {
+            long micros = getMicros(phase);
+            durations.add(micros);
+            if (micros >= 0) {
+                rule[phase.ordinal()].record(micros);
+                partner[phase.ordinal()].record(micros);
+            }
+        }
+        Map<String, Object> map = runner.getTransferMap();
+        map.put(DbTaskRunner.JSON_PHASES, durations);
+        runner.setTransferMap(map);
+    }
+
+    /**
+     *
+     * @return the histograms by rule, indexed by PHASE
+     */
+    public static Map<String, LatencyHistogram[]> getByRule() {
+        return byRule;
+    }
+
+    /**
+     *
+     * @return the histograms by partner, indexed by PHASE
+     */
+    public static Map<String, LatencyHistogram[]> getByPartner() {
+        return byPartner;
+    }
+
+    private static LatencyHistogram[] getHistograms(Map<String, LatencyHistogram[]> map, String key) {
+        LatencyHistogram[] histograms = map.get(key);
+        if (histograms == null) {
+            synchronized (map) {
+                histograms = map.get(key);
+                if (histograms == null) {
+                    histograms = new LatencyHistogram[NBPHASE];
+                    for (int i = 0; i < NBPHASE; i++) {
+                        histograms[i] = new LatencyHistogram();
+                    }
+                    map.put(key, histograms);
+                }
+            }
+        }
+        return histograms;
+    }
+
+    private static void exportAsJson(ObjectNode node, Map<String, LatencyHistogram[]> map) {
+        for (Map.Entry<String, LatencyHistogram[]> entry : map.entrySet()) {
+            ObjectNode node2 = node.putObject(entry.getKey());
+            for (PHASE phase : PHASE.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                if (histogram.getCount() > 0) {
+                    histogram.exportAsJson(node2.putObject(phase.name()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the histograms of the phases (in microseconds) by rule (RULES) and by partner (PARTNERS)
+     * to the node
+     *
+     * @param node
+     */
+    public static void exportAsJson(ObjectNode node) {
+        exportAsJson(node.putObject("RULES"), byRule);
+        exportAsJson(node.putObject("PARTNERS"), byPartner);
+    }
+}
@@ -17,22 +17,10 @@
  */
 package org.waarp.openr66.context.task;
 
-import java.io.File;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
-import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.utility.WaarpStringUtils;
-import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Session;
-import org.waarp.openr66.context.filesystem.R66Dir;
-import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.database.data.DbTaskRunner;
-import org.waarp.openr66.protocol.configuration.Configuration;
-import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
 import org.waarp.openr66.protocol.utils.R66Future;
 
 /**
@@ -280,186 +268,37 @@ public abstract class AbstractTask implements Runnable {
      * @return The string with replaced values from context and second argument
      */
     protected String getReplacedValue(String arg, Object[] argFormat) {
-        StringBuilder builder = new StringBuilder(arg);
+        DbTaskRunner runner = session.getRunner();
+        TaskTemplate template = TaskTemplate.getTemplate(arg,
+                runner != null ? runner.getRule() : null);
         // check NOWAIT and LOCALEXEC
-        if (arg.contains(NOWAIT)) {
+        if (template.isNoWait()) {
             waitForValidation = false;
-            WaarpStringUtils.replaceAll(builder, NOWAIT, "");
         }
-        if (arg.contains(LOCALEXEC)) {
+        if (template.isLocalExec()) {
             useLocalExec = true;
-            WaarpStringUtils.replaceAll(builder, LOCALEXEC, "");
-        }
-        File trueFile = null;
-        if (session.getFile() != null) {
-            trueFile = session.getFile().getTrueFile();
-        }
-        if (trueFile != null) {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, trueFile.getAbsolutePath());
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, R66Dir
-                    .getFinalUniqueFilename(session.getFile()));
-            WaarpStringUtils.replaceAll(builder, FILESIZE, Long.toString(trueFile.length()));
-        } else {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, "nofile");
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, "nofile");
-            WaarpStringUtils.replaceAll(builder, FILESIZE, "0");
-        }
-        DbTaskRunner runner = session.getRunner();
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, ORIGINALFULLPATH, runner
-                    .getOriginalFilename());
-            WaarpStringUtils.replaceAll(builder, ORIGINALFILENAME,
-                    R66File.getBasename(runner
-                            .getOriginalFilename()));
-            WaarpStringUtils.replaceAll(builder, RULE, runner
-                    .getRuleId());
-        }
-        DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-        Date date = new Date();
-        WaarpStringUtils.replaceAll(builder, DATE, dateFormat.format(date));
-        dateFormat = new SimpleDateFormat("HHmmss");
-        WaarpStringUtils.replaceAll(builder, HOUR, dateFormat.format(date));
-        if (session.getAuth() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOST, session.getAuth().getUser());
-            try {
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.getHostId(session.getAuth().isSsl()));
-            } catch (OpenR66ProtocolNoSslException e) {
-                // replace by standard name
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.getHOST_ID());
-            }
-        }
-        if (session.getRemoteAddress() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, session.getRemoteAddress()
-                    .toString());
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, session.getLocalAddress()
-                    .toString());
-        } else {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, "unknown");
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, "unknown");
-        }
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, TRANSFERID, Long.toString(runner.getSpecialId()));
-            String requester = runner.getRequester();
-            WaarpStringUtils.replaceAll(builder, REQUESTERHOST, requester);
-            String requested = runner.getRequested();
-            WaarpStringUtils.replaceAll(builder, REQUESTEDHOST, requested);
-            WaarpStringUtils.replaceAll(builder, FULLTRANSFERID,
-                    runner.getSpecialId() + "_" + requester + "_" + requested);
-            WaarpStringUtils.replaceAll(builder, RANKTRANSFER, Integer.toString(runner.getRank()));
-        }
-        WaarpStringUtils.replaceAll(builder, BLOCKSIZE, Integer.toString(session
-                .getBlockSize()));
-        R66Dir dir = new R66Dir(session);
-        if (runner != null) {
-            if (runner.isRecvThrough() || runner.isSendThrough()) {
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-            } else {
-                try {
-                    dir.changeDirectory(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-            }
-        } else {
-            try {
-                dir.changeDirectory(Configuration.configuration.getInPath());
-                WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getOutPath());
-                WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getWorkingPath());
-                WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getArchivePath());
-                WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-        }
-        WaarpStringUtils.replaceAll(builder, HOMEPATH, Configuration.configuration.getBaseDirectory());
-        if (session.getLocalChannelReference() == null) {
-            WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
-        } else {
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, session.getLocalChannelReference()
-                        .getErrorMessage());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, session.getLocalChannelReference()
-                        .getCurrentCode().getCode());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, session
-                        .getLocalChannelReference().getCurrentCode().name());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
-            }
         }
+        String result = template.render(session);
         // finalname
         if (argFormat != null && argFormat.length > 0)
             try {
-                return String.format(builder.toString(), argFormat);
+                return String.format(result, argFormat);
             } catch (Exception e) {
                 // ignored error since bad argument in static rule info
-                logger.error("Bad format in Rule: {"+builder.toString()+"} " + e.getMessage());
+                logger.error("Bad format in Rule: {"+result+"} " + e.getMessage());
             }
-        return builder.toString();
+        return result;
+    }
+
+    /**
+     * 
+     * @return the argument from Transfer split on blanks, as second argument of getReplacedValue
+     */
+    protected Object[] getArgTransferArray() {
+        DbTaskRunner runner = session.getRunner();
+        if (runner != null && argTransfer != null && argTransfer.equals(runner.getFileInformation())) {
+            return runner.getFileInformationArray();
+        }
+        return argTransfer.split(" ");
     }
 }
@@ -0,0 +1,201 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.archive.R66Bundle;
+import org.waarp.openr66.context.task.archive.R66Bundle.BundleResult;
+import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+
+/**
+ * BUNDLE task: many files transferred as one bundle (see R66Bundle)<br>
+ * <br>
+ * delay 2: create from a directory, argument "bundle directory"<br>
+ * delay 3: create from a list of files, argument "bundle file1 file2..."<br>
+ * other: extract, argument "bundle directory [TASKTYPE argument]", where the optional task is run
+ * for each extracted entry, #ENTRYPATH# and #ENTRYNAME# being replaced in its argument by the path
+ * and the name of the entry. Only the tasks allowed as business tasks (not depending on the
+ * current file) can be used.<br>
+ * <br>
+ * The status of each entry is written in the file bundle.result and the counts in the
+ * TransferInformation of the transfer under BUNDLE. Any entry in error makes the task in error;
+ * running the task again only extracts the entries not yet done.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class BundleTask extends AbstractTask {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(BundleTask.class);
+
+    /**
+     * Replaced by the full path of the extracted entry in the argument of the entry task
+     */
+    public static final String ENTRYPATH = "#ENTRYPATH#";
+    /**
+     * Replaced by the name of the extracted entry in the argument of the entry task
+     */
+    public static final String ENTRYNAME = "#ENTRYNAME#";
+
+    /**
+     * @param argRule
+     * @param delay
+     * @param argTransfer
+     * @param session
+     */
+    public BundleTask(String argRule, int delay, String argTransfer,
+            R66Session session) {
+        super(TaskType.BUNDLE, delay, argRule, argTransfer, session);
+    }
+
+    @Override
+    public void run() {
+        logger.info("BUNDLE with " + argRule + ":" + argTransfer + ":" + delay + " and {}",
+                session);
+        String finalname = argRule;
+        finalname = getReplacedValue(finalname, getArgTransferArray());
+        String[] args = finalname.split(" ");
+        if (args.length < 2) {
+            logger.error("Bundle needs at least 2 arguments: " + finalname);
+            futureCompletion.setFailure(new OpenR66ProtocolSystemException("Bundle error"));
+            return;
+        }
+        switch (delay) {
+            case 2:
+            case 3: {
+                // directory or list of files
+                List<File> files = new ArrayList<File>(args.length - 1);
+                for (int i = 1; i < args.length; i++) {
+                    files.add(new File(args[i]));
+                }
+                int count = R66Bundle.createBundle(files, new File(args[0]),
+                        Configuration.configuration.getDigest());
+                if (count < 0) {
+                    logger.error("Bundle error with " + argRule + ":" + argTransfer + ":" + delay +
+                            " and " + session);
+                    futureCompletion.setFailure(new OpenR66ProtocolSystemException("Bundle error"));
+                    return;
+                }
+                logger.debug("Bundle created with " + count + " entries");
+                break;
+            }
+            default: {
+                R66Bundle.EntryHandler handler = null;
+                if (args.length > 2) {
+                    StringBuilder entryArg = new StringBuilder();
+                    for (int i = 3; i < args.length; i++) {
+                        if (i > 3) {
+                            entryArg.append(' ');
+                        }
+                        entryArg.append(args[i]);
+                    }
+                    handler = new EntryTaskHandler(args[2], entryArg.toString());
+                }
+                BundleResult result;
+                try {
+                    result = R66Bundle.unBundle(new File(args[0]), new File(args[1]), handler);
+                } catch (IOException e) {
+                    logger.error("Bundle error with " + argRule + ":" + argTransfer + ":" + delay +
+                            " and " + session, e);
+                    futureCompletion.setFailure(new OpenR66ProtocolSystemException("Bundle error", e));
+                    return;
+                }
+                setTransferMap(result);
+                if (result.getErrors() > 0) {
+                    logger.error("Bundle extracted with errors: " + result + " see " + args[0] +
+                            R66Bundle.RESULT_EXTENSION);
+                    futureCompletion.setFailure(new OpenR66ProtocolSystemException(
+                            "Bundle error: " + result.getErrors() + " entries in error"));
+                    return;
+                }
+                logger.debug("Bundle extracted: " + result);
+                break;
+            }
+        }
+        futureCompletion.setSuccess();
+    }
+
+    /**
+     * Save the result of the extraction within the TransferInformation of the transfer
+     *
+     * @param result
+     */
+    private void setTransferMap(BundleResult result) {
+        DbTaskRunner runner = session.getRunner();
+        if (runner == null) {
+            return;
+        }
+        Map<String, Object> bundle = new HashMap<String, Object>();
+        bundle.put("entries", result.getEntries());
+        bundle.put("size", result.getSize());
+        bundle.put("ok", result.getOk());
+        bundle.put("skipped", result.getSkipped());
+        bundle.put("errors", result.getErrors());
+        Map<String, Object> map = runner.getTransferMap();
+        map.put(DbTaskRunner.JSON_BUNDLE, bundle);
+        runner.setTransferMap(map);
+    }
+
+    /**
+     * Runs the entry task for each extracted entry
+     */
+    private class EntryTaskHandler implements R66Bundle.EntryHandler {
+        private final String type;
+        private final String argument;
+
+        private EntryTaskHandler(String type, String argument) {
+            this.type = type;
+            this.argument = argument;
+        }
+
+        @Override
+        public boolean entryDone(String name, File file) {
+            String arg = argument.replace(ENTRYPATH, file.getAbsolutePath())
+                    .replace(ENTRYNAME, name);
+            AbstractTask task;
+            try {
+                task = TaskType.getTaskFromIdForBusiness(type, arg, 0, session);
+            } catch (OpenR66RunnerErrorException e) {
+                logger.error("Bundle entry task not allowed: " + type);
+                return false;
+            }
+            task.run();
+            task.getFutureCompletion().awaitUninterruptibly();
+            if (!task.getFutureCompletion().isSuccess()) {
+                logger.warn("Bundle entry task in error for " + name + ": " + type + " " + arg);
+                return false;
+            }
+            return true;
+        }
+    }
+}
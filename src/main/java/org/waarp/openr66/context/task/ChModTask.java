@@ -71,7 +71,7 @@ public class ChModTask extends AbstractTask {
     public void run() {
         String finalname = argRule;
         finalname = R66Dir.normalizePath(
-                getReplacedValue(finalname, argTransfer.split(" "))).trim().toLowerCase();
+                getReplacedValue(finalname, getArgTransferArray())).trim().toLowerCase();
         logger.info("ChMod with arg " + finalname + " from {}", session);
         File file = session.getFile().getTrueFile();
         boolean user = false, all = false, isall = false;
@@ -52,7 +52,7 @@ public class CopyRenameTask extends AbstractTask {
     @Override
     public void run() {
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" ")).replace('\\', '/');
+        finalname = getReplacedValue(finalname, getArgTransferArray()).replace('\\', '/');
         logger.info("Copy and Rename to " + finalname + " with " + argRule +
                 ":" + argTransfer + " and {}", session);
         File from = session.getFile().getTrueFile();
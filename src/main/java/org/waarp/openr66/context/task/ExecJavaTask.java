@@ -74,7 +74,7 @@ public class ExecJavaTask extends AbstractTask {
          */
         String finalname = argRule;
         if (argTransfer != null) {
-            finalname = getReplacedValue(finalname, argTransfer.split(" "));
+            finalname = getReplacedValue(finalname, getArgTransferArray());
         }
         // First get the Class Name
         String[] args = finalname.split(" ");
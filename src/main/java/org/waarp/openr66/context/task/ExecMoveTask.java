@@ -80,7 +80,7 @@ public class ExecMoveTask extends AbstractTask {
         logger.info("ExecMove with " + argRule + ":" + argTransfer + " and {}",
                 session);
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         // Force the WaitForValidation
         waitForValidation = true;
         if (Configuration.configuration.isUseLocalExec() && useLocalExec) {
@@ -86,7 +86,7 @@ public class ExecOutputTask extends AbstractTask {
         logger.info("ExecOutput with " + argRule + ":" + argTransfer + " and {}",
                 session);
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         // Force the WaitForValidation
         waitForValidation = true;
         if (Configuration.configuration.isUseLocalExec() && useLocalExec) {
@@ -70,7 +70,7 @@ public class ExecTask extends AbstractTask {
         logger.debug("Exec with " + argRule + ":" + argTransfer + " and {}",
                 session);
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         // Check if the execution will be done through LocalExec daemon
         if (Configuration.configuration.isUseLocalExec() && useLocalExec) {
             LocalExecClient localExecClient = new LocalExecClient();
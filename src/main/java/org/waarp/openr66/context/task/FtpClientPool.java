@@ -0,0 +1,313 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.ftp.client.WaarpFtp4jClient;
+
+/**
+ * Pool of authenticated FTP sessions shared by FtpTransferTask and the Gateway FTP executor.<br>
+ * <br>
+ * Sessions are kept by target (host, port, user, account, ssl, passive); the password is not part
+ * of the key, only its digest is kept to reuse a session opened with the same password. For each
+ * target, at most maxPerTarget sessions are used at the same time, the callers beyond waiting for
+ * one to be released up to the connection timeout, then failing. An idle session is closed after idleTimeout, and is checked by a NOOP before
+ * being reused. The working directory is set back to the login one when a session is released,
+ * such that -cwd with a relative path works the same as with a new session. The sessions having
+ * executed commands (-pre/-post) must be released as not reusable since their state is unknown.<br>
+ * <br>
+ * The limits are set from the configuration (ftppoolmax and ftppoolidle), 0 for any of them
+ * disabling the pool.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class FtpClientPool {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(FtpClientPool.class);
+
+    /**
+     * Maximum number of sessions used at the same time for one target
+     */
+    private static volatile int maxPerTarget = 8;
+    /**
+     * Delay in ms after which an idle session is closed
+     */
+    private static volatile long idleTimeout = 60000;
+
+    private static class Idle {
+        final WaarpFtp4jClient client;
+        final String home;
+        final byte[] pwdDigest;
+        final long time = System.currentTimeMillis();
+
+        Idle(WaarpFtp4jClient client, String home, byte[] pwdDigest) {
+            this.client = client;
+            this.home = home;
+            this.pwdDigest = pwdDigest;
+        }
+    }
+
+    private static class Target {
+        final String host;
+        final Semaphore permits;
+        final ArrayDeque<Idle> idle = new ArrayDeque<Idle>();
+
+        Target(String host, int max) {
+            this.host = host;
+            this.permits = new Semaphore(max, true);
+        }
+    }
+
+    private static class Lease {
+        final Target target;
+        final String home;
+        final byte[] pwdDigest;
+
+        Lease(Target target, String home, byte[] pwdDigest) {
+            this.target = target;
+            this.home = home;
+            this.pwdDigest = pwdDigest;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Target> targets = new ConcurrentHashMap<String, Target>();
+    private static final ConcurrentHashMap<WaarpFtp4jClient, Lease> leases =
+            new ConcurrentHashMap<WaarpFtp4jClient, Lease>();
+
+    private FtpClientPool() {
+    }
+
+    /**
+     * @param max
+     *            the maximum number of pooled sessions for one target (applies to new targets, 0
+     *            to not pool any)
+     */
+    public static void setMaxPerTarget(int max) {
+        maxPerTarget = max < 0 ? 0 : max;
+    }
+
+    /**
+     * @param timeout
+     *            the delay in ms after which an idle session is closed (0 to not keep any)
+     */
+    public static void setIdleTimeout(long timeout) {
+        idleTimeout = timeout < 0 ? 0 : timeout;
+    }
+
+    /**
+     * @return True if the sessions are pooled
+     */
+    public static boolean isPooled() {
+        return maxPerTarget > 0 && idleTimeout > 0;
+    }
+
+    /**
+     * Borrow a connected and authenticated session, an idle one of this target if any, else a new
+     * one. If maxPerTarget sessions are already used for this target, waits for one to be released
+     * up to the connection timeout.
+     *
+     * @param host
+     * @param port
+     * @param user
+     * @param pwd
+     * @param acct
+     * @param isPassive
+     * @param ssl
+     * @param timeout
+     *            the connection timeout in ms
+     * @param retry
+     *            number of connection attempts for a new session
+     * @return the session or null if it cannot be obtained in time (see logs)
+     */
+    public static WaarpFtp4jClient getClient(String host, int port, String user, String pwd,
+            String acct, boolean isPassive, int ssl, int timeout, int retry) {
+        if (!isPooled()) {
+            return connect(host, port, user, pwd, acct, isPassive, ssl, timeout, retry, null, null);
+        }
+        String key = host + ':' + port + ':' + user + ':' + acct + ':' + ssl + ':' + isPassive;
+        byte[] pwdDigest = FilesystemBasedDigest.passwdCrypt(pwd.getBytes(WaarpStringUtils.UTF8));
+        Target target = targets.get(key);
+        if (target == null) {
+            target = new Target(host, maxPerTarget);
+            Target previous = targets.putIfAbsent(key, target);
+            if (previous != null) {
+                target = previous;
+            }
+        }
+        evictIdle();
+        try {
+            if (!target.permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                logger.error("All FTP sessions to " + host + " still used after " + timeout + " ms");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for an FTP session to " + host);
+            return null;
+        }
+        // first try idle ones
+        for (;;) {
+            Idle idle;
+            synchronized (target.idle) {
+                idle = target.idle.pollLast();
+            }
+            if (idle == null) {
+                break;
+            }
+            if (System.currentTimeMillis() - idle.time < idleTimeout &&
+                    FilesystemBasedDigest.equalPasswd(idle.pwdDigest, pwdDigest) &&
+                    idle.client.executeCommand("NOOP") != null) {
+                leases.put(idle.client, new Lease(target, idle.home, pwdDigest));
+                logger.debug("Reuse FTP session to {}", host);
+                return idle.client;
+            }
+            idle.client.logout();
+        }
+        WaarpFtp4jClient client =
+                connect(host, port, user, pwd, acct, isPassive, ssl, timeout, retry, target, pwdDigest);
+        if (client == null) {
+            target.permits.release();
+        }
+        return client;
+    }
+
+    /**
+     * Open a new session, leased from target if not null
+     *
+     * @return the session or null if it cannot be connected (see logs)
+     */
+    private static WaarpFtp4jClient connect(String host, int port, String user, String pwd,
+            String acct, boolean isPassive, int ssl, int timeout, int retry, Target target,
+            byte[] pwdDigest) {
+        WaarpFtp4jClient client =
+                new WaarpFtp4jClient(host, port, user, pwd, acct, isPassive, ssl, 5000, timeout);
+        for (int i = 0; i < retry; i++) {
+            if (client.connect()) {
+                if (target != null) {
+                    leases.put(client, new Lease(target, getHome(client), pwdDigest));
+                }
+                return client;
+            }
+        }
+        logger.error(client.getResult());
+        return null;
+    }
+
+    /**
+     * Release a session obtained by getClient
+     *
+     * @param client
+     * @param reusable
+     *            False if the session is in an unknown state (error during transfer, commands
+     *            executed), so closed
+     */
+    public static void releaseClient(WaarpFtp4jClient client, boolean reusable) {
+        Lease lease = leases.remove(client);
+        if (lease == null) {
+            client.logout();
+            return;
+        }
+        try {
+            if (reusable && idleTimeout > 0 && lease.home != null && client.changeDir(lease.home)) {
+                synchronized (lease.target.idle) {
+                    lease.target.idle.addLast(new Idle(client, lease.home, lease.pwdDigest));
+                }
+            } else {
+                client.logout();
+            }
+        } finally {
+            lease.target.permits.release();
+        }
+        evictIdle();
+    }
+
+    /**
+     * Close all idle sessions older than idleTimeout
+     */
+    public static void evictIdle() {
+        long limit = System.currentTimeMillis() - idleTimeout;
+        for (Target target : targets.values()) {
+            ArrayDeque<Idle> toClose = null;
+            synchronized (target.idle) {
+                Iterator<Idle> iterator = target.idle.iterator();
+                while (iterator.hasNext()) {
+                    Idle idle = iterator.next();
+                    if (idle.time < limit) {
+                        iterator.remove();
+                        if (toClose == null) {
+                            toClose = new ArrayDeque<Idle>();
+                        }
+                        toClose.add(idle);
+                    }
+                }
+            }
+            if (toClose != null) {
+                logger.debug("Close " + toClose.size() + " idle FTP sessions to " + target.host);
+                for (Idle idle : toClose) {
+                    idle.client.logout();
+                }
+            }
+        }
+    }
+
+    /**
+     * To be called when the server is shutting down to release the resources
+     */
+    public static void releaseResources() {
+        for (Target target : targets.values()) {
+            synchronized (target.idle) {
+                for (Idle idle : target.idle) {
+                    idle.client.logout();
+                }
+                target.idle.clear();
+            }
+        }
+        targets.clear();
+    }
+
+    /**
+     * @param client
+     * @return the current directory of the session from PWD, or null if unknown
+     */
+    private static String getHome(WaarpFtp4jClient client) {
+        String[] result = client.executeCommand("PWD");
+        if (result == null || result.length == 0) {
+            return null;
+        }
+        // 257 "/path" is current directory
+        String line = result[0];
+        int first = line.indexOf('"');
+        int last = line.lastIndexOf('"');
+        if (first < 0 || last <= first) {
+            return null;
+        }
+        return line.substring(first + 1, last).replace("\"\"", "\"");
+    }
+}
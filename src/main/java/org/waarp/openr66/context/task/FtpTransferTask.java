@@ -68,7 +68,7 @@ import org.waarp.openr66.protocol.configuration.Configuration;
  * then locally comparing this XCRC/XMD5/XSHA1 with the local file<br>
  * 12) if post => extraCommand2 with ',' replaced by ' ' (note: do not use standard commands from FTP like
  * ACCT,PASS,REIN,USER,APPE,STOR,STOU,RETR,RMD,RNFR,RNTO,ABOR,CWD,CDUP,MODE,PASV,PORT,STRU,TYPE,MDTM,MLSD,MLST,SIZE,AUTH)<br>
- * 13) QUIT<br>
+ * 13) QUIT, or kept in FtpClientPool for a next transfer to the same target if no pre/post command<br>
  * 
  * @author Frederic Bregier
  * 
@@ -96,7 +96,7 @@ public class FtpTransferTask extends AbstractTask {
         logger.info("FtpTransfer with " + argRule + ":" + argTransfer + " and {}",
                 session);
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         String[] args = finalname.split(" ");
         if (args.length < 10) {
             OpenR66RunnerErrorException exception = new OpenR66RunnerErrorException("Not enough argument in Transfer");
@@ -219,24 +219,17 @@ public class FtpTransferTask extends AbstractTask {
             return;
         }
         WaarpFtp4jClient ftpClient =
-                new WaarpFtp4jClient(requested, port, user, pwd, acct, isPassive, ssl,
-                        5000, (int) Configuration.configuration.getTIMEOUTCON());
-        boolean status = false;
-        for (int i = 0; i < Configuration.RETRYNB; i++) {
-            if (ftpClient.connect()) {
-                status = true;
-                break;
-            }
-        }
-        if (!status) {
+                FtpClientPool.getClient(requested, port, user, pwd, acct, isPassive, ssl,
+                        (int) Configuration.configuration.getTIMEOUTCON(), Configuration.RETRYNB);
+        if (ftpClient == null) {
             OpenR66RunnerErrorException exception = new OpenR66RunnerErrorException("Cannot connect to remote FTP host");
             R66Result result = new R66Result(exception, session, false, ErrorCode.ConnectionImpossible,
                     session.getRunner());
             futureCompletion.setResult(result);
             futureCompletion.setFailure(exception);
-            logger.error(ftpClient.getResult());
             return;
         }
+        boolean reusable = false;
         try {
             if (cwd != null && !ftpClient.changeDir(cwd)) {
                 ftpClient.makeDir(cwd);
@@ -321,8 +314,10 @@ public class FtpTransferTask extends AbstractTask {
                     logger.debug("POST: " + string);
                 }
             }
+            // -pre/-post commands may have changed the session state (TYPE, MODE, SITE...)
+            reusable = preArgs == null && postArgs == null;
         } finally {
-            ftpClient.logout();
+            FtpClientPool.releaseClient(ftpClient, reusable);
         }
         R66Result result = new R66Result(session, false, ErrorCode.TransferOk, session.getRunner());
         futureCompletion.setResult(result);
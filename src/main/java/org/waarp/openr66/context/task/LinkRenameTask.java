@@ -55,7 +55,7 @@ public class LinkRenameTask extends AbstractTask {
     @Override
     public void run() {
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         logger.info("Move and Rename to " + finalname + " with " + argRule +
                 ":" + argTransfer + " and {}", session);
         // First try hard link
@@ -64,7 +64,7 @@ public class LogTask extends AbstractTask {
     @Override
     public void run() {
         String finalValue = argRule;
-        finalValue = getReplacedValue(finalValue, argTransfer.split(" "));
+        finalValue = getReplacedValue(finalValue, getArgTransferArray());
         String tempValue = finalValue.toUpperCase();
         WaarpLogLevel finalLevel = WaarpLogLevel.WARN;
         for (WaarpLogLevel level : WaarpLogLevel.values()) {
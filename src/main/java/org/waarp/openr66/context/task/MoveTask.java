@@ -54,7 +54,7 @@ public class MoveTask extends AbstractTask {
         logger.info("Move with " + argRule + ":" + argTransfer + " and {}",
                 session);
         String directory = argRule;
-        directory = getReplacedValue(directory, argTransfer.split(" ")).replace('\\', '/');
+        directory = getReplacedValue(directory, getArgTransferArray()).replace('\\', '/');
         String finalname = directory.split(" ")[0] + R66Dir.SEPARATOR +
                 session.getFile().getBasename();
         File from = session.getFile().getTrueFile();
@@ -160,7 +160,7 @@ public class RescheduleTransferTask extends AbstractTask {
             return;
         }
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         String[] args = finalname.split(" ");
         if (args.length < 4) {
             R66Result result = new R66Result(session, false, ErrorCode.Warning,
@@ -57,7 +57,7 @@ public class SnmpTask extends AbstractTask {
             return;
         }
         String finalValue = argRule;
-        finalValue = getReplacedValue(finalValue, argTransfer.split(" "));
+        finalValue = getReplacedValue(finalValue, getArgTransferArray());
         switch (delay) {
             case 0:
                 Configuration.configuration.getR66Mib().notifyWarning(
@@ -24,8 +24,8 @@ import java.util.List;
 
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.tar.TarUtility;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.archive.ParallelTar;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 
 /**
@@ -57,13 +57,13 @@ public class TarTask extends AbstractTask {
         logger.info("TAR with " + argRule + ":" + argTransfer + ":" + delay + " and {}",
                 session);
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         boolean tar = false;
         switch (delay) {
             case 2: {
                 // directory: tar finalname where finalname="target directory"
                 String[] args = finalname.split(" ");
-                tar = TarUtility.createTarFromDirectory(args[1], args[0], true);
+                tar = ParallelTar.createTarFromDirectory(args[1], args[0], true);
                 break;
             }
             case 3: {
@@ -73,7 +73,7 @@ public class TarTask extends AbstractTask {
                 for (int i = 1; i < args.length; i++) {
                     files.add(new File(args[i]));
                 }
-                tar = TarUtility.createTarFromFiles(files, args[0]);
+                tar = ParallelTar.createTarFromFiles(files, args[0]);
                 break;
             }
             default:
@@ -83,7 +83,7 @@ public class TarTask extends AbstractTask {
                 File tarFile = new File(args[0]);
                 File directory = new File(args[1]);
                 try {
-                    TarUtility.unTar(tarFile, directory);
+                    ParallelTar.unTar(tarFile, directory);
                     tar = true;
                 } catch (IOException e) {
                     logger.warn("Error while untar", e);
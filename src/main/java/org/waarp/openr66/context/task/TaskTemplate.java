@@ -0,0 +1,372 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.waarp.common.command.exception.CommandAbstractException;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.filesystem.R66Dir;
+import org.waarp.openr66.context.filesystem.R66File;
+import org.waarp.openr66.database.data.DbRule;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
+
+/**
+ * Argument of a task compiled once into literal and variable segments (see AbstractTask for the
+ * variables), then rendered in one pass. Each variable is resolved only if present in the
+ * argument, and once by rendering. A variable that cannot be resolved in the current context is
+ * kept as is, as with the previous replacement.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TaskTemplate {
+    /**
+     * Variables of a task argument
+     */
+    static enum Variable {
+        TRUEFULLPATH(AbstractTask.TRUEFULLPATH),
+        TRUEFILENAME(AbstractTask.TRUEFILENAME),
+        ORIGINALFULLPATH(AbstractTask.ORIGINALFULLPATH),
+        ORIGINALFILENAME(AbstractTask.ORIGINALFILENAME),
+        FILESIZE(AbstractTask.FILESIZE),
+        RULE(AbstractTask.RULE),
+        DATE(AbstractTask.DATE),
+        HOUR(AbstractTask.HOUR),
+        REMOTEHOST(AbstractTask.REMOTEHOST),
+        REMOTEHOSTADDR(AbstractTask.REMOTEHOSTADDR),
+        LOCALHOST(AbstractTask.LOCALHOST),
+        LOCALHOSTADDR(AbstractTask.LOCALHOSTADDR),
+        TRANSFERID(AbstractTask.TRANSFERID),
+        REQUESTERHOST(AbstractTask.REQUESTERHOST),
+        REQUESTEDHOST(AbstractTask.REQUESTEDHOST),
+        FULLTRANSFERID(AbstractTask.FULLTRANSFERID),
+        RANKTRANSFER(AbstractTask.RANKTRANSFER),
+        BLOCKSIZE(AbstractTask.BLOCKSIZE),
+        INPATH(AbstractTask.INPATH),
+        OUTPATH(AbstractTask.OUTPATH),
+        WORKPATH(AbstractTask.WORKPATH),
+        ARCHPATH(AbstractTask.ARCHPATH),
+        HOMEPATH(AbstractTask.HOMEPATH),
+        ERRORMSG(AbstractTask.ERRORMSG),
+        ERRORCODE(AbstractTask.ERRORCODE),
+        ERRORSTRCODE(AbstractTask.ERRORSTRCODE),
+        NOWAIT(AbstractTask.NOWAIT),
+        LOCALEXEC(AbstractTask.LOCALEXEC);
+
+        final String token;
+
+        private Variable(String token) {
+            this.token = token;
+        }
+
+        private static final HashMap<String, Variable> tokens = new HashMap<String, Variable>();
+        static {
+            for (Variable variable : values()) {
+                tokens.put(variable.token, variable);
+            }
+        }
+    }
+
+    /**
+     * Segments: either a String (literal) or a Variable
+     */
+    private final Object[] segments;
+    private final int literalLength;
+    private final boolean noWait;
+    private final boolean localExec;
+    private final boolean hasVariable;
+
+    private TaskTemplate(Object[] segments, int literalLength, boolean noWait, boolean localExec,
+            boolean hasVariable) {
+        this.segments = segments;
+        this.literalLength = literalLength;
+        this.noWait = noWait;
+        this.localExec = localExec;
+        this.hasVariable = hasVariable;
+    }
+
+    /**
+     *
+     * @param arg
+     * @return the compiled template of this task argument
+     */
+    public static TaskTemplate compile(String arg) {
+        List<Object> list = new ArrayList<Object>();
+        StringBuilder literal = new StringBuilder();
+        int literalLength = 0;
+        boolean noWait = false;
+        boolean localExec = false;
+        boolean hasVariable = false;
+        int pos = 0;
+        int length = arg.length();
+        while (pos < length) {
+            int start = arg.indexOf('#', pos);
+            if (start < 0) {
+                literal.append(arg, pos, length);
+                break;
+            }
+            literal.append(arg, pos, start);
+            int end = arg.indexOf('#', start + 1);
+            if (end < 0) {
+                literal.append(arg, start, length);
+                break;
+            }
+            Variable variable = Variable.tokens.get(arg.substring(start, end + 1));
+            if (variable == null) {
+                // not a variable: the second '#' may start one
+                literal.append('#');
+                pos = start + 1;
+                continue;
+            }
+            pos = end + 1;
+            if (variable == Variable.NOWAIT) {
+                noWait = true;
+            } else if (variable == Variable.LOCALEXEC) {
+                localExec = true;
+            } else {
+                if (literal.length() > 0) {
+                    literalLength += literal.length();
+                    list.add(literal.toString());
+                    literal.setLength(0);
+                }
+                list.add(variable);
+                hasVariable = true;
+            }
+        }
+        if (literal.length() > 0) {
+            literalLength += literal.length();
+            list.add(literal.toString());
+        }
+        return new TaskTemplate(list.toArray(), literalLength, noWait, localExec, hasVariable);
+    }
+
+    /**
+     *
+     * @param arg
+     * @param rule
+     *            the rule owning this argument, used as cache, or null
+     * @return the compiled template of this task argument, from the cache of the rule if possible
+     */
+    public static TaskTemplate getTemplate(String arg, DbRule rule) {
+        if (rule == null) {
+            return compile(arg);
+        }
+        return rule.getTaskTemplate(arg);
+    }
+
+    /**
+     * @return True if #NOWAIT# was in the argument
+     */
+    public boolean isNoWait() {
+        return noWait;
+    }
+
+    /**
+     * @return True if #LOCALEXEC# was in the argument
+     */
+    public boolean isLocalExec() {
+        return localExec;
+    }
+
+    /**
+     *
+     * @param session
+     * @return the argument with all resolvable variables replaced by their values from the session
+     */
+    public String render(R66Session session) {
+        if (!hasVariable) {
+            if (segments.length == 0) {
+                return "";
+            }
+            return (String) segments[0];
+        }
+        Resolver resolver = new Resolver(session);
+        StringBuilder builder = new StringBuilder(literalLength + 32 * segments.length);
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                builder.append((String) segment);
+            } else {
+                Variable variable = (Variable) segment;
+                String value = resolver.get(variable);
+                builder.append(value != null ? value : variable.token);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Resolution of variables for one rendering, with values shared by several variables
+     * computed once
+     */
+    private static class Resolver {
+        private final R66Session session;
+        private final DbTaskRunner runner;
+        private File trueFile;
+        private boolean trueFileDone = false;
+        private Date date;
+
+        Resolver(R66Session session) {
+            this.session = session;
+            this.runner = session.getRunner();
+        }
+
+        private File getTrueFile() {
+            if (!trueFileDone) {
+                trueFileDone = true;
+                if (session.getFile() != null) {
+                    trueFile = session.getFile().getTrueFile();
+                }
+            }
+            return trueFile;
+        }
+
+        private Date getDate() {
+            if (date == null) {
+                date = new Date();
+            }
+            return date;
+        }
+
+        /**
+         *
+         * @param runnerPath
+         * @param defaultPath
+         * @return the full path or null if it cannot be computed
+         */
+        private String getPath(String runnerPath, String defaultPath) {
+            R66Dir dir = new R66Dir(session);
+            try {
+                if (runner == null) {
+                    dir.changeDirectory(defaultPath);
+                } else if (runner.isRecvThrough() || runner.isSendThrough()) {
+                    dir.changeDirectoryNotChecked(runnerPath);
+                } else {
+                    dir.changeDirectory(runnerPath);
+                }
+                return dir.getFullPath();
+            } catch (CommandAbstractException e) {
+                return null;
+            }
+        }
+
+        /**
+         *
+         * @param variable
+         * @return the value or null if not resolvable in this context
+         */
+        String get(Variable variable) {
+            switch (variable) {
+                case TRUEFULLPATH:
+                    return getTrueFile() != null ? trueFile.getAbsolutePath() : "nofile";
+                case TRUEFILENAME:
+                    return getTrueFile() != null ? R66Dir.getFinalUniqueFilename(session.getFile())
+                            : "nofile";
+                case FILESIZE:
+                    return getTrueFile() != null ? Long.toString(trueFile.length()) : "0";
+                case ORIGINALFULLPATH:
+                    return runner != null ? runner.getOriginalFilename() : null;
+                case ORIGINALFILENAME:
+                    return runner != null ? R66File.getBasename(runner.getOriginalFilename()) : null;
+                case RULE:
+                    return runner != null ? runner.getRuleId() : null;
+                case DATE:
+                    return new SimpleDateFormat("yyyyMMdd").format(getDate());
+                case HOUR:
+                    return new SimpleDateFormat("HHmmss").format(getDate());
+                case REMOTEHOST:
+                    return session.getAuth() != null ? session.getAuth().getUser() : null;
+                case LOCALHOST:
+                    if (session.getAuth() == null) {
+                        return null;
+                    }
+                    try {
+                        return Configuration.configuration.getHostId(session.getAuth().isSsl());
+                    } catch (OpenR66ProtocolNoSslException e) {
+                        // replace by standard name
+                        return Configuration.configuration.getHOST_ID();
+                    }
+                case REMOTEHOSTADDR:
+                    return session.getRemoteAddress() != null ? session.getRemoteAddress().toString()
+                            : "unknown";
+                case LOCALHOSTADDR:
+                    return session.getRemoteAddress() != null ? session.getLocalAddress().toString()
+                            : "unknown";
+                case TRANSFERID:
+                    return runner != null ? Long.toString(runner.getSpecialId()) : null;
+                case REQUESTERHOST:
+                    return runner != null ? runner.getRequester() : null;
+                case REQUESTEDHOST:
+                    return runner != null ? runner.getRequested() : null;
+                case FULLTRANSFERID:
+                    return runner != null ? runner.getSpecialId() + "_" + runner.getRequester() + "_"
+                            + runner.getRequested() : null;
+                case RANKTRANSFER:
+                    return runner != null ? Integer.toString(runner.getRank()) : null;
+                case BLOCKSIZE:
+                    return Integer.toString(session.getBlockSize());
+                case INPATH:
+                    return getPath(runner != null ? runner.getRule().getRecvPath() : null,
+                            Configuration.configuration.getInPath());
+                case OUTPATH:
+                    return getPath(runner != null ? runner.getRule().getSendPath() : null,
+                            Configuration.configuration.getOutPath());
+                case WORKPATH:
+                    return getPath(runner != null ? runner.getRule().getWorkPath() : null,
+                            Configuration.configuration.getWorkingPath());
+                case ARCHPATH:
+                    return getPath(runner != null ? runner.getRule().getArchivePath() : null,
+                            Configuration.configuration.getArchivePath());
+                case HOMEPATH:
+                    return Configuration.configuration.getBaseDirectory();
+                case ERRORMSG:
+                    try {
+                        return session.getLocalChannelReference() != null ? session
+                                .getLocalChannelReference().getErrorMessage() : "NoError";
+                    } catch (NullPointerException e) {
+                        return "NoError";
+                    }
+                case ERRORCODE:
+                    try {
+                        return session.getLocalChannelReference() != null ? session
+                                .getLocalChannelReference().getCurrentCode().getCode() : "-";
+                    } catch (NullPointerException e) {
+                        return "-";
+                    }
+                case ERRORSTRCODE:
+                    try {
+                        return session.getLocalChannelReference() != null ? session
+                                .getLocalChannelReference().getCurrentCode().name()
+                                : ErrorCode.Unknown.name();
+                    } catch (NullPointerException e) {
+                        return ErrorCode.Unknown.name();
+                    }
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -33,7 +33,7 @@ import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 public enum TaskType {
     LOG, MOVE, MOVERENAME, COPY, COPYRENAME, EXEC, EXECMOVE, LINKRENAME, TRANSFER,
     VALIDFILEPATH, DELETE, TAR, ZIP, EXECOUTPUT, RESCHEDULE, EXECJAVA, TRANSCODE, SNMP, FTP,
-    RENAME, RESTART, UNZEROED, CHMOD, CHKFILE;
+    RENAME, RESTART, UNZEROED, CHMOD, CHKFILE, BUNDLE;
 
     int type;
 
@@ -49,6 +49,32 @@ public enum TaskType {
         name = name();
     }
 
+    /**
+     * 
+     * @return True if this task can run concurrently with other tasks of a group, so does not
+     *         change the current file nor the transfer itself (the tasks of a group share the same
+     *         R66Session, so EXECOUTPUT with NEWFINALNAME, EXECJAVA and BUNDLE are excluded)
+     */
+    public boolean isConcurrent() {
+        switch (this) {
+            case EXECOUTPUT:
+            case EXECJAVA:
+            case BUNDLE:
+            case MOVE:
+            case MOVERENAME:
+            case LINKRENAME:
+            case RENAME:
+            case EXECMOVE:
+            case DELETE:
+            case RESCHEDULE:
+            case RESTART:
+            case UNZEROED:
+                return false;
+            default:
+                return true;
+        }
+    }
+
     /**
      * 
      * @param type
@@ -134,6 +160,9 @@ public enum TaskType {
             case CHKFILE:
                 return new FileCheckTask(argRule, delay, session.getRunner().
                         getFileInformation(), session);
+            case BUNDLE:
+                return new BundleTask(argRule, delay, session.getRunner().
+                        getFileInformation(), session);
             default:
                 logger.error("name unknown: " + type.name);
                 throw new OpenR66RunnerErrorException("Unvalid Task: " +
@@ -203,6 +232,8 @@ public enum TaskType {
                 return new TarTask(argRule, delay, "", session);
             case ZIP:
                 return new ZipTask(argRule, delay, "", session);
+            case BUNDLE:
+                return new BundleTask(argRule, delay, "", session);
             case EXECOUTPUT:
                 return new ExecOutputTask(argRule, delay, "", session);
             case EXECJAVA:
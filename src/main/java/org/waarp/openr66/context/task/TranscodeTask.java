@@ -76,7 +76,7 @@ public class TranscodeTask extends AbstractTask {
         boolean success = false;
         DbTaskRunner runner = session.getRunner();
         String arg = argRule;
-        arg = getReplacedValue(arg, argTransfer.split(" "));
+        arg = getReplacedValue(arg, getArgTransferArray());
         String[] args = arg.split(" ");
         boolean dos2unix = false, unix2dos = false;
         String fromCharset = null;
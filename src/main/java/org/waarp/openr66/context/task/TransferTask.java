@@ -68,7 +68,7 @@ public class TransferTask extends AbstractTask {
         logger.info("Transfer with " + argRule + ":" + argTransfer + " and {}",
                 session);
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         String[] args = finalname.split(" ");
         if (args.length < 6) {
             futureCompletion.setFailure(
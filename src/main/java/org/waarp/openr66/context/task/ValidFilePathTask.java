@@ -60,7 +60,7 @@ public class ValidFilePathTask extends AbstractTask {
     public void run() {
         String finalname = argRule;
         finalname = R66Dir.normalizePath(
-                getReplacedValue(finalname, argTransfer.split(" ")));
+                getReplacedValue(finalname, getArgTransferArray()));
         logger.info("Test Valid Path with " + finalname + " from {}", session);
         File from = session.getFile().getTrueFile();
         String curpath = R66Dir.normalizePath(from.getAbsolutePath());
@@ -24,8 +24,8 @@ import java.util.List;
 
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.tar.ZipUtility;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.archive.ParallelZip;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 
 /**
@@ -57,13 +57,13 @@ public class ZipTask extends AbstractTask {
         logger.info("ZIP with " + argRule + ":" + argTransfer + ":" + delay + " and {}",
                 session);
         String finalname = argRule;
-        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        finalname = getReplacedValue(finalname, getArgTransferArray());
         boolean zip = false;
         switch (delay) {
             case 2: {
                 // directory: zip finalname where finalname="target directory"
                 String[] args = finalname.split(" ");
-                zip = ZipUtility.createZipFromDirectory(args[1], args[0], true);
+                zip = ParallelZip.createZipFromDirectory(args[1], args[0], true);
                 break;
             }
             case 3: {
@@ -73,7 +73,7 @@ public class ZipTask extends AbstractTask {
                 for (int i = 1; i < args.length; i++) {
                     files.add(new File(args[i]));
                 }
-                zip = ZipUtility.createZipFromFiles(files, args[0]);
+                zip = ParallelZip.createZipFromFiles(files, args[0]);
                 break;
             }
             default: {
@@ -83,7 +83,7 @@ public class ZipTask extends AbstractTask {
                 File zipFile = new File(args[0]);
                 File directory = new File(args[1]);
                 try {
-                    ZipUtility.unZip(zipFile, directory);
+                    ParallelZip.unZip(zipFile, directory);
                     zip = true;
                 } catch (IOException e) {
                     logger.warn("Error while unzip", e);
@@ -0,0 +1,251 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task.archive;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Common methods of the parallel archivers
+ *
+ * @author Frederic Bregier
+ *
+ */
+final class ArchiveHelper {
+    private ArchiveHelper() {
+    }
+
+    /**
+     * @return the executor shared by all archiving operations
+     */
+    static ExecutorService getExecutor() {
+        return Configuration.configuration.getArchiveExecutor();
+    }
+
+    /**
+     * @return the maximum number of pending operations of one archive, bounding the memory used
+     */
+    static int getWindow() {
+        return Configuration.configuration.getArchiveThreads() * 4;
+    }
+
+    /**
+     * Wait for the future, converting the failure to an IOException
+     *
+     * @param future
+     * @return the result
+     * @throws IOException
+     */
+    static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Wait for all pending futures, even in error, such that no operation is still running after
+     *
+     * @param pending
+     * @throws IOException
+     *             the first error
+     */
+    static void waitAll(ArrayDeque<? extends Future<?>> pending) throws IOException {
+        IOException error = null;
+        while (!pending.isEmpty()) {
+            try {
+                get(pending.pollFirst());
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     *
+     * @param directory
+     *            the target directory
+     * @param root
+     *            canonical path of the target directory
+     * @param name
+     *            name of the entry
+     * @return the file for this entry
+     * @throws IOException
+     *             if the entry is outside of the target directory
+     */
+    static File getTarget(File directory, String root, String name) throws IOException {
+        File target = new File(directory, name);
+        String path = target.getCanonicalPath();
+        if (!path.equals(root) && !path.startsWith(root + File.separator)) {
+            throw new IOException("Entry outside of target directory: " + name);
+        }
+        return target;
+    }
+
+    /**
+     * Add recursively the files and directories under file
+     *
+     * @param file
+     * @param prefix
+     *            name of the entry for file
+     * @param files
+     * @param names
+     *            directories ending with '/'
+     */
+    static void listEntries(File file, String prefix, List<File> files, List<String> names) {
+        if (file.isDirectory()) {
+            if (!prefix.isEmpty()) {
+                files.add(file);
+                names.add(prefix + "/");
+            }
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    listEntries(child, prefix.isEmpty() ? child.getName() : prefix + "/"
+                            + child.getName(), files, names);
+                }
+            }
+        } else if (file.isFile()) {
+            files.add(file);
+            names.add(prefix);
+        }
+    }
+
+    /**
+     * List a directory with the naming of ZipUtility and TarUtility
+     *
+     * @param directory
+     * @param absolute
+     *            True to name the entries by their path relative to the directory (including the
+     *            sub-directories), else by their base name only (files only, flattened)
+     * @param exclude
+     *            the archive being created, not added if under the directory
+     * @param files
+     * @param names
+     * @throws IOException
+     */
+    static void listDirectory(File directory, boolean absolute, File exclude, List<File> files,
+            List<String> names) throws IOException {
+        if (absolute) {
+            listEntries(directory, "", files, names);
+        } else {
+            listFlat(directory, files, names);
+        }
+        String excluded = exclude.getCanonicalPath();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            if (files.get(i).getCanonicalPath().equals(excluded)) {
+                files.remove(i);
+                names.remove(i);
+            }
+        }
+    }
+
+    private static void listFlat(File directory, List<File> files, List<String> names) {
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    listFlat(child, files, names);
+                } else if (child.isFile()) {
+                    files.add(child);
+                    names.add(child.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param sources
+     *            files or directories, each one being a root entry by its base name
+     * @param files
+     * @param names
+     */
+    static void listFiles(List<File> sources, List<File> files, List<String> names) {
+        for (File source : sources) {
+            listEntries(source, source.getName(), files, names);
+        }
+    }
+
+    /**
+     * Read up to length bytes
+     *
+     * @param in
+     * @param buffer
+     * @param length
+     * @return the number of bytes read (less than length only at end of stream)
+     * @throws IOException
+     */
+    static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * OutputStream counting the bytes written
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
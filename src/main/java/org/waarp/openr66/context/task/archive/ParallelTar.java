@@ -0,0 +1,516 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+/**
+ * Parallel Tar archiver, same usage as TarUtility.<br>
+ * <br>
+ * Tar is not compressed, so the parallelism is on the file system: when creating, small files are
+ * read in parallel ahead of the sequential writing; when extracting, small files are written in
+ * parallel while the archive is read sequentially. Long names use the GNU extension, and PAX path
+ * headers are understood when extracting. The archive can be written to any stream.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class ParallelTar {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(ParallelTar.class);
+
+    private static final int RECORDSIZE = 512;
+    /**
+     * Files up to this size are read or written in parallel
+     */
+    private static final int PARALLELMAX = 1024 * 1024;
+    private static final int BLOCKINGSIZE = 20 * RECORDSIZE;
+    private static final String LONGLINK = "././@LongLink";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ParallelTar() {
+    }
+
+    /**
+     * Create a Tar file from a directory
+     *
+     * @param directory
+     * @param filename
+     *            the Tar file to create
+     * @param absolute
+     *            True to name the entries by their path relative to the directory, else by their
+     *            base name only (as TarUtility)
+     * @return True if OK
+     */
+    public static boolean createTarFromDirectory(String directory, String filename, boolean absolute) {
+        File root = new File(directory);
+        if (!root.isDirectory()) {
+            logger.error("Not a directory: " + directory);
+            return false;
+        }
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        try {
+            ArchiveHelper.listDirectory(root, absolute, new File(filename), files, names);
+        } catch (IOException e) {
+            logger.error("Cannot list directory: " + directory, e);
+            return false;
+        }
+        return createTarFile(files, names, filename);
+    }
+
+    /**
+     * Create a Tar file from a list of files (or directories), each one by its base name
+     *
+     * @param sources
+     * @param filename
+     *            the Tar file to create
+     * @return True if OK
+     */
+    public static boolean createTarFromFiles(List<File> sources, String filename) {
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        ArchiveHelper.listFiles(sources, files, names);
+        return createTarFile(files, names, filename);
+    }
+
+    private static boolean createTarFile(List<File> files, List<String> names, String filename) {
+        File tarFile = new File(filename);
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tarFile), 65536);
+            createTar(files, names, out);
+            out.close();
+            out = null;
+            return true;
+        } catch (IOException e) {
+            logger.error("Cannot create Tar file " + filename, e);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e1) {
+                }
+            }
+            tarFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Streaming mode: write the Tar archive of the files to the stream
+     *
+     * @param files
+     *            files and directories
+     * @param names
+     *            names of the entries (directories ending with '/')
+     * @param out
+     *            not closed
+     * @throws IOException
+     */
+    public static void createTar(List<File> files, List<String> names, OutputStream out)
+            throws IOException {
+        ArchiveHelper.CountingOutputStream counting = new ArchiveHelper.CountingOutputStream(out);
+        ExecutorService executor = ArchiveHelper.getExecutor();
+        int window = ArchiveHelper.getWindow();
+        // null for the entries not read ahead
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        int next = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                // read ahead small files
+                while (next < files.size() && next - i < window) {
+                    final File file = files.get(next);
+                    if (!names.get(next).endsWith("/") && file.length() <= PARALLELMAX) {
+                        pending.addLast(executor.submit(new Callable<byte[]>() {
+                            public byte[] call() throws IOException {
+                                return readFile(file);
+                            }
+                        }));
+                    } else {
+                        pending.addLast(null);
+                    }
+                    next++;
+                }
+                Future<byte[]> future = pending.pollFirst();
+                File file = files.get(i);
+                String name = names.get(i);
+                if (name.endsWith("/")) {
+                    writeHeader(counting, name, '5', 0, file.lastModified());
+                } else if (future != null) {
+                    byte[] data = ArchiveHelper.get(future);
+                    writeHeader(counting, name, '0', data.length, file.lastModified());
+                    counting.write(data);
+                    pad(counting, data.length);
+                } else {
+                    long size = file.length();
+                    writeHeader(counting, name, '0', size, file.lastModified());
+                    InputStream in = new FileInputStream(file);
+                    long copied = 0;
+                    try {
+                        byte[] buffer = new byte[65536];
+                        int n;
+                        while (copied < size && (n = in.read(buffer, 0,
+                                (int) Math.min(buffer.length, size - copied))) >= 0) {
+                            counting.write(buffer, 0, n);
+                            copied += n;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    if (copied != size) {
+                        throw new IOException("File changed while archived: " + file);
+                    }
+                    pad(counting, size);
+                }
+            }
+        } finally {
+            // only in error: read ahead no more useful
+            for (Future<byte[]> future : pending) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+        // end of archive: 2 empty records, then up to the blocking size
+        byte[] zero = new byte[RECORDSIZE];
+        counting.write(zero);
+        counting.write(zero);
+        while (counting.count % BLOCKINGSIZE != 0) {
+            counting.write(zero);
+        }
+        counting.flush();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int read = ArchiveHelper.readFully(in, data, data.length);
+            return read == data.length ? data : Arrays.copyOf(data, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void pad(OutputStream out, long size) throws IOException {
+        int rest = (int) (size % RECORDSIZE);
+        if (rest != 0) {
+            out.write(new byte[RECORDSIZE - rest]);
+        }
+    }
+
+    private static void writeHeader(OutputStream out, String name, char type, long size, long time)
+            throws IOException {
+        byte[] bname = name.getBytes(UTF8);
+        if (bname.length > 100) {
+            // GNU long name
+            writeHeader(out, LONGLINK.getBytes(UTF8), 'L', bname.length + 1, 0);
+            out.write(bname);
+            out.write(0);
+            pad(out, bname.length + 1);
+            bname = Arrays.copyOf(bname, 100);
+        }
+        writeHeader(out, bname, type, size, time);
+    }
+
+    private static void writeHeader(OutputStream out, byte[] name, char type, long size, long time)
+            throws IOException {
+        byte[] header = new byte[RECORDSIZE];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        putOctal(header, 100, 8, type == '5' ? 0755 : 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        if (size > 077777777777L) {
+            // base-256 for big files
+            header[124] = (byte) 0x80;
+            for (int i = 135; i > 124; i--) {
+                header[i] = (byte) size;
+                size >>>= 8;
+            }
+        } else {
+            putOctal(header, 124, 12, size);
+        }
+        putOctal(header, 136, 12, time / 1000);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = (byte) type;
+        byte[] magic = "ustar".getBytes(UTF8);
+        System.arraycopy(magic, 0, header, 257, magic.length);
+        header[263] = '0';
+        header[264] = '0';
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    /**
+     * Octal value on length-1 digits followed by NUL
+     */
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        int pos = offset + length - 1;
+        header[pos--] = 0;
+        while (pos >= offset) {
+            header[pos--] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+    }
+
+    /**
+     * Extract a Tar file, small files being written in parallel
+     *
+     * @param tarFile
+     * @param directory
+     *            target directory
+     * @throws IOException
+     */
+    public static void unTar(File tarFile, File directory) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(tarFile), 65536);
+        try {
+            unTar(in, directory);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Extract a Tar archive from a stream, small files being written in parallel
+     *
+     * @param in
+     *            not closed
+     * @param directory
+     *            target directory
+     * @throws IOException
+     */
+    public static void unTar(InputStream in, File directory) throws IOException {
+        directory.mkdirs();
+        String root = directory.getCanonicalPath();
+        ExecutorService executor = ArchiveHelper.getExecutor();
+        int window = ArchiveHelper.getWindow();
+        ArrayDeque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+        byte[] header = new byte[RECORDSIZE];
+        String longName = null;
+        try {
+            for (;;) {
+                if (ArchiveHelper.readFully(in, header, RECORDSIZE) < RECORDSIZE
+                        || isZero(header)) {
+                    break;
+                }
+                char type = (char) header[156];
+                long size = getSize(header);
+                String name = longName != null ? longName : getName(header);
+                longName = null;
+                if (type == 'L' || type == 'x') {
+                    byte[] data = readData(in, size);
+                    longName = type == 'L' ? getString(data, 0, data.length) : getPaxPath(data);
+                    continue;
+                }
+                if (type == '5') {
+                    ArchiveHelper.getTarget(directory, root, name).mkdirs();
+                    continue;
+                }
+                if (type != '0' && type != 0 && type != '7') {
+                    // links, devices, global headers: ignored
+                    skip(in, size);
+                    continue;
+                }
+                final File target = ArchiveHelper.getTarget(directory, root, name);
+                File parent = target.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                final long time = getOctal(header, 136, 12) * 1000;
+                if (size <= PARALLELMAX) {
+                    final byte[] data = readData(in, size);
+                    while (pending.size() >= window) {
+                        ArchiveHelper.get(pending.pollFirst());
+                    }
+                    pending.addLast(executor.submit(new Callable<Void>() {
+                        public Void call() throws IOException {
+                            OutputStream out = new FileOutputStream(target);
+                            try {
+                                out.write(data);
+                            } finally {
+                                out.close();
+                            }
+                            target.setLastModified(time);
+                            return null;
+                        }
+                    }));
+                } else {
+                    OutputStream out = new FileOutputStream(target);
+                    try {
+                        byte[] buffer = new byte[65536];
+                        long rest = size;
+                        while (rest > 0) {
+                            int n = in.read(buffer, 0, (int) Math.min(buffer.length, rest));
+                            if (n < 0) {
+                                throw new IOException("Truncated Tar archive");
+                            }
+                            out.write(buffer, 0, n);
+                            rest -= n;
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    skip(in, padding(size));
+                    target.setLastModified(time);
+                }
+            }
+        } finally {
+            ArchiveHelper.waitAll(pending);
+        }
+    }
+
+    private static boolean isZero(byte[] header) {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long padding(long size) {
+        int rest = (int) (size % RECORDSIZE);
+        return rest == 0 ? 0 : RECORDSIZE - rest;
+    }
+
+    private static byte[] readData(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - RECORDSIZE) {
+            throw new IOException("Bad Tar header");
+        }
+        byte[] data = new byte[(int) size];
+        if (ArchiveHelper.readFully(in, data, data.length) < data.length) {
+            throw new IOException("Truncated Tar archive");
+        }
+        skip(in, padding(size));
+        return data;
+    }
+
+    private static void skip(InputStream in, long size) throws IOException {
+        long rest = size;
+        byte[] buffer = null;
+        while (rest > 0) {
+            long n = in.skip(rest);
+            if (n <= 0) {
+                if (buffer == null) {
+                    buffer = new byte[RECORDSIZE];
+                }
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, rest));
+                if (read < 0) {
+                    throw new IOException("Truncated Tar archive");
+                }
+                n = read;
+            }
+            rest -= n;
+        }
+    }
+
+    private static String getString(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, UTF8);
+    }
+
+    private static String getName(byte[] header) {
+        String name = getString(header, 0, 100);
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a'
+                && header[261] == 'r' && header[345] != 0) {
+            name = getString(header, 345, 155) + "/" + name;
+        }
+        return name;
+    }
+
+    private static long getOctal(byte[] header, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                value = (value << 3) + (b - '0');
+            } else if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static long getSize(byte[] header) {
+        if ((header[124] & 0x80) != 0) {
+            long value = 0;
+            for (int i = 125; i < 136; i++) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        return getOctal(header, 124, 12);
+    }
+
+    /**
+     * @param data
+     *            PAX extended header records "length key=value\n"
+     * @return the path or null
+     */
+    private static String getPaxPath(byte[] data) {
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            int length = 0;
+            while (space < data.length && data[space] >= '0' && data[space] <= '9') {
+                length = length * 10 + (data[space] - '0');
+                space++;
+            }
+            if (space >= data.length || data[space] != ' ' || length <= space - pos
+                    || pos + length > data.length) {
+                break;
+            }
+            // record without the final '\n'
+            String record = new String(data, space + 1, pos + length - space - 2, UTF8);
+            if (record.startsWith("path=")) {
+                return record.substring(5);
+            }
+            pos += length;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+/**
+ * Parallel Zip archiver, same usage as ZipUtility.<br>
+ * <br>
+ * Files are cut in blocks deflated in parallel, each block using the end of the previous one as
+ * dictionary and ending with a sync flush (as pigz does), such that the concatenation is one
+ * standard deflate stream. Blocks are written in order as they are ready, and the CRC and sizes
+ * follow the data of each entry (data descriptor), so the archive can be written to any stream
+ * (no temporary file needed). Zip64 is used when needed. Extraction is done by entries in
+ * parallel.<br>
+ * <br>
+ * The threads are shared by all archiving operations (see Configuration.getArchiveExecutor).
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class ParallelZip {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(ParallelZip.class);
+
+    /**
+     * Size of the blocks deflated in parallel
+     */
+    static final int BLOCKSIZE = 128 * 1024;
+    /**
+     * Size of the dictionary taken from the previous block
+     */
+    private static final int DICTSIZE = 32 * 1024;
+    private static final long ZIP32LIMIT = 0xFFFFFFFFL;
+    /**
+     * Above this size, an entry is written as Zip64 (margin for incompressible data)
+     */
+    private static final long ZIP64THRESHOLD = ZIP32LIMIT - (16 << 20);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    private ParallelZip() {
+    }
+
+    /**
+     * Create a Zip file from a directory
+     *
+     * @param directory
+     * @param filename
+     *            the Zip file to create
+     * @param absolute
+     *            True to name the entries by their path relative to the directory, else by their
+     *            base name only (as ZipUtility)
+     * @return True if OK
+     */
+    public static boolean createZipFromDirectory(String directory, String filename, boolean absolute) {
+        File root = new File(directory);
+        if (!root.isDirectory()) {
+            logger.error("Not a directory: " + directory);
+            return false;
+        }
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        try {
+            ArchiveHelper.listDirectory(root, absolute, new File(filename), files, names);
+        } catch (IOException e) {
+            logger.error("Cannot list directory: " + directory, e);
+            return false;
+        }
+        return createZipFile(files, names, filename);
+    }
+
+    /**
+     * Create a Zip file from a list of files (or directories), each one by its base name
+     *
+     * @param sources
+     * @param filename
+     *            the Zip file to create
+     * @return True if OK
+     */
+    public static boolean createZipFromFiles(List<File> sources, String filename) {
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        ArchiveHelper.listFiles(sources, files, names);
+        return createZipFile(files, names, filename);
+    }
+
+    private static boolean createZipFile(List<File> files, List<String> names, String filename) {
+        File zipFile = new File(filename);
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(zipFile), 65536);
+            createZip(files, names, out);
+            out.close();
+            out = null;
+            return true;
+        } catch (IOException e) {
+            logger.error("Cannot create Zip file " + filename, e);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e1) {
+                }
+            }
+            zipFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Streaming mode: write the Zip archive of the files to the stream, block by block
+     *
+     * @param files
+     *            files and directories
+     * @param names
+     *            names of the entries (directories ending with '/')
+     * @param out
+     *            not closed
+     * @throws IOException
+     */
+    public static void createZip(List<File> files, List<String> names, OutputStream out)
+            throws IOException {
+        ZipWriter writer = new ZipWriter(out);
+        for (int i = 0; i < files.size(); i++) {
+            String name = names.get(i);
+            if (name.endsWith("/")) {
+                writer.addDirectory(name, files.get(i).lastModified());
+            } else {
+                writer.addFile(files.get(i), name);
+            }
+        }
+        writer.finish();
+    }
+
+    /**
+     * Extract a Zip file, entries in parallel
+     *
+     * @param zipFile
+     * @param directory
+     *            target directory
+     * @throws IOException
+     */
+    public static void unZip(File zipFile, File directory) throws IOException {
+        final ZipFile zip = new ZipFile(zipFile);
+        ArrayDeque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+        try {
+            directory.mkdirs();
+            String root = directory.getCanonicalPath();
+            ExecutorService executor = ArchiveHelper.getExecutor();
+            int window = ArchiveHelper.getWindow();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final File target = ArchiveHelper.getTarget(directory, root, entry.getName());
+                if (entry.isDirectory()) {
+                    target.mkdirs();
+                    continue;
+                }
+                File parent = target.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                while (pending.size() >= window) {
+                    ArchiveHelper.get(pending.pollFirst());
+                }
+                pending.addLast(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            copy(in, target);
+                        } finally {
+                            in.close();
+                        }
+                        if (entry.getTime() > 0) {
+                            target.setLastModified(entry.getTime());
+                        }
+                        return null;
+                    }
+                }));
+            }
+        } finally {
+            try {
+                ArchiveHelper.waitAll(pending);
+            } finally {
+                zip.close();
+            }
+        }
+    }
+
+    static void copy(InputStream in, File target) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deflate of one block
+     */
+    private static class BlockDeflater implements Callable<byte[]> {
+        private final byte[] data;
+        private final int length;
+        private final byte[] previous;
+        private final boolean last;
+
+        BlockDeflater(byte[] data, int length, byte[] previous, boolean last) {
+            this.data = data;
+            this.length = length;
+            this.previous = previous;
+            this.last = last;
+        }
+
+        public byte[] call() {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            if (previous != null) {
+                deflater.setDictionary(previous, previous.length - DICTSIZE, DICTSIZE);
+            }
+            deflater.setInput(data, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] result = new byte[length + (length >> 4) + 64];
+            int size = 0;
+            for (;;) {
+                size += deflater.deflate(result, size, result.length - size,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                if (last ? deflater.finished() : size < result.length) {
+                    break;
+                }
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+            }
+            return size == result.length ? result : Arrays.copyOf(result, size);
+        }
+    }
+
+    /**
+     * Entry as needed in the central directory
+     */
+    private static class CentralEntry {
+        byte[] name;
+        int method;
+        int time;
+        int date;
+        long crc;
+        long compressed;
+        long size;
+        long offset;
+        boolean zip64;
+        boolean directory;
+    }
+
+    /**
+     * Sequential writer of the Zip format
+     */
+    private static class ZipWriter {
+        private final ArchiveHelper.CountingOutputStream out;
+        private final List<CentralEntry> entries = new ArrayList<CentralEntry>();
+        private final byte[] header = new byte[64];
+        private final ExecutorService executor = ArchiveHelper.getExecutor();
+        private final int window = ArchiveHelper.getWindow();
+
+        ZipWriter(OutputStream out) {
+            this.out = new ArchiveHelper.CountingOutputStream(out);
+        }
+
+        private CentralEntry newEntry(String name, long time, boolean directory, boolean zip64) {
+            CentralEntry entry = new CentralEntry();
+            entry.name = name.getBytes(UTF8);
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            if (calendar.get(Calendar.YEAR) < 1980) {
+                entry.time = 0;
+                entry.date = (1 << 5) | 1;
+            } else {
+                entry.time = (calendar.get(Calendar.SECOND) >> 1)
+                        | (calendar.get(Calendar.MINUTE) << 5)
+                        | (calendar.get(Calendar.HOUR_OF_DAY) << 11);
+                entry.date = calendar.get(Calendar.DAY_OF_MONTH)
+                        | ((calendar.get(Calendar.MONTH) + 1) << 5)
+                        | ((calendar.get(Calendar.YEAR) - 1980) << 9);
+            }
+            entry.directory = directory;
+            entry.method = directory ? ZipEntry.STORED : ZipEntry.DEFLATED;
+            entry.zip64 = zip64;
+            entry.offset = out.count;
+            return entry;
+        }
+
+        private void writeLocalHeader(CentralEntry entry) throws IOException {
+            int pos = 0;
+            pos = putInt(header, pos, 0x04034b50);
+            pos = putShort(header, pos, entry.zip64 ? 45 : 20);
+            // data descriptor and UTF-8 names
+            pos = putShort(header, pos, entry.directory ? 0x800 : 0x808);
+            pos = putShort(header, pos, entry.method);
+            pos = putShort(header, pos, entry.time);
+            pos = putShort(header, pos, entry.date);
+            pos = putInt(header, pos, 0);
+            pos = putInt(header, pos, entry.zip64 ? -1 : 0);
+            pos = putInt(header, pos, entry.zip64 ? -1 : 0);
+            pos = putShort(header, pos, entry.name.length);
+            pos = putShort(header, pos, entry.zip64 ? 20 : 0);
+            out.write(header, 0, pos);
+            out.write(entry.name);
+            if (entry.zip64) {
+                pos = 0;
+                pos = putShort(header, pos, 1);
+                pos = putShort(header, pos, 16);
+                pos = putLong(header, pos, 0);
+                pos = putLong(header, pos, 0);
+                out.write(header, 0, pos);
+            }
+        }
+
+        void addDirectory(String name, long time) throws IOException {
+            CentralEntry entry = newEntry(name, time, true, false);
+            writeLocalHeader(entry);
+            entries.add(entry);
+        }
+
+        void addFile(File file, String name) throws IOException {
+            CentralEntry entry = newEntry(name, file.lastModified(), false,
+                    file.length() >= ZIP64THRESHOLD);
+            writeLocalHeader(entry);
+            long start = out.count;
+            CRC32 crc = new CRC32();
+            long size = 0;
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] current = new byte[BLOCKSIZE];
+                int length = ArchiveHelper.readFully(in, current, BLOCKSIZE);
+                byte[] previous = null;
+                for (;;) {
+                    byte[] next = null;
+                    int nextLength = 0;
+                    if (length == BLOCKSIZE) {
+                        next = new byte[BLOCKSIZE];
+                        nextLength = ArchiveHelper.readFully(in, next, BLOCKSIZE);
+                    }
+                    boolean last = nextLength == 0;
+                    crc.update(current, 0, length);
+                    size += length;
+                    while (pending.size() >= window) {
+                        out.write(ArchiveHelper.get(pending.pollFirst()));
+                    }
+                    pending.addLast(executor.submit(new BlockDeflater(current, length,
+                            previous != null && previous.length >= DICTSIZE ? previous : null, last)));
+                    if (last) {
+                        break;
+                    }
+                    previous = current;
+                    current = next;
+                    length = nextLength;
+                }
+                while (!pending.isEmpty()) {
+                    out.write(ArchiveHelper.get(pending.pollFirst()));
+                }
+            } finally {
+                in.close();
+                ArchiveHelper.waitAll(pending);
+            }
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressed = out.count - start;
+            if (!entry.zip64 && (entry.size >= ZIP32LIMIT || entry.compressed >= ZIP32LIMIT)) {
+                throw new IOException("File changed while archived: " + file);
+            }
+            // data descriptor
+            int pos = 0;
+            pos = putInt(header, pos, 0x08074b50);
+            pos = putInt(header, pos, (int) entry.crc);
+            if (entry.zip64) {
+                pos = putLong(header, pos, entry.compressed);
+                pos = putLong(header, pos, entry.size);
+            } else {
+                pos = putInt(header, pos, (int) entry.compressed);
+                pos = putInt(header, pos, (int) entry.size);
+            }
+            out.write(header, 0, pos);
+            entries.add(entry);
+        }
+
+        void finish() throws IOException {
+            long cdOffset = out.count;
+            for (CentralEntry entry : entries) {
+                boolean zip64 = entry.zip64 || entry.offset >= ZIP32LIMIT;
+                int pos = 0;
+                pos = putInt(header, pos, 0x02014b50);
+                pos = putShort(header, pos, zip64 ? 45 : 20);
+                pos = putShort(header, pos, zip64 ? 45 : 20);
+                pos = putShort(header, pos, entry.directory ? 0x800 : 0x808);
+                pos = putShort(header, pos, entry.method);
+                pos = putShort(header, pos, entry.time);
+                pos = putShort(header, pos, entry.date);
+                pos = putInt(header, pos, (int) entry.crc);
+                pos = putInt(header, pos, zip64 ? -1 : (int) entry.compressed);
+                pos = putInt(header, pos, zip64 ? -1 : (int) entry.size);
+                pos = putShort(header, pos, entry.name.length);
+                pos = putShort(header, pos, zip64 ? 28 : 0);
+                pos = putShort(header, pos, 0);
+                pos = putShort(header, pos, 0);
+                pos = putShort(header, pos, 0);
+                pos = putInt(header, pos, entry.directory ? 0x10 : 0);
+                pos = putInt(header, pos, zip64 ? -1 : (int) entry.offset);
+                out.write(header, 0, pos);
+                out.write(entry.name);
+                if (zip64) {
+                    pos = 0;
+                    pos = putShort(header, pos, 1);
+                    pos = putShort(header, pos, 24);
+                    pos = putLong(header, pos, entry.size);
+                    pos = putLong(header, pos, entry.compressed);
+                    pos = putLong(header, pos, entry.offset);
+                    out.write(header, 0, pos);
+                }
+            }
+            long cdSize = out.count - cdOffset;
+            int nb = entries.size();
+            boolean zip64 = nb >= 0xFFFF || cdOffset >= ZIP32LIMIT || cdSize >= ZIP32LIMIT;
+            int pos;
+            if (zip64) {
+                long zip64Offset = out.count;
+                pos = 0;
+                pos = putInt(header, pos, 0x06064b50);
+                pos = putLong(header, pos, 44);
+                pos = putShort(header, pos, 45);
+                pos = putShort(header, pos, 45);
+                pos = putInt(header, pos, 0);
+                pos = putInt(header, pos, 0);
+                pos = putLong(header, pos, nb);
+                pos = putLong(header, pos, nb);
+                pos = putLong(header, pos, cdSize);
+                pos = putLong(header, pos, cdOffset);
+                out.write(header, 0, pos);
+                pos = 0;
+                pos = putInt(header, pos, 0x07064b50);
+                pos = putInt(header, pos, 0);
+                pos = putLong(header, pos, zip64Offset);
+                pos = putInt(header, pos, 1);
+                out.write(header, 0, pos);
+            }
+            pos = 0;
+            pos = putInt(header, pos, 0x06054b50);
+            pos = putShort(header, pos, 0);
+            pos = putShort(header, pos, 0);
+            pos = putShort(header, pos, zip64 ? 0xFFFF : nb);
+            pos = putShort(header, pos, zip64 ? 0xFFFF : nb);
+            pos = putInt(header, pos, zip64 ? -1 : (int) cdSize);
+            pos = putInt(header, pos, zip64 ? -1 : (int) cdOffset);
+            pos = putShort(header, pos, 0);
+            out.write(header, 0, pos);
+            out.flush();
+        }
+    }
+
+    private static int putShort(byte[] buffer, int pos, int value) {
+        buffer[pos] = (byte) value;
+        buffer[pos + 1] = (byte) (value >> 8);
+        return pos + 2;
+    }
+
+    private static int putInt(byte[] buffer, int pos, int value) {
+        pos = putShort(buffer, pos, value);
+        return putShort(buffer, pos, value >> 16);
+    }
+
+    private static int putLong(byte[] buffer, int pos, long value) {
+        pos = putInt(buffer, pos, (int) value);
+        return putInt(buffer, pos, (int) (value >> 32));
+    }
+}
@@ -0,0 +1,492 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+
+/**
+ * Bundle of many (small) files sent as one R66 transfer.<br>
+ * <br>
+ * A bundle is a framed sequence of entries, each one with its name, its size, its data and its
+ * digest:<br>
+ * <tt>MAGIC VERSION digestAlgo ( 1 name size data digest )* 0 count totalSize</tt><br>
+ * <br>
+ * The extraction is restartable at entry granularity: an entry already present in the target
+ * directory with the same size and digest is skipped, and each entry is written under a temporary
+ * name before being renamed, such that a partial entry is never seen as done. The entry handler is
+ * run again on an entry already present unless the result file of the previous extraction records
+ * this entry as done (OK or SKIPPED), such that an entry whose task failed or was interrupted gets
+ * its task on the next run.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public final class R66Bundle {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(R66Bundle.class);
+
+    private static final int MAGIC = 0x52363642; // "R66B"
+    private static final byte VERSION = 1;
+    private static final byte ENTRY = 1;
+    private static final byte END = 0;
+    private static final int BUFFER_SIZE = 65536;
+    /**
+     * Extension of the file of the results of one extraction, next to the bundle
+     */
+    public static final String RESULT_EXTENSION = ".result";
+    private static final String PART_EXTENSION = ".part";
+
+    /**
+     * Status of one entry after extraction
+     */
+    public static enum EntryStatus {
+        /**
+         * Entry extracted and checked
+         */
+        OK,
+        /**
+         * Entry already extracted and handled (restart)
+         */
+        SKIPPED,
+        /**
+         * Entry with a wrong digest, not extracted
+         */
+        DIGESTERROR,
+        /**
+         * Entry extracted but its task failed
+         */
+        TASKERROR;
+    }
+
+    /**
+     * Called after each extracted entry
+     */
+    public static interface EntryHandler {
+        /**
+         *
+         * @param name
+         *            name of the entry
+         * @param file
+         *            the extracted file
+         * @return True if the entry is correctly handled
+         */
+        boolean entryDone(String name, File file);
+    }
+
+    /**
+     * Result of an extraction
+     */
+    public static class BundleResult {
+        private int ok = 0;
+        private int skipped = 0;
+        private int errors = 0;
+        private long size = 0;
+
+        /**
+         * @return the number of entries extracted
+         */
+        public int getOk() {
+            return ok;
+        }
+
+        /**
+         * @return the number of entries already extracted before (restart)
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the number of entries in error
+         */
+        public int getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the total number of entries
+         */
+        public int getEntries() {
+            return ok + skipped + errors;
+        }
+
+        /**
+         * @return the total size of the entries
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "Entries: " + getEntries() + " Ok: " + ok + " Skipped: " + skipped +
+                    " Errors: " + errors + " Size: " + size;
+        }
+    }
+
+    private R66Bundle() {
+    }
+
+    /**
+     * Create a bundle from a list of files (or directories), each one by its base name
+     *
+     * @param sources
+     * @param bundle
+     *            the bundle file to create
+     * @param algo
+     *            the digest algorithm of the entries
+     * @return the number of entries, or -1 in error
+     */
+    public static int createBundle(List<File> sources, File bundle, DigestAlgo algo) {
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        ArchiveHelper.listFiles(sources, files, names);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(bundle);
+            int count = createBundle(files, names, out, algo);
+            out.close();
+            out = null;
+            return count;
+        } catch (IOException e) {
+            logger.error("Cannot create Bundle: " + bundle, e);
+            bundle.delete();
+            return -1;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+                bundle.delete();
+            }
+        }
+    }
+
+    /**
+     * Write a bundle into the stream (directories are ignored since implicit from names)
+     *
+     * @param files
+     * @param names
+     * @param output
+     * @param algo
+     * @return the number of entries
+     * @throws IOException
+     */
+    public static int createBundle(List<File> files, List<String> names, OutputStream output,
+            DigestAlgo algo) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(algo.name());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count = 0;
+        long total = 0;
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            if (!file.isFile()) {
+                continue;
+            }
+            long size = file.length();
+            out.writeByte(ENTRY);
+            out.writeUTF(names.get(i));
+            out.writeLong(size);
+            FilesystemBasedDigest digest = newDigest(algo);
+            InputStream in = new FileInputStream(file);
+            try {
+                long still = size;
+                while (still > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, still));
+                    if (read < 0) {
+                        throw new IOException("File changed while bundled: " + file);
+                    }
+                    out.write(buffer, 0, read);
+                    digest.Update(buffer, 0, read);
+                    still -= read;
+                }
+            } finally {
+                in.close();
+            }
+            byte[] hash = digest.Final();
+            out.writeShort(hash.length);
+            out.write(hash);
+            count++;
+            total += size;
+        }
+        out.writeByte(END);
+        out.writeInt(count);
+        out.writeLong(total);
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Extract the bundle into the directory, writing the status of each entry into the result
+     * file (bundle name followed by .result). The handler is called for each entry extracted, and
+     * for each entry already present but not recorded as done by the previous result file.
+     *
+     * @param bundle
+     * @param directory
+     * @param handler
+     *            called after each entry extracted, might be null
+     * @return the result of the extraction
+     * @throws IOException
+     *             if the bundle is not readable or truncated
+     */
+    public static BundleResult unBundle(File bundle, File directory, EntryHandler handler)
+            throws IOException {
+        directory.mkdirs();
+        String root = directory.getCanonicalPath();
+        BundleResult result = new BundleResult();
+        File resultFile = new File(bundle.getPath() + RESULT_EXTENSION);
+        Set<String> done = readDone(resultFile);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(bundle), BUFFER_SIZE));
+        Writer resultWriter = null;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a Bundle: " + bundle);
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported Bundle version: " + version);
+            }
+            DigestAlgo algo;
+            try {
+                algo = DigestAlgo.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported Bundle digest", e);
+            }
+            resultWriter = new OutputStreamWriter(new FileOutputStream(resultFile),
+                    WaarpStringUtils.UTF8);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.readByte() == ENTRY) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                File target = ArchiveHelper.getTarget(directory, root, name);
+                EntryStatus status = extractEntry(in, target, size, algo, buffer);
+                if (status == EntryStatus.SKIPPED && handler != null && !done.contains(name)) {
+                    // present but its task failed or was not recorded
+                    status = EntryStatus.OK;
+                }
+                if (status == EntryStatus.OK && handler != null && !handler.entryDone(name, target)) {
+                    status = EntryStatus.TASKERROR;
+                }
+                switch (status) {
+                    case OK:
+                        result.ok++;
+                        break;
+                    case SKIPPED:
+                        result.skipped++;
+                        break;
+                    default:
+                        result.errors++;
+                        logger.warn("Bundle entry in error: " + name + " " + status.name());
+                }
+                result.size += size;
+                resultWriter.write(status.name() + " " + size + " " + name + "\n");
+                resultWriter.flush();
+            }
+            int count = in.readInt();
+            long total = in.readLong();
+            if (count != result.getEntries() || total != result.size) {
+                throw new IOException("Bundle inconsistent: " + count + " entries of " + total +
+                        " bytes while read " + result);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Bundle truncated: " + bundle, e);
+        } finally {
+            in.close();
+            if (resultWriter != null) {
+                resultWriter.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param resultFile
+     *            the result file of a previous extraction
+     * @return the names of the entries recorded as done (OK or SKIPPED) in this file, empty if none
+     * @throws IOException
+     */
+    private static Set<String> readDone(File resultFile) throws IOException {
+        Set<String> done = new HashSet<String>();
+        if (!resultFile.isFile()) {
+            return done;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(resultFile), WaarpStringUtils.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // status size name, the name possibly containing spaces
+                String[] fields = line.split(" ", 3);
+                if (fields.length == 3 && (fields[0].equals(EntryStatus.OK.name())
+                        || fields[0].equals(EntryStatus.SKIPPED.name()))) {
+                    done.add(fields[2]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return done;
+    }
+
+    /**
+     * Extract one entry, the stream being positioned on its data. If a file of the same size is
+     * already there, it is compared while reading and only rewritten from the first difference.
+     */
+    private static EntryStatus extractEntry(DataInputStream in, File target, long size,
+            DigestAlgo algo, byte[] buffer) throws IOException {
+        FilesystemBasedDigest digest = newDigest(algo);
+        File part = new File(target.getPath() + PART_EXTENSION);
+        InputStream existing = null;
+        OutputStream out = null;
+        byte[] compare = null;
+        try {
+            if (target.isFile() && target.length() == size) {
+                existing = new FileInputStream(target);
+                compare = new byte[buffer.length];
+            } else {
+                File parent = target.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                out = new FileOutputStream(part);
+            }
+            long done = 0;
+            while (done < size) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, size - done));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                digest.Update(buffer, 0, read);
+                if (existing != null && !sameContent(existing, buffer, compare, read)) {
+                    existing.close();
+                    existing = null;
+                    out = new FileOutputStream(part);
+                    copyPrefix(target, out, done, compare);
+                }
+                if (out != null) {
+                    out.write(buffer, 0, read);
+                }
+                done += read;
+            }
+        } finally {
+            if (existing != null) {
+                existing.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+        boolean valid = Arrays.equals(readDigest(in), digest.Final());
+        if (out == null) {
+            // identical to the already extracted file
+            return valid ? EntryStatus.SKIPPED : EntryStatus.DIGESTERROR;
+        }
+        if (!valid) {
+            part.delete();
+            return EntryStatus.DIGESTERROR;
+        }
+        if (target.exists() && !target.delete()) {
+            part.delete();
+            throw new IOException("Cannot replace: " + target);
+        }
+        if (!part.renameTo(target)) {
+            part.delete();
+            throw new IOException("Cannot rename to: " + target);
+        }
+        return EntryStatus.OK;
+    }
+
+    private static boolean sameContent(InputStream existing, byte[] buffer, byte[] compare,
+            int length) throws IOException {
+        if (ArchiveHelper.readFully(existing, compare, length) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != compare[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void copyPrefix(File file, OutputStream out, long length, byte[] buffer)
+            throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            long still = length;
+            while (still > 0) {
+                int read = ArchiveHelper.readFully(in, buffer, (int) Math.min(buffer.length, still));
+                if (read <= 0) {
+                    throw new IOException("File changed while extracted: " + file);
+                }
+                out.write(buffer, 0, read);
+                still -= read;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readDigest(DataInputStream in) throws IOException {
+        byte[] hash = new byte[in.readUnsignedShort()];
+        in.readFully(hash);
+        return hash;
+    }
+
+    private static FilesystemBasedDigest newDigest(DigestAlgo algo) throws IOException {
+        try {
+            return new FilesystemBasedDigest(algo);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Digest not supported: " + algo, e);
+        }
+    }
+}
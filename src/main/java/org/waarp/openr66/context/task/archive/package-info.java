@@ -0,0 +1,7 @@
+/**
+ * Classes implementing the parallel archiving (Zip and Tar) used by ZipTask and TarTask
+ *
+ * @apiviz.landmark
+ */
+package org.waarp.openr66.context.task.archive;
+
@@ -18,6 +18,10 @@
 package org.waarp.openr66.context.task.localexec;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
@@ -34,7 +38,12 @@ import org.waarp.common.utility.WaarpNettyUtil;
 import org.waarp.openr66.protocol.configuration.Configuration;
 
 /**
- * Client to execute external command through Waarp Local Exec
+ * Client to execute external command through Waarp Local Exec<br>
+ * <br>
+ * Connections to the LocalExec daemon are kept open once a command is done and reused by the next
+ * commands, up to maxConnections used at the same time (others are waiting up to TIMEOUTCON). A
+ * connection closed by the daemon is replaced by a new one, and a connection whose command does not
+ * answer in time is closed and not reused.
  * 
  * @author Frederic Bregier
  * 
@@ -51,6 +60,20 @@ public class LocalExecClient {
     static private Bootstrap bootstrapLocalExec;
     // Configure the pipeline factory.
     static private LocalExecClientInitializer localExecClientInitializer;
+    /**
+     * Maximum number of connections used at the same time
+     */
+    static private Semaphore slots = new Semaphore(16, true);
+    static private final ArrayDeque<Channel> idleChannels = new ArrayDeque<Channel>();
+
+    // Statistics
+    static private final AtomicLong nbCommands = new AtomicLong();
+    static private final AtomicLong nbConnections = new AtomicLong();
+    static private final AtomicLong nbTimeouts = new AtomicLong();
+    static private final AtomicLong totalQueueTime = new AtomicLong();
+    static private final AtomicLong maxQueueTime = new AtomicLong();
+    static private final AtomicLong totalExecTime = new AtomicLong();
+    static private final AtomicLong maxExecTime = new AtomicLong();
 
     /**
      * Initialize the LocalExec Client context
@@ -65,6 +88,18 @@ public class LocalExecClient {
         bootstrapLocalExec.handler(localExecClientInitializer);
     }
 
+    /**
+     * To be called before initialize()
+     * 
+     * @param max
+     *            the maximum number of connections to the LocalExec daemon used at the same time
+     */
+    public static void setMaxConnections(int max) {
+        if (max > 0) {
+            slots = new Semaphore(max, true);
+        }
+    }
+
     /**
      * To be called when the server is shutting down to release the resources
      */
@@ -72,13 +107,43 @@ public class LocalExecClient {
         if (bootstrapLocalExec == null) {
             return;
         }
+        synchronized (idleChannels) {
+            for (Channel idle : idleChannels) {
+                WaarpSslUtility.closingSslChannel(idle);
+            }
+            idleChannels.clear();
+        }
         // Shut down all thread pools to exit.
         bootstrapLocalExec.group().shutdownGracefully();
         localExecClientInitializer.releaseResources();
     }
 
+    /**
+     * 
+     * @return the number of commands, the number of new connections, the number of commands in
+     *         timeout, the average and maximum wait in ms for a connection, the average and maximum
+     *         execution time in ms
+     */
+    public static long[] getStatistics() {
+        long nb = nbCommands.get();
+        return new long[] {
+                nb, nbConnections.get(), nbTimeouts.get(),
+                nb > 0 ? totalQueueTime.get() / nb : 0, maxQueueTime.get(),
+                nb > 0 ? totalExecTime.get() / nb : 0, maxExecTime.get() };
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long value) {
+        total.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
     private Channel channel;
     private LocalExecResult result;
+    private boolean hasSlot = false;
+    private boolean reusable = false;
 
     public LocalExecClient() {
 
@@ -108,7 +173,17 @@ public class LocalExecClient {
             logger.info("Exec OK with {}", command);
         }
         // Wait for the end of the exec command
+        long start = System.currentTimeMillis();
         LocalExecResult localExecResult = clientHandler.waitFor(delay * 2);
+        long elapsed = System.currentTimeMillis() - start;
+        record(totalExecTime, maxExecTime, elapsed);
+        if ((delay > 0 && elapsed >= delay * 2) || !channel.isActive()) {
+            // no answer in time: the connection is in an unknown state
+            nbTimeouts.incrementAndGet();
+            reusable = false;
+        } else {
+            reusable = true;
+        }
         result = localExecResult;
         if (futureCompletion == null) {
             return;
@@ -133,9 +208,32 @@ public class LocalExecClient {
     }
 
     /**
-     * Connect to the Server
+     * Connect to the Server, reusing an idle connection if any
      */
     public boolean connect() {
+        long start = System.currentTimeMillis();
+        try {
+            if (!slots.tryAcquire(Configuration.configuration.getTIMEOUTCON(), TimeUnit.MILLISECONDS)) {
+                logger.warn("No LocalExec connection available in time");
+                return false;
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        hasSlot = true;
+        nbCommands.incrementAndGet();
+        record(totalQueueTime, maxQueueTime, System.currentTimeMillis() - start);
+        for (;;) {
+            synchronized (idleChannels) {
+                channel = idleChannels.pollLast();
+            }
+            if (channel == null || channel.isActive()) {
+                break;
+            }
+        }
+        if (channel != null) {
+            return true;
+        }
         // Start the connection attempt.
         ChannelFuture future = bootstrapLocalExec.connect(address);
 
@@ -146,20 +244,42 @@ public class LocalExecClient {
         }
         if (!future.isSuccess()) {
             logger.error("Client Not Connected", future.cause());
+            channel = null;
+            hasSlot = false;
+            slots.release();
             return false;
         }
+        nbConnections.incrementAndGet();
         return true;
     }
 
     /**
-     * Disconnect from the server
+     * Release the connection, kept for a next command if possible
      */
     public void disconnect() {
-        // Close the connection. Make sure the close operation ends because
-        // all I/O operations are asynchronous in Netty.
         try {
-            WaarpSslUtility.closingSslChannel(channel).await(Configuration.configuration.getTIMEOUTCON());
-        } catch (InterruptedException e) {
+            if (channel == null) {
+                return;
+            }
+            if (reusable && channel.isActive()) {
+                synchronized (idleChannels) {
+                    idleChannels.addLast(channel);
+                }
+                channel = null;
+                return;
+            }
+            // Close the connection. Make sure the close operation ends because
+            // all I/O operations are asynchronous in Netty.
+            try {
+                WaarpSslUtility.closingSslChannel(channel).await(Configuration.configuration.getTIMEOUTCON());
+            } catch (InterruptedException e) {
+            }
+            channel = null;
+        } finally {
+            if (hasSlot) {
+                hasSlot = false;
+                slots.release();
+            }
         }
     }
 }
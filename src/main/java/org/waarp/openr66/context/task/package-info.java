@@ -57,6 +57,10 @@
  * </li>
  * <li>Delay is generally the delay (if any) for execution before the execution becomes out of time.
  * </li>
+ * <li>Group (optional) is a name shared by consecutive tasks to run concurrently, the step
+ * being in error if one of them is in error. Tasks that change the current file or the transfer
+ * (MOVE, MOVERENAME, LINKRENAME, RENAME, EXECMOVE, DELETE, RESCHEDULE, RESTART, UNZEROED) are
+ * always run alone.</li>
  * <li>Additionnaly, a task will use also the argument from the transfer itself (Transfer
  * Information).</li>
  * </ul>
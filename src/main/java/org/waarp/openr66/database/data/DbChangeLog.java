@@ -0,0 +1,479 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.data.AbstractDbData;
+import org.waarp.common.database.data.DbValue;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.LongUuid;
+
+/**
+ * Change Log Table object, used in multiple monitors mode (HA) to propagate configuration changes
+ * between monitors sharing the same database.<br>
+ * <br>
+ * Each change on a Configuration, HostConfiguration, HostAuth or Rule is recorded with a
+ * monotonic version (MAX + 1, retried on primary key conflict), such that each monitor only
+ * tails the log from its last seen version and reloads the changed entities, without any lock
+ * between monitors.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class DbChangeLog extends AbstractDbData {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbChangeLog.class);
+
+    public static enum Columns {
+        ENTITY,
+        ENTITYID,
+        ORIGIN,
+        CHANGETIME,
+        VERSION
+    }
+
+    public static final int[] dbTypes = {
+            Types.INTEGER, Types.NVARCHAR, Types.BIGINT, Types.TIMESTAMP, Types.BIGINT };
+
+    public static final String table = " CHANGELOG ";
+
+    /**
+     * Kind of entity changed
+     */
+    public static enum Entity {
+        CONFIGURATION,
+        HOSTCONFIGURATION,
+        HOSTAUTH,
+        RULE
+    }
+
+    /**
+     * Number of tries when the version is concurrently taken by another monitor
+     */
+    private static final int MAXTRY = 10;
+
+    /**
+     * Unique id of this monitor, since all monitors in HA mode share the same HOST_ID
+     */
+    private static final long ORIGIN = new LongUuid().getLong();
+
+    private int entity;
+
+    private String entityId;
+
+    private long origin;
+
+    private Timestamp changeTime;
+
+    private long version;
+
+    // ALL TABLE SHOULD IMPLEMENT THIS
+    public static final int NBPRKEY = 1;
+
+    protected static final String selectAllFields = Columns.ENTITY.name() + "," +
+            Columns.ENTITYID.name() + "," + Columns.ORIGIN.name() + "," +
+            Columns.CHANGETIME.name() + "," + Columns.VERSION.name();
+
+    protected static final String updateAllFields = Columns.ENTITY.name() + "=?," +
+            Columns.ENTITYID.name() + "=?," + Columns.ORIGIN.name() + "=?," +
+            Columns.CHANGETIME.name() + "=?";
+
+    protected static final String insertAllValues = " (?,?,?,?,?) ";
+
+    @Override
+    protected void initObject() {
+        primaryKey = new DbValue[] { new DbValue(version, Columns.VERSION.name()) };
+        otherFields = new DbValue[] {
+                new DbValue(entity, Columns.ENTITY.name()),
+                new DbValue(entityId, Columns.ENTITYID.name()),
+                new DbValue(origin, Columns.ORIGIN.name()),
+                new DbValue(changeTime, Columns.CHANGETIME.name()) };
+        allFields = new DbValue[] {
+                otherFields[0], otherFields[1], otherFields[2], otherFields[3], primaryKey[0] };
+    }
+
+    @Override
+    protected String getSelectAllFields() {
+        return selectAllFields;
+    }
+
+    @Override
+    protected String getTable() {
+        return table;
+    }
+
+    @Override
+    protected String getInsertAllValues() {
+        return insertAllValues;
+    }
+
+    @Override
+    protected String getUpdateAllFields() {
+        return updateAllFields;
+    }
+
+    @Override
+    protected void setToArray() {
+        allFields[Columns.ENTITY.ordinal()].setValue(entity);
+        allFields[Columns.ENTITYID.ordinal()].setValue(entityId);
+        allFields[Columns.ORIGIN.ordinal()].setValue(origin);
+        allFields[Columns.CHANGETIME.ordinal()].setValue(changeTime);
+        allFields[Columns.VERSION.ordinal()].setValue(version);
+    }
+
+    @Override
+    protected void setFromArray() throws WaarpDatabaseSqlException {
+        entity = (Integer) allFields[Columns.ENTITY.ordinal()].getValue();
+        entityId = (String) allFields[Columns.ENTITYID.ordinal()].getValue();
+        origin = (Long) allFields[Columns.ORIGIN.ordinal()].getValue();
+        changeTime = (Timestamp) allFields[Columns.CHANGETIME.ordinal()].getValue();
+        version = (Long) allFields[Columns.VERSION.ordinal()].getValue();
+    }
+
+    @Override
+    protected String getWherePrimaryKey() {
+        return primaryKey[0].getColumn() + " = ? ";
+    }
+
+    @Override
+    protected void setPrimaryKey() {
+        primaryKey[0].setValue(version);
+    }
+
+    /**
+     * Private constructor for Commander only
+     */
+    private DbChangeLog(DbSession session) {
+        super(session);
+    }
+
+    /**
+     * @param dbSession
+     * @param version
+     * @throws WaarpDatabaseException
+     */
+    public DbChangeLog(DbSession dbSession, long version) throws WaarpDatabaseException {
+        super(dbSession);
+        this.version = version;
+        // load from DB
+        select();
+    }
+
+    @Override
+    public void insert() throws WaarpDatabaseException {
+        if (isSaved) {
+            return;
+        }
+        if (dbSession == null) {
+            throw new WaarpDatabaseNoConnectionException("No database connection");
+        }
+        append(dbSession, Entity.values()[entity], entityId);
+        isSaved = true;
+    }
+
+    @Override
+    public void update() throws WaarpDatabaseException {
+        // A change is never updated
+        isSaved = true;
+    }
+
+    @Override
+    public void changeUpdatedInfo(UpdatedInfo info) {
+    }
+
+    /**
+     * For instance from Commander when getting new changes
+     *
+     * @param preparedStatement
+     * @return the next DbChangeLog
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbChangeLog getFromStatement(DbPreparedStatement preparedStatement)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbChangeLog dbChangeLog = new DbChangeLog(preparedStatement.getDbSession());
+        dbChangeLog.getValues(preparedStatement, dbChangeLog.allFields);
+        dbChangeLog.setFromArray();
+        dbChangeLog.isSaved = true;
+        return dbChangeLog;
+    }
+
+    /**
+     *
+     * @param session
+     * @return the last version recorded in the Change Log (0 if empty)
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     *             if the table is not available
+     */
+    public static long getLastVersion(DbSession session)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement("SELECT MAX(" + Columns.VERSION.name()
+                    + ") FROM " + table);
+            preparedStatement.executeQuery();
+            if (preparedStatement.getNext()) {
+                try {
+                    return preparedStatement.getResultSet().getLong(1);
+                } catch (SQLException e) {
+                    throw new WaarpDatabaseSqlException(e);
+                }
+            }
+            return 0;
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
+    /**
+     * Record one change, with the next available version
+     *
+     * @param session
+     * @param entity
+     * @param entityId
+     *            the primary key of the changed entity
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static void append(DbSession session, Entity entity, String entityId)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = "INSERT INTO " + table + " (" + selectAllFields + ") SELECT ?,?,?,?,"
+                + "COALESCE(MAX(" + Columns.VERSION.name() + "),0)+1 FROM " + table;
+        WaarpDatabaseSqlException last = null;
+        for (int i = 0; i < MAXTRY; i++) {
+            DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+            try {
+                preparedStatement.createPrepareStatement(request);
+                try {
+                    preparedStatement.getPreparedStatement().setInt(1, entity.ordinal());
+                    preparedStatement.getPreparedStatement().setString(2, entityId);
+                    preparedStatement.getPreparedStatement().setLong(3, ORIGIN);
+                    preparedStatement.getPreparedStatement().setTimestamp(4,
+                            new Timestamp(System.currentTimeMillis()));
+                } catch (SQLException e) {
+                    throw new WaarpDatabaseSqlException(e);
+                }
+                preparedStatement.executeUpdate();
+                return;
+            } catch (WaarpDatabaseSqlException e) {
+                // version concurrently taken by another monitor, retry with the next one
+                logger.debug("Change Log version conflict, retry: " + e.getMessage());
+                last = e;
+            } finally {
+                preparedStatement.realClose();
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * Reload all entities changed by other monitors since the given version
+     *
+     * @param session
+     * @param lastVersion
+     *            the last version already applied
+     * @return the new last version applied
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static long applyChanges(DbSession session, long lastVersion)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = "SELECT " + selectAllFields + " FROM " + table + " WHERE "
+                + Columns.VERSION.name() + " > ? ORDER BY " + Columns.VERSION.name();
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        long version = lastVersion;
+        try {
+            preparedStatement.createPrepareStatement(request);
+            try {
+                preparedStatement.getPreparedStatement().setLong(1, lastVersion);
+            } catch (SQLException e) {
+                throw new WaarpDatabaseSqlException(e);
+            }
+            preparedStatement.executeQuery();
+            while (preparedStatement.getNext()) {
+                DbChangeLog change = getFromStatement(preparedStatement);
+                if (change.origin != ORIGIN) {
+                    change.reload(session);
+                }
+                version = change.version;
+            }
+        } finally {
+            preparedStatement.realClose();
+        }
+        return version;
+    }
+
+    /**
+     * Reload the changed entity from the database into the current monitor
+     *
+     * @param session
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private void reload(DbSession session)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        Entity kind = Entity.values()[entity];
+        String request;
+        switch (kind) {
+            case CONFIGURATION:
+                request = "SELECT " + DbConfiguration.selectAllFields + " FROM "
+                        + DbConfiguration.table + " WHERE "
+                        + DbConfiguration.Columns.HOSTID.name() + " = ? ";
+                break;
+            case HOSTCONFIGURATION:
+                request = "SELECT " + DbHostConfiguration.selectAllFields + " FROM "
+                        + DbHostConfiguration.table + " WHERE "
+                        + DbHostConfiguration.Columns.HOSTID.name() + " = ? ";
+                break;
+            case HOSTAUTH:
+                request = "SELECT " + DbHostAuth.selectAllFields + " FROM "
+                        + DbHostAuth.table + " WHERE "
+                        + DbHostAuth.Columns.HOSTID.name() + " = ? ";
+                break;
+            case RULE:
+                request = "SELECT " + DbRule.selectAllFields + " FROM "
+                        + DbRule.table + " WHERE "
+                        + DbRule.Columns.IDRULE.name() + " = ? ";
+                break;
+            default:
+                return;
+        }
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement(request);
+            try {
+                preparedStatement.getPreparedStatement().setString(1, entityId);
+            } catch (SQLException e) {
+                throw new WaarpDatabaseSqlException(e);
+            }
+            preparedStatement.executeQuery();
+            if (!preparedStatement.getNext()) {
+                // deleted since then
+                logger.debug("Change Log: " + kind + " " + entityId + " no more present");
+                return;
+            }
+            switch (kind) {
+                case CONFIGURATION:
+                    DbConfiguration configuration = DbConfiguration
+                            .getFromStatement(preparedStatement);
+                    if (configuration.isOwnConfiguration()) {
+                        configuration.updateConfiguration();
+                    }
+                    break;
+                case HOSTCONFIGURATION:
+                    DbHostConfiguration hostConfiguration = DbHostConfiguration
+                            .getFromStatement(preparedStatement);
+                    if (hostConfiguration.isOwnConfiguration()) {
+                        hostConfiguration.updateConfiguration();
+                    }
+                    break;
+                case HOSTAUTH:
+                    DbHostAuth.getFromStatement(preparedStatement);
+                    break;
+                case RULE:
+                    // the Rule is put in cache by getFromStatement
+                    DbRule.getFromStatement(preparedStatement);
+                    break;
+                default:
+                    break;
+            }
+            logger.debug("Change Log: " + kind + " " + entityId + " reloaded");
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
+    /**
+     * Purge the changes older than the given time, except the given last version such that the
+     * versions stay monotonic
+     *
+     * @param session
+     * @param before
+     * @param lastVersion
+     *            the last version applied, which is kept
+     * @return the number of purged changes
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static int purge(DbSession session, Timestamp before, long lastVersion)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = "DELETE FROM " + table + " WHERE " + Columns.CHANGETIME.name()
+                + " < ? AND " + Columns.VERSION.name() + " < ? ";
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement(request);
+            try {
+                preparedStatement.getPreparedStatement().setTimestamp(1, before);
+                preparedStatement.getPreparedStatement().setLong(2, lastVersion);
+            } catch (SQLException e) {
+                throw new WaarpDatabaseSqlException(e);
+            }
+            return preparedStatement.executeUpdate();
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
+    /**
+     * @return the kind of entity
+     */
+    public Entity getEntity() {
+        return Entity.values()[entity];
+    }
+
+    /**
+     * @return the primary key of the changed entity
+     */
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the time of the change
+     */
+    public Timestamp getChangeTime() {
+        return changeTime;
+    }
+
+    /**
+     * return the String representation
+     */
+    public String toString() {
+        return "DbChangeLog " + version + ":" + getEntity() + ":" + entityId;
+    }
+}
@@ -467,6 +467,13 @@ public class DbConfiguration extends AbstractDbData {
         return this.hostid.equals(Configuration.configuration.getHOST_ID());
     }
 
+    /**
+     * @return the hostid
+     */
+    public String getHostid() {
+        return hostid;
+    }
+
     /**
      * 
      * @return the DbValue associated with this table
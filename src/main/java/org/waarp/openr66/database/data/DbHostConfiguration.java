@@ -50,6 +50,7 @@ import org.waarp.common.xml.XmlValue;
 import org.waarp.openr66.commander.CommanderNoDb;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
+import org.waarp.openr66.protocol.networkhandler.BandwidthClasses;
 import org.waarp.openr66.protocol.utils.Version;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -167,7 +168,7 @@ public class DbHostConfiguration extends AbstractDbData {
             + XML_ALIAS, configAliasDecls, true) };
 
     public static enum OtherFields {
-        root, version, seeallid
+        root, version, seeallid, bandwidth
     };
 
     // ALL TABLE SHOULD IMPLEMENT THIS
@@ -1143,6 +1144,89 @@ public class DbHostConfiguration extends AbstractDbData {
         hostConfiguration.updateBusiness(config, null, false);
         hostConfiguration.updateAlias(config, null, false);
         hostConfiguration.updateRoles(config, null, false);
+        hostConfiguration.updateBandwidthClasses(config);
+    }
+
+    /**
+     * Update the bandwidth classes of the configuration from the "others" part
+     * 
+     * @param config
+     */
+    public void updateBandwidthClasses(Configuration config) {
+        Element others = getOtherElement();
+        config.getBandwidthClasses().setFromXml(
+                (Element) others.selectSingleNode(OtherFields.bandwidth.name()));
+    }
+
+    /**
+     * Set one bandwidth class in the "others" part, to be saved through update()
+     * 
+     * @param partner
+     *            True for the limit of a partner, False for the weight of a rule
+     * @param id
+     *            the partner host id or the rule id
+     * @param value
+     *            the limit in bytes/s or the weight (0 to remove the class)
+     */
+    public void setBandwidthClass(boolean partner, String id, long value) {
+        if (partner) {
+            setBandwidthField(BandwidthClasses.XPARTNER, BandwidthClasses.XHOSTID, id,
+                    BandwidthClasses.XLIMIT, value > 0 ? Long.toString(value) : null);
+        } else {
+            setBandwidthField(BandwidthClasses.XRULE, BandwidthClasses.XIDRULE, id,
+                    BandwidthClasses.XWEIGHT, value > 0 ? Long.toString(value) : null);
+        }
+    }
+
+    /**
+     * Set the priority class of one rule in the "others" part, to be saved through update()
+     * 
+     * @param idRule
+     * @param priority
+     *            LOW, NORMAL or HIGH (null to remove)
+     */
+    public void setBandwidthRulePriority(String idRule, String priority) {
+        setBandwidthField(BandwidthClasses.XRULE, BandwidthClasses.XIDRULE, idRule,
+                BandwidthClasses.XPRIORITY, priority);
+    }
+
+    private void setBandwidthField(String type, String key, String id, String field, String value) {
+        Element others = getOtherElement();
+        Element bandwidth = (Element) others.selectSingleNode(OtherFields.bandwidth.name());
+        if (bandwidth == null) {
+            bandwidth = others.addElement(OtherFields.bandwidth.name());
+        }
+        Element found = null;
+        @SuppressWarnings("unchecked")
+        List<Element> elements = bandwidth.elements(type);
+        for (Element element : elements) {
+            if (id.equals(element.elementTextTrim(key))) {
+                found = element;
+                break;
+            }
+        }
+        if (found == null) {
+            if (value == null) {
+                return;
+            }
+            found = bandwidth.addElement(type);
+            found.addElement(key).setText(id);
+        }
+        Element efield = found.element(field);
+        if (value == null) {
+            if (efield != null) {
+                found.remove(efield);
+            }
+            if (found.elements().size() <= 1) {
+                // only the key remains
+                bandwidth.remove(found);
+            }
+        } else if (efield == null) {
+            found.addElement(field).setText(value);
+        } else {
+            efield.setText(value);
+        }
+        setOtherElement(others);
     }
 
     /**
@@ -44,6 +44,7 @@ import org.waarp.common.xml.XmlUtil;
 import org.waarp.common.xml.XmlValue;
 import org.waarp.openr66.configuration.RuleFileBasedConfiguration;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.TaskTemplate;
 import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
@@ -99,6 +100,11 @@ public class DbRule extends AbstractDbData {
     private static final ConcurrentHashMap<String, DbRule> dbR66RuleHashMap =
             new ConcurrentHashMap<String, DbRule>();
 
+    /**
+     * Maximum number of compiled task arguments kept by rule
+     */
+    private static final int MAXTASKTEMPLATES = 64;
+
     /**
      * Internal context XML fields
      */
@@ -173,6 +179,10 @@ public class DbRule extends AbstractDbData {
      * Internal context XML fields
      */
     public static final String TASK_COMMENT = "comment";
+    /**
+     * Internal context XML fields
+     */
+    public static final String TASK_GROUP = "group";
 
     /**
      * Global Id
@@ -274,6 +284,12 @@ public class DbRule extends AbstractDbData {
      */
     private String[][] serrorTasksArray = null;
 
+    /**
+     * Compiled task arguments of this rule, shared with the copies of this rule
+     */
+    private ConcurrentHashMap<String, TaskTemplate> taskTemplates =
+            new ConcurrentHashMap<String, TaskTemplate>();
+
     private int updatedInfo = UpdatedInfo.UNKNOWN
             .ordinal();
 
@@ -524,6 +540,7 @@ public class DbRule extends AbstractDbData {
         setSpreTasksArray(source.getSpreTasksArray());
         setSpostTasksArray(source.getSpostTasksArray());
         setSerrorTasksArray(source.getSerrorTasksArray());
+        taskTemplates = source.taskTemplates;
         checkPath();
     }
 
@@ -996,6 +1013,11 @@ public class DbRule extends AbstractDbData {
                             .append(tasksArray[i][3])
                             .append("</").append(TASK_COMMENT).append('>');
                 }
+                if (tasksArray[i].length > 4 && tasksArray[i][4] != null && !tasksArray[i][4].isEmpty()) {
+                    builder.append('<').append(TASK_GROUP).append('>')
+                            .append(tasksArray[i][4])
+                            .append("</").append(TASK_GROUP).append('>');
+                }
                 builder.append(XMLENDTASK);
             }
             builder.append(XMLENDTASKS);
@@ -1336,6 +1358,25 @@ public class DbRule extends AbstractDbData {
         return sendPath;
     }
 
+    /**
+     * 
+     * @param arg
+     *            the argument of one task of this rule
+     * @return the compiled template of this argument, compiled once for this rule
+     */
+    public TaskTemplate getTaskTemplate(String arg) {
+        TaskTemplate template = taskTemplates.get(arg);
+        if (template == null) {
+            template = TaskTemplate.compile(arg);
+            if (taskTemplates.size() >= MAXTASKTEMPLATES) {
+                // arguments not fixed by the rule: do not keep all of them
+                taskTemplates.clear();
+            }
+            taskTemplates.put(arg, template);
+        }
+        return template;
+    }
+
     /**
      * @return the archivePath
      */
@@ -17,6 +17,10 @@
  */
 package org.waarp.openr66.database.data;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -28,6 +32,8 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -58,6 +64,7 @@ import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66FiniteDualStates;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
 import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.context.task.AbstractTask;
@@ -65,6 +72,8 @@ import org.waarp.openr66.context.task.TaskType;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerEndTasksException;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.journal.TaskRunnerJournal;
+import org.waarp.openr66.database.model.DbModelSequences;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
@@ -77,8 +86,10 @@ import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.DedupIndex;
 import org.waarp.openr66.protocol.utils.NbAndSpecialId;
 import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66Metrics;
 import org.xml.sax.SAXException;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -93,11 +104,33 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  */
 public class DbTaskRunner extends AbstractDbData {
     public static final String JSON_ORIGINALSIZE = "ORIGINALSIZE";
+    /**
+     * Priority class of the transfer (LOW, NORMAL, HIGH) in TransferInformation
+     */
+    public static final String JSON_PRIORITY = "PRIORITY";
 
     public static final String JSON_THROUGHMODE = "THROUGHMODE";
 
     public static final String JSON_RESCHEDULE = "RESCHEDULE";
 
+    /**
+     * Manifest of a bundle transfer (entries, size), then result of its extraction, in
+     * TransferInformation
+     */
+    public static final String JSON_BUNDLE = "BUNDLE";
+
+    /**
+     * Durations in microseconds of the phases of the transfer (see R66TransferPhases), in
+     * TransferInformation
+     */
+    public static final String JSON_PHASES = "PHASES";
+
+    /**
+     * Deduplication hit (DIGEST of the content, SOURCE file on the receiver side), in
+     * TransferInformation
+     */
+    public static final String JSON_DEDUP = "DEDUP";
+
     /**
      * Internal Logger
      */
@@ -110,6 +143,20 @@ public class DbTaskRunner extends AbstractDbData {
      */
     private static SynchronizedLruCache<Long, DbTaskRunner> dbR66TaskHashMap;
 
+    /**
+     * Number of SQL statements (insert, select, exist, update, delete) issued by the runners
+     */
+    private static final AtomicLong dbStatements = new AtomicLong();
+
+    /**
+     * 
+     * @return the number of SQL statements (insert, select, exist, update, delete) issued by the
+     *         runners since the start
+     */
+    public static long getDbStatements() {
+        return dbStatements.get();
+    }
+
     /**
      * Create the LRU cache
      * 
@@ -240,6 +287,12 @@ public class DbTaskRunner extends AbstractDbData {
 
     private String fileInformation;
 
+    /**
+     * fileInformation split on blanks, as used by all tasks
+     */
+    private String[] fileInformationArray;
+    private String fileInformationSplit;
+
     private String transferInformation = "{}";
 
     private int mode;
@@ -569,6 +622,26 @@ public class DbTaskRunner extends AbstractDbData {
     public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender,
             RequestPacket requestPacket, String requested, Timestamp startTime)
             throws WaarpDatabaseException {
+        this(dbSession, rule, isSender, requestPacket, requested, startTime, true);
+    }
+
+    /**
+     * Constructor for submission (no transfer session), from database. If create is False, the
+     * runner is only built in memory, with no specialId, to be inserted later on (as with
+     * insertBulk)
+     * 
+     * @param dbSession
+     * @param rule
+     * @param isSender
+     * @param requestPacket
+     * @param requested
+     * @param startTime
+     * @param create
+     * @throws WaarpDatabaseException
+     */
+    public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender,
+            RequestPacket requestPacket, String requested, Timestamp startTime, boolean create)
+            throws WaarpDatabaseException {
         super(dbSession);
         this.session = null;
         this.rule = rule;
@@ -613,8 +686,10 @@ public class DbTaskRunner extends AbstractDbData {
             }
         }
         checkThroughMode();
-        create();
-        requestPacket.setSpecialId(specialId);
+        if (create) {
+            create();
+            requestPacket.setSpecialId(specialId);
+        }
     }
 
     /**
@@ -1001,10 +1076,11 @@ public class DbTaskRunner extends AbstractDbData {
         if (dbSession == null || shallIgnoreSave()) {
             removeNoDbSpecialId();
             if (Configuration.configuration.isSaveTaskRunnerWithNoDb()) {
-                deleteXmlWorkNoDb();
+                deleteWorkNoDb();
             }
             return;
         }
+        dbStatements.incrementAndGet();
         super.delete();
     }
 
@@ -1041,7 +1117,7 @@ public class DbTaskRunner extends AbstractDbData {
             if (Configuration.configuration.isSaveTaskRunnerWithNoDb()) {
                 try {
                     setToArray();
-                    this.writeXmlWorkNoDb();
+                    this.writeWorkNoDb();
                 } catch (OpenR66ProtocolBusinessException e) {
                     // Ignore
                 }
@@ -1061,9 +1137,167 @@ public class DbTaskRunner extends AbstractDbData {
                     specialId);
             setPrimaryKey();
         }
+        dbStatements.incrementAndGet();
         super.insert();
     }
 
+    /**
+     * Insert a list of new runners: Ids are allocated by ranges and runners are inserted through
+     * JDBC batches, one transaction per chunk. If a chunk fails, its runners are inserted one by
+     * one so that only the faulty ones are rejected.
+     * 
+     * @param runners
+     * @param chunkSize
+     * @return for each runner, null if inserted, else the error message
+     */
+    public static String[] insertBulk(List<DbTaskRunner> runners, int chunkSize) {
+        String[] errors = new String[runners.size()];
+        if (runners.isEmpty()) {
+            return errors;
+        }
+        if (DbConstant.admin == null || !DbConstant.admin.isActive() || DbConstant.admin.getSession() == null) {
+            insertOneByOne(runners, 0, runners.size(), errors);
+            return errors;
+        }
+        if (chunkSize <= 0) {
+            chunkSize = runners.size();
+        }
+        DbSession bulkSession = null;
+        try {
+            // dedicated session since autocommit is disabled during each chunk
+            bulkSession = new DbSession(DbConstant.admin, false);
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.warn("Cannot get a session for bulk insert, so one by one: " + e.getMessage());
+            insertOneByOne(runners, 0, runners.size(), errors);
+            return errors;
+        }
+        try {
+            int nbIds = 0;
+            for (DbTaskRunner runner : runners) {
+                if (runner.specialId == DbConstant.ILLEGALVALUE && !runner.shallIgnoreSave()) {
+                    nbIds++;
+                }
+            }
+            long[] ids = null;
+            if (nbIds > 0) {
+                try {
+                    ids = nextSequences(bulkSession, nbIds);
+                } catch (WaarpDatabaseException e) {
+                    logger.warn("Cannot allocate Ids for bulk insert, so one by one: " + e.getMessage());
+                    insertOneByOne(runners, 0, runners.size(), errors);
+                    return errors;
+                }
+            }
+            int rank = 0;
+            for (int i = 0; i < runners.size(); i++) {
+                DbTaskRunner runner = runners.get(i);
+                if (runner.shallIgnoreSave()) {
+                    // not in database
+                    insertOneByOne(runners, i, i + 1, errors);
+                } else if (runner.specialId == DbConstant.ILLEGALVALUE) {
+                    runner.specialId = ids[rank++];
+                    runner.setPrimaryKey();
+                }
+            }
+            for (int from = 0; from < runners.size(); from += chunkSize) {
+                int to = Math.min(from + chunkSize, runners.size());
+                if (!insertChunk(bulkSession, runners, from, to)) {
+                    insertOneByOne(runners, from, to, errors);
+                }
+            }
+        } finally {
+            bulkSession.forceDisconnect();
+        }
+        return errors;
+    }
+
+    /**
+     * 
+     * @param dbSession
+     * @param count
+     * @return count new Ids, in one request if the Database Model allows it
+     * @throws WaarpDatabaseException
+     */
+    private static long[] nextSequences(DbSession dbSession, int count) throws WaarpDatabaseException {
+        if (dbSession.getAdmin().getDbModel() instanceof DbModelSequences) {
+            return ((DbModelSequences) dbSession.getAdmin().getDbModel()).nextSequences(dbSession, count);
+        }
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = dbSession.getAdmin().getDbModel().nextSequence(dbSession);
+        }
+        return ids;
+    }
+
+    /**
+     * Insert runners from rank from to rank to (excluded) in one JDBC batch and one transaction
+     * 
+     * @param dbSession
+     * @param runners
+     * @param from
+     * @param to
+     * @return True if the whole chunk is inserted, False if it was rollbacked
+     */
+    private static boolean insertChunk(DbSession dbSession, List<DbTaskRunner> runners, int from, int to) {
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession);
+        boolean inBatch = false;
+        boolean committed = false;
+        try {
+            dbSession.getConn().setAutoCommit(false);
+            preparedStatement.createPrepareStatement("INSERT INTO " + table +
+                    " (" + selectAllFields + ") VALUES " + insertAllValues);
+            for (int i = from; i < to; i++) {
+                DbTaskRunner runner = runners.get(i);
+                if (runner.isSaved || runner.shallIgnoreSave()) {
+                    continue;
+                }
+                runner.setToArray();
+                runner.setValues(preparedStatement, runner.allFields);
+                preparedStatement.getPreparedStatement().addBatch();
+                inBatch = true;
+            }
+            if (inBatch) {
+                preparedStatement.getPreparedStatement().executeBatch();
+                dbSession.getConn().commit();
+            }
+            committed = true;
+            for (int i = from; i < to; i++) {
+                DbTaskRunner runner = runners.get(i);
+                if (!runner.shallIgnoreSave()) {
+                    runner.isSaved = true;
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.warn("Bulk insert of chunk in error, so one by one: " + e.getMessage());
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Bulk insert of chunk in error, so one by one: " + e.getMessage());
+        } finally {
+            preparedStatement.realClose();
+            if (!committed) {
+                try {
+                    dbSession.getConn().rollback();
+                } catch (SQLException e) {
+                }
+            }
+            try {
+                dbSession.getConn().setAutoCommit(true);
+            } catch (SQLException e) {
+            }
+        }
+        return false;
+    }
+
+    private static void insertOneByOne(List<DbTaskRunner> runners, int from, int to, String[] errors) {
+        for (int i = from; i < to; i++) {
+            try {
+                runners.get(i).insert();
+            } catch (WaarpDatabaseException e) {
+                errors[i] = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            }
+        }
+    }
+
     /**
      * As insert but with the ability to change the SpecialId
      * 
@@ -1084,7 +1318,7 @@ public class DbTaskRunner extends AbstractDbData {
             if (Configuration.configuration.isSaveTaskRunnerWithNoDb()) {
                 try {
                     setToArray();
-                    this.writeXmlWorkNoDb();
+                    this.writeWorkNoDb();
                 } catch (OpenR66ProtocolBusinessException e) {
                     // Ignore
                 }
@@ -1165,13 +1399,14 @@ public class DbTaskRunner extends AbstractDbData {
         boolean shallIgnore = shallIgnoreSave();
         if (dbSession == null || shallIgnore) {
             if (Configuration.configuration.isSaveTaskRunnerWithNoDb()) {
-                return existXmlWorkNoDb();
+                return existWorkNoDb();
             }
             if (shallIgnore) {
                 return dbR66TaskHashMap.contains(specialId);//containsKey(specialId);
             }
             return false;
         }
+        dbStatements.incrementAndGet();
         return super.exist();
     }
 
@@ -1204,7 +1439,7 @@ public class DbTaskRunner extends AbstractDbData {
         if (dbSession == null) {
             if (Configuration.configuration.isSaveTaskRunnerWithNoDb()) {
                 try {
-                    this.loadXmlWorkNoDb();
+                    this.loadWorkNoDb();
                     setFromArray();
                 } catch (OpenR66ProtocolBusinessException e) {
                     throw new WaarpDatabaseNoDataException("No file found", e);
@@ -1283,6 +1518,7 @@ public class DbTaskRunner extends AbstractDbData {
             checkThroughMode();
             return;
         }
+        dbStatements.incrementAndGet();
         super.select();
         if (rule == null) {
             try {
@@ -1305,7 +1541,7 @@ public class DbTaskRunner extends AbstractDbData {
             if (Configuration.configuration.isSaveTaskRunnerWithNoDb()) {
                 try {
                     setToArray();
-                    this.writeXmlWorkNoDb();
+                    this.writeWorkNoDb();
                 } catch (OpenR66ProtocolBusinessException e) {
                     // Ignore
                 }
@@ -1323,6 +1559,10 @@ public class DbTaskRunner extends AbstractDbData {
             }
             return;
         }
+        if (isFastPathDeferred()) {
+            // state kept in memory until the next milestone
+            return;
+        }
         // SNMP notification
         if (updatedInfo == UpdatedInfo.INERROR.ordinal() ||
                 updatedInfo == UpdatedInfo.INTERRUPTED.ordinal()) {
@@ -1352,6 +1592,33 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * Fast path for small transfers (see Configuration.getFastPathSize()): while running, the
+     * intermediate steps (pre task, transfer, rank, post task) are kept in memory only, such that
+     * after being accepted the runner is saved once when done or in error. The deferred state is
+     * not lost, it is written by the next update not deferred.<br>
+     * <br>
+     * Only update() is deferred: the statements issued when the request is accepted (select of a
+     * previous attempt, insert, status saved at restart) are unchanged, there is no single upsert.
+     * TestLoopbackTransfer measures the statements per transfer with and without the fast path.<br>
+     * <br>
+     * Crash recovery: if the server stops during such a transfer, the database still holds the
+     * accepted state (step NOTASK or PRETASK, rank 0), so the transfer restarts from its beginning
+     * instead of from its last rank, which is the expected cost for a small file.
+     * 
+     * @return True if this update can be deferred to the next milestone
+     */
+    private boolean isFastPathDeferred() {
+        long limit = Configuration.configuration.getFastPathSize();
+        if (limit <= 0 || originalSize < 0 || originalSize > limit) {
+            return false;
+        }
+        return updatedInfo == UpdatedInfo.RUNNING.ordinal() &&
+                globalstep != TASKSTEP.ALLDONETASK.ordinal() &&
+                globalstep != TASKSTEP.ERRORTASK.ordinal() &&
+                !isAllDone();
+    }
+
     /**
      * Update Runner using special PreparedStatement
      * 
@@ -1369,6 +1636,7 @@ public class DbTaskRunner extends AbstractDbData {
         }
         try {
             setValues(preparedStatementUpdate, allFields);
+            dbStatements.incrementAndGet();
             int count = preparedStatementUpdate.executeUpdate();
             if (count <= 0) {
                 throw new WaarpDatabaseNoDataException("No row found");
@@ -2331,6 +2599,21 @@ public class DbTaskRunner extends AbstractDbData {
      */
     public static void resetToSubmit(DbSession session)
             throws WaarpDatabaseNoConnectionException {
+        resetToSubmit(session, null);
+    }
+
+    /**
+     * Change RUNNING, INTERRUPTED to TOSUBMIT TaskRunner from database, only for those not updated
+     * since the given time, such that it can be done while the server is already running new
+     * transfers.
+     * 
+     * @param session
+     * @param notUpdatedSince
+     *            if null, no limit on the last update
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    public static void resetToSubmit(DbSession session, Timestamp notUpdatedSince)
+            throws WaarpDatabaseNoConnectionException {
         // Change RUNNING and INTERRUPTED to TOSUBMIT since they should be ready
         String request = "UPDATE " + table + " SET " +
                 Columns.UPDATEDINFO.name() + "=" +
@@ -2340,9 +2623,19 @@ public class DbTaskRunner extends AbstractDbData {
                 " OR " + Columns.UPDATEDINFO.name() + " = " +
                 AbstractDbData.UpdatedInfo.INTERRUPTED.ordinal() + ") AND " +
                 getLimitWhereCondition();
+        if (notUpdatedSince != null) {
+            request += " AND " + Columns.STOPTRANS.name() + " < ? ";
+        }
         DbPreparedStatement initial = new DbPreparedStatement(session);
         try {
             initial.createPrepareStatement(request);
+            if (notUpdatedSince != null) {
+                try {
+                    initial.getPreparedStatement().setTimestamp(1, notUpdatedSince);
+                } catch (SQLException e) {
+                    throw new WaarpDatabaseSqlException(e);
+                }
+            }
             initial.executeUpdate();
         } catch (WaarpDatabaseNoConnectionException e) {
             logger.error("Database No Connection Error: Cannot execute Commander", e);
@@ -2355,6 +2648,24 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * 
+     * @return the explicit list of UpdatedInfo values (greater than 0 and not DONE) such that the
+     *         index on UPDATEDINFO is usable
+     */
+    private static String getNotDoneUpdatedInfos() {
+        StringBuilder builder = new StringBuilder();
+        for (UpdatedInfo info : UpdatedInfo.values()) {
+            if (info.ordinal() > 0 && info != UpdatedInfo.DONE) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(info.ordinal());
+            }
+        }
+        return builder.toString();
+    }
+
     /**
      * Change CompleteOk+ALLDONETASK to Updated = DONE TaskRunner from database. This method is a
      * clean function to be used for instance before log export or at the very beginning of the
@@ -2370,9 +2681,7 @@ public class DbTaskRunner extends AbstractDbData {
         String request = "UPDATE " + table + " SET " +
                 Columns.UPDATEDINFO.name() + "=" +
                 AbstractDbData.UpdatedInfo.DONE.ordinal() +
-                " WHERE " + Columns.UPDATEDINFO.name() + " <> " +
-                AbstractDbData.UpdatedInfo.DONE.ordinal() + " AND " +
-                Columns.UPDATEDINFO.name() + " > 0 AND " +
+                " WHERE " + Columns.UPDATEDINFO.name() + " IN (" + getNotDoneUpdatedInfos() + ") AND " +
                 Columns.GLOBALLASTSTEP.name() + " = " +
                 TASKSTEP.ALLDONETASK.ordinal() + " AND " +
                 Columns.STEPSTATUS.name() + " = '" +
@@ -2527,6 +2836,33 @@ public class DbTaskRunner extends AbstractDbData {
         return false;
     }
 
+    /**
+     * Claim this Runner, selected as TOSUBMIT, through a conditional update to RUNNING, such that
+     * when several monitors share the same database without lock, only one of them submits it.
+     *
+     * @return True if this monitor got the Runner
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public boolean claimToSubmit()
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        if (dbSession == null) {
+            return true;
+        }
+        String request = "UPDATE " + table + " SET " + Columns.UPDATEDINFO.name() + " = " +
+                UpdatedInfo.RUNNING.ordinal() + " WHERE " + getWherePrimaryKey() + " AND " +
+                Columns.UPDATEDINFO.name() + " = " + UpdatedInfo.TOSUBMIT.ordinal();
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession);
+        try {
+            preparedStatement.createPrepareStatement(request);
+            setPrimaryKey();
+            setValues(preparedStatement, primaryKey);
+            return preparedStatement.executeUpdate() > 0;
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
     @Override
     public void changeUpdatedInfo(UpdatedInfo info) {
         updatedInfo = info.ordinal();
@@ -2598,6 +2934,19 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * Set the rank after the last block, when the content is already held by the receiver
+     * 
+     * @param rank
+     */
+    public void setRankAllTransferred(int rank) {
+        if (this.rank < rank) {
+            this.rank = rank;
+            allFields[Columns.RANK.ordinal()].setValue(this.rank);
+            isSaved = false;
+        }
+    }
+
     /**
      * @param filename
      *            the filename to set
@@ -2684,6 +3033,27 @@ public class DbTaskRunner extends AbstractDbData {
         return blocksize;
     }
 
+    /**
+     * Change the block size, converting the rank such that the restart position (rank *
+     * blocksize) never goes beyond the one already reached
+     * 
+     * @param blocksize
+     *            the new blocksize
+     */
+    public void setBlocksize(int blocksize) {
+        if (blocksize <= 0 || this.blocksize == blocksize) {
+            return;
+        }
+        if (rank > 0 && this.blocksize > 0) {
+            // round down: at worst some bytes are transferred again
+            rank = (int) (((long) rank * this.blocksize) / blocksize);
+            allFields[Columns.RANK.ordinal()].setValue(this.rank);
+        }
+        this.blocksize = blocksize;
+        allFields[Columns.BLOCKSZ.ordinal()].setValue(this.blocksize);
+        isSaved = false;
+    }
+
     /**
      * @return the filename
      */
@@ -2705,6 +3075,20 @@ public class DbTaskRunner extends AbstractDbData {
         return fileInformation;
     }
 
+    /**
+     * @return the fileInformation split on blanks, computed once for all the tasks of the transfer
+     */
+    public synchronized String[] getFileInformationArray() {
+        if (fileInformation == null) {
+            return new String[] { "" };
+        }
+        if (fileInformationArray == null || !fileInformation.equals(fileInformationSplit)) {
+            fileInformationArray = fileInformation.split(" ");
+            fileInformationSplit = fileInformation;
+        }
+        return fileInformationArray;
+    }
+
     /**
      * 
      * @return the Map<String, Object> for the content of the transferInformation
@@ -2884,11 +3268,23 @@ public class DbTaskRunner extends AbstractDbData {
         isSaved = false;
     }
 
+    /**
+     * Count the entry in a new step within the metrics
+     * 
+     * @param newStep
+     */
+    private void countStep(TASKSTEP newStep) {
+        if (globalstep != newStep.ordinal()) {
+            R66Metrics.stepEntered(newStep);
+        }
+    }
+
     /**
      * Set Pre Task step
      * 
      */
     public void setPreTask() {
+        countStep(TASKSTEP.PRETASK);
         globalstep = TASKSTEP.PRETASK.ordinal();
         globallaststep = TASKSTEP.PRETASK.ordinal();
         allFields[Columns.GLOBALSTEP.ordinal()].setValue(globalstep);
@@ -2912,6 +3308,7 @@ public class DbTaskRunner extends AbstractDbData {
      * @param rank
      */
     public void setTransferTask(int rank) {
+        countStep(TASKSTEP.TRANSFERTASK);
         globalstep = TASKSTEP.TRANSFERTASK.ordinal();
         globallaststep = TASKSTEP.TRANSFERTASK.ordinal();
         allFields[Columns.GLOBALSTEP.ordinal()].setValue(globalstep);
@@ -2968,6 +3365,7 @@ public class DbTaskRunner extends AbstractDbData {
      * 
      */
     public void setPostTask() {
+        countStep(TASKSTEP.POSTTASK);
         globalstep = TASKSTEP.POSTTASK.ordinal();
         globallaststep = TASKSTEP.POSTTASK.ordinal();
         allFields[Columns.GLOBALSTEP.ordinal()].setValue(globalstep);
@@ -2998,6 +3396,7 @@ public class DbTaskRunner extends AbstractDbData {
             if (this.session.getRunner() == null)
                 this.session.setNoSessionRunner(this, localChannelReference);
         }
+        countStep(TASKSTEP.ERRORTASK);
         globalstep = TASKSTEP.ERRORTASK.ordinal();
         allFields[Columns.GLOBALSTEP.ordinal()].setValue(globalstep);
         this.step = 0;
@@ -3011,6 +3410,7 @@ public class DbTaskRunner extends AbstractDbData {
      * Set the global step as finished (after post task in success)
      */
     public void setAllDone() {
+        countStep(TASKSTEP.ALLDONETASK);
         globalstep = TASKSTEP.ALLDONETASK.ordinal();
         globallaststep = TASKSTEP.ALLDONETASK.ordinal();
         allFields[Columns.GLOBALSTEP.ordinal()].setValue(globalstep);
@@ -3062,6 +3462,16 @@ public class DbTaskRunner extends AbstractDbData {
         if (tasks.length <= step) {
             throw new OpenR66RunnerEndTasksException();
         }
+        String group = getTaskGroup(tasks, step);
+        if (group != null) {
+            int end = step + 1;
+            while (end < tasks.length && group.equals(getTaskGroup(tasks, end))) {
+                end++;
+            }
+            if (end - step > 1) {
+                return runTaskGroup(tasks, end, tempSession);
+            }
+        }
         AbstractTask task = getTask(tasks[step], tempSession);
         logger.debug(this.toLogRunStep() + " Task: " + task.getClass().getName());
         task.run();
@@ -3078,6 +3488,84 @@ public class DbTaskRunner extends AbstractDbData {
         return task.getFutureCompletion();
     }
 
+    /**
+     * 
+     * @param tasks
+     * @param rank
+     * @return the group of the task at this rank, or null if none or if this task cannot run
+     *         concurrently
+     */
+    private static String getTaskGroup(String[][] tasks, int rank) {
+        String[] task = tasks[rank];
+        if (task == null || task.length <= 4 || task[4] == null || task[4].isEmpty()) {
+            return null;
+        }
+        try {
+            if (!TaskType.valueOf(task[0]).isConcurrent()) {
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return task[4];
+    }
+
+    /**
+     * Run concurrently the tasks from step to end (excluded), sharing the same group. The result is
+     * the one of the first task in error in the order of the rule, and in this case step stays at
+     * the beginning of the group such that a restart runs the full group again.
+     * 
+     * @param tasks
+     * @param end
+     * @param tempSession
+     * @return The future of the operation (in success or not)
+     * @throws OpenR66RunnerErrorException
+     */
+    private R66Future runTaskGroup(String[][] tasks, int end, R66Session tempSession)
+            throws OpenR66RunnerErrorException {
+        AbstractTask[] group = new AbstractTask[end - step];
+        for (int i = 0; i < group.length; i++) {
+            group[i] = getTask(tasks[step + i], tempSession);
+        }
+        logger.debug(this.toLogRunStep() + " Group " + tasks[step][4] + " of " + group.length + " tasks");
+        ExecutorService executor = Configuration.configuration.getTaskGroupExecutor();
+        for (int i = 1; i < group.length; i++) {
+            final AbstractTask task = group[i];
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Task in error: " + task.getClass().getName(), e);
+                        task.getFutureCompletion().setFailure(e);
+                    }
+                }
+            });
+        }
+        group[0].run();
+        R66Future error = null;
+        for (AbstractTask task : group) {
+            try {
+                task.getFutureCompletion().await();
+            } catch (InterruptedException e) {
+            }
+            R66Future future = task.getFutureCompletion();
+            if (error == null && ((!future.isDone()) || future.isFailed())) {
+                error = future;
+            }
+        }
+        if (error != null) {
+            return error;
+        }
+        // the full group is done: save the progression
+        step = end - 1;
+        allFields[Columns.STEP.ordinal()].setValue(end);
+        isSaved = false;
+        this.saveStatus();
+        return group[group.length - 1].getFutureCompletion();
+    }
+
     /**
      * 
      * @param task
@@ -3352,6 +3840,11 @@ public class DbTaskRunner extends AbstractDbData {
                                 errorTransfer(error, file, localChannelReference);
                                 throw (OpenR66RunnerErrorException) result.getException();
                             }
+                            // a later transfer of the same content can be skipped
+                            DedupIndex dedupIndex = DedupIndex.getIndex();
+                            if (dedupIndex != null) {
+                                dedupIndex.register(file.getTrueFile(), hash);
+                            }
                         }
                     }
                 }
@@ -3381,6 +3874,9 @@ public class DbTaskRunner extends AbstractDbData {
                     return;
                 }
             }
+            if (this.session != null) {
+                this.session.getPhases().begin(PHASE.POSTTASK);
+            }
             try {
                 this.run();
             } catch (OpenR66RunnerErrorException e1) {
@@ -3401,6 +3897,10 @@ public class DbTaskRunner extends AbstractDbData {
              * Done later on after EndRequest this.setAllDone(); this.saveStatus();
              */
             logger.info("Transfer done on {} at RANK {}", file != null ? file : "no file", rank);
+            if (this.session != null) {
+                this.session.getPhases().end(PHASE.POSTTASK);
+                this.session.getPhases().begin(PHASE.ENDREQUEST);
+            }
             if (localChannelReference != null) {
                 localChannelReference.validateEndTransfer(finalValue);
             }
@@ -4528,6 +5028,220 @@ public class DbTaskRunner extends AbstractDbData {
         file.delete();
     }
 
+    /**
+     * 
+     * @return the key of the current TaskRunner within the NoDb Journal
+     */
+    public String getJournalKey() {
+        return this.requesterHostId + "_" + this.requestedHostId + "_" + this.specialId;
+    }
+
+    /**
+     * Write the current DbTaskRunner for NoDb client, either in the Journal or as XML file.
+     * 'setToArray' must be called priorly to be able to store the values.
+     * 
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private void writeWorkNoDb() throws OpenR66ProtocolBusinessException {
+        TaskRunnerJournal journal = Configuration.configuration.getTaskRunnerJournal();
+        if (journal == null) {
+            writeXmlWorkNoDb();
+            return;
+        }
+        journal.put(getJournalKey(), (byte) updatedInfo, getJournalPayload());
+    }
+
+    /**
+     * Load a previous existing DbTaskRunner for NoDb client, either from the Journal or from XML
+     * file. 'setFromArray' must be called after.
+     * 
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private void loadWorkNoDb() throws OpenR66ProtocolBusinessException {
+        TaskRunnerJournal journal = Configuration.configuration.getTaskRunnerJournal();
+        if (journal == null) {
+            loadXmlWorkNoDb();
+            return;
+        }
+        setFromJournalPayload(journal.get(getJournalKey()));
+    }
+
+    /**
+     * 
+     * @return True if the backend for NoDb client (Journal or XML) is available for this TaskRunner
+     */
+    private boolean existWorkNoDb() {
+        TaskRunnerJournal journal;
+        try {
+            journal = Configuration.configuration.getTaskRunnerJournal();
+        } catch (OpenR66ProtocolBusinessException e) {
+            logger.warn("Journal not available", e);
+            return false;
+        }
+        if (journal == null) {
+            return existXmlWorkNoDb();
+        }
+        return journal.contains(getJournalKey());
+    }
+
+    /**
+     * Delete the backend (Journal record or XML file) for the current TaskRunner for NoDb Client
+     */
+    private void deleteWorkNoDb() {
+        TaskRunnerJournal journal;
+        try {
+            journal = Configuration.configuration.getTaskRunnerJournal();
+            if (journal != null) {
+                journal.delete(getJournalKey());
+                return;
+            }
+        } catch (OpenR66ProtocolBusinessException e) {
+            logger.warn("Cannot delete from Journal", e);
+            return;
+        }
+        deleteXmlWorkNoDb();
+    }
+
+    /**
+     * 'setToArray' must be called priorly.
+     * 
+     * @return the binary representation of all fields of this runner for the Journal
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private byte[] getJournalPayload() throws OpenR66ProtocolBusinessException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        DataOutputStream data = new DataOutputStream(out);
+        try {
+            data.writeShort(allFields.length);
+            for (DbValue value : allFields) {
+                if (value.getValue() == null) {
+                    data.writeBoolean(false);
+                    continue;
+                }
+                data.writeBoolean(true);
+                byte[] bytes = value.getValueAsString().getBytes(WaarpStringUtils.UTF8);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+            data.flush();
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException("Cannot serialize runner", e);
+        } catch (WaarpDatabaseSqlException e) {
+            throw new OpenR66ProtocolBusinessException("Cannot serialize runner", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Set all fields from the Journal binary representation. 'setFromArray' must be called after.
+     * 
+     * @param payload
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private void setFromJournalPayload(byte[] payload) throws OpenR66ProtocolBusinessException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+        try {
+            int nb = data.readShort();
+            if (nb != allFields.length) {
+                throw new OpenR66ProtocolBusinessException("Journal record is not conform to the model");
+            }
+            for (DbValue value : allFields) {
+                if (!data.readBoolean()) {
+                    continue;
+                }
+                byte[] bytes = new byte[data.readInt()];
+                data.readFully(bytes);
+                value.setValueFromString(new String(bytes, WaarpStringUtils.UTF8));
+            }
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException("Journal record cannot be read", e);
+        } catch (WaarpDatabaseSqlException e) {
+            throw new OpenR66ProtocolBusinessException("Journal record is not conform to the model", e);
+        }
+    }
+
+    /**
+     * Reload one TaskRunner from its Journal record (NoDb mode)
+     * 
+     * @param payload
+     * @return the associated DbTaskRunner
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public static DbTaskRunner getFromJournal(byte[] payload) throws OpenR66ProtocolBusinessException {
+        DbTaskRunner runner = new DbTaskRunner(null);
+        runner.setFromJournalPayload(payload);
+        try {
+            runner.setFromArray();
+        } catch (WaarpDatabaseSqlException e) {
+            throw new OpenR66ProtocolBusinessException("Journal record is not conform to the model", e);
+        }
+        try {
+            runner.rule = new DbRule(null, runner.ruleId);
+        } catch (WaarpDatabaseException e) {
+            throw new OpenR66ProtocolBusinessException("Cannot find the rule named: " + runner.ruleId, e);
+        }
+        runner.checkThroughMode();
+        runner.isSaved = true;
+        return runner;
+    }
+
+    /**
+     * Export all TaskRunners from the NoDb Journal as XML (on demand view of the Journal)
+     * 
+     * @param filename
+     * @return the number of exported TaskRunners
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public static int writeXmlJournalNoDb(String filename) throws OpenR66ProtocolBusinessException {
+        TaskRunnerJournal journal = Configuration.configuration.getTaskRunnerJournal();
+        if (journal == null) {
+            throw new OpenR66ProtocolBusinessException("No Journal in use");
+        }
+        OutputStream outputStream = null;
+        XMLWriter xmlWriter = null;
+        int nb = 0;
+        try {
+            outputStream = new FileOutputStream(filename);
+            OutputFormat format = OutputFormat.createPrettyPrint();
+            format.setEncoding(WaarpStringUtils.UTF_8);
+            xmlWriter = new XMLWriter(outputStream, format);
+            Element root = new DefaultElement(XMLRUNNERS);
+            xmlWriter.writeOpen(root);
+            for (String key : journal.keys()) {
+                DbTaskRunner runner = new DbTaskRunner(null);
+                try {
+                    runner.setFromJournalPayload(journal.get(key));
+                } catch (OpenR66ProtocolBusinessException e) {
+                    // removed in between
+                    continue;
+                }
+                xmlWriter.write(DbTaskRunner.getElementFromRunner(runner));
+                nb++;
+            }
+            xmlWriter.writeClose(root);
+            xmlWriter.flush();
+        } catch (IOException e) {
+            logger.error("Cannot write XML file", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write file: " + e.getMessage());
+        } catch (WaarpDatabaseSqlException e) {
+            logger.error("Cannot write Data", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write Data: " + e.getMessage());
+        } finally {
+            if (xmlWriter != null) {
+                try {
+                    xmlWriter.close();
+                } catch (IOException e) {
+                }
+            } else if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return nb;
+    }
+
     /**
      * Utility for "self request" mode only
      * 
@@ -0,0 +1,785 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
+
+/**
+ * Append-only journal used to save TaskRunners without Database instead of one XML file per
+ * runner.<br>
+ * <br>
+ * Each record is length prefixed: [int length][int crc32][byte type][byte state][short keyLength][key]
+ * [payload]. The state (the UpdatedInfo of the runner) is kept within the in-memory index such that
+ * runners can be selected by state without decoding them (lazy loading).
+ * Each segment starts with [int magic][int version], a segment of another version being refused.<br>
+ * <br>
+ * Records are appended to the current segment, a new segment being opened once the current one
+ * reaches the maximum segment size. An in-memory index keeps, for each key, the location of the
+ * last record, such that reading a runner is a single positional read. When the amount of
+ * obsolete records becomes greater than the live ones, all live records are copied into a new
+ * segment and older segments are removed (compaction).<br>
+ * <br>
+ * On closing, the index is saved in a separate file (taskrunners.index) together with the size of
+ * each segment. On opening, this file is used if all segments still have the recorded sizes (clean
+ * shutdown), then removed. Otherwise (crash), all segments are scanned in order to rebuild the
+ * index. A truncated or corrupted tail (crash during a write) is detected through the length and
+ * the CRC and is cut off.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TaskRunnerJournal {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(TaskRunnerJournal.class);
+
+    /**
+     * Prefix of segment files
+     */
+    public static final String SEGMENT_PREFIX = "taskrunners_";
+    /**
+     * Extension of segment files
+     */
+    public static final String SEGMENT_EXTENSION = ".r66journal";
+    /**
+     * Default maximum size of one segment (16 MB)
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 0x1000000L;
+
+    private static final int MAGIC = 0x5236364A; // "R66J"
+    /**
+     * Version of the segments and of the saved index
+     */
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    /**
+     * File of the index saved on close
+     */
+    public static final String INDEX_FILE = "taskrunners.index";
+    private static final int INDEX_MAGIC = 0x52363649; // "R66I"
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    /**
+     * length + crc
+     */
+    private static final int HEADER_SIZE = 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Location of the last record for one key
+     */
+    private static class Location {
+        private final int segment;
+        private final long position;
+        private final int length;
+        private final byte state;
+        /**
+         * Offset of the payload within the record body
+         */
+        private final int payloadOffset;
+
+        private Location(int segment, long position, int length, byte state, int payloadOffset) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.state = state;
+            this.payloadOffset = payloadOffset;
+        }
+    }
+
+    private final File directory;
+    private final long maxSegmentSize;
+    private final boolean sync;
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+    private final Map<Integer, FileChannel> segments = new HashMap<Integer, FileChannel>();
+    private int currentSegment = 0;
+    private FileChannel current = null;
+    private long currentSize = 0;
+    /**
+     * Total bytes of records in all segments
+     */
+    private long totalBytes = 0;
+    /**
+     * Bytes of records still referenced by the index
+     */
+    private long liveBytes = 0;
+    private volatile boolean opened = false;
+
+    /**
+     *
+     * @param directory
+     *            where segments are stored
+     * @param maxSegmentSize
+     *            maximum size of one segment before rotation
+     * @param sync
+     *            True if each write must be forced to disk
+     */
+    public TaskRunnerJournal(File directory, long maxSegmentSize, boolean sync) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize > 0 ? maxSegmentSize : DEFAULT_SEGMENT_SIZE;
+        this.sync = sync;
+    }
+
+    /**
+     *
+     * @return the sorted list of segment numbers present in the directory
+     */
+    private int[] listSegments() {
+        String[] names = directory.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION);
+            }
+        });
+        if (names == null) {
+            return new int[0];
+        }
+        int[] ids = new int[names.length];
+        int nb = 0;
+        for (String name : names) {
+            try {
+                ids[nb] = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_EXTENSION.length()));
+                nb++;
+            } catch (NumberFormatException e) {
+                logger.warn("Ignore unknown journal file: " + name);
+            }
+        }
+        ids = Arrays.copyOf(ids, nb);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%010d", segment) + SEGMENT_EXTENSION);
+    }
+
+    private FileChannel openSegment(int segment) throws IOException {
+        FileChannel channel = segments.get(segment);
+        if (channel == null) {
+            @SuppressWarnings("resource")
+            RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+            channel = file.getChannel();
+            segments.put(segment, channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Open a new segment as the current one, writing its header if empty
+     *
+     * @param segment
+     * @throws IOException
+     */
+    private void startSegment(int segment) throws IOException {
+        currentSegment = segment;
+        current = openSegment(segment);
+        currentSize = current.size();
+        if (currentSize == 0) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                current.write(header, header.position());
+            }
+            currentSize = SEGMENT_HEADER_SIZE;
+        }
+        current.position(currentSize);
+    }
+
+    /**
+     * Check the header of a segment
+     *
+     * @param channel
+     * @param segment
+     * @throws IOException
+     *             if this is not a journal segment of the supported version
+     */
+    private static void checkHeader(FileChannel channel, int segment) throws IOException {
+        if (channel.size() == 0) {
+            // header to be written by startSegment
+            return;
+        }
+        if (channel.size() < SEGMENT_HEADER_SIZE) {
+            throw new IOException("Journal segment " + segment + " has no header");
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Journal segment " + segment + " has no header");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Journal segment " + segment + " of unsupported version " +
+                    version);
+        }
+    }
+
+    /**
+     * Open the journal, rebuilding the in-memory index from the existing segments
+     *
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public synchronized void open() throws OpenR66ProtocolBusinessException {
+        if (opened) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new OpenR66ProtocolBusinessException("Journal directory cannot be created: " + directory);
+        }
+        try {
+            int[] ids = listSegments();
+            if (!loadIndex(ids)) {
+                index.clear();
+                totalBytes = 0;
+                liveBytes = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    replaySegment(ids[i], i == ids.length - 1);
+                }
+            }
+            // from now, the saved index is obsolete
+            new File(directory, INDEX_FILE).delete();
+            startSegment(ids.length == 0 ? 1 : ids[ids.length - 1]);
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException("Journal cannot be opened", e);
+        }
+        opened = true;
+        logger.info("TaskRunner Journal opened with " + index.size() + " runners in " + segments.size()
+                + " segments");
+    }
+
+    /**
+     * Replay one segment into the index
+     *
+     * @param segment
+     * @param last
+     *            True if this is the last segment (where truncation is allowed)
+     * @throws IOException
+     *             if this is not a journal segment of the supported version
+     */
+    private void replaySegment(int segment, boolean last) throws IOException {
+        FileChannel channel = openSegment(segment);
+        long size = channel.size();
+        if (last && size > 0 && size < SEGMENT_HEADER_SIZE) {
+            logger.warn("Journal segment " + segment + " truncated since its header is incomplete");
+            channel.truncate(0);
+            return;
+        }
+        checkHeader(channel, segment);
+        long position = SEGMENT_HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 4 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(channel, body, position + HEADER_SIZE);
+            crc.reset();
+            crc.update(body.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            body.flip();
+            byte type = body.get();
+            byte state = body.get();
+            int keyLength = body.getShort() & 0xFFFF;
+            byte[] bkey = new byte[keyLength];
+            body.get(bkey);
+            String key = new String(bkey, UTF8);
+            int recordSize = HEADER_SIZE + length;
+            totalBytes += recordSize;
+            Location previous;
+            if (type == TYPE_PUT) {
+                previous = index.put(key, new Location(segment, position, length, state,
+                        body.position()));
+                liveBytes += recordSize;
+            } else {
+                previous = index.remove(key);
+            }
+            if (previous != null) {
+                liveBytes -= HEADER_SIZE + previous.length;
+            }
+            position += recordSize;
+        }
+        if (position < size) {
+            if (last) {
+                logger.warn("Journal segment " + segment + " truncated at " + position + " (was " + size
+                        + ") since last record is incomplete");
+                channel.truncate(position);
+            } else {
+                logger.error("Journal segment " + segment + " is corrupted after position " + position);
+            }
+        }
+    }
+
+    /**
+     * Load the index saved by the last close, if it matches the current segments
+     *
+     * @param ids
+     *            the current segments
+     * @return True if the index is loaded
+     */
+    private boolean loadIndex(int[] ids) {
+        File file = new File(directory, INDEX_FILE);
+        if (!file.isFile()) {
+            return false;
+        }
+        CheckedInputStream checked = null;
+        try {
+            checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)),
+                    new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int nbSegments = in.readInt();
+            if (nbSegments != ids.length) {
+                return false;
+            }
+            for (int i = 0; i < nbSegments; i++) {
+                int id = in.readInt();
+                long size = in.readLong();
+                if (id != ids[i] || openSegment(id).size() != size) {
+                    return false;
+                }
+            }
+            long total = in.readLong();
+            long live = in.readLong();
+            int nbKeys = in.readInt();
+            Map<String, Location> loaded = new HashMap<String, Location>(nbKeys * 2);
+            for (int i = 0; i < nbKeys; i++) {
+                String key = in.readUTF();
+                loaded.put(key, new Location(in.readInt(), in.readLong(), in.readInt(),
+                        in.readByte(), in.readInt()));
+            }
+            long crc = checked.getChecksum().getValue();
+            if (in.readLong() != crc) {
+                return false;
+            }
+            index.putAll(loaded);
+            totalBytes = total;
+            liveBytes = live;
+            return true;
+        } catch (IOException e) {
+            logger.warn("Journal index not usable, segments will be scanned: " + e.getMessage());
+            return false;
+        } finally {
+            if (checked != null) {
+                try {
+                    checked.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the index with the size of each segment, such that the next open does not scan them
+     */
+    private void saveIndex() {
+        File tmp = new File(directory, INDEX_FILE + ".tmp");
+        DataOutputStream out = null;
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)), new CRC32());
+            out = new DataOutputStream(checked);
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            List<Integer> ids = new ArrayList<Integer>(segments.keySet());
+            Collections.sort(ids);
+            out.writeInt(ids.size());
+            for (Integer id : ids) {
+                out.writeInt(id);
+                out.writeLong(segments.get(id).size());
+            }
+            out.writeLong(totalBytes);
+            out.writeLong(liveBytes);
+            out.writeInt(index.size());
+            for (Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(location.segment);
+                out.writeLong(location.position);
+                out.writeInt(location.length);
+                out.writeByte(location.state);
+                out.writeInt(location.payloadOffset);
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.close();
+            out = null;
+            File file = new File(directory, INDEX_FILE);
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                logger.warn("Cannot save the Journal index");
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot save the Journal index: " + e.getMessage());
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+            pos += read;
+        }
+    }
+
+    /**
+     * Build one record
+     *
+     * @param type
+     * @param state
+     * @param key
+     * @param payload
+     * @return the full record including header
+     */
+    private static ByteBuffer buildRecord(byte type, byte state, String key, byte[] payload) {
+        byte[] bkey = key.getBytes(UTF8);
+        int payloadLength = payload == null ? 0 : payload.length;
+        int length = 2 + 2 + bkey.length + payloadLength;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.put(type);
+        record.put(state);
+        record.putShort((short) bkey.length);
+        record.put(bkey);
+        if (payload != null) {
+            record.put(payload);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Append one record to the current segment, rotating if necessary
+     *
+     * @param record
+     * @return the position of the record in the current segment
+     * @throws IOException
+     */
+    private long append(ByteBuffer record) throws IOException {
+        if (currentSize > SEGMENT_HEADER_SIZE && currentSize + record.remaining() > maxSegmentSize) {
+            rotate();
+        }
+        long position = currentSize;
+        while (record.hasRemaining()) {
+            current.write(record, currentSize + record.position());
+        }
+        if (sync) {
+            current.force(false);
+        }
+        currentSize += record.limit();
+        totalBytes += record.limit();
+        return position;
+    }
+
+    private void rotate() throws IOException {
+        current.force(false);
+        startSegment(currentSegment + 1);
+    }
+
+    private void checkOpened() throws OpenR66ProtocolBusinessException {
+        if (!opened) {
+            throw new OpenR66ProtocolBusinessException("Journal is not opened");
+        }
+    }
+
+    /**
+     * Save the new version of the record associated with the key
+     *
+     * @param key
+     * @param state
+     *            the state of the record, kept in the index
+     * @param payload
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public synchronized void put(String key, byte state, byte[] payload)
+            throws OpenR66ProtocolBusinessException {
+        checkOpened();
+        ByteBuffer record = buildRecord(TYPE_PUT, state, key, payload);
+        int length = record.limit() - HEADER_SIZE;
+        try {
+            long position = append(record);
+            Location previous = index.put(key, new Location(currentSegment, position, length, state,
+                    length - (payload == null ? 0 : payload.length)));
+            liveBytes += HEADER_SIZE + length;
+            if (previous != null) {
+                liveBytes -= HEADER_SIZE + previous.length;
+            }
+        } catch (IOException e) {
+            logger.error("Cannot write into Journal", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write into Journal: " + e.getMessage());
+        }
+        checkCompaction();
+    }
+
+    /**
+     * Mark the record associated with the key as deleted
+     *
+     * @param key
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public synchronized void delete(String key) throws OpenR66ProtocolBusinessException {
+        checkOpened();
+        Location previous = index.remove(key);
+        if (previous == null) {
+            return;
+        }
+        liveBytes -= HEADER_SIZE + previous.length;
+        try {
+            append(buildRecord(TYPE_DELETE, (byte) 0, key, null));
+        } catch (IOException e) {
+            logger.error("Cannot write into Journal", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write into Journal: " + e.getMessage());
+        }
+        checkCompaction();
+    }
+
+    /**
+     *
+     * @param key
+     * @return True if a live record exists for this key
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     *
+     * @param key
+     * @return the payload of the last record for this key
+     * @throws OpenR66ProtocolBusinessException
+     *             if the key is unknown or the record cannot be read
+     */
+    public byte[] get(String key) throws OpenR66ProtocolBusinessException {
+        checkOpened();
+        // Retry once if a compaction moved the record in between
+        for (int i = 0; i < 2; i++) {
+            Location location = index.get(key);
+            if (location == null) {
+                throw new OpenR66ProtocolBusinessException("No record in Journal for " + key);
+            }
+            byte[] payload = readPayload(location);
+            if (payload != null) {
+                return payload;
+            }
+        }
+        throw new OpenR66ProtocolBusinessException("Record in Journal cannot be read for " + key);
+    }
+
+    private byte[] readPayload(Location location) throws OpenR66ProtocolBusinessException {
+        FileChannel channel;
+        synchronized (this) {
+            channel = segments.get(location.segment);
+        }
+        if (channel == null) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(location.length);
+        try {
+            readFully(channel, body, location.position + HEADER_SIZE);
+        } catch (IOException e) {
+            if (!channel.isOpen()) {
+                return null;
+            }
+            throw new OpenR66ProtocolBusinessException("Cannot read Journal", e);
+        }
+        return Arrays.copyOfRange(body.array(), location.payloadOffset, location.length);
+    }
+
+    /**
+     *
+     * @return a snapshot of all live keys
+     */
+    public List<String> keys() {
+        return new ArrayList<String>(index.keySet());
+    }
+
+    /**
+     *
+     * @param states
+     * @return a snapshot of all live keys whose state is one of the given ones, using the index only
+     */
+    public List<String> keys(byte... states) {
+        List<String> keys = new ArrayList<String>();
+        for (Entry<String, Location> entry : index.entrySet()) {
+            byte state = entry.getValue().state;
+            for (byte wanted : states) {
+                if (state == wanted) {
+                    keys.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     *
+     * @return the number of live records
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Compact if obsolete records are more than live ones
+     */
+    private void checkCompaction() {
+        if (totalBytes > maxSegmentSize && totalBytes - liveBytes > liveBytes) {
+            try {
+                compact();
+            } catch (OpenR66ProtocolBusinessException e) {
+                logger.warn("Journal compaction in error", e);
+            }
+        }
+    }
+
+    /**
+     * Copy all live records into new segments and remove all older segments
+     *
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public synchronized void compact() throws OpenR66ProtocolBusinessException {
+        checkOpened();
+        int firstNew = currentSegment + 1;
+        List<Integer> olds = new ArrayList<Integer>(segments.keySet());
+        // ascending order such that a deleted record cannot reappear on partial removal
+        Collections.sort(olds);
+        try {
+            current.force(false);
+            openSegment(firstNew).truncate(0);
+            startSegment(firstNew);
+            totalBytes = 0;
+            liveBytes = 0;
+            Iterator<Entry<String, Location>> iterator = index.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<String, Location> entry = iterator.next();
+                Location location = entry.getValue();
+                byte[] payload = readPayload(location);
+                if (payload == null) {
+                    iterator.remove();
+                    continue;
+                }
+                ByteBuffer record = buildRecord(TYPE_PUT, location.state, entry.getKey(), payload);
+                int length = record.limit() - HEADER_SIZE;
+                long position = append(record);
+                entry.setValue(new Location(currentSegment, position, length, location.state,
+                        length - payload.length));
+                liveBytes += HEADER_SIZE + length;
+            }
+            current.force(true);
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException("Cannot compact Journal", e);
+        }
+        for (Integer old : olds) {
+            FileChannel channel = segments.remove(old);
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            if (!segmentFile(old).delete()) {
+                logger.warn("Cannot delete old journal segment " + old);
+            }
+        }
+        logger.info("TaskRunner Journal compacted with " + index.size() + " runners");
+    }
+
+    /**
+     * Close the journal
+     */
+    public synchronized void close() {
+        if (!opened) {
+            return;
+        }
+        opened = false;
+        for (FileChannel channel : segments.values()) {
+            try {
+                channel.force(true);
+            } catch (IOException e) {
+            }
+        }
+        saveIndex();
+        for (FileChannel channel : segments.values()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+        segments.clear();
+        index.clear();
+        current = null;
+    }
+}
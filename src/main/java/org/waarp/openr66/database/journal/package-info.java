@@ -0,0 +1,7 @@
+/**
+ * Classes implementing the append-only journal of TaskRunners used without Database
+ * 
+ * @apiviz.landmark
+ */
+package org.waarp.openr66.database.journal;
+
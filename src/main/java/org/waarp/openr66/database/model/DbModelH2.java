@@ -27,6 +27,7 @@ import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbChangeLog;
 import org.waarp.openr66.database.data.DbConfiguration;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbHostConfiguration;
@@ -43,7 +44,7 @@ import org.waarp.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
+public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 implements DbModelSequences {
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -98,6 +99,30 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             e1.printStackTrace();
         }
 
+        // Change Log (multiple monitors mode)
+        action = createTableH2 + DbChangeLog.table + "(";
+        DbChangeLog.Columns[] lcolumns = DbChangeLog.Columns.values();
+        for (int i = 0; i < lcolumns.length - 1; i++) {
+            action += lcolumns[i].name() +
+                    DBType.getType(DbChangeLog.dbTypes[i]) + notNull + ", ";
+        }
+        action += lcolumns[lcolumns.length - 1].name() +
+                DBType.getType(DbChangeLog.dbTypes[lcolumns.length - 1]) +
+                primaryKey + ")";
+        System.out.println(action);
+        request = new DbRequest(session);
+        try {
+            request.query(action);
+        } catch (WaarpDatabaseNoConnectionException e) {
+            e.printStackTrace();
+            return;
+        } catch (WaarpDatabaseSqlException e) {
+            e.printStackTrace();
+            // XXX FIX no return;
+        } finally {
+            request.close();
+        }
+
         // Configuration
         action = createTableH2 + DbConfiguration.table + "(";
         DbConfiguration.Columns[] ccolumns = DbConfiguration.Columns
@@ -319,6 +344,34 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
         }
     }
 
+    @Override
+    public long[] nextSequences(DbSession dbSession, int count)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
+        long[] result = new long[count];
+        String action = "SELECT NEXTVAL('" + DbTaskRunner.fieldseq + "') FROM SYSTEM_RANGE(1, " + count + ")";
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(
+                dbSession);
+        try {
+            preparedStatement.createPrepareStatement(action);
+            preparedStatement.executeQuery();
+            for (int i = 0; i < count; i++) {
+                if (!preparedStatement.getNext()) {
+                    throw new WaarpDatabaseNoDataException(
+                            "No sequence found. Must be initialized first");
+                }
+                try {
+                    result[i] = preparedStatement.getResultSet().getLong(1);
+                } catch (SQLException e) {
+                    throw new WaarpDatabaseSqlException(e);
+                }
+            }
+            return result;
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
     public boolean upgradeDb(DbSession session, String version) throws WaarpDatabaseNoConnectionException {
         if (PartnerConfiguration.isVersion2GEQVersion1(version, R66Versions.V2_4_13.getVersion())) {
             System.out.println(version + " to " + R66Versions.V2_4_13.getVersion() + "? " + true);
@@ -431,8 +484,40 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_5.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_5.getVersion() + "? " + true);
+            String createTableH2 = "CREATE TABLE IF NOT EXISTS ";
+            String primaryKey = " PRIMARY KEY ";
+            String notNull = " NOT NULL ";
+
+            // Change Log (multiple monitors mode)
+            String action = createTableH2 + DbChangeLog.table + "(";
+            DbChangeLog.Columns[] lcolumns = DbChangeLog.Columns.values();
+            for (int i = 0; i < lcolumns.length - 1; i++) {
+                action += lcolumns[i].name() +
+                        DBType.getType(DbChangeLog.dbTypes[i]) + notNull + ", ";
+            }
+            action += lcolumns[lcolumns.length - 1].name() +
+                    DBType.getType(DbChangeLog.dbTypes[lcolumns.length - 1]) +
+                    primaryKey + ")";
+            System.out.println(action);
+            DbRequest request = new DbRequest(session);
+            try {
+                request.query(action);
+            } catch (WaarpDatabaseSqlException e) {
+                // might already exist
+                try {
+                    DbChangeLog.getLastVersion(session);
+                } catch (WaarpDatabaseSqlException e1) {
+                    e.printStackTrace();
+                    return false;
+                }
+            } finally {
+                request.close();
+            }
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_5.getVersion());
         return true;
     }
 
@@ -504,6 +589,15 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             } finally {
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_5.getVersion())) {
+            try {
+                DbChangeLog.getLastVersion(session);
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_5.getVersion());
+            } catch (WaarpDatabaseSqlException e) {
+                return !upgradeDb(session, version);
+            }
+        }
         return false;
     }
 
@@ -28,7 +28,10 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import io.netty.bootstrap.ServerBootstrap;
@@ -71,10 +74,13 @@ import org.waarp.openr66.configuration.FileBasedConfiguration;
 import org.waarp.openr66.context.R66BusinessFactoryInterface;
 import org.waarp.openr66.context.R66DefaultBusinessFactory;
 import org.waarp.openr66.context.R66FiniteDualStates;
+import org.waarp.openr66.context.task.FtpClientPool;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.journal.TaskRunnerJournal;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoDataException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
 import org.waarp.openr66.protocol.http.HttpInitializer;
@@ -85,6 +91,7 @@ import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler;
 import org.waarp.openr66.protocol.localhandler.LocalTransaction;
 import org.waarp.openr66.protocol.localhandler.Monitoring;
 import org.waarp.openr66.protocol.networkhandler.ChannelTrafficHandler;
+import org.waarp.openr66.protocol.networkhandler.BandwidthClasses;
 import org.waarp.openr66.protocol.networkhandler.GlobalTrafficHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerInitializer;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
@@ -93,6 +100,8 @@ import org.waarp.openr66.protocol.networkhandler.ssl.NetworkSslServerInitializer
 import org.waarp.openr66.protocol.snmp.R66PrivateMib;
 import org.waarp.openr66.protocol.snmp.R66VariableFactory;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.BlockSizeTuner;
+import org.waarp.openr66.protocol.utils.DedupIndex;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 import org.waarp.openr66.protocol.utils.Version;
 import org.waarp.openr66.thrift.R66ThriftServerService;
@@ -177,6 +186,57 @@ public class Configuration {
      * Global digest
      */
     private boolean globalDigest = true;
+    /**
+     * Compression of data blocks when supported by the partner
+     */
+    private boolean compressBlocks = false;
+    /**
+     * Delta transfer of the files against their previous version when supported by the partner
+     */
+    private boolean deltaTransfer = false;
+    /**
+     * Skip of the transfers whose content is already held by the receiver when supported by the
+     * partner
+     */
+    private boolean dedupTransfer = false;
+    /**
+     * Maximum number of received files in the deduplication index
+     */
+    private int dedupEntries = 10000;
+    /**
+     * Hard link (instead of copy) of the already held content when deduplicated
+     */
+    private boolean dedupHardLink = false;
+    /**
+     * Block size tuned by partner from the observed throughput, between blockSizeMin and
+     * blockSizeMax
+     */
+    private boolean adaptiveBlockSize = false;
+    /**
+     * Minimum block size when tuned by partner
+     */
+    private int blockSizeMin = 0x2000; // 8K
+    /**
+     * Maximum block size when tuned by partner
+     */
+    private int blockSizeMax = 0x100000; // 1M
+    /**
+     * Maximum number of FTP sessions used at the same time for one target by FTP transfer
+     * tasks (0 to disable the pool)
+     */
+    private int ftpPoolMaxPerTarget = 8;
+    /**
+     * Delay in ms after which an idle pooled FTP session is closed (0 to disable the pool)
+     */
+    private long ftpPoolIdleTimeout = 60000;
+    /**
+     * GET /metrics served by the REST interfaces (host and rule ids being exposed as labels)
+     */
+    private boolean restMetrics = false;
+    /**
+     * Maximum size in bytes of the body of the REST bulk transfer requests (POST on /control)
+     */
+    private long restBulkMaxSize = 10 * 1024 * 1024;
     /**
      * White List of allowed Partners to use Business Requests
      */
@@ -421,6 +481,28 @@ public class Configuration {
     protected final ExecutorService execOtherWorker = Executors.newCachedThreadPool(new WaarpThreadFactory(
             "OtherWorker"));
 
+    /**
+     * ExecutorService for the tasks of a rule run concurrently (task groups)
+     */
+    protected ThreadPoolExecutor taskGroupExecutor = null;
+
+    /**
+     * Number of threads for the parallel archiving (Zip and Tar tasks), 0 for the number of
+     * processors
+     */
+    private int archiveThreads = 0;
+
+    /**
+     * ExecutorService shared by the parallel archiving
+     */
+    protected ThreadPoolExecutor archiveExecutor = null;
+
+    /**
+     * Transfers of at most this size (in bytes) do not save their runner on intermediate updates,
+     * only when accepted, done or in error (0 for disabled)
+     */
+    private long fastPathSize = 0;
+
     protected EventLoopGroup bossGroup;
     protected EventLoopGroup workerGroup;
     protected EventLoopGroup handlerGroup;
@@ -481,6 +563,11 @@ public class Configuration {
      */
     protected GlobalTrafficHandler globalTrafficShapingHandler = null;
 
+    /**
+     * Bandwidth classes by partner and by rule (set from HostConfiguration)
+     */
+    protected BandwidthClasses bandwidthClasses = new BandwidthClasses();
+
     /**
      * LocalTransaction
      */
@@ -517,6 +604,22 @@ public class Configuration {
      * For No Db client, do we saved TaskRunner in a XML
      */
     private boolean saveTaskRunnerWithNoDb = false;
+    /**
+     * For No Db client, do we saved TaskRunner in an append-only Journal instead of XML files
+     */
+    private boolean saveTaskRunnerWithJournal = false;
+    /**
+     * Journal for TaskRunner when saved with No Db
+     */
+    private TaskRunnerJournal taskRunnerJournal = null;
+    /**
+     * Maximum size of one Journal segment
+     */
+    private long journalSegmentSize = TaskRunnerJournal.DEFAULT_SEGMENT_SIZE;
+    /**
+     * Shall each write in the Journal be forced to disk
+     */
+    private boolean journalSync = false;
     /**
      * In case of Multiple OpenR66 monitor servers behing a load balancer (HA solution)
      */
@@ -556,6 +659,8 @@ public class Configuration {
      */
     private R66ThriftServerService thriftService;
     private int thriftport = -1;
+    private boolean thriftNonBlocking = false;
+    private int thriftWorkers = 0;
 
     private boolean isExecuteErrorBeforeTransferAllowed = true;
 
@@ -613,6 +718,9 @@ public class Configuration {
         if (getTimeLimitCache() < 1000) {
             setTimeLimitCache(1000);
         }
+        setJournalSegmentSize(SystemPropertyUtil.getLong(R66SystemProperties.OPENR66_JOURNAL_SEGMENTSIZE,
+                TaskRunnerJournal.DEFAULT_SEGMENT_SIZE));
+        setJournalSync(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_JOURNAL_SYNC, false));
         DbTaskRunner.createLruCache(getLimitCache(), getTimeLimitCache());
         if (getLimitCache() > 0 && getTimeLimitCache() > 1000) {
             launchInFixedDelay(new CleanLruCache(), getTimeLimitCache(), TimeUnit.MILLISECONDS);
@@ -703,6 +811,12 @@ public class Configuration {
         }
         pipelineInit();
         serverPipelineInit();
+        if (isDedupTransfer()) {
+            DedupIndex.initialize(getDedupEntries());
+        }
+        if (isAdaptiveBlockSize()) {
+            BlockSizeTuner.initialize();
+        }
         r66Startup();
         startHttpSupport();
         startMonitoring();
@@ -772,7 +886,8 @@ public class Configuration {
         internalRunner = new InternalRunner();
 
         if (getThriftport() > 0) {
-            setThriftService(new R66ThriftServerService(new WaarpFuture(true), getThriftport()));
+            setThriftService(new R66ThriftServerService(new WaarpFuture(true), getThriftport(),
+                    isThriftNonBlocking(), getThriftWorkers()));
             execOtherWorker.execute(getThriftService());
             getThriftService().awaitInitialization();
         } else {
@@ -955,6 +1070,8 @@ public class Configuration {
         if (scheduledExecutorService != null) {
             scheduledExecutorService.shutdown();
         }
+        DedupIndex.close();
+        BlockSizeTuner.close();
         if (getAgentSnmp() != null) {
             getAgentSnmp().stop();
         } else if (getMonitoring() != null) {
@@ -965,9 +1082,19 @@ public class Configuration {
         if (execOtherWorker != null) {
             execOtherWorker.shutdownNow();
         }
+        synchronized (this) {
+            if (taskGroupExecutor != null) {
+                taskGroupExecutor.shutdown();
+            }
+            if (archiveExecutor != null) {
+                archiveExecutor.shutdown();
+            }
+        }
         if (timerCloseOperations != null) {
             timerCloseOperations.stop();
         }
+        FtpClientPool.releaseResources();
+        closeTaskRunnerJournal();
     }
 
     /**
@@ -1003,6 +1130,8 @@ public class Configuration {
         if (timerCloseOperations != null) {
             timerCloseOperations.stop();
         }
+        FtpClientPool.releaseResources();
+        closeTaskRunnerJournal();
         getR66BusinessFactory().releaseResources();
     }
 
@@ -1078,6 +1207,7 @@ public class Configuration {
         }
         setAnyBandwidthLimitation((getServerGlobalReadLimit() > 0 || getServerGlobalWriteLimit() > 0 ||
                 getServerChannelReadLimit() > 0 || getServerChannelWriteLimit() > 0));
+        bandwidthClasses.rebalance();
     }
 
     /**
@@ -1121,6 +1251,76 @@ public class Configuration {
         return execOtherWorker;
     }
 
+    /**
+     * 
+     * @return the ExecutorService for the tasks of a rule run concurrently. It is bounded, the
+     *         calling thread running the task itself when all threads are busy.
+     */
+    public synchronized ExecutorService getTaskGroupExecutor() {
+        if (taskGroupExecutor == null) {
+            taskGroupExecutor = new ThreadPoolExecutor(0, Math.max(4, getSERVER_THREAD()),
+                    60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new WaarpThreadFactory("TaskGroup"), new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return taskGroupExecutor;
+    }
+
+    /**
+     * 
+     * @return the number of threads used by the parallel archiving
+     */
+    public int getArchiveThreads() {
+        if (archiveThreads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return archiveThreads;
+    }
+
+    /**
+     * 
+     * @param archiveThreads
+     *            the number of threads used by the parallel archiving (0 for the number of
+     *            processors)
+     */
+    public void setArchiveThreads(int archiveThreads) {
+        this.archiveThreads = archiveThreads;
+    }
+
+    /**
+     * 
+     * @return the ExecutorService shared by all the parallel archiving operations, limited to
+     *         getArchiveThreads() threads
+     */
+    public synchronized ExecutorService getArchiveExecutor() {
+        if (archiveExecutor == null) {
+            int threads = getArchiveThreads();
+            archiveExecutor = new ThreadPoolExecutor(threads, threads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new WaarpThreadFactory("Archive"));
+            archiveExecutor.allowCoreThreadTimeOut(true);
+        }
+        return archiveExecutor;
+    }
+
+    /**
+     * 
+     * @return the maximum size (in bytes) of the transfers whose runner is only saved in database
+     *         at milestones (0 for disabled)
+     */
+    public long getFastPathSize() {
+        return fastPathSize;
+    }
+
+    /**
+     * 
+     * @param fastPathSize
+     *            the maximum size (in bytes) of the transfers whose runner is only saved in
+     *            database at milestones (0 for disabled)
+     */
+    public void setFastPathSize(long fastPathSize) {
+        this.fastPathSize = fastPathSize;
+    }
+
     public Timer getTimerClose() {
         return timerCloseOperations;
     }
@@ -1132,6 +1332,13 @@ public class Configuration {
         return globalTrafficShapingHandler;
     }
 
+    /**
+     * @return the bandwidth classes by partner and by rule
+     */
+    public BandwidthClasses getBandwidthClasses() {
+        return bandwidthClasses;
+    }
+
     /**
      * @return the serverChannelGroup
      */
@@ -1388,6 +1595,190 @@ public class Configuration {
         this.globalDigest = globalDigest;
     }
 
+    /**
+     * @return the compressBlocks
+     */
+    public boolean isCompressBlocks() {
+        return compressBlocks;
+    }
+
+    /**
+     * @param compressBlocks the compressBlocks to set
+     */
+    public void setCompressBlocks(boolean compressBlocks) {
+        this.compressBlocks = compressBlocks;
+    }
+
+    /**
+     * @return the deltaTransfer
+     */
+    public boolean isDeltaTransfer() {
+        return deltaTransfer;
+    }
+
+    /**
+     * @param deltaTransfer the deltaTransfer to set
+     */
+    public void setDeltaTransfer(boolean deltaTransfer) {
+        this.deltaTransfer = deltaTransfer;
+    }
+
+    /**
+     * @return the dedupTransfer
+     */
+    public boolean isDedupTransfer() {
+        return dedupTransfer;
+    }
+
+    /**
+     * @param dedupTransfer the dedupTransfer to set
+     */
+    public void setDedupTransfer(boolean dedupTransfer) {
+        this.dedupTransfer = dedupTransfer;
+    }
+
+    /**
+     * @return the dedupEntries
+     */
+    public int getDedupEntries() {
+        return dedupEntries;
+    }
+
+    /**
+     * @param dedupEntries the dedupEntries to set
+     */
+    public void setDedupEntries(int dedupEntries) {
+        this.dedupEntries = dedupEntries;
+    }
+
+    /**
+     * @return the dedupHardLink
+     */
+    public boolean isDedupHardLink() {
+        return dedupHardLink;
+    }
+
+    /**
+     * @param dedupHardLink the dedupHardLink to set
+     */
+    public void setDedupHardLink(boolean dedupHardLink) {
+        this.dedupHardLink = dedupHardLink;
+    }
+
+    /**
+     * @return the adaptiveBlockSize
+     */
+    public boolean isAdaptiveBlockSize() {
+        return adaptiveBlockSize;
+    }
+
+    /**
+     * @param adaptiveBlockSize the adaptiveBlockSize to set
+     */
+    public void setAdaptiveBlockSize(boolean adaptiveBlockSize) {
+        this.adaptiveBlockSize = adaptiveBlockSize;
+    }
+
+    /**
+     * @return the blockSizeMin
+     */
+    public int getBlockSizeMin() {
+        return blockSizeMin;
+    }
+
+    /**
+     * @param blockSizeMin the blockSizeMin to set
+     */
+    public void setBlockSizeMin(int blockSizeMin) {
+        this.blockSizeMin = blockSizeMin;
+    }
+
+    /**
+     * @return the blockSizeMax
+     */
+    public int getBlockSizeMax() {
+        return blockSizeMax;
+    }
+
+    /**
+     * @param blockSizeMax the blockSizeMax to set
+     */
+    public void setBlockSizeMax(int blockSizeMax) {
+        this.blockSizeMax = blockSizeMax;
+    }
+
+    /**
+     * @return the ftpPoolMaxPerTarget
+     */
+    public int getFtpPoolMaxPerTarget() {
+        return ftpPoolMaxPerTarget;
+    }
+
+    /**
+     * @param ftpPoolMaxPerTarget the ftpPoolMaxPerTarget to set (0 to disable the pool)
+     */
+    public void setFtpPoolMaxPerTarget(int ftpPoolMaxPerTarget) {
+        this.ftpPoolMaxPerTarget = ftpPoolMaxPerTarget < 0 ? 0 : ftpPoolMaxPerTarget;
+        FtpClientPool.setMaxPerTarget(this.ftpPoolMaxPerTarget);
+    }
+
+    /**
+     * @return the ftpPoolIdleTimeout
+     */
+    public long getFtpPoolIdleTimeout() {
+        return ftpPoolIdleTimeout;
+    }
+
+    /**
+     * @param ftpPoolIdleTimeout the ftpPoolIdleTimeout to set in ms (0 to disable the pool)
+     */
+    public void setFtpPoolIdleTimeout(long ftpPoolIdleTimeout) {
+        this.ftpPoolIdleTimeout = ftpPoolIdleTimeout < 0 ? 0 : ftpPoolIdleTimeout;
+        FtpClientPool.setIdleTimeout(this.ftpPoolIdleTimeout);
+    }
+
+    /**
+     * @return True if GET /metrics is served by the REST interfaces
+     */
+    public boolean isRestMetrics() {
+        return restMetrics;
+    }
+
+    /**
+     * @param restMetrics True to serve GET /metrics by the REST interfaces
+     */
+    public void setRestMetrics(boolean restMetrics) {
+        this.restMetrics = restMetrics;
+    }
+
+    /**
+     * @return the maximum size in bytes of the body of the REST bulk transfer requests
+     */
+    public long getRestBulkMaxSize() {
+        return restBulkMaxSize;
+    }
+
+    /**
+     * @param restBulkMaxSize the maximum size in bytes of the body of the REST bulk transfer
+     *            requests (POST on /control)
+     */
+    public void setRestBulkMaxSize(long restBulkMaxSize) {
+        if (restBulkMaxSize > 0) {
+            this.restBulkMaxSize = restBulkMaxSize;
+        }
+    }
+
+    /**
+     * @return the greatest block size accepted from a partner (BLOCKSIZE, or blockSizeMax if
+     *         greater and the block size is tuned by partner)
+     */
+    public int getMaxAcceptedBlockSize() {
+        if (adaptiveBlockSize && blockSizeMax > getBLOCKSIZE()) {
+            return blockSizeMax;
+        }
+        return getBLOCKSIZE();
+    }
+
     /**
      * @return the businessWhiteSet
      */
@@ -2074,6 +2465,76 @@ public class Configuration {
         this.saveTaskRunnerWithNoDb = saveTaskRunnerWithNoDb;
     }
 
+    /**
+     * @return True if TaskRunners without Db are saved within the Journal instead of XML files
+     */
+    public boolean isSaveTaskRunnerWithJournal() {
+        return saveTaskRunnerWithNoDb && saveTaskRunnerWithJournal;
+    }
+
+    /**
+     * @param saveTaskRunnerWithJournal the saveTaskRunnerWithJournal to set
+     */
+    public void setSaveTaskRunnerWithJournal(boolean saveTaskRunnerWithJournal) {
+        this.saveTaskRunnerWithJournal = saveTaskRunnerWithJournal;
+    }
+
+    /**
+     * 
+     * @return the TaskRunner Journal, opened on first call (null if not in Journal mode)
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public synchronized TaskRunnerJournal getTaskRunnerJournal() throws OpenR66ProtocolBusinessException {
+        if (!isSaveTaskRunnerWithJournal()) {
+            return null;
+        }
+        if (taskRunnerJournal == null) {
+            TaskRunnerJournal journal = new TaskRunnerJournal(new File(getBaseDirectory() + getArchivePath()),
+                    getJournalSegmentSize(), isJournalSync());
+            journal.open();
+            taskRunnerJournal = journal;
+        }
+        return taskRunnerJournal;
+    }
+
+    /**
+     * Close the TaskRunner Journal if any
+     */
+    public synchronized void closeTaskRunnerJournal() {
+        if (taskRunnerJournal != null) {
+            taskRunnerJournal.close();
+            taskRunnerJournal = null;
+        }
+    }
+
+    /**
+     * @return the journalSegmentSize
+     */
+    public long getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    /**
+     * @param journalSegmentSize the journalSegmentSize to set
+     */
+    public void setJournalSegmentSize(long journalSegmentSize) {
+        this.journalSegmentSize = journalSegmentSize;
+    }
+
+    /**
+     * @return the journalSync
+     */
+    public boolean isJournalSync() {
+        return journalSync;
+    }
+
+    /**
+     * @param journalSync the journalSync to set
+     */
+    public void setJournalSync(boolean journalSync) {
+        this.journalSync = journalSync;
+    }
+
     /**
      * @return the multipleMonitors
      */
@@ -2228,6 +2689,34 @@ public class Configuration {
         this.thriftport = thriftport;
     }
 
+    /**
+     * @return True if the Thrift service uses the non blocking server (framed transport)
+     */
+    public boolean isThriftNonBlocking() {
+        return thriftNonBlocking;
+    }
+
+    /**
+     * @param thriftNonBlocking True to use the non blocking Thrift server (framed transport)
+     */
+    public void setThriftNonBlocking(boolean thriftNonBlocking) {
+        this.thriftNonBlocking = thriftNonBlocking;
+    }
+
+    /**
+     * @return the number of threads handling the Thrift requests (0 for default)
+     */
+    public int getThriftWorkers() {
+        return thriftWorkers;
+    }
+
+    /**
+     * @param thriftWorkers the number of threads handling the Thrift requests (0 for default)
+     */
+    public void setThriftWorkers(int thriftWorkers) {
+        this.thriftWorkers = thriftWorkers;
+    }
+
     /**
      * @return the isExecuteErrorBeforeTransferAllowed
      */
@@ -66,7 +66,8 @@ public class PartnerConfiguration {
     public static enum FIELDS {
         HOSTID("nohostid"), VERSION(R66Versions.V2_4_12.getVersion()),
         DIGESTALGO(DigestAlgo.MD5.name), FILESIZE(false), FINALHASH(false),
-        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD);
+        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD), COMPRESSION(false),
+        DELTA(false), DEDUP(false), BLOCKSIZEMIN(0), BLOCKSIZEMAX(0);
 
         String name;
         Object defaultValue;
@@ -151,6 +152,12 @@ public class PartnerConfiguration {
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.getDigest().name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, Configuration.configuration.isHostProxyfied());
         JsonHandler.setValue(root, FIELDS.SEPARATOR, getSEPARATOR_FIELD());
+        JsonHandler.setValue(root, FIELDS.COMPRESSION, Configuration.configuration.isCompressBlocks());
+        JsonHandler.setValue(root, FIELDS.DELTA, Configuration.configuration.isDeltaTransfer());
+        JsonHandler.setValue(root, FIELDS.DEDUP, Configuration.configuration.isDedupTransfer());
+        JsonHandler.setValue(root, FIELDS.BLOCKSIZEMIN, Configuration.configuration.getBlockSizeMin());
+        JsonHandler.setValue(root, FIELDS.BLOCKSIZEMAX,
+                Configuration.configuration.getMaxAcceptedBlockSize());
         useJson = true;
         logger.debug("Info HostId: " + root.toString());
     }
@@ -212,6 +219,46 @@ public class PartnerConfiguration {
         return root.path(FIELDS.SEPARATOR.name).asText();
     }
 
+    /**
+     * 
+     * @return True if this Host accepts compressed data blocks
+     */
+    public boolean useCompression() {
+        return root.path(FIELDS.COMPRESSION.name).asBoolean((Boolean) FIELDS.COMPRESSION.defaultValue);
+    }
+
+    /**
+     * 
+     * @return True if this Host accepts delta transfers
+     */
+    public boolean useDelta() {
+        return root.path(FIELDS.DELTA.name).asBoolean((Boolean) FIELDS.DELTA.defaultValue);
+    }
+
+    /**
+     * 
+     * @return True if this Host accepts the deduplication of transfers
+     */
+    public boolean useDedup() {
+        return root.path(FIELDS.DEDUP.name).asBoolean((Boolean) FIELDS.DEDUP.defaultValue);
+    }
+
+    /**
+     * 
+     * @return the minimum block size wished by this Host, 0 if unknown
+     */
+    public int getBlockSizeMin() {
+        return root.path(FIELDS.BLOCKSIZEMIN.name).asInt((Integer) FIELDS.BLOCKSIZEMIN.defaultValue);
+    }
+
+    /**
+     * 
+     * @return the greatest block size accepted by this Host, 0 if unknown
+     */
+    public int getBlockSizeMax() {
+        return root.path(FIELDS.BLOCKSIZEMAX.name).asInt((Integer) FIELDS.BLOCKSIZEMAX.defaultValue);
+    }
+
     /**
      * @return the useJson
      */
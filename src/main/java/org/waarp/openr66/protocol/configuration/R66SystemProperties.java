@@ -90,5 +90,14 @@ public class R66SystemProperties {
      * Minimal value is 1000 ms (1s). If set to 1000, the value will not be regularly deleted.
      */
     public static final String OPENR66_CACHE_TIMELIMIT = "openr66.cache.timelimit";
+    /**
+     * Maximum size in bytes of one segment of the TaskRunner Journal (used without database when taskrunnerjournal is
+     * set). Default is 16 MB.
+     */
+    public static final String OPENR66_JOURNAL_SEGMENTSIZE = "openr66.journal.segmentsize";
+    /**
+     * Shall each write into the TaskRunner Journal be forced to disk (default = false)
+     */
+    public static final String OPENR66_JOURNAL_SYNC = "openr66.journal.sync";
 
 }
@@ -0,0 +1,117 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.http.rest;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.ReferenceCountUtil;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.http.rest.handler.HttpRestControlR66Handler;
+
+/**
+ * Bounds the size of the body of the POST requests on /control (where the bulk transfer requests
+ * are submitted), in front of the REST handler, such that a too large body is refused with a 400
+ * Bad Request before being parsed. The Content-Length is checked first; without it (chunked
+ * body), the received bytes are counted and the connection is closed once the limit is exceeded.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class HttpRestBulkLimitR66Handler extends ChannelInboundHandlerAdapter {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(HttpRestBulkLimitR66Handler.class);
+
+    private static final String URI = "/" + HttpRestControlR66Handler.BASEURI;
+
+    private final long maxSize;
+    /**
+     * True while the body of the current request is counted
+     */
+    private boolean counting = false;
+    /**
+     * True while the rest of a refused request is to be ignored
+     */
+    private boolean refused = false;
+    private long received = 0;
+
+    /**
+     * @param maxSize
+     *            the maximum size in bytes of the body of a POST request on /control
+     */
+    public HttpRestBulkLimitR66Handler(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            refused = false;
+            counting = request.method() == HttpMethod.POST
+                    && new QueryStringDecoder(request.uri()).path().startsWith(URI);
+            received = 0;
+            if (counting && HttpUtil.getContentLength(request, -1L) > maxSize) {
+                refuse(ctx, msg);
+                return;
+            }
+        } else if (refused && msg instanceof HttpContent) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (counting && msg instanceof HttpContent) {
+            received += ((HttpContent) msg).content().readableBytes();
+            if (received > maxSize) {
+                refuse(ctx, msg);
+                return;
+            }
+        }
+        if (msg instanceof LastHttpContent) {
+            counting = false;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private void refuse(ChannelHandlerContext ctx, Object msg) {
+        logger.warn("REST request on " + URI + " refused since its body is greater than "
+                + maxSize + " bytes");
+        counting = false;
+        refused = !(msg instanceof LastHttpContent);
+        ReferenceCountUtil.release(msg);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.BAD_REQUEST);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.http.rest;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.ReferenceCountUtil;
+
+import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.openr66.protocol.utils.R66Metrics;
+
+/**
+ * Serves GET /metrics with the R66Metrics in the text exposition format, in front of the REST
+ * handler. Any other request goes through to the REST handler.<br>
+ * <br>
+ * Only installed if the configuration enables it (restmetrics). The answer only reads in memory
+ * counters (no database access) and contains no transfer information, only counts and latencies,
+ * but with the host and rule ids as labels. As scrapers cannot sign the requests, when the REST
+ * interface requires authentication, only local clients (loopback) are answered, any other gets
+ * a 403 Forbidden; to scrape from another host, a dedicated REST interface without authentication
+ * is to be bound to a private address.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class HttpRestMetricsR66Handler extends ChannelInboundHandlerAdapter {
+    public static final String URI = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * True while the content of a metrics request is to be ignored
+     */
+    private boolean inMetrics = false;
+    /**
+     * True if only local clients are answered
+     */
+    private final boolean localOnly;
+
+    /**
+     * @param authenticated
+     *            True if the REST interface requires authentication, so that only local clients
+     *            are answered
+     */
+    public HttpRestMetricsR66Handler(boolean authenticated) {
+        this.localOnly = authenticated;
+    }
+
+    private boolean isAllowed(ChannelHandlerContext ctx) {
+        if (!localOnly) {
+            return true;
+        }
+        SocketAddress address = ctx.channel().remoteAddress();
+        return address instanceof InetSocketAddress
+                && ((InetSocketAddress) address).getAddress() != null
+                && ((InetSocketAddress) address).getAddress().isLoopbackAddress();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            inMetrics = request.method() == HttpMethod.GET
+                    && URI.equals(new QueryStringDecoder(request.uri()).path());
+            if (inMetrics) {
+                boolean keepAlive = HttpUtil.isKeepAlive(request);
+                if (msg instanceof LastHttpContent) {
+                    inMetrics = false;
+                }
+                ReferenceCountUtil.release(msg);
+                if (isAllowed(ctx)) {
+                    writeMetrics(ctx, keepAlive);
+                } else {
+                    writeForbidden(ctx);
+                }
+                return;
+            }
+        } else if (inMetrics && msg instanceof HttpContent) {
+            if (msg instanceof LastHttpContent) {
+                inMetrics = false;
+            }
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private void writeForbidden(ChannelHandlerContext ctx) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.FORBIDDEN);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void writeMetrics(ChannelHandlerContext ctx, boolean keepAlive) {
+        ByteBuf buf = Unpooled.copiedBuffer(R66Metrics.exportAsText(), WaarpStringUtils.UTF8);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.OK, buf);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, buf.readableBytes());
+        if (keepAlive) {
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+        ChannelFuture future = ctx.writeAndFlush(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
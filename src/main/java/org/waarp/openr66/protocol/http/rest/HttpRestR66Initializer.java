@@ -21,6 +21,7 @@ package org.waarp.openr66.protocol.http.rest;
 
 import org.waarp.common.crypto.ssl.WaarpSslContextFactory;
 import org.waarp.gateway.kernel.rest.RestConfiguration;
+import org.waarp.openr66.protocol.configuration.Configuration;
 
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelInitializer;
@@ -77,6 +78,12 @@ public class HttpRestR66Initializer extends ChannelInitializer<SocketChannel> {
             pipeline.addLast("deflater", new HttpContentCompressor());
         }
         pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
+        if (Configuration.configuration.isRestMetrics()) {
+            pipeline.addLast("metrics",
+                    new HttpRestMetricsR66Handler(restConfiguration.REST_AUTHENTICATED));
+        }
+        pipeline.addLast("bulklimit",
+                new HttpRestBulkLimitR66Handler(Configuration.configuration.getRestBulkMaxSize()));
         HttpRestR66Handler r66handler = new HttpRestR66Handler(restConfiguration);
         pipeline.addLast("handler", r66handler);
     }
@@ -71,7 +71,7 @@ public abstract class HttpRestAbstractR66Handler extends RestMethodHandler {
         GetInformation, GetTransferInformation,
         GetLog,
         ShutdownOrBlock, GetStatus,
-        RestartTransfer, StopOrCancelTransfer, CreateTransfer
+        RestartTransfer, StopOrCancelTransfer, CreateTransfer, CreateBulkTransfer
     }
 
     /**
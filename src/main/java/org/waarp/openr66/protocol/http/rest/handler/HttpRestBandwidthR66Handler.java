@@ -110,6 +110,8 @@ public class HttpRestBandwidthR66Handler extends HttpRestAbstractR66Handler {
                 node.setReadglobal(lresult[1]);
                 node.setWritesession(lresult[2]);
                 node.setReadsession(lresult[3]);
+                node.setClasses(serverHandler.bandwidthClasses(setter, node.getPartner(),
+                        node.getPartnerlimit(), node.getIdrule(), node.getRuleweight()));
                 setOk(handler, result, json, HttpResponseStatus.OK);
             } else {
                 logger.info("Validation is ignored: " + json);
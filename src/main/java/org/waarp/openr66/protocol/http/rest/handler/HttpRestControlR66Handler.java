@@ -47,6 +47,7 @@ import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler;
 import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler.RESTHANDLERS;
 import org.waarp.openr66.protocol.localhandler.ServerActions;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
+import org.waarp.openr66.protocol.localhandler.packet.json.BulkTransferRequestJsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.InformationJsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.JsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.StopOrCancelJsonPacket;
@@ -59,7 +60,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 /**
  * Transfer Http REST interface: http://host/control?... +
  * InformationJsonPacket (should be on Transfer only) RestartTransferJsonPacket StopOrCancelJsonPacket TransferRequestJsonPacket
- * as GET PUT PUT POST
+ * BulkTransferRequestJsonPacket as GET PUT PUT POST POST
  * 
  * @author "Frederic Bregier"
  *
@@ -166,6 +167,17 @@ public class HttpRestControlR66Handler extends HttpRestAbstractR66Handler {
                     result.setDetail("New Transfer cannot be registered");
                     setError(handler, result, HttpResponseStatus.NOT_ACCEPTABLE);
                 }
+            } else if (json instanceof BulkTransferRequestJsonPacket && method == METHOD.POST) {
+                result.setCommand(ACTIONS_TYPE.CreateBulkTransfer.name());
+                BulkTransferRequestJsonPacket node = (BulkTransferRequestJsonPacket) json;
+                R66Result r66result = serverHandler.bulkTransferRequest(node);
+                if (r66result.getCode() == ErrorCode.CompleteOk) {
+                    result.setDetail("New Transfers registered");
+                } else {
+                    result.setDetail("Some new Transfers cannot be registered");
+                }
+                // per item status in errors
+                setOk(handler, result, node, HttpResponseStatus.OK);
             } else {
                 logger.info("Validation is ignored: " + json);
                 result.setDetail("Unknown command");
@@ -250,6 +262,28 @@ public class HttpRestControlR66Handler extends HttpRestAbstractR66Handler {
             }
         }
 
+        if (this.methods.contains(METHOD.POST)) {
+            BulkTransferRequestJsonPacket node7 = new BulkTransferRequestJsonPacket();
+            node7.setRequestUserPacket();
+            node7.setComment("Bulk Transfer Request (POST)");
+            TransferRequestJsonPacket node6 = new TransferRequestJsonPacket();
+            node6.setRequestUserPacket();
+            node6.setFilename("Filename");
+            node6.setFileInformation("File information");
+            node6.setRequested("Requested host");
+            node6.setRulename("Rulename");
+            node6.setStart(new Date());
+            node7.getRequests().add(node6);
+            ArrayNode node1 = JsonHandler.createArrayNode();
+            try {
+                node1.add(node7.createObjectNode());
+                ObjectNode node2 = RestArgument.fillDetailedAllow(METHOD.POST, this.path,
+                        ACTIONS_TYPE.CreateBulkTransfer.name(), node7.createObjectNode(), node1);
+                node.add(node2);
+            } catch (OpenR66ProtocolPacketException e1) {
+            }
+        }
+
         ObjectNode node2 = RestArgument.fillDetailedAllow(METHOD.OPTIONS, this.path, COMMAND_TYPE.OPTIONS.name(), null,
                 null);
         node.add(node2);
@@ -41,6 +41,7 @@ import org.waarp.openr66.commander.ClientRunner;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
 import org.waarp.openr66.context.authentication.R66Auth;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.data.DbHostAuth;
@@ -359,6 +360,7 @@ public abstract class ConnectionActions {
      */
     public void authent(Channel channel, AuthentPacket packet)
             throws OpenR66ProtocolPacketException {
+        session.getPhases().begin(PHASE.AUTHENT);
         if (packet.isToValidate()) {
             session.newState(AUTHENTR);
         }
@@ -473,6 +475,7 @@ public abstract class ConnectionActions {
             }
         }
         R66Result result = new R66Result(session, true, ErrorCode.InitOk, null);
+        session.getPhases().end(PHASE.AUTHENT);
         session.newState(AUTHENTD);
         localChannelReference.validateConnection(true, result);
         logger.debug("Local Server Channel Validated: {} ",
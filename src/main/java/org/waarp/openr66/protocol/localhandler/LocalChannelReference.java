@@ -21,6 +21,8 @@ import io.netty.channel.Channel;
 import io.netty.channel.local.LocalChannel;
 import io.netty.handler.traffic.ChannelTrafficShapingHandler;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.waarp.common.database.DbSession;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.logging.WaarpLogger;
@@ -39,10 +41,15 @@ import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
 import org.waarp.openr66.protocol.exception.OpenR66Exception;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownException;
+import org.waarp.openr66.protocol.networkhandler.BandwidthClasses;
 import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
+import org.waarp.openr66.protocol.networkhandler.NetworkPacketScheduler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerInitializer;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.BlockCompressor;
+import org.waarp.openr66.protocol.utils.BlockDelta;
+import org.waarp.openr66.protocol.utils.R66BufferMemory;
 import org.waarp.openr66.protocol.utils.R66Future;
 import org.waarp.openr66.protocol.utils.R66Versions;
 
@@ -159,6 +166,30 @@ public class LocalChannelReference {
      * DbSession for Database that do not support concurrency in access
      */
     private volatile DbSession noconcurrencyDbSession = null;
+    /**
+     * Bandwidth class of the current transfer in send mode if any
+     */
+    private volatile BandwidthClasses.Flow bandwidthFlow = null;
+    /**
+     * True once the data transfer is over, such that no bandwidth class is registered again
+     */
+    private volatile boolean bandwidthReleased = false;
+    /**
+     * Priority class of the current transfer if any
+     */
+    private volatile NetworkPacketScheduler.Priority priority = null;
+    /**
+     * Block compression of the current transfer if negotiated with the partner
+     */
+    private volatile BlockCompressor blockCompressor = null;
+    /**
+     * Delta encoding of the current transfer if negotiated with the partner
+     */
+    private volatile BlockDelta blockDelta = null;
+    /**
+     * Bytes of the transfer buffers of this channel accounted in the R66BufferMemory
+     */
+    private final AtomicLong bufferedBytes = new AtomicLong();
 
     /**
      * 
@@ -216,6 +247,17 @@ public class LocalChannelReference {
      */
     public void close() {
         Configuration.configuration.getLocalTransaction().remove(this);
+        releaseBandwidthFlow();
+        if (blockCompressor != null) {
+            blockCompressor.end();
+            blockCompressor = null;
+        }
+        if (blockDelta != null) {
+            blockDelta.end();
+            blockDelta = null;
+        }
+        // whatever was not released (lost or not yet written blocks)
+        R66BufferMemory.release(bufferedBytes.getAndSet(0));
         // Now force the close of the database after a wait
         if (noconcurrencyDbSession != null && DbConstant.admin != null && DbConstant.admin.getSession() != null
                 && !noconcurrencyDbSession.equals(DbConstant.admin.getSession())) {
@@ -726,6 +768,148 @@ public class LocalChannelReference {
         }
     }
 
+    /**
+     * 
+     * @return the bandwidth class of the current transfer in send mode, registered at first call,
+     *         or null if no bandwidth class is defined or if the data are already sent
+     */
+    public BandwidthClasses.Flow getBandwidthFlow() {
+        if (bandwidthFlow == null) {
+            if (bandwidthReleased) {
+                return null;
+            }
+            BandwidthClasses classes = Configuration.configuration.getBandwidthClasses();
+            if (!classes.isActive() || session == null || session.getRunner() == null) {
+                return null;
+            }
+            synchronized (this) {
+                if (bandwidthFlow == null && !bandwidthReleased) {
+                    DbTaskRunner runner = session.getRunner();
+                    String remote = runner.isSelfRequested() ? runner.getRequester()
+                            : runner.getRequested();
+                    bandwidthFlow = classes.register(remote, runner.getRuleId());
+                }
+            }
+        }
+        return bandwidthFlow;
+    }
+
+    /**
+     * Release the bandwidth class of the current transfer once its data are sent, such that its
+     * share is given back to the other active transfers (post tasks and end of request do not
+     * keep it)
+     */
+    public void releaseBandwidthFlow() {
+        BandwidthClasses.Flow flow;
+        synchronized (this) {
+            bandwidthReleased = true;
+            flow = bandwidthFlow;
+            bandwidthFlow = null;
+        }
+        if (flow != null) {
+            Configuration.configuration.getBandwidthClasses().unregister(flow);
+        }
+    }
+
+    /**
+     * 
+     * @return the block compression of the current transfer, or null if not used
+     */
+    public BlockCompressor getBlockCompressor() {
+        return blockCompressor;
+    }
+
+    /**
+     * 
+     * @param compressed
+     *            True if the current transfer uses compressed blocks as agreed with the partner
+     */
+    public void setBlockCompression(boolean compressed) {
+        if (compressed) {
+            if (blockCompressor == null) {
+                blockCompressor = new BlockCompressor();
+            }
+        } else if (blockCompressor != null) {
+            blockCompressor.end();
+            blockCompressor = null;
+        }
+    }
+
+    /**
+     * Account bytes of a transfer buffer retained for this channel
+     * 
+     * @param size
+     */
+    public void acquireBuffer(int size) {
+        bufferedBytes.addAndGet(size);
+        R66BufferMemory.acquire(size);
+    }
+
+    /**
+     * Release bytes accounted with acquireBuffer (never more than what is still accounted, since
+     * close releases everything)
+     * 
+     * @param size
+     */
+    public void releaseBuffer(int size) {
+        long current = bufferedBytes.get();
+        long released = Math.min(current, size);
+        while (released > 0 && !bufferedBytes.compareAndSet(current, current - released)) {
+            current = bufferedBytes.get();
+            released = Math.min(current, size);
+        }
+        if (released > 0) {
+            R66BufferMemory.release(released);
+        }
+    }
+
+    /**
+     * 
+     * @return the delta encoding of the current transfer, or null if not used
+     */
+    public BlockDelta getBlockDelta() {
+        return blockDelta;
+    }
+
+    /**
+     * 
+     * @param delta
+     *            the delta encoding of the current transfer (built from the signatures of the
+     *            previous version of the file), or null if not used
+     */
+    public void setBlockDelta(BlockDelta delta) {
+        BlockDelta old = blockDelta;
+        blockDelta = delta;
+        if (old != null && old != delta) {
+            old.end();
+        }
+    }
+
+    /**
+     * 
+     * @return the priority class of the current transfer, from the transfer information if set,
+     *         else from the rule, else NORMAL
+     */
+    public NetworkPacketScheduler.Priority getPriority() {
+        if (priority != null) {
+            return priority;
+        }
+        if (session == null || session.getRunner() == null) {
+            // not yet known
+            return NetworkPacketScheduler.Priority.NORMAL;
+        }
+        DbTaskRunner runner = session.getRunner();
+        Object value = runner.getTransferMap().get(DbTaskRunner.JSON_PRIORITY);
+        NetworkPacketScheduler.Priority result = NetworkPacketScheduler.Priority
+                .getPriority(value == null ? null : value.toString());
+        if (result == null) {
+            result = Configuration.configuration.getBandwidthClasses()
+                    .getRulePriority(runner.getRuleId());
+        }
+        priority = result;
+        return result;
+    }
+
     /**
      * @return the requestId
      */
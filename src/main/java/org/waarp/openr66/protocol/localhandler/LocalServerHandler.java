@@ -61,6 +61,7 @@ import org.waarp.openr66.protocol.localhandler.packet.BlockRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.BusinessRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ConnectionErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+import org.waarp.openr66.protocol.localhandler.packet.DeltaSignaturePacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndTransferPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
@@ -72,6 +73,7 @@ import org.waarp.openr66.protocol.localhandler.packet.ShutdownPacket;
 import org.waarp.openr66.protocol.localhandler.packet.StartupPacket;
 import org.waarp.openr66.protocol.localhandler.packet.TestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
+import org.waarp.openr66.protocol.localhandler.packet.json.DedupJsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.JsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.RequestJsonPacket;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
@@ -140,7 +142,13 @@ class LocalServerHandler extends SimpleChannelInboundHandler<AbstractLocalPacket
                         logger.debug("DATA RANK: " + ((DataPacket) packet).getPacketRank() + " : " +
                                 serverHandler.getSession().getRunner().getRank());
                     }
-                    serverHandler.data(ctx.channel(), (DataPacket) packet);
+                    try {
+                        serverHandler.data(ctx.channel(), (DataPacket) packet);
+                    } finally {
+                        // accounted by the NetworkServerHandler when read
+                        serverHandler.getLocalChannelReference().releaseBuffer(
+                                ((DataPacket) packet).getFrameSize());
+                    }
                     break;
                 }
                 case LocalPacketFactory.VALIDPACKET: {
@@ -255,6 +263,10 @@ class LocalServerHandler extends SimpleChannelInboundHandler<AbstractLocalPacket
                     serverHandler.blockRequest(ctx.channel(), (BlockRequestPacket) packet);
                     break;
                 }
+                case LocalPacketFactory.DELTASIGNATUREPACKET: {
+                    serverHandler.deltaSignature(ctx.channel(), (DeltaSignaturePacket) packet);
+                    break;
+                }
                 case LocalPacketFactory.JSONREQUESTPACKET: {
                     if (!serverHandler.getSession().isAuthenticated()) {
                         logger.warn("JsonCommand packet received while not authenticated: {} {}", packet,
@@ -302,6 +314,9 @@ class LocalServerHandler extends SimpleChannelInboundHandler<AbstractLocalPacket
                         }
                         // potential file size changed
                         serverHandler.requestChangeNameSize(ctx.channel(), newfilename, newSize);
+                    } else if (((JsonCommandPacket) packet).getTypeValid() == LocalPacketFactory.DEDUPPACKET
+                            && json instanceof DedupJsonPacket) {
+                        serverHandler.dedup(ctx.channel(), (DedupJsonPacket) json);
                     } else {
                         serverHandler.jsonCommand(ctx.channel(), (JsonCommandPacket) packet);
                     }
@@ -61,6 +61,7 @@ import org.waarp.openr66.protocol.networkhandler.NetworkServerHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
 import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66Metrics;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 
 /**
@@ -281,6 +282,7 @@ public class LocalTransaction {
                 final LocalChannelReference localChannelReference = new LocalChannelReference(
                         channel, networkChannelReference, remoteId, futureRequest);
                 localChannelHashMap.put(channel.id().hashCode(), localChannelReference);
+                R66Metrics.increment(R66Metrics.COUNTER.LOCALOPENED);
                 logger.debug("Db connection done and Create LocalChannel entry: " + i + " {}",
                         localChannelReference);
                 logger.info("Add one localChannel to a Network Channel: " + channel.id());
@@ -29,12 +29,19 @@ import org.waarp.common.json.JsonHandler;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.commander.CommanderNoDb;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66TransferPhases;
+import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.networkhandler.NetworkPacketScheduler;
+import org.waarp.openr66.protocol.networkhandler.ssl.R66SslContexts;
 import org.waarp.openr66.protocol.snmp.R66PrivateMib;
+import org.waarp.openr66.protocol.utils.R66Metrics;
+import org.waarp.openr66.protocol.utils.R66Metrics.COUNTER;
 import org.waarp.snmp.WaarpSnmpAgent;
 import org.waarp.snmp.interf.WaarpInterfaceMonitor;
 import org.waarp.snmp.r66.WaarpPrivateMib.MibLevel;
@@ -376,9 +383,14 @@ public class Monitoring implements WaarpInterfaceMonitor {
                 dbSession.checkConnectionNoException();
             }
             if (dbSession == null || dbSession.isDisActive()) {
-                nbNetworkConnection =
-                        Configuration.configuration.getHttpChannelGroup().size() +
-                                Configuration.configuration.getServerChannelGroup().size();
+                nbNetworkConnection = R66Metrics.getNetworkConnections() +
+                        Configuration.configuration.getHttpChannelGroup().size();
+                nbInActiveTransfer = R66Metrics.getActiveIn();
+                nbOutActiveTransfer = R66Metrics.getActiveOut();
+                nbInTotalTransfer = R66Metrics.get(COUNTER.INSTARTED);
+                nbOutTotalTransfer = R66Metrics.get(COUNTER.OUTSTARTED);
+                nbInErrorTransfer = R66Metrics.get(COUNTER.INERROR);
+                nbOutErrorTransfer = R66Metrics.get(COUNTER.OUTERROR);
                 bandwidthIn = trafficCounter.lastReadThroughput() >> 7;// B/s -> Kb/s
                 bandwidthOut = trafficCounter.lastWriteThroughput() >> 7;
                 nbThread = Thread.activeCount();
@@ -806,6 +818,42 @@ public class Monitoring implements WaarpInterfaceMonitor {
                     .append(nbCountStatusUnknown)
                     .append("</Unknown>")
                     .append("</ERRORTYPES>");
+            // Write latency of network packets by priority class
+            builder.append("<PRIORITIES>");
+            String[] names = NetworkPacketScheduler.getClassNames();
+            long[][] stats = NetworkPacketScheduler.getStatistics();
+            for (int i = 0; i < names.length; i++) {
+                builder.append("<").append(names[i]).append(">")
+                        .append("<Packets>").append(stats[i][0]).append("</Packets>")
+                        .append("<AvgWaitMs>").append(stats[i][1]).append("</AvgWaitMs>")
+                        .append("<MaxWaitMs>").append(stats[i][2]).append("</MaxWaitMs>")
+                        .append("</").append(names[i]).append(">");
+            }
+            builder.append("</PRIORITIES>");
+            if (Configuration.configuration.isUseLocalExec()) {
+                // Latency of commands through the LocalExec daemon
+                long[] exec = LocalExecClient.getStatistics();
+                builder.append("<LOCALEXEC>")
+                        .append("<Commands>").append(exec[0]).append("</Commands>")
+                        .append("<Connections>").append(exec[1]).append("</Connections>")
+                        .append("<Timeouts>").append(exec[2]).append("</Timeouts>")
+                        .append("<AvgQueueMs>").append(exec[3]).append("</AvgQueueMs>")
+                        .append("<MaxQueueMs>").append(exec[4]).append("</MaxQueueMs>")
+                        .append("<AvgExecMs>").append(exec[5]).append("</AvgExecMs>")
+                        .append("<MaxExecMs>").append(exec[6]).append("</MaxExecMs>")
+                        .append("</LOCALEXEC>");
+            }
+            if (Configuration.configuration.isUseSSL()) {
+                // Handshakes of SSL channels
+                long[] ssl = R66SslContexts.getStatistics();
+                builder.append("<SSL>")
+                        .append("<OpenSsl>").append(R66SslContexts.isOpenSsl()).append("</OpenSsl>")
+                        .append("<Handshakes>").append(ssl[0]).append("</Handshakes>")
+                        .append("<Resumed>").append(ssl[1]).append("</Resumed>")
+                        .append("<Failed>").append(ssl[2]).append("</Failed>")
+                        .append("<ResumptionPercent>").append(ssl[3]).append("</ResumptionPercent>")
+                        .append("</SSL>");
+            }
         }
         builder.append("</STATUS>");
         return builder.toString();
@@ -837,6 +885,8 @@ public class Monitoring implements WaarpInterfaceMonitor {
         node.put("NbThreads", nbThread);
         node.put("InBandwidth", bandwidthIn);
         node.put("OutBandwidth", bandwidthOut);
+        InternalRunner internalRunner = Configuration.configuration.getInternalRunner();
+        node.put("StartupRecoveryDone", internalRunner == null || internalRunner.isStartupRecoveryDone());
 
         // Overall status including past, future and current transfers
         ObjectNode node2 = node.putObject("OVERALL");
@@ -905,6 +955,41 @@ public class Monitoring implements WaarpInterfaceMonitor {
             node2.put("Canceled", nbCountStatusCanceled);
             node2.put("FileNotFound", nbCountStatusFileNotFound);
             node2.put("Unknown", nbCountStatusUnknown);
+
+            // Write latency of network packets by priority class
+            node2 = node.putObject("PRIORITIES");
+            String[] names = NetworkPacketScheduler.getClassNames();
+            long[][] stats = NetworkPacketScheduler.getStatistics();
+            for (int i = 0; i < names.length; i++) {
+                ObjectNode node3 = node2.putObject(names[i]);
+                node3.put("Packets", stats[i][0]);
+                node3.put("AvgWaitMs", stats[i][1]);
+                node3.put("MaxWaitMs", stats[i][2]);
+            }
+            if (Configuration.configuration.isUseLocalExec()) {
+                // Latency of commands through the LocalExec daemon
+                long[] exec = LocalExecClient.getStatistics();
+                node2 = node.putObject("LOCALEXEC");
+                node2.put("Commands", exec[0]);
+                node2.put("Connections", exec[1]);
+                node2.put("Timeouts", exec[2]);
+                node2.put("AvgQueueMs", exec[3]);
+                node2.put("MaxQueueMs", exec[4]);
+                node2.put("AvgExecMs", exec[5]);
+                node2.put("MaxExecMs", exec[6]);
+            }
+            if (Configuration.configuration.isUseSSL()) {
+                // Handshakes of SSL channels
+                long[] ssl = R66SslContexts.getStatistics();
+                node2 = node.putObject("SSL");
+                node2.put("OpenSsl", R66SslContexts.isOpenSsl());
+                node2.put("Handshakes", ssl[0]);
+                node2.put("Resumed", ssl[1]);
+                node2.put("Failed", ssl[2]);
+                node2.put("ResumptionPercent", ssl[3]);
+            }
+            // Latency of the phases of the transfers by rule and by partner
+            R66TransferPhases.exportAsJson(node.putObject("PHASES"));
         }
         return node;
     }
@@ -995,15 +1080,19 @@ public class Monitoring implements WaarpInterfaceMonitor {
                     case applLastChange:
                         return;
                     case applInboundAssociations:
+                        nbInActiveTransfer = R66Metrics.getActiveIn();
                         updateGlobalValue(entry.ordinal(), nbInActiveTransfer);
                         return;
                     case applOutboundAssociations:
+                        nbOutActiveTransfer = R66Metrics.getActiveOut();
                         updateGlobalValue(entry.ordinal(), nbOutActiveTransfer);
                         return;
                     case applAccumInboundAssociations:
+                        nbInTotalTransfer = R66Metrics.get(COUNTER.INSTARTED);
                         updateGlobalValue(entry.ordinal(), nbInTotalTransfer);
                         return;
                     case applAccumOutboundAssociations:
+                        nbOutTotalTransfer = R66Metrics.get(COUNTER.OUTSTARTED);
                         updateGlobalValue(entry.ordinal(), nbOutTotalTransfer);
                         return;
                     case applLastInboundActivity:
@@ -1021,9 +1110,11 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateGlobalValue(entry.ordinal(), val);
                         return;
                     case applRejectedInboundAssociations:
+                        nbInErrorTransfer = R66Metrics.get(COUNTER.INERROR);
                         updateGlobalValue(entry.ordinal(), nbInErrorTransfer);
                         return;
                     case applFailedOutboundAssociations:
+                        nbOutErrorTransfer = R66Metrics.get(COUNTER.OUTERROR);
                         updateGlobalValue(entry.ordinal(), nbOutErrorTransfer);
                         return;
                     case applInboundBandwidthKBS:
@@ -1072,9 +1163,8 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateGlobalValue(entry.ordinal(), nbThread);
                         return;
                     case nbNetworkConnection:
-                        nbNetworkConnection =
-                                Configuration.configuration.getHttpChannelGroup().size() +
-                                        Configuration.configuration.getServerChannelGroup().size();
+                        nbNetworkConnection = R66Metrics.getNetworkConnections() +
+                                Configuration.configuration.getHttpChannelGroup().size();
                         updateGlobalValue(entry.ordinal(), nbNetworkConnection);
                         return;
                 }
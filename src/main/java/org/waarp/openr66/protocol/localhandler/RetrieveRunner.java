@@ -38,8 +38,10 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.packet.EndRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
+import org.waarp.openr66.protocol.networkhandler.BandwidthClasses;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.R66BufferMemory;
 
 /**
  * Retrieve transfer runner
@@ -109,6 +111,8 @@ public class RetrieveRunner extends Thread {
                     logger.debug("Start retrieve operation (send)");
                     session.getFile().retrieveBlocking(running);
                 }
+                // all blocks are sent: the bandwidth share goes to the other transfers
+                localChannelReference.releaseBandwidthFlow();
             } catch (OpenR66RunnerErrorException e) {
                 transferInError(e);
                 logger.info("End Retrieve in Error");
@@ -247,6 +251,7 @@ public class RetrieveRunner extends Thread {
     }
 
     private void transferInError(OpenR66Exception e) {
+        localChannelReference.releaseBandwidthFlow();
         R66Result result = new R66Result(e, session, true,
                 ErrorCode.TransferError, session.getRunner());
         logger.error("Transfer in error", e);
@@ -276,6 +281,11 @@ public class RetrieveRunner extends Thread {
             DataBlock block, LocalChannelReference localChannelReference)
             throws OpenR66ProtocolPacketException, OpenR66RunnerErrorException,
             OpenR66ProtocolSystemException {
+        BandwidthClasses.Flow flow = localChannelReference.getBandwidthFlow();
+        if (flow != null) {
+            flow.acquire(block.getByteCount());
+        }
+        R66BufferMemory.awaitBelowLimit();
         return ChannelUtils.writeBackDataBlock(localChannelReference, block);
         // XXX Keep this in case the bug comes back
         /*
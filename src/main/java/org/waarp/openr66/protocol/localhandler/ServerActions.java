@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -83,6 +84,7 @@ import org.waarp.openr66.protocol.localhandler.packet.ShutdownPacket;
 import org.waarp.openr66.protocol.localhandler.packet.TestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.BandwidthJsonPacket;
+import org.waarp.openr66.protocol.localhandler.packet.json.BulkTransferRequestJsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.BusinessRequestJsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.ConfigExportJsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.ConfigExportResponseJsonPacket;
@@ -1011,6 +1013,8 @@ public class ServerActions extends ConnectionActions {
                 node.setReadglobal(lresult[1]);
                 node.setWritesession(lresult[2]);
                 node.setReadsession(lresult[3]);
+                node.setClasses(bandwidthClasses(setter, node.getPartner(), node.getPartnerlimit(),
+                        node.getIdrule(), node.getRuleweight()));
                 R66Result result = new R66Result(session, true, ErrorCode.CompleteOk, null);
                 JsonCommandPacket valid = new JsonCommandPacket(node, result.getCode().getCode(),
                         LocalPacketFactory.REQUESTUSERPACKET);
@@ -1113,18 +1117,7 @@ public class ServerActions extends ConnectionActions {
             long writeglobal, long readglobal,
             long writesession, long readsession)
             throws OpenR66ProtocolNotAuthenticatedException {
-        // Authentication must be the local server or LIMIT authorization
-        try {
-            if (!session.getAuth().getUser().equals(
-                    Configuration.configuration.getHostId(session.getAuth().isSsl()))
-                    && !session.getAuth().isValidRole(ROLE.LIMIT)) {
-                throw new OpenR66ProtocolNotAuthenticatedException(
-                        "Not correctly authenticated");
-            }
-        } catch (OpenR66ProtocolNoSslException e1) {
-            throw new OpenR66ProtocolNotAuthenticatedException(
-                    "Not correctly authenticated since SSL is not supported", e1);
-        }
+        checkLimitAuthentication();
         if (!setter) {
             // request of current values
             // Now answer
@@ -1165,6 +1158,85 @@ public class ServerActions extends ConnectionActions {
         }
     }
 
+    /**
+     * Authentication must be the local server or LIMIT authorization
+     * 
+     * @throws OpenR66ProtocolNotAuthenticatedException
+     */
+    private final void checkLimitAuthentication() throws OpenR66ProtocolNotAuthenticatedException {
+        try {
+            if (!session.getAuth().getUser().equals(
+                    Configuration.configuration.getHostId(session.getAuth().isSsl()))
+                    && !session.getAuth().isValidRole(ROLE.LIMIT)) {
+                throw new OpenR66ProtocolNotAuthenticatedException(
+                        "Not correctly authenticated");
+            }
+        } catch (OpenR66ProtocolNoSslException e1) {
+            throw new OpenR66ProtocolNotAuthenticatedException(
+                    "Not correctly authenticated since SSL is not supported", e1);
+        }
+    }
+
+    /**
+     * Get or Set the bandwidth classes by partner and by rule. When set, the classes are saved in
+     * the HostConfiguration of this host, then applied.
+     * 
+     * @param setter
+     * @param partner
+     *            the partner whose limit is to set (null for none)
+     * @param partnerlimit
+     *            the limit in bytes/s (0 to remove the class, <0 for unchanged)
+     * @param idrule
+     *            the rule whose weight is to set (null for none)
+     * @param ruleweight
+     *            the weight (0 to remove the class, <0 for unchanged)
+     * @return the current bandwidth classes as XML
+     * @throws OpenR66ProtocolNotAuthenticatedException
+     */
+    public final String bandwidthClasses(boolean setter, String partner, long partnerlimit,
+            String idrule, int ruleweight)
+            throws OpenR66ProtocolNotAuthenticatedException {
+        checkLimitAuthentication();
+        boolean setPartner = setter && partner != null && !partner.isEmpty() && partnerlimit >= 0;
+        boolean setRule = setter && idrule != null && !idrule.isEmpty() && ruleweight >= 0;
+        if (setPartner || setRule) {
+            DbSession dbSession = (localChannelReference != null) ? localChannelReference.getDbSession()
+                    : DbConstant.admin.getSession();
+            DbHostConfiguration host;
+            try {
+                host = new DbHostConfiguration(dbSession, Configuration.configuration.getHOST_ID());
+            } catch (WaarpDatabaseException e) {
+                host = new DbHostConfiguration(dbSession, Configuration.configuration.getHOST_ID(),
+                        "", "", "", "");
+            }
+            if (setPartner) {
+                host.setBandwidthClass(true, partner, partnerlimit);
+            }
+            if (setRule) {
+                host.setBandwidthClass(false, idrule, ruleweight);
+            }
+            try {
+                if (host.exist()) {
+                    host.update();
+                } else {
+                    host.insert();
+                }
+            } catch (WaarpDatabaseException e) {
+                logger.warn("Bandwidth classes not saved, only applied: " + e.getMessage());
+            }
+            if (Configuration.configuration.getR66Mib() != null) {
+                Configuration.configuration.getR66Mib().notifyWarning(
+                        "Change Bandwidth Classes Order received: "
+                                + (setPartner ? "Partner " + partner + ":" + partnerlimit + " " : "")
+                                + (setRule ? "Rule " + idrule + ":" + ruleweight : ""),
+                        session.getAuth().getUser());
+            }
+            host.updateBandwidthClasses(Configuration.configuration);
+        }
+        return Configuration.configuration.getBandwidthClasses()
+                .toXml(DbHostConfiguration.OtherFields.bandwidth.name()).asXML();
+    }
+
     /**
      * Import configuration from files as parameter
      * 
@@ -2377,6 +2449,66 @@ public class ServerActions extends ConnectionActions {
         }
     }
 
+    /**
+     * Receive a Bulk TransferRequest in JSON mode: all new transfers are built first, then
+     * inserted by JDBC batches (one transaction per chunk) to be scheduled. A failing request
+     * does not abort the others.
+     * 
+     * @param bulk
+     * @return the result, CompleteOk if all requests are registered, else Warning (see errors of
+     *         the bulk packet)
+     */
+    public final R66Result bulkTransferRequest(BulkTransferRequestJsonPacket bulk) {
+        List<TransferRequestJsonPacket> requests = bulk.getRequests();
+        String[] errors = new String[requests.size()];
+        List<Integer> ranks = new ArrayList<Integer>(requests.size());
+        List<DbTaskRunner> runners = new ArrayList<DbTaskRunner>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            TransferRequestJsonPacket request = requests.get(i);
+            if (request.getSpecialId() != DbConstant.ILLEGALVALUE) {
+                // existing one
+                R66Result result = transferRequest(request);
+                if (!isCodeValid(result.getCode())) {
+                    errors[i] = result.getCode().mesg;
+                }
+                continue;
+            }
+            DbTaskRunner runner = initTransferRequest(request, false);
+            if (runner == null) {
+                errors[i] = "Transfer cannot be initialized";
+                continue;
+            }
+            runner.changeUpdatedInfo(AbstractDbData.UpdatedInfo.TOSUBMIT);
+            ranks.add(i);
+            runners.add(runner);
+        }
+        String[] bulkErrors = DbTaskRunner.insertBulk(runners, bulk.getChunkSize());
+        for (int j = 0; j < bulkErrors.length; j++) {
+            int i = ranks.get(j);
+            if (bulkErrors[j] != null) {
+                errors[i] = bulkErrors[j];
+            } else {
+                TransferRequestJsonPacket request = requests.get(i);
+                request.setFromDbTaskRunner(runners.get(j));
+                request.validate();
+            }
+        }
+        int nbError = 0;
+        List<String> listErrors = new ArrayList<String>(errors.length);
+        for (String error : errors) {
+            if (error != null) {
+                nbError++;
+            }
+            listErrors.add(error);
+        }
+        bulk.setErrors(listErrors);
+        if (nbError > 0) {
+            logger.warn("Bulk Transfer request: " + nbError + " in error over " + errors.length);
+            return new R66Result(session, false, ErrorCode.Warning, null);
+        }
+        return new R66Result(session, false, ErrorCode.CompleteOk, null);
+    }
+
     /**
      * initialize a new Transfer Request
      * 
@@ -2384,6 +2516,18 @@ public class ServerActions extends ConnectionActions {
      * @return the associated DbTaskRunner
      */
     private final DbTaskRunner initTransferRequest(TransferRequestJsonPacket request) {
+        return initTransferRequest(request, true);
+    }
+
+    /**
+     * initialize a new Transfer Request
+     * 
+     * @param request
+     * @param create
+     *            if False, a new DbTaskRunner is only built in memory, not inserted
+     * @return the associated DbTaskRunner
+     */
+    private final DbTaskRunner initTransferRequest(TransferRequestJsonPacket request, boolean create) {
         Timestamp ttimestart = null;
         Date date = request.getStart();
         if (date != null) {
@@ -2432,7 +2576,7 @@ public class ServerActions extends ConnectionActions {
             try {
                 taskRunner =
                         new DbTaskRunner(DbConstant.admin.getSession(), rule, isRetrieve, requestPacket,
-                                request.getRequested(), ttimestart);
+                                request.getRequested(), ttimestart, create);
             } catch (WaarpDatabaseException e) {
                 logger.warn("Cannot get task", e);
                 return null;
@@ -22,7 +22,10 @@ package org.waarp.openr66.protocol.localhandler;
 
 import static org.waarp.openr66.context.R66FiniteDualStates.*;
 
+import java.io.File;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 
 import io.netty.channel.Channel;
 import io.netty.channel.local.LocalChannel;
@@ -38,8 +41,10 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
 import org.waarp.openr66.context.task.AbstractTask;
 import org.waarp.openr66.context.task.TaskType;
+import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbRule;
@@ -58,6 +63,7 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotYetConnectionExcep
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+import org.waarp.openr66.protocol.localhandler.packet.DeltaSignaturePacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndTransferPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
@@ -65,12 +71,20 @@ import org.waarp.openr66.protocol.localhandler.packet.JsonCommandPacket;
 import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
+import org.waarp.openr66.protocol.localhandler.packet.json.DedupJsonPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.RequestJsonPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.BlockCompressor;
+import org.waarp.openr66.protocol.utils.BlockDelta;
+import org.waarp.openr66.protocol.utils.BlockSizeTuner;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.DedupIndex;
 import org.waarp.openr66.protocol.utils.FileUtils;
+import org.waarp.openr66.protocol.utils.R66BufferMemory;
 import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66Metrics;
+import org.waarp.openr66.protocol.utils.R66Metrics.COUNTER;
 
 /**
  * Class to implement actions related to real transfer: request initialization, data transfer, end of transfer and of request,
@@ -155,6 +169,7 @@ public class TransferActions extends ServerActions {
             OpenR66RunnerErrorException, OpenR66ProtocolSystemException,
             OpenR66ProtocolBusinessException {
         session.setStatus(99);
+        session.getPhases().begin(PHASE.REQUEST);
         if (!session.isAuthenticated()) {
             session.setStatus(48);
             throw new OpenR66ProtocolNotAuthenticatedException(
@@ -197,6 +212,24 @@ public class TransferActions extends ServerActions {
                 session.setStatus(100);
                 return;
             }
+            if (R66BufferMemory.isOverloaded()) {
+                R66Metrics.increment(COUNTER.MEMORYREFUSED);
+                if (Configuration.configuration.getR66Mib() != null) {
+                    Configuration.configuration.getR66Mib().
+                            notifyOverloaded("Rule: " + packet.getRulename() + " from "
+                                    + session.getAuth().toString(), "Buffer memory");
+                }
+                logger.warn("Buffer memory above its limit, request refused: "
+                        + packet.getRulename() + " from " + session.getAuth().toString());
+                session.setStatus(100);
+                endInitRequestInError(channel,
+                        ErrorCode.ServerOverloaded, null,
+                        new OpenR66ProtocolNotYetConnectionException(
+                                "Buffer memory limit exceeded " + R66BufferMemory.getUsed()),
+                        packet);
+                session.setStatus(100);
+                return;
+            }
         } else if (packet.getCode() == ErrorCode.ServerOverloaded.code) {
             // XXX unvalid limit on requested host received
             logger.info("TaskRunner initialisation in error: " + ErrorCode.ServerOverloaded.mesg);
@@ -220,6 +253,7 @@ public class TransferActions extends ServerActions {
             return;
         }
         int blocksize = packet.getBlocksize();
+        boolean compressed = packet.isCompressed();
         if (packet.isToValidate()) {
             if (!rule.checkHostAllow(session.getAuth().getUser())) {
                 session.setStatus(30);
@@ -227,12 +261,42 @@ public class TransferActions extends ServerActions {
                         Messages.getString("LocalServerHandler.10")); //$NON-NLS-1$
             }
             // Check if the blocksize is greater than local value
-            if (Configuration.configuration.getBLOCKSIZE() < blocksize) {
-                blocksize = Configuration.configuration.getBLOCKSIZE();
+            int newBlocksize = blocksize;
+            if (Configuration.configuration.getMaxAcceptedBlockSize() < newBlocksize) {
+                newBlocksize = Configuration.configuration.getMaxAcceptedBlockSize();
+            }
+            BlockSizeTuner tuner = BlockSizeTuner.getTuner();
+            if (tuner != null && DbTaskRunner.getSenderByRequestPacket(packet)) {
+                // this host sends: the proposed blocksize is only an upper bound
+                newBlocksize = Math.min(newBlocksize, tuner.getBlockSize(session.getAuth().getUser(),
+                        localChannelReference.getPartner()));
+            }
+            if (newBlocksize != blocksize) {
+                // keep the rank at the same position (rounded down)
+                int rank = (int) (((long) packet.getRank() * blocksize) / newBlocksize);
+                blocksize = newBlocksize;
                 String sep = localChannelReference.getPartner().getSeperator();
+                boolean delta = packet.isDelta();
+                boolean dedup = packet.isDedup();
                 packet = new RequestPacket(packet.getRulename(), packet.getMode(),
-                        packet.getFilename(), blocksize, packet.getRank(),
+                        packet.getFilename(), blocksize, rank,
                         packet.getSpecialId(), packet.getFileInformation(), packet.getOriginalSize(), sep);
+                packet.setDelta(delta);
+                packet.setDedup(dedup);
+            }
+            // Compressed blocks only if asked by the requester and allowed locally
+            compressed = compressed && Configuration.configuration.isCompressBlocks()
+                    && localChannelReference.getPartner().useCompression();
+            packet.setCompressed(compressed);
+        }
+        localChannelReference.setBlockCompression(compressed);
+        if (!packet.isToValidate()) {
+            // Answer: delta blocks only if agreed, using the signatures received just before
+            if (!packet.isDelta()) {
+                localChannelReference.setBlockDelta(null);
+            } else if (localChannelReference.getBlockDelta() == null) {
+                // no usable signatures: all blocks will be sent RAW
+                localChannelReference.setBlockDelta(BlockDelta.createSender(null));
             }
         }
         if (!RequestPacket.isCompatibleMode(rule.getMode(), packet.getMode())) {
@@ -401,6 +465,11 @@ public class TransferActions extends ServerActions {
             errorMesg(channel, errorPacket);
             return;
         }
+        // The blocksize may differ from the one of a previous attempt
+        if (runner.getBlocksize() != blocksize) {
+            logger.debug("Blocksize was: " + runner.getBlocksize() + " -> " + blocksize);
+            runner.setBlocksize(blocksize);
+        }
         // Receiver can specify a rank different from database
         if (runner.isSender()) {
             logger.debug("Rank was: " + runner.getRank() + " -> " + packet.getRank());
@@ -417,6 +486,7 @@ public class TransferActions extends ServerActions {
         }
         logger.debug("Filesize: " + packet.getOriginalSize() + ":" + runner.isSender());
         boolean shouldInformBack = false;
+        session.getPhases().end(PHASE.REQUEST);
         try {
             session.setRunner(runner);
             // Fix to ensure that recv request are not trying to access to not chroot files
@@ -482,6 +552,7 @@ public class TransferActions extends ServerActions {
                     "Change Filesize / FileInfo on sender");
         }
         session.setReady(true);
+        session.countTransferStarted(runner.isSelfRequested());
         Configuration.configuration.getLocalTransaction().setFromId(runner, localChannelReference);
         // inform back
         if (packet.isToValidate()) {
@@ -499,9 +570,18 @@ public class TransferActions extends ServerActions {
                 logger.debug("Rank set: " + runner.getRank());
                 packet.setRank(runner.getRank());
             }
-            packet.validate();
-            session.newState(REQUESTD);
-            ChannelUtils.writeAbstractLocalPacket(localChannelReference, packet, true);
+            // Deduplication check only if asked by the requester and the index is available
+            packet.setDedup(packet.isDedup() && acceptDedup(runner));
+            if (packet.isDelta() && acceptDelta(runner)) {
+                // Delta blocks only if the signatures are sent: computed out of the handler,
+                // the answer follows them
+                answerWithDeltaSignatures(runner, packet);
+            } else {
+                packet.setDelta(false);
+                packet.validate();
+                session.newState(REQUESTD);
+                ChannelUtils.writeAbstractLocalPacket(localChannelReference, packet, true);
+            }
         } else {
             session.newState(REQUESTD);
             // requester => might be a client
@@ -520,6 +600,10 @@ public class TransferActions extends ServerActions {
                 logger.debug("Now ready to continue with send through");
                 localChannelReference.validateEndTransfer(
                         new R66Result(session, false, ErrorCode.PreProcessingOk, runner));
+            } else if (!packet.isToValidate() && packet.isDedup() && runner.getRank() == 0) {
+                // data will be sent once the receiver tells if it already holds the content
+                logger.debug("Now ready to check the deduplication before runRetrieve");
+                sendDedupCheck(runner);
             } else {
                 // Automatically send data now
                 logger.debug("Now ready to continue with runRetrieve");
@@ -529,6 +613,285 @@ public class TransferActions extends ServerActions {
         session.setStatus(39);
     }
 
+    /**
+     * 
+     * @param runner
+     * @return True if this host, as receiver, can rebuild the file from its previous version
+     *         (delta transfers allowed locally and by the partner)
+     */
+    private final boolean acceptDelta(DbTaskRunner runner) {
+        return !runner.isSender() && !runner.isRecvThrough() && !runner.isSelfRequest()
+                && Configuration.configuration.isDeltaTransfer()
+                && localChannelReference.getPartner().useDelta() && session.getFile() != null;
+    }
+
+    /**
+     * The previous version of the received file: the file with the original name in the receive
+     * directory of the rule if any, else the last one received under this name (received files
+     * keep the unique prefix of their work file)
+     * 
+     * @param runner
+     * @return the previous version, or null if none
+     * @throws OpenR66ProtocolSystemException
+     */
+    private static File findPreviousVersion(DbTaskRunner runner) throws OpenR66ProtocolSystemException {
+        File dir = new File(Configuration.configuration.getBaseDirectory()
+                + runner.getRule().setRecvPath(""));
+        String basename = R66File.getBasename(runner.getOriginalFilename());
+        File exact = new File(dir, basename);
+        if (exact.isFile()) {
+            return exact;
+        }
+        // same truncation as R66Dir.setUniqueFile
+        if (basename.length() > Configuration.configuration.getMaxfilenamelength() - 55) {
+            basename = basename.substring(basename.length()
+                    - Configuration.configuration.getMaxfilenamelength() + 55);
+        }
+        String suffix = "_" + basename;
+        File[] files = dir.listFiles();
+        File previous = null;
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(suffix)
+                        && (previous == null || file.lastModified() > previous.lastModified())) {
+                    previous = file;
+                }
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Out of the network handler, compute the signatures of the previous version of the file
+     * (given up after half of the connection timeout), send them to the sender and then the
+     * answer to the request, with the delta flag only if the signatures were sent
+     * 
+     * @param runner
+     * @param packet
+     *            the answer to send
+     */
+    private final void answerWithDeltaSignatures(final DbTaskRunner runner, final RequestPacket packet) {
+        final long deadline = System.currentTimeMillis() + Configuration.configuration.getTIMEOUTCON() / 2;
+        Configuration.configuration.getLocalWorkerGroup().execute(new Runnable() {
+            @Override
+            public void run() {
+                BlockDelta delta = null;
+                try {
+                    delta = BlockDelta.createReceiver(findPreviousVersion(runner),
+                            runner.getBlocksize(), deadline);
+                } catch (OpenR66ProtocolSystemException e) {
+                    logger.debug("No previous version: " + e.getMessage());
+                }
+                if (delta != null && !localChannelReference.getLocalChannel().isActive()) {
+                    delta.end();
+                    return;
+                }
+                if (delta != null) {
+                    try {
+                        ChannelUtils.writeAbstractLocalPacket(localChannelReference,
+                                new DeltaSignaturePacket(delta.getSignatures()), false);
+                        logger.debug("Delta signatures sent: " + delta.getNbSignatures());
+                        localChannelReference.setBlockDelta(delta);
+                    } catch (OpenR66ProtocolPacketException e) {
+                        delta.end();
+                        delta = null;
+                    }
+                }
+                // no previous version: full transfer
+                packet.setDelta(delta != null);
+                packet.validate();
+                session.newState(REQUESTD);
+                try {
+                    ChannelUtils.writeAbstractLocalPacket(localChannelReference, packet, true);
+                } catch (OpenR66ProtocolPacketException e) {
+                    logger.error("Cannot answer the request: " + e.getMessage());
+                    ChannelUtils.close(localChannelReference.getLocalChannel());
+                }
+            }
+        });
+    }
+
+    /**
+     * 
+     * @param runner
+     * @return True if this host, as receiver, can check if it already holds the content to transfer
+     */
+    private final boolean acceptDedup(DbTaskRunner runner) {
+        return Configuration.configuration.isDedupTransfer() && DedupIndex.getIndex() != null
+                && localChannelReference.getPartner().useDedup() && !runner.isSender()
+                && !runner.isRecvThrough() && !runner.isSelfRequest() && runner.getRank() == 0;
+    }
+
+    /**
+     * Compute the global digest of the file to send (out of the network handler) and ask the
+     * receiver if it already holds this content. Falls back to the normal transfer if the digest
+     * cannot be computed.
+     * 
+     * @param runner
+     */
+    private final void sendDedupCheck(final DbTaskRunner runner) {
+        Configuration.configuration.getLocalWorkerGroup().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DedupJsonPacket json = new DedupJsonPacket();
+                    json.setComment("Deduplication check");
+                    json.setFilesize(runner.getOriginalSize());
+                    json.setDigest(FileUtils.getHash(session.getFile().getTrueFile()));
+                    json.setAlgo(Configuration.configuration.getDigest().name);
+                    session.newState(VALID);
+                    ChannelUtils.writeAbstractLocalPacket(localChannelReference,
+                            new JsonCommandPacket(json, LocalPacketFactory.DEDUPPACKET), false);
+                    return;
+                } catch (OpenR66ProtocolSystemException e) {
+                    logger.warn("Cannot compute the digest for deduplication: " + e.getMessage());
+                } catch (OpenR66ProtocolPacketException e) {
+                    logger.warn("Cannot send the deduplication check: " + e.getMessage());
+                }
+                session.newState(REQUESTD);
+                NetworkTransaction.runRetrieve(session, localChannelReference.getLocalChannel());
+            }
+        });
+    }
+
+    /**
+     * Deduplication check: as receiver, answer if the content is already held (then copied to the
+     * file of the transfer); as sender, start the transfer from the answer (no block if found)
+     * 
+     * @param channel
+     * @param json
+     * @throws OpenR66ProtocolPacketException
+     */
+    public void dedup(Channel channel, DedupJsonPacket json) throws OpenR66ProtocolPacketException {
+        DbTaskRunner runner = session.getRunner();
+        if (runner == null) {
+            return;
+        }
+        int blocksize = runner.getBlocksize();
+        int rank = (int) ((json.getFilesize() + blocksize - 1) / blocksize);
+        if (runner.isSender()) {
+            if (json.isFound()) {
+                session.getRestart().restartMarker((long) blocksize * rank);
+                try {
+                    session.getFile().restartMarker(session.getRestart());
+                    runner.setRankAllTransferred(rank);
+                    setDedupInformation(runner, json.getDigest(), null);
+                    logger.info("Content already held by the receiver: {}", runner);
+                } catch (CommandAbstractException e) {
+                    // all the blocks will be sent
+                    logger.warn("Cannot skip the content already held: " + e.getMessage());
+                }
+            }
+            session.newState(REQUESTD);
+            NetworkTransaction.runRetrieve(session, localChannelReference.getLocalChannel());
+            return;
+        }
+        session.newState(VALID);
+        json.setFound(false);
+        DedupIndex index = DedupIndex.getIndex();
+        if (index != null && acceptDedup(runner) && session.getFile() != null
+                && json.getFilesize() == runner.getOriginalSize() && index.getAlgo().equals(json.getAlgo())) {
+            File source = index.lookup(json.getFilesize(), json.getDigest());
+            if (source != null) {
+                answerWithDedupContent(runner, json, rank, source);
+                return;
+            }
+        }
+        ChannelUtils.writeAbstractLocalPacket(localChannelReference,
+                new JsonCommandPacket(json, LocalPacketFactory.DEDUPPACKET), false);
+    }
+
+    /**
+     * Copy (or link) the content already held to the file of the transfer out of the network
+     * handler, since it might be large, then answer the deduplication check. A hard link is only
+     * used if the post tasks of the rule cannot change the file in place, since the earlier file
+     * would be changed too.
+     * 
+     * @param runner
+     * @param json
+     * @param rank
+     *            the rank once all the content is there
+     * @param source
+     */
+    private final void answerWithDedupContent(final DbTaskRunner runner, final DedupJsonPacket json,
+            final int rank, final File source) {
+        Configuration.configuration.getLocalWorkerGroup().execute(new Runnable() {
+            @Override
+            public void run() {
+                File target = session.getFile().getTrueFile();
+                boolean hardLink = Configuration.configuration.isDedupHardLink()
+                        && DedupIndex.canShareContent(runner.getRule().getRpostTasksArray());
+                try {
+                    DedupIndex.materialize(source, target, hardLink);
+                    if (target.length() == json.getFilesize()) {
+                        runner.setRankAllTransferred(rank);
+                        setDedupInformation(runner, json.getDigest(), source.getPath());
+                        json.setFound(true);
+                        logger.info("Content already held in " + source.getPath() + ": {}", runner);
+                    }
+                } catch (OpenR66ProtocolSystemException e) {
+                    logger.warn("Content already held but not usable: " + e.getMessage());
+                }
+                try {
+                    ChannelUtils.writeAbstractLocalPacket(localChannelReference,
+                            new JsonCommandPacket(json, LocalPacketFactory.DEDUPPACKET), false);
+                } catch (OpenR66ProtocolPacketException e) {
+                    logger.error("Cannot answer the deduplication check: " + e.getMessage());
+                    ChannelUtils.close(localChannelReference.getLocalChannel());
+                }
+            }
+        });
+    }
+
+    /**
+     * Record the deduplication hit in the TransferInformation of the runner
+     * 
+     * @param runner
+     * @param digest
+     * @param source
+     *            the file holding the content (receiver side), or null
+     */
+    private final void setDedupInformation(DbTaskRunner runner, String digest, String source) {
+        Map<String, Object> dedup = new HashMap<String, Object>();
+        dedup.put("DIGEST", digest);
+        if (source != null) {
+            dedup.put("SOURCE", source);
+        }
+        Map<String, Object> map = runner.getTransferMap();
+        map.put(DbTaskRunner.JSON_DEDUP, dedup);
+        runner.setTransferMap(map);
+        try {
+            runner.saveStatus();
+        } catch (OpenR66RunnerErrorException e) {
+            logger.debug("Cannot save the deduplication: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receive the signatures of the previous version of the file from the receiver, just before the
+     * answer to the request in delta mode
+     * 
+     * @param channel
+     * @param packet
+     * @throws OpenR66ProtocolNotAuthenticatedException
+     */
+    public void deltaSignature(Channel channel, DeltaSignaturePacket packet)
+            throws OpenR66ProtocolNotAuthenticatedException {
+        if (!session.isAuthenticated()) {
+            packet.clear();
+            throw new OpenR66ProtocolNotAuthenticatedException(
+                    "Not authenticated while DeltaSignature received");
+        }
+        try {
+            localChannelReference.setBlockDelta(BlockDelta.createSender(packet.getSignatures()));
+        } catch (OpenR66ProtocolPacketException e) {
+            // the blocks will be sent RAW
+            logger.warn("Bad delta signatures: " + e.getMessage());
+        } finally {
+            packet.clear();
+        }
+    }
+
     /**
      * Send a Filename/Filesize change to the partner
      * 
@@ -696,6 +1059,35 @@ public class TransferActions extends ServerActions {
                 return;
             }
         }
+        session.getPhases().begin(PHASE.DATA);
+        BlockCompressor compressor = localChannelReference.getBlockCompressor();
+        BlockDelta delta = localChannelReference.getBlockDelta();
+        if (compressor != null) {
+            // hashes and ranks are defined on the uncompressed blocks (delta blocks have one more
+            // byte for their flag)
+            try {
+                packet.setData(compressor.decompress(packet.getData(),
+                        session.getBlockSize() + (delta != null ? 1 : 0)));
+            } catch (OpenR66ProtocolPacketException e) {
+                logger.error("Bad compressed block: " + packet.getPacketRank() + " from {}", session.getRunner());
+                errorToSend("Transfer in error due to bad compressed data packet",
+                        ErrorCode.TransferError, channel, 21);
+                packet.clear();
+                return;
+            }
+        }
+        if (delta != null) {
+            // the block is rebuilt from the previous version before any check
+            try {
+                packet.setData(delta.decode(packet.getData()));
+            } catch (OpenR66ProtocolPacketException e) {
+                logger.error("Bad delta block: " + packet.getPacketRank() + " from {}", session.getRunner());
+                errorToSend("Transfer in error due to bad delta data packet",
+                        ErrorCode.TransferError, channel, 21);
+                packet.clear();
+                return;
+            }
+        }
         // if MD5 check MD5
         if (RequestPacket.isMD5Mode(session.getRunner().getMode())) {
             logger.debug("AlgoDigest: "
@@ -747,6 +1139,7 @@ public class TransferActions extends ServerActions {
             try {
                 localChannelReference.getRecvThroughHandler().writeByteBuf(packet.getData());
                 session.getRunner().incrementRank();
+                session.getPhases().end(PHASE.DATA);
                 if (packet.getPacketRank() % 100 == 1) {
                     logger.debug("Good RANK: " + packet.getPacketRank() + " : " +
                             session.getRunner().getRank());
@@ -759,6 +1152,7 @@ public class TransferActions extends ServerActions {
             try {
                 session.getFile().writeDataBlock(dataBlock);
                 session.getRunner().incrementRank();
+                session.getPhases().end(PHASE.DATA);
                 if (packet.getPacketRank() % 100 == 1) {
                     logger.debug("Good RANK: " + packet.getPacketRank() + " : " +
                             session.getRunner().getRank());
@@ -794,6 +1188,9 @@ public class TransferActions extends ServerActions {
         long originalSize = session.getRunner().getOriginalSize();
         logger.debug("OSize: " + originalSize + " isSender: " + session.getRunner().isSender());
         if (packet.isToValidate()) {
+            session.getPhases().begin(PHASE.DIGEST);
+            // release the previous version before it is replaced
+            localChannelReference.setBlockDelta(null);
             // check if possible originalSize
             if (originalSize > 0) {
                 try {
@@ -871,6 +1268,7 @@ public class TransferActions extends ServerActions {
             }
             localDigest = null;
             globalDigest = null;
+            session.getPhases().end(PHASE.DIGEST);
             session.newState(ENDTRANSFERS);
             if (!localChannelReference.getFutureRequest().isDone()) {
                 // Finish with post Operation
@@ -1010,6 +1408,8 @@ public class TransferActions extends ServerActions {
         DbTaskRunner runner = session.getRunner();
         logger.debug("Runner endRequest: " + (session.getRunner() != null));
         if (runner != null) {
+            session.getPhases().end(PHASE.ENDREQUEST);
+            session.getPhases().publish(runner);
             runner.setAllDone();
             try {
                 runner.saveStatus();
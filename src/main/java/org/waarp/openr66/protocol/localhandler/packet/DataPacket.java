@@ -40,6 +40,11 @@ public class DataPacket extends AbstractLocalPacket {
 
     private ByteBuf key;
 
+    /**
+     * Size of the received frame, as accounted in the buffer memory (0 if built locally)
+     */
+    private int frameSize = 0;
+
     /**
      * @param headerLength
      * @param middleLength
@@ -67,7 +72,10 @@ public class DataPacket extends AbstractLocalPacket {
         } else {
             key = Unpooled.EMPTY_BUFFER;
         }
-        return new DataPacket(packetRank, data, key);
+        DataPacket packet = new DataPacket(packetRank, data, key);
+        // length field + header (with middle and end length fields) + middle + end
+        packet.frameSize = 12 + headerLength + middleLength + endLength;
+        return packet;
     }
 
     /**
@@ -115,6 +123,13 @@ public class DataPacket extends AbstractLocalPacket {
         return packetRank;
     }
 
+    /**
+     * @return the size of the received frame (0 if built locally)
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
     /**
      * @return the lengthPacket
      */
@@ -129,6 +144,14 @@ public class DataPacket extends AbstractLocalPacket {
         return data;
     }
 
+    /**
+     * @param data
+     *            the data to set in place of the received one (as uncompressed)
+     */
+    public void setData(ByteBuf data) {
+        this.data = data;
+    }
+
     /**
      * @return the key
      */
@@ -0,0 +1,108 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+
+/**
+ * Signatures of the previous version of the file, sent by the receiver just before the answer to
+ * a request in delta mode (see BlockDelta)
+ * 
+ * header = empty middle = signatures end = empty
+ * 
+ * @author frederic bregier
+ */
+public class DeltaSignaturePacket extends AbstractLocalPacket {
+    private ByteBuf signatures;
+
+    /**
+     * @param headerLength
+     * @param middleLength
+     * @param endLength
+     * @param buf
+     * @return the new DeltaSignaturePacket from buffer
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static DeltaSignaturePacket createFromBuffer(int headerLength,
+            int middleLength, int endLength, ByteBuf buf)
+            throws OpenR66ProtocolPacketException {
+        if (middleLength <= 0) {
+            throw new OpenR66ProtocolPacketException("Not enough data");
+        }
+        ByteBuf signatures = buf.readSlice(middleLength);
+        signatures.retain();
+        return new DeltaSignaturePacket(signatures);
+    }
+
+    /**
+     * @param signatures
+     */
+    public DeltaSignaturePacket(ByteBuf signatures) {
+        this.signatures = signatures;
+    }
+
+    @Override
+    public void createEnd(LocalChannelReference lcr) {
+        end = Unpooled.EMPTY_BUFFER;
+    }
+
+    @Override
+    public void createHeader(LocalChannelReference lcr) {
+        header = Unpooled.EMPTY_BUFFER;
+    }
+
+    @Override
+    public void createMiddle(LocalChannelReference lcr) {
+        middle = signatures;
+    }
+
+    @Override
+    public byte getType() {
+        return LocalPacketFactory.DELTASIGNATUREPACKET;
+    }
+
+    @Override
+    public String toString() {
+        return "DeltaSignaturePacket: " + (signatures != null ? signatures.readableBytes() : 0);
+    }
+
+    /**
+     * The caller is in charge of the release of the returned buffer
+     * 
+     * @return the signatures
+     */
+    public ByteBuf getSignatures() {
+        ByteBuf buffer = signatures;
+        signatures = null;
+        return buffer;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        if (signatures != null) {
+            if (signatures.release()) {
+                signatures = null;
+            }
+        }
+    }
+}
@@ -77,6 +77,13 @@ public class LocalPacketFactory {
 
     public static final byte JSONREQUESTPACKET = 25;
 
+    public static final byte DELTASIGNATUREPACKET = 26;
+
+    /**
+     * Only used as the type of a JsonCommandPacket (deduplication check)
+     */
+    public static final byte DEDUPPACKET = 27;
+
     /**
      * This method create a Packet from the ByteBuf.
      * 
@@ -154,6 +161,9 @@ public class LocalPacketFactory {
             case JSONREQUESTPACKET:
                 return JsonCommandPacket.createFromBuffer(headerLength,
                         middleLength, endLength, buf);
+            case DELTASIGNATUREPACKET:
+                return DeltaSignaturePacket.createFromBuffer(headerLength,
+                        middleLength, endLength, buf);
             default:
                 throw new OpenR66ProtocolPacketException(
                         "Unvalid Packet Type received: " + packetType);
@@ -60,6 +60,21 @@ public class RequestPacket extends AbstractLocalPacket {
         rule, mode, filename, block, rank, id, code, length
     }
 
+    /**
+     * Flag added to the mode on the wire when data blocks are compressed
+     */
+    public static final int COMPRESSIONFLAG = 0x100;
+
+    /**
+     * Flag added to the mode on the wire when data blocks are delta encoded
+     */
+    public static final int DELTAFLAG = 0x200;
+
+    /**
+     * Flag added to the mode on the wire when the deduplication check is asked before the data
+     */
+    public static final int DEDUPFLAG = 0x400;
+
     protected static final byte REQVALIDATE = 0;
 
     protected static final byte REQANSWERVALIDATE = 1;
@@ -86,6 +101,12 @@ public class RequestPacket extends AbstractLocalPacket {
 
     protected String separator = PartnerConfiguration.getSEPARATOR_FIELD();
 
+    protected boolean compressed = false;
+
+    protected boolean delta = false;
+
+    protected boolean dedup = false;
+
     /**
      * 
      * @param mode
@@ -284,7 +305,10 @@ public class RequestPacket extends AbstractLocalPacket {
             int blocksize, int rank, long specialId, byte valid,
             String fileInformation, char code, long originalSize, String separator) {
         this.rulename = rulename;
-        this.mode = mode;
+        this.mode = mode & ~(COMPRESSIONFLAG | DELTAFLAG | DEDUPFLAG);
+        this.compressed = (mode & COMPRESSIONFLAG) != 0;
+        this.delta = (mode & DELTAFLAG) != 0;
+        this.dedup = (mode & DEDUPFLAG) != 0;
         this.filename = filename;
         if (blocksize < 100) {
             this.blocksize = Configuration.configuration.getBLOCKSIZE();
@@ -313,6 +337,9 @@ public class RequestPacket extends AbstractLocalPacket {
             int blocksize, int rank, long specialId, String fileInformation, long originalSize, String separator) {
         this(rulename, mode, filename, blocksize, rank, specialId,
                 REQVALIDATE, fileInformation, ErrorCode.InitOk.code, originalSize, separator);
+        this.compressed = Configuration.configuration.isCompressBlocks();
+        this.delta = Configuration.configuration.isDeltaTransfer();
+        this.dedup = Configuration.configuration.isDedupTransfer();
     }
 
     @Override
@@ -327,16 +354,26 @@ public class RequestPacket extends AbstractLocalPacket {
         if (rulename == null || mode <= 0) {
             throw new OpenR66ProtocolPacketException("Not enough data");
         }
+        int wiremode = mode;
+        if (compressed && lcr.getPartner() != null && lcr.getPartner().useCompression()) {
+            wiremode |= COMPRESSIONFLAG;
+        }
+        if (delta && lcr.getPartner() != null && lcr.getPartner().useDelta()) {
+            wiremode |= DELTAFLAG;
+        }
+        if (dedup && lcr.getPartner() != null && lcr.getPartner().useDedup()) {
+            wiremode |= DEDUPFLAG;
+        }
         if (lcr.getPartner() != null && lcr.getPartner().useJson()) {
             logger.debug("Request will use JSON " + lcr.getPartner().toString());
             ObjectNode node = JsonHandler.createObjectNode();
             JsonHandler.setValue(node, FIELDS.rule, rulename);
-            JsonHandler.setValue(node, FIELDS.mode, mode);
+            JsonHandler.setValue(node, FIELDS.mode, wiremode);
             header = Unpooled.wrappedBuffer(JsonHandler.writeAsString(node).getBytes());
         } else {
             header = Unpooled.wrappedBuffer(rulename.getBytes(),
                     PartnerConfiguration.BLANK_SEPARATOR_FIELD.getBytes(),
-                    Integer.toString(mode).getBytes());
+                    Integer.toString(wiremode).getBytes());
         }
     }
 
@@ -402,6 +439,54 @@ public class RequestPacket extends AbstractLocalPacket {
         return mode;
     }
 
+    /**
+     * 
+     * @return True if compressed data blocks are asked (request) or agreed (answer)
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @param compressed
+     *            True to ask (request) or agree (answer) compressed data blocks
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * 
+     * @return True if delta encoded data blocks are asked (request) or agreed (answer)
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * @param delta
+     *            True to ask (request) or agree (answer) delta encoded data blocks
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * 
+     * @return True if the deduplication check is asked (request) or agreed (answer)
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * @param dedup
+     *            True to ask (request) or agree (answer) the deduplication check
+     */
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
     /**
      * 
      * @return True if this packet concerns a Retrieve operation
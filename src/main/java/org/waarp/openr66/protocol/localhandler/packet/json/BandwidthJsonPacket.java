@@ -23,7 +23,11 @@ package org.waarp.openr66.protocol.localhandler.packet.json;
 import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 
 /**
- * Bandwidth setting or getting JSON packet
+ * Bandwidth setting or getting JSON packet<br>
+ * <br>
+ * Optionally, the bandwidth class of one partner (partner and partnerlimit) and/or of one rule
+ * (idrule and ruleweight) can be set, 0 removing the class. The answer contains the current
+ * bandwidth classes as XML.
  * 
  * @author "Frederic Bregier"
  *
@@ -32,6 +36,9 @@ public class BandwidthJsonPacket extends JsonPacket {
 
     protected boolean setter;
     protected long writeglobal = -10, readglobal = -10, writesession = -10, readsession = -10;
+    protected String partner, idrule, classes;
+    protected long partnerlimit = -10;
+    protected int ruleweight = -10;
 
     /**
      * @return the setter
@@ -108,6 +115,81 @@ public class BandwidthJsonPacket extends JsonPacket {
         this.readsession = readsession;
     }
 
+    /**
+     * @return the partner whose bandwidth class is to set
+     */
+    public String getPartner() {
+        return partner;
+    }
+
+    /**
+     * @param partner
+     *            the partner whose bandwidth class is to set
+     */
+    public void setPartner(String partner) {
+        this.partner = partner;
+    }
+
+    /**
+     * @return the partnerlimit in bytes/s (0 to remove, <0 for unchanged)
+     */
+    public long getPartnerlimit() {
+        return partnerlimit;
+    }
+
+    /**
+     * @param partnerlimit
+     *            the partnerlimit to set in bytes/s (0 to remove, <0 for unchanged)
+     */
+    public void setPartnerlimit(long partnerlimit) {
+        this.partnerlimit = partnerlimit;
+    }
+
+    /**
+     * @return the rule whose bandwidth class is to set
+     */
+    public String getIdrule() {
+        return idrule;
+    }
+
+    /**
+     * @param idrule
+     *            the rule whose bandwidth class is to set
+     */
+    public void setIdrule(String idrule) {
+        this.idrule = idrule;
+    }
+
+    /**
+     * @return the ruleweight (0 to remove, <0 for unchanged)
+     */
+    public int getRuleweight() {
+        return ruleweight;
+    }
+
+    /**
+     * @param ruleweight
+     *            the ruleweight to set (0 to remove, <0 for unchanged)
+     */
+    public void setRuleweight(int ruleweight) {
+        this.ruleweight = ruleweight;
+    }
+
+    /**
+     * @return the current bandwidth classes as XML (answer)
+     */
+    public String getClasses() {
+        return classes;
+    }
+
+    /**
+     * @param classes
+     *            the current bandwidth classes as XML (answer)
+     */
+    public void setClasses(String classes) {
+        this.classes = classes;
+    }
+
     @Override
     public void fromJson(JsonPacket other) {
         super.fromJson(other);
@@ -118,6 +200,11 @@ public class BandwidthJsonPacket extends JsonPacket {
             this.readglobal = other2.readglobal;
             this.writesession = other2.writeglobal;
             this.readsession = other2.readsession;
+            this.partner = other2.partner;
+            this.partnerlimit = other2.partnerlimit;
+            this.idrule = other2.idrule;
+            this.ruleweight = other2.ruleweight;
+            this.classes = other2.classes;
         }
     }
 
@@ -0,0 +1,92 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or 
+   modify it under the terms of the GNU General Public License as published 
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+
+/**
+ * Bulk Transfer request JSON packet: a list of Transfer requests submitted at once. As answer,
+ * errors contains for each request null if it is registered, else the error message.
+ * 
+ * @author "Frederic Bregier"
+ *
+ */
+public class BulkTransferRequestJsonPacket extends JsonPacket {
+
+    protected List<TransferRequestJsonPacket> requests = new ArrayList<TransferRequestJsonPacket>();
+
+    protected List<String> errors = new ArrayList<String>();
+
+    protected int chunkSize = 1000;
+
+    /**
+     * @return the requests
+     */
+    public List<TransferRequestJsonPacket> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @param requests
+     *            the requests to set
+     */
+    public void setRequests(List<TransferRequestJsonPacket> requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * @return the errors
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @param errors
+     *            the errors to set
+     */
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * @return the chunkSize
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize
+     *            the number of requests inserted by one database batch
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void setRequestUserPacket() {
+        super.setRequestUserPacket(LocalPacketFactory.REQUESTPACKET);
+    }
+}
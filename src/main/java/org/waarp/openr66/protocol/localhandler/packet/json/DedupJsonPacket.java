@@ -0,0 +1,102 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or 
+   modify it under the terms of the GNU General Public License as published 
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet.json;
+
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+
+/**
+ * Deduplication check JSON packet: the sender gives the size and the global digest of the file,
+ * the receiver answers if it already holds this content
+ * 
+ * @author "Frederic Bregier"
+ *
+ */
+public class DedupJsonPacket extends JsonPacket {
+
+    protected long filesize = -1;
+    protected String digest;
+    protected String algo;
+    protected boolean found = false;
+
+    /**
+     * @return the filesize
+     */
+    public long getFilesize() {
+        return filesize;
+    }
+
+    /**
+     * @param filesize
+     *            the filesize to set
+     */
+    public void setFilesize(long filesize) {
+        this.filesize = filesize;
+    }
+
+    /**
+     * @return the digest
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @param digest
+     *            the digest to set
+     */
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * @return the name of the digest algorithm
+     */
+    public String getAlgo() {
+        return algo;
+    }
+
+    /**
+     * @param algo
+     *            the name of the digest algorithm to set
+     */
+    public void setAlgo(String algo) {
+        this.algo = algo;
+    }
+
+    /**
+     * @return True if the receiver already holds the content
+     */
+    public boolean isFound() {
+        return found;
+    }
+
+    /**
+     * @param found
+     *            the found to set
+     */
+    public void setFound(boolean found) {
+        this.found = found;
+    }
+
+    public void setRequestUserPacket() {
+        super.setRequestUserPacket(LocalPacketFactory.DEDUPPACKET);
+    }
+}
@@ -0,0 +1,362 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Hierarchical bandwidth classes for sending: the global write limit is shared between the
+ * partners with an active transfer (capped by the partner limit, the idle capacity being
+ * redistributed to the others), then the share of each partner is split between its active
+ * transfers according to the weight of their rule.<br>
+ * <br>
+ * Classes are defined in the "others" part of the HostConfiguration of the current host as:<br>
+ * <tt>&lt;bandwidth&gt;&lt;partner&gt;&lt;hostid&gt;id&lt;/hostid&gt;&lt;limit&gt;bytes/s&lt;/limit&gt;&lt;/partner&gt;</tt><br>
+ * <tt>&lt;rule&gt;&lt;idrule&gt;id&lt;/idrule&gt;&lt;weight&gt;n&lt;/weight&gt;&lt;priority&gt;LOW|NORMAL|HIGH&lt;/priority&gt;&lt;/rule&gt;&lt;/bandwidth&gt;</tt><br>
+ * <br>
+ * The priority of a rule is used by the NetworkPacketScheduler of each network channel.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class BandwidthClasses {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(BandwidthClasses.class);
+
+    public static final String XPARTNER = "partner";
+    public static final String XRULE = "rule";
+    public static final String XHOSTID = "hostid";
+    public static final String XIDRULE = "idrule";
+    public static final String XLIMIT = "limit";
+    public static final String XWEIGHT = "weight";
+    public static final String XPRIORITY = "priority";
+
+    /**
+     * Weight of a rule without class
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /**
+     * One active transfer in send mode
+     */
+    public static class Flow {
+        private final String partner;
+        private final int weight;
+        private volatile long rate = 0;
+        private long nextTime = 0;
+
+        private Flow(String partner, int weight) {
+            this.partner = partner;
+            this.weight = weight;
+        }
+
+        /**
+         * Wait until the given size can be sent according to the current rate of this flow
+         *
+         * @param size
+         */
+        public void acquire(int size) {
+            long currentRate = rate;
+            if (currentRate <= 0) {
+                return;
+            }
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (nextTime < now) {
+                    nextTime = now;
+                }
+                wait = nextTime - now;
+                nextTime += size * 1000L / currentRate;
+            }
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * @return the current rate in bytes/s (0 for unlimited)
+         */
+        public long getRate() {
+            return rate;
+        }
+
+        @Override
+        public String toString() {
+            return "Flow " + partner + ":" + weight + ":" + rate;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Long> partnerLimits = new ConcurrentHashMap<String, Long>();
+
+    private final ConcurrentHashMap<String, Integer> ruleWeights = new ConcurrentHashMap<String, Integer>();
+
+    private final ConcurrentHashMap<String, NetworkPacketScheduler.Priority> rulePriorities =
+            new ConcurrentHashMap<String, NetworkPacketScheduler.Priority>();
+
+    private final Set<Flow> flows = new HashSet<Flow>();
+
+    /**
+     * @return True if at least one class is defined
+     */
+    public boolean isActive() {
+        return !partnerLimits.isEmpty() || !ruleWeights.isEmpty();
+    }
+
+    /**
+     * @param idRule
+     * @return the priority class of the rule (NORMAL by default)
+     */
+    public NetworkPacketScheduler.Priority getRulePriority(String idRule) {
+        NetworkPacketScheduler.Priority priority = idRule == null ? null : rulePriorities.get(idRule);
+        return priority == null ? NetworkPacketScheduler.Priority.NORMAL : priority;
+    }
+
+    /**
+     * Set the priority class of one rule, for new transfers only
+     *
+     * @param idRule
+     * @param priority
+     *            null to reset to NORMAL
+     */
+    public void setRulePriority(String idRule, NetworkPacketScheduler.Priority priority) {
+        if (priority == null || priority == NetworkPacketScheduler.Priority.NORMAL) {
+            rulePriorities.remove(idRule);
+        } else {
+            rulePriorities.put(idRule, priority);
+        }
+    }
+
+    /**
+     * Register a new active transfer
+     *
+     * @param partner
+     *            the remote host id
+     * @param idRule
+     * @return the associated Flow
+     */
+    public Flow register(String partner, String idRule) {
+        Integer weight = idRule == null ? null : ruleWeights.get(idRule);
+        Flow flow = new Flow(partner, weight == null ? DEFAULT_WEIGHT : weight);
+        synchronized (flows) {
+            flows.add(flow);
+        }
+        rebalance();
+        return flow;
+    }
+
+    /**
+     * Unregister an active transfer
+     *
+     * @param flow
+     */
+    public void unregister(Flow flow) {
+        boolean removed;
+        synchronized (flows) {
+            removed = flows.remove(flow);
+        }
+        if (removed) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Replace all classes from the bandwidth element (null to remove all classes)
+     *
+     * @param bandwidth
+     */
+    @SuppressWarnings("unchecked")
+    public void setFromXml(Element bandwidth) {
+        Map<String, Long> limits = new HashMap<String, Long>();
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        Map<String, NetworkPacketScheduler.Priority> priorities =
+                new HashMap<String, NetworkPacketScheduler.Priority>();
+        if (bandwidth != null) {
+            try {
+                for (Element partner : (List<Element>) bandwidth.elements(XPARTNER)) {
+                    limits.put(partner.elementTextTrim(XHOSTID),
+                            Long.parseLong(partner.elementTextTrim(XLIMIT)));
+                }
+                for (Element rule : (List<Element>) bandwidth.elements(XRULE)) {
+                    String idRule = rule.elementTextTrim(XIDRULE);
+                    String weight = rule.elementTextTrim(XWEIGHT);
+                    if (weight != null) {
+                        weights.put(idRule, Integer.parseInt(weight));
+                    }
+                    NetworkPacketScheduler.Priority priority = NetworkPacketScheduler.Priority
+                            .getPriority(rule.elementTextTrim(XPRIORITY));
+                    if (priority != null) {
+                        priorities.put(idRule, priority);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                logger.error("Bandwidth classes are not valid, so ignored: " + bandwidth.asXML());
+                return;
+            } catch (NullPointerException e) {
+                logger.error("Bandwidth classes are not valid, so ignored: " + bandwidth.asXML());
+                return;
+            }
+        }
+        partnerLimits.clear();
+        ruleWeights.clear();
+        rulePriorities.clear();
+        for (Map.Entry<String, Long> entry : limits.entrySet()) {
+            if (entry.getValue() > 0) {
+                partnerLimits.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            if (entry.getValue() > 0 && entry.getValue() != DEFAULT_WEIGHT) {
+                ruleWeights.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, NetworkPacketScheduler.Priority> entry : priorities.entrySet()) {
+            setRulePriority(entry.getKey(), entry.getValue());
+        }
+        logger.info("Bandwidth classes: " + this);
+        rebalance();
+    }
+
+    /**
+     *
+     * @param name
+     *            the name of the root element
+     * @return the XML representation of the classes
+     */
+    public Element toXml(String name) {
+        Element bandwidth = DocumentHelper.createElement(name);
+        for (Map.Entry<String, Long> entry : partnerLimits.entrySet()) {
+            Element partner = bandwidth.addElement(XPARTNER);
+            partner.addElement(XHOSTID).setText(entry.getKey());
+            partner.addElement(XLIMIT).setText(Long.toString(entry.getValue()));
+        }
+        Set<String> rules = new HashSet<String>(ruleWeights.keySet());
+        rules.addAll(rulePriorities.keySet());
+        for (String idRule : rules) {
+            Element rule = bandwidth.addElement(XRULE);
+            rule.addElement(XIDRULE).setText(idRule);
+            Integer weight = ruleWeights.get(idRule);
+            if (weight != null) {
+                rule.addElement(XWEIGHT).setText(Integer.toString(weight));
+            }
+            NetworkPacketScheduler.Priority priority = rulePriorities.get(idRule);
+            if (priority != null) {
+                rule.addElement(XPRIORITY).setText(priority.name());
+            }
+        }
+        return bandwidth;
+    }
+
+    /**
+     * Compute again the rate of all active transfers (weighted max-min fair sharing)
+     */
+    public void rebalance() {
+        synchronized (flows) {
+            if (flows.isEmpty()) {
+                return;
+            }
+            // Group by partner
+            Map<String, List<Flow>> byPartner = new HashMap<String, List<Flow>>();
+            Map<String, Long> partnerWeights = new HashMap<String, Long>();
+            for (Flow flow : flows) {
+                List<Flow> list = byPartner.get(flow.partner);
+                if (list == null) {
+                    list = new ArrayList<Flow>();
+                    byPartner.put(flow.partner, list);
+                    partnerWeights.put(flow.partner, 0L);
+                }
+                list.add(flow);
+                partnerWeights.put(flow.partner, partnerWeights.get(flow.partner) + flow.weight);
+            }
+            // Global level: share the global limit between partners, capped by their own limit
+            Map<String, Long> allocations = new HashMap<String, Long>();
+            long global = Configuration.configuration.getServerGlobalWriteLimit();
+            if (global <= 0) {
+                for (String partner : byPartner.keySet()) {
+                    Long limit = partnerLimits.get(partner);
+                    allocations.put(partner, limit == null ? 0L : limit);
+                }
+            } else {
+                long remaining = global;
+                List<String> open = new ArrayList<String>(byPartner.keySet());
+                boolean changed = true;
+                while (changed && !open.isEmpty()) {
+                    changed = false;
+                    long sumWeight = 0;
+                    for (String partner : open) {
+                        sumWeight += partnerWeights.get(partner);
+                    }
+                    Iterator<String> iterator = open.iterator();
+                    while (iterator.hasNext()) {
+                        String partner = iterator.next();
+                        Long limit = partnerLimits.get(partner);
+                        if (limit != null &&
+                                limit <= remaining * partnerWeights.get(partner) / sumWeight) {
+                            // capped partner: idle capacity goes to the others
+                            allocations.put(partner, limit);
+                            remaining -= limit;
+                            iterator.remove();
+                            changed = true;
+                        }
+                    }
+                    if (!changed) {
+                        for (String partner : open) {
+                            allocations.put(partner,
+                                    Math.max(1, remaining * partnerWeights.get(partner) / sumWeight));
+                        }
+                    }
+                }
+            }
+            // Partner level: share between transfers according to the rule weight
+            for (Map.Entry<String, List<Flow>> entry : byPartner.entrySet()) {
+                long allocation = allocations.get(entry.getKey());
+                long weight = partnerWeights.get(entry.getKey());
+                for (Flow flow : entry.getValue()) {
+                    flow.rate = allocation <= 0 ? 0 : Math.max(1, allocation * flow.weight / weight);
+                }
+            }
+            logger.debug("Bandwidth rebalanced: {}", flows);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BandwidthClasses partners: " + partnerLimits + " rules: " + ruleWeights
+                + " priorities: " + rulePriorities;
+    }
+}
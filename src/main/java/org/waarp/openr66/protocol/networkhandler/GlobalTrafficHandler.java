@@ -18,9 +18,11 @@
 package org.waarp.openr66.protocol.networkhandler;
 
 import io.netty.handler.traffic.GlobalChannelTrafficShapingHandler;
+import io.netty.handler.traffic.TrafficCounter;
 import io.netty.util.concurrent.EventExecutorGroup;
 
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+import org.waarp.openr66.protocol.utils.R66Metrics;
 
 /**
  * Global function
@@ -54,4 +56,13 @@ public class GlobalTrafficHandler extends GlobalChannelTrafficShapingHandler {
         return size;
     }
 
+    @Override
+    protected void doAccounting(TrafficCounter counter) {
+        if (counter == trafficCounter()) {
+            // global counter only, not the per channel ones
+            R66Metrics.trafficAccounting(counter);
+        }
+        super.doAccounting(counter);
+    }
+
 }
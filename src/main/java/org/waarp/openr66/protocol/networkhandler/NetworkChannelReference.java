@@ -93,7 +93,7 @@ public class NetworkChannelReference {
     public NetworkChannelReference(Channel networkChannel, WaarpLock lock) {
         this.channel = networkChannel;
         this.networkAddress = channel.remoteAddress();
-        this.hostAddress = ((InetSocketAddress) this.networkAddress).getAddress().getHostAddress();
+        this.hostAddress = getHostAddress(this.networkAddress);
         this.lock = lock;
         localChannels = new DefaultChannelGroup(Configuration.configuration.getSubTaskGroup().next());
     }
@@ -101,7 +101,7 @@ public class NetworkChannelReference {
     public NetworkChannelReference(SocketAddress address, WaarpLock lock) {
         this.channel = null;
         this.networkAddress = address;
-        this.hostAddress = ((InetSocketAddress) this.networkAddress).getAddress().getHostAddress();
+        this.hostAddress = getHostAddress(this.networkAddress);
         this.lock = lock;
         localChannels = new DefaultChannelGroup(Configuration.configuration.getSubTaskGroup().next());
     }
@@ -223,19 +223,31 @@ public class NetworkChannelReference {
 
     /**
      * 
-     * @return the hashcode for the global remote networkaddress
+     * @return the remote network address
      */
-    public int getSocketHashCode() {
-        return this.networkAddress.hashCode();
+    public SocketAddress getSocketAddress() {
+        return this.networkAddress;
     }
 
     /**
      * Used for BlackList
      * 
-     * @return the hashcode for the address
+     * @return the remote IP address
      */
-    public int getAddressHashCode() {
-        return this.hostAddress.hashCode();
+    public String getHostAddress() {
+        return this.hostAddress;
+    }
+
+    /**
+     * 
+     * @param address
+     * @return the IP address of this socket address (used for BlackList)
+     */
+    public static String getHostAddress(SocketAddress address) {
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null) {
+            return ((InetSocketAddress) address).getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
     }
 
     /**
@@ -0,0 +1,281 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+
+/**
+ * Write scheduler of one network channel, shared by all its local channels.<br>
+ * <br>
+ * Control packets (all but DataPacket) are written first, except behind DataPackets still waiting
+ * for the same local channel to keep the order of the protocol. DataPackets are interleaved
+ * between local channels by Deficit Round Robin, the quantum of each local channel being
+ * proportional to the weight of its priority class. Packets are kept here only while the network
+ * channel is not writable (including through the traffic shaping handlers), such that the
+ * ordering is done before the FIFO buffers of the network channel.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class NetworkPacketScheduler extends ChannelDuplexHandler {
+    /**
+     * Priority classes of transfers
+     */
+    public static enum Priority {
+        LOW(1),
+        NORMAL(2),
+        HIGH(4);
+
+        public final int weight;
+
+        private Priority(int weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * @param name
+         * @return the associated Priority or null if unknown
+         */
+        public static Priority getPriority(String name) {
+            if (name == null) {
+                return null;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Base quantum in bytes for a weight of 1
+     */
+    private static final int QUANTUM = 32768;
+
+    /**
+     * Statistics by class: index 0 for control packets, then Priority ordinal + 1
+     */
+    private static final int NBCLASS = Priority.values().length + 1;
+    private static final AtomicLong[] packets = new AtomicLong[NBCLASS];
+    private static final AtomicLong[] totalWait = new AtomicLong[NBCLASS];
+    private static final AtomicLong[] maxWait = new AtomicLong[NBCLASS];
+    static {
+        for (int i = 0; i < NBCLASS; i++) {
+            packets[i] = new AtomicLong();
+            totalWait[i] = new AtomicLong();
+            maxWait[i] = new AtomicLong();
+        }
+    }
+
+    private static class Pending {
+        final Object msg;
+        final ChannelPromise promise;
+        final int size;
+        final long time = System.currentTimeMillis();
+
+        Pending(Object msg, ChannelPromise promise, int size) {
+            this.msg = msg;
+            this.promise = promise;
+            this.size = size;
+        }
+    }
+
+    private static class LocalQueue {
+        final int localId;
+        final Priority priority;
+        final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+        long deficit = 0;
+        boolean visited = false;
+
+        LocalQueue(int localId, Priority priority) {
+            this.localId = localId;
+            this.priority = priority;
+        }
+    }
+
+    // All following fields are only used from the EventLoop of the network channel
+    private final ArrayDeque<Pending> control = new ArrayDeque<Pending>();
+    private final ArrayDeque<LocalQueue> active = new ArrayDeque<LocalQueue>();
+    private final Map<Integer, LocalQueue> queues = new HashMap<Integer, LocalQueue>();
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+            throws Exception {
+        if (!(msg instanceof NetworkPacket)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        NetworkPacket packet = (NetworkPacket) msg;
+        boolean isData = packet.getCode() == LocalPacketFactory.DATAPACKET;
+        if (control.isEmpty() && active.isEmpty() && ctx.channel().isWritable()) {
+            // nothing waiting: no need to schedule
+            record(isData ? packet.getPriority().ordinal() + 1 : 0, 0);
+            ctx.write(msg, promise);
+            return;
+        }
+        Pending pending = new Pending(msg, promise, packet.getBuffer().readableBytes() + 13);
+        LocalQueue localQueue = queues.get(packet.getLocalId());
+        if (!isData && localQueue != null) {
+            // keep the order with the DataPackets already waiting for this local channel
+            localQueue.queue.add(pending);
+        } else if (!isData) {
+            control.add(pending);
+        } else {
+            if (localQueue == null) {
+                localQueue = new LocalQueue(packet.getLocalId(), packet.getPriority());
+                queues.put(packet.getLocalId(), localQueue);
+                active.add(localQueue);
+            }
+            localQueue.queue.add(pending);
+        }
+        drain(ctx);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        drain(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable() && drain(ctx)) {
+            ctx.flush();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ClosedChannelException exception = new ClosedChannelException();
+        for (Pending pending : control) {
+            release(pending, exception);
+        }
+        control.clear();
+        for (LocalQueue localQueue : active) {
+            for (Pending pending : localQueue.queue) {
+                release(pending, exception);
+            }
+        }
+        active.clear();
+        queues.clear();
+        ctx.fireChannelInactive();
+    }
+
+    private static void release(Pending pending, Throwable cause) {
+        ((NetworkPacket) pending.msg).clear();
+        pending.promise.tryFailure(cause);
+    }
+
+    /**
+     * Write waiting packets while the channel is writable
+     *
+     * @param ctx
+     * @return True if at least one packet was written
+     */
+    private boolean drain(ChannelHandlerContext ctx) {
+        boolean written = false;
+        while (ctx.channel().isWritable()) {
+            Pending pending = control.poll();
+            if (pending != null) {
+                record(0, System.currentTimeMillis() - pending.time);
+                ctx.write(pending.msg, pending.promise);
+                written = true;
+                continue;
+            }
+            LocalQueue localQueue = active.peek();
+            if (localQueue == null) {
+                break;
+            }
+            if (!localQueue.visited) {
+                localQueue.deficit += QUANTUM * localQueue.priority.weight;
+                localQueue.visited = true;
+            }
+            pending = localQueue.queue.peek();
+            if (pending.size <= localQueue.deficit) {
+                localQueue.queue.poll();
+                localQueue.deficit -= pending.size;
+                record(localQueue.priority.ordinal() + 1, System.currentTimeMillis() - pending.time);
+                ctx.write(pending.msg, pending.promise);
+                written = true;
+                if (localQueue.queue.isEmpty()) {
+                    active.poll();
+                    queues.remove(localQueue.localId);
+                }
+            } else {
+                // quantum exhausted: next local channel
+                localQueue.visited = false;
+                active.poll();
+                active.add(localQueue);
+            }
+        }
+        return written;
+    }
+
+    private static void record(int rank, long wait) {
+        packets[rank].incrementAndGet();
+        if (wait > 0) {
+            totalWait[rank].addAndGet(wait);
+            long max = maxWait[rank].get();
+            while (wait > max && !maxWait[rank].compareAndSet(max, wait)) {
+                max = maxWait[rank].get();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the names of the classes as used by statistics
+     */
+    public static String[] getClassNames() {
+        String[] names = new String[NBCLASS];
+        names[0] = "CONTROL";
+        for (Priority priority : Priority.values()) {
+            names[priority.ordinal() + 1] = priority.name();
+        }
+        return names;
+    }
+
+    /**
+     *
+     * @return for each class (as in getClassNames), the number of packets written, the average and
+     *         the maximum wait in ms before being written
+     */
+    public static long[][] getStatistics() {
+        long[][] result = new long[NBCLASS][3];
+        for (int i = 0; i < NBCLASS; i++) {
+            long nb = packets[i].get();
+            result[i][0] = nb;
+            result[i][1] = nb > 0 ? totalWait[i].get() / nb : 0;
+            result[i][2] = maxWait[i].get();
+        }
+        return result;
+    }
+}
@@ -50,6 +50,8 @@ import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.R66BufferMemory;
+import org.waarp.openr66.protocol.utils.R66Metrics;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 
 /**
@@ -104,6 +106,7 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        R66Metrics.increment(R66Metrics.COUNTER.NETWORKCLOSED);
         if (networkChannelReference != null) {
             if (networkChannelReference.nbLocalChannels() > 0) {
                 logger.info("Network Channel Closed: {} LocalChannels Left: {}",
@@ -132,6 +135,7 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        R66Metrics.increment(R66Metrics.COUNTER.NETWORKOPENED);
         Channel netChannel = ctx.channel();
         this.remoteAddress = netChannel.remoteAddress();
         logger.debug("Will the Connection be refused if Partner is BlackListed from " + remoteAddress.toString());
@@ -360,6 +364,11 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
             return;
         }
         ByteBuf buf = packet.getBuffer();
+        if (packet.getCode() == LocalPacketFactory.DATAPACKET) {
+            // retained until written to the file by the LocalServerHandler
+            localChannelReference.acquireBuffer(buf.readableBytes());
+            R66BufferMemory.checkNetworkRead(channel);
+        }
         localChannelReference.getLocalChannel().writeAndFlush(buf);
     }
 
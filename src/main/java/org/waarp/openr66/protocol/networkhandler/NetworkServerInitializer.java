@@ -39,6 +39,7 @@ public class NetworkServerInitializer extends ChannelInitializer<SocketChannel>
     public static final String READTIMEOUT = "readTimeout";
     public static final String LIMIT = "LIMIT";
     public static final String LIMITCHANNEL = "LIMITCHANNEL";
+    public static final String SCHEDULER = "SCHEDULER";
 
     protected boolean server = false;
 
@@ -64,6 +65,7 @@ public class NetworkServerInitializer extends ChannelInitializer<SocketChannel>
             }
         } catch (OpenR66ProtocolNoDataException e) {
         }
+        pipeline.addLast(SCHEDULER, new NetworkPacketScheduler());
         pipeline.addLast(Configuration.configuration.getHandlerGroup(), "handler",
                 new NetworkServerHandler(this.server));
     }
@@ -26,7 +26,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
@@ -47,12 +46,12 @@ import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.future.WaarpLock;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.lru.SynchronizedLruCache;
 import org.waarp.common.utility.WaarpNettyUtil;
 import org.waarp.common.utility.WaarpThreadFactory;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.protocol.configuration.Configuration;
@@ -91,30 +90,36 @@ public class NetworkTransaction {
      */
     private static final WaarpLock emptyLock = new WaarpLock();
     /**
-     * Lock for Lock management operations
+     * Number of striped locks (power of 2)
      */
-    private static final ReentrantLock lockOfLock = new ReentrantLock();
+    private static final int NBSOCKETLOCKS = 1024;
     /**
-     * Hashmap for lock based on remote address
+     * Striped locks based on remote address: the same address always uses the same lock, while
+     * there is no global lock to get it. Two addresses sharing the same lock only share the
+     * contention, not their state, since the maps are keyed by the address itself.
      */
-    private static final SynchronizedLruCache<Integer, WaarpLock> reentrantLockOnSocketAddressConcurrentHashMap =
-            new SynchronizedLruCache<Integer, WaarpLock>(20000, 180000);
+    private static final WaarpLock[] socketLocks = new WaarpLock[NBSOCKETLOCKS];
+    static {
+        for (int i = 0; i < NBSOCKETLOCKS; i++) {
+            socketLocks[i] = new WaarpLock(true);
+        }
+    }
     /**
-     * Hashmap for Currently Shutdown remote host based on socketAddress.hashCode()
+     * Hashmap for Currently Shutdown remote host based on socketAddress
      */
-    private static final ConcurrentHashMap<Integer, NetworkChannelReference> networkChannelShutdownOnSocketAddressConcurrentHashMap =
-            new ConcurrentHashMap<Integer, NetworkChannelReference>();
+    private static final ConcurrentHashMap<SocketAddress, NetworkChannelReference> networkChannelShutdownOnSocketAddressConcurrentHashMap =
+            new ConcurrentHashMap<SocketAddress, NetworkChannelReference>();
     /**
-     * Hashmap for Currently blacklisted remote host based on IP address(String).hashCode()
+     * Hashmap for Currently blacklisted remote host based on IP address
      */
-    private static final ConcurrentHashMap<Integer, NetworkChannelReference> networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap =
-            new ConcurrentHashMap<Integer, NetworkChannelReference>();
+    private static final ConcurrentHashMap<String, NetworkChannelReference> networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap =
+            new ConcurrentHashMap<String, NetworkChannelReference>();
 
     /**
-     * Hashmap for currently active remote host based on socketAddress.hashCode()
+     * Hashmap for currently active remote host based on socketAddress
      */
-    private static final ConcurrentHashMap<Integer, NetworkChannelReference> networkChannelOnSocketAddressConcurrentHashMap =
-            new ConcurrentHashMap<Integer, NetworkChannelReference>();
+    private static final ConcurrentHashMap<SocketAddress, NetworkChannelReference> networkChannelOnSocketAddressConcurrentHashMap =
+            new ConcurrentHashMap<SocketAddress, NetworkChannelReference>();
     /**
      * Remote Client NetworkChannels: used to centralize remote requester hosts (possible different address used)
      */
@@ -175,103 +180,86 @@ public class NetworkTransaction {
             nb += ncr.nbLocalChannels();
         }
         partial += "\n NetworkChannels: " + networkChannelOnSocketAddressConcurrentHashMap.size() +
-                " LockOnSocketAddress: " + reentrantLockOnSocketAddressConcurrentHashMap.size() +
+                " LockOnSocketAddress: " + NBSOCKETLOCKS +
                 " Sum of NetworkChannels LocalClients: " + nb + "] ";
         return partial;
     }
 
-    private static final WaarpLock getLockNCR(SocketAddress sa) {
-        return reentrantLockOnSocketAddressConcurrentHashMap.get(sa.hashCode());
-    }
-
-    private static final void addLockNCR(SocketAddress sa, WaarpLock lock) {
-        reentrantLockOnSocketAddressConcurrentHashMap.put(sa.hashCode(), lock);
-    }
-
     private static final void addNCR(NetworkChannelReference ncr) {
-        networkChannelOnSocketAddressConcurrentHashMap.put(ncr.getSocketHashCode(), ncr);
+        networkChannelOnSocketAddressConcurrentHashMap.put(ncr.getSocketAddress(), ncr);
     }
 
-    private static final NetworkChannelReference removeNCR(NetworkChannelReference ncr) {
-        return networkChannelOnSocketAddressConcurrentHashMap.remove(ncr.getSocketHashCode());
+    private static final boolean removeNCR(NetworkChannelReference ncr) {
+        // only this one, not a newer one for the same address
+        return networkChannelOnSocketAddressConcurrentHashMap.remove(ncr.getSocketAddress(), ncr);
     }
 
     private static final NetworkChannelReference getNCR(SocketAddress sa) {
-        return networkChannelOnSocketAddressConcurrentHashMap.get(sa.hashCode());
+        return networkChannelOnSocketAddressConcurrentHashMap.get(sa);
     }
 
     private static final boolean containsNCR(SocketAddress address) {
-        return networkChannelOnSocketAddressConcurrentHashMap.containsKey(address.hashCode());
+        return networkChannelOnSocketAddressConcurrentHashMap.containsKey(address);
     }
 
-    private static final void addShutdownNCR(NetworkChannelReference ncr) {
-        networkChannelShutdownOnSocketAddressConcurrentHashMap.put(ncr.getSocketHashCode(), ncr);
-    }
-
-    private static final NetworkChannelReference removeShutdownNCR(NetworkChannelReference ncr) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.remove(ncr.getSocketHashCode());
+    /**
+     * 
+     * @param ncr
+     * @return True if added, False if this address was already in shutdown
+     */
+    private static final boolean addShutdownNCR(NetworkChannelReference ncr) {
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.putIfAbsent(ncr.getSocketAddress(), ncr) == null;
     }
 
-    private static final boolean containsShutdownNCR(NetworkChannelReference ncr) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.containsKey(ncr.getSocketHashCode());
+    private static final boolean removeShutdownNCR(NetworkChannelReference ncr) {
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.remove(ncr.getSocketAddress(), ncr);
     }
 
     private static final boolean containsShutdownNCR(SocketAddress sa) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.containsKey(sa.hashCode());
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.containsKey(sa);
     }
 
     private static final NetworkChannelReference getShutdownNCR(SocketAddress sa) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.get(sa.hashCode());
-    }
-
-    private static final void addBlacklistNCR(NetworkChannelReference ncr) {
-        networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.put(ncr.getAddressHashCode(), ncr);
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.get(sa);
     }
 
-    private static final NetworkChannelReference removeBlacklistNCR(NetworkChannelReference ncr) {
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.remove(ncr.getAddressHashCode());
+    /**
+     * 
+     * @param ncr
+     * @return True if added, False if this IP address was already blacklisted
+     */
+    private static final boolean addBlacklistNCR(NetworkChannelReference ncr) {
+        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.putIfAbsent(ncr.getHostAddress(), ncr) == null;
     }
 
-    private static final boolean containsBlacklistNCR(NetworkChannelReference ncr) {
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.containsKey(ncr.getAddressHashCode());
+    private static final boolean removeBlacklistNCR(NetworkChannelReference ncr) {
+        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.remove(ncr.getHostAddress(), ncr);
     }
 
     private static final boolean containsBlacklistNCR(SocketAddress address) {
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.containsKey(address.hashCode());
+        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.containsKey(
+                NetworkChannelReference.getHostAddress(address));
     }
 
     private static final NetworkChannelReference getBlacklistNCR(SocketAddress sa) {
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.get(((InetSocketAddress) sa).getAddress()
-                .getHostAddress().hashCode());
+        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.get(
+                NetworkChannelReference.getHostAddress(sa));
     }
 
+    /**
+     * 
+     * @param socketAddress
+     * @return the lock associated with this address (always the same one for the same address)
+     */
     private static final WaarpLock getChannelLock(SocketAddress socketAddress) {
-        lockOfLock.lock();
-        try {
-            if (socketAddress == null) {
-                // should not
-                logger.info("SocketAddress empty here !");
-                return emptyLock;
-            }
-            WaarpLock socketLock = getLockNCR(socketAddress);
-            if (socketLock == null) {
-                socketLock = new WaarpLock(true);
-            }
-            // update TTL
-            addLockNCR(socketAddress, socketLock);
-            return socketLock;
-        } finally {
-            lockOfLock.unlock();
-        }
-    }
-
-    private static void removeChannelLock() {
-        lockOfLock.lock();
-        try {
-            reentrantLockOnSocketAddressConcurrentHashMap.forceClearOldest();
-        } finally {
-            lockOfLock.unlock();
+        if (socketAddress == null) {
+            // should not
+            logger.info("SocketAddress empty here !");
+            return emptyLock;
         }
+        // spread the hash, since the one of InetSocketAddress is IP + port
+        int hash = socketAddress.hashCode() * 0x9E3779B9;
+        return socketLocks[(hash ^ (hash >>> 16)) & (NBSOCKETLOCKS - 1)];
     }
 
     /**
@@ -286,6 +274,7 @@ public class NetworkTransaction {
             boolean isSSL, R66Future futureRequest) {
         LocalChannelReference localChannelReference = null;
         OpenR66Exception lastException = null;
+        long start = System.nanoTime();
         for (int i = 0; i < Configuration.RETRYNB; i++) {
             if (R66ShutdownHook.isShutdownStarting()) {
                 lastException = new OpenR66ProtocolSystemException("Local system in shutdown");
@@ -319,6 +308,9 @@ public class NetworkTransaction {
         } else if (lastException != null) {
             logger.debug("Connection retried since {}", lastException.getMessage());
         }
+        if (localChannelReference != null && localChannelReference.getSession() != null) {
+            localChannelReference.getSession().getPhases().set(PHASE.CONNECT, start, System.nanoTime());
+        }
         return localChannelReference;
     }
 
@@ -700,7 +692,9 @@ public class NetworkTransaction {
                     "This host address will be set as unavailable for 3xTIMEOUT since not reacheable multiple times: {}",
                     socketAddress);
             NetworkChannelReference networkChannelReference = new NetworkChannelReference(socketAddress, lock);
-            addShutdownNCR(networkChannelReference);
+            if (!addShutdownNCR(networkChannelReference)) {
+                return;
+            }
             R66ShutdownNetworkChannelTimerTask timerTask;
             try {
                 timerTask = new R66ShutdownNetworkChannelTimerTask(networkChannelReference, false);
@@ -721,14 +715,13 @@ public class NetworkTransaction {
      */
     private static void shuttingDownNetworkChannelInternal(NetworkChannelReference networkChannelReference) {
         logger.info("Shutdown: {}", networkChannelReference);
-        if (containsShutdownNCR(networkChannelReference)) {
-            // already done
-            logger.debug("Already set as shutdown");
-            return;
-        }
-        logger.debug("Set as shutdown");
         if (networkChannelReference != null) {
-            addShutdownNCR(networkChannelReference);
+            if (!addShutdownNCR(networkChannelReference)) {
+                // already done
+                logger.debug("Already set as shutdown");
+                return;
+            }
+            logger.debug("Set as shutdown");
             if (!networkChannelReference.isShuttingDown) {
                 networkChannelReference.shutdownAllLocalChannels();
             }
@@ -763,10 +756,9 @@ public class NetworkTransaction {
         if (!Configuration.configuration.isBlacklistBadAuthent()) {
             return false;
         }
-        if (containsBlacklistNCR(networkChannelReference)) {
+        if (networkChannelReference == null || !addBlacklistNCR(networkChannelReference)) {
             return false;
         }
-        addBlacklistNCR(networkChannelReference);
         R66ShutdownNetworkChannelTimerTask timerTask;
         try {
             timerTask = new R66ShutdownNetworkChannelTimerTask(networkChannelReference, true);
@@ -870,24 +862,20 @@ public class NetworkTransaction {
         if (networkChannelReference == null) {
             return;
         }
-        try {
-            if (!networkChannelReference.isShuttingDown) {
-                networkChannelReference.shutdownAllLocalChannels();
-            }
-            logger.debug("NC left: {}", networkChannelReference);
-            removeNCR(networkChannelReference);
-            if (networkChannelReference.clientNetworkChannels != null) {
-                String requester = networkChannelReference.clientNetworkChannels.getHostId();
-                removeClient(networkChannelReference, requester, networkChannelReference.clientNetworkChannels);
-            } else if (networkChannelReference.getHostId() != null) {
-                String requester = networkChannelReference.getHostId();
-                ClientNetworkChannels clientNetworkChannels = clientNetworkChannelsPerHostId.get(requester);
-                if (clientNetworkChannels != null) {
-                    removeClient(networkChannelReference, requester, clientNetworkChannels);
-                }
+        if (!networkChannelReference.isShuttingDown) {
+            networkChannelReference.shutdownAllLocalChannels();
+        }
+        logger.debug("NC left: {}", networkChannelReference);
+        removeNCR(networkChannelReference);
+        if (networkChannelReference.clientNetworkChannels != null) {
+            String requester = networkChannelReference.clientNetworkChannels.getHostId();
+            removeClient(networkChannelReference, requester, networkChannelReference.clientNetworkChannels);
+        } else if (networkChannelReference.getHostId() != null) {
+            String requester = networkChannelReference.getHostId();
+            ClientNetworkChannels clientNetworkChannels = clientNetworkChannelsPerHostId.get(requester);
+            if (clientNetworkChannels != null) {
+                removeClient(networkChannelReference, requester, clientNetworkChannels);
             }
-        } finally {
-            removeChannelLock();
         }
     }
 
@@ -901,7 +889,7 @@ public class NetworkTransaction {
             return;
         }
         NetworkChannelReference networkChannelReference =
-                networkChannelOnSocketAddressConcurrentHashMap.get(address.hashCode());
+                networkChannelOnSocketAddressConcurrentHashMap.get(address);
         closedNetworkChannel(networkChannelReference);
     }
 
@@ -997,9 +985,9 @@ public class NetworkTransaction {
      */
     public static int nbAttachedConnection(SocketAddress address, String host) {
         logger.debug("nbAttachedConnection: "
-                + networkChannelOnSocketAddressConcurrentHashMap.containsKey(address.hashCode()) + ":"
+                + containsNCR(address) + ":"
                 + getNumberClients(host));
-        return (networkChannelOnSocketAddressConcurrentHashMap.containsKey(address.hashCode()) ? 1
+        return (containsNCR(address) ? 1
                 : 0)
                 + getNumberClients(host);
     }
@@ -22,6 +22,7 @@ import io.netty.buffer.Unpooled;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
+import org.waarp.openr66.protocol.networkhandler.NetworkPacketScheduler;
 
 /**
  * Network Packet A Packet is composed of one global length field, two Id (4 bytes x 2) and a
@@ -39,6 +40,8 @@ public class NetworkPacket {
 
     private final byte code;
 
+    private NetworkPacketScheduler.Priority priority = NetworkPacketScheduler.Priority.NORMAL;
+
     /**
      * @param localId
      * @param remoteId
@@ -67,6 +70,9 @@ public class NetworkPacket {
         this.localId = localId;
         code = packet.getType();
         buffer = packet.getLocalPacket(lcr);
+        if (lcr != null) {
+            priority = lcr.getPriority();
+        }
     }
 
     /**
@@ -97,6 +103,13 @@ public class NetworkPacket {
         return code;
     }
 
+    /**
+     * @return the priority class of the transfer
+     */
+    public NetworkPacketScheduler.Priority getPriority() {
+        return priority;
+    }
+
     /**
      * @return The corresponding ByteBuf
      */
@@ -81,8 +81,12 @@ public class NetworkSslServerHandler extends NetworkServerHandler {
         final ChannelHandler handler = ctx.pipeline().first();
         if (handler instanceof SslHandler) {
             final SslHandler sslHandler = (SslHandler) handler;
+            final long start = System.currentTimeMillis();
             sslHandler.handshakeFuture().addListener(new GenericFutureListener<Future<? super Channel>>() {
                 public void operationComplete(Future<? super Channel> future) throws Exception {
+                    // a resumed session was created before this connection
+                    R66SslContexts.handshakeDone(future.isSuccess(), future.isSuccess()
+                            && sslHandler.engine().getSession().getCreationTime() < start);
                     if (!future.isSuccess()) {
                         if (Configuration.configuration.getR66Mib() != null) {
                             Configuration.configuration.getR66Mib().notifyError(
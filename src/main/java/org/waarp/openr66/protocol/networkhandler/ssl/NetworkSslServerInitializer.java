@@ -17,10 +17,15 @@
  */
 package org.waarp.openr66.protocol.networkhandler.ssl;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.concurrent.TimeUnit;
 
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -31,6 +36,7 @@ import org.waarp.common.crypto.ssl.WaarpSslContextFactory;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoDataException;
 import org.waarp.openr66.protocol.networkhandler.GlobalTrafficHandler;
+import org.waarp.openr66.protocol.networkhandler.NetworkPacketScheduler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerInitializer;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacketCodec;
 
@@ -57,18 +63,16 @@ public class NetworkSslServerInitializer extends ChannelInitializer<SocketChanne
     protected void initChannel(SocketChannel ch) throws Exception {
         final ChannelPipeline pipeline = ch.pipeline();
         // Add SSL handler first to encrypt and decrypt everything.
-        SslHandler sslHandler = null;
         if (isClient) {
             // Not server: no clientAuthent, no renegotiation
-            sslHandler =
-                    getWaarpSslContextFactory().initInitializer(false, false);
+            // SslHandler created when connecting, to know the peer for session resumption
+            pipeline.addLast("ssl", new SslClientStarter());
         } else {
             // Server: no renegotiation still, but possible clientAuthent
-            sslHandler =
-                    getWaarpSslContextFactory().initInitializer(true,
-                            getWaarpSslContextFactory().needClientAuthentication());
+            SslHandler sslHandler = R66SslContexts.newServerHandler(ch.alloc(),
+                    getWaarpSslContextFactory().needClientAuthentication());
+            pipeline.addLast("ssl", sslHandler);
         }
-        pipeline.addLast("ssl", sslHandler);
 
         pipeline.addLast("codec", new NetworkPacketCodec());
         pipeline.addLast(NetworkServerInitializer.TIMEOUT,
@@ -86,10 +90,31 @@ public class NetworkSslServerInitializer extends ChannelInitializer<SocketChanne
             pipeline.addLast(NetworkServerInitializer.LIMITCHANNEL, trafficChannel);
         } catch (OpenR66ProtocolNoDataException e) {
         }
+        pipeline.addLast(NetworkServerInitializer.SCHEDULER, new NetworkPacketScheduler());
         pipeline.addLast(Configuration.configuration.getHandlerGroup(), "handler", new NetworkSslServerHandler(
                 !this.isClient));
     }
 
+    /**
+     * Replaced by the client SslHandler when connecting, such that the engine is created with the
+     * peer host and port
+     */
+    private static class SslClientStarter extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void connect(ChannelHandlerContext ctx, SocketAddress remoteAddress,
+                SocketAddress localAddress, ChannelPromise promise) throws Exception {
+            String host = null;
+            int port = 0;
+            if (remoteAddress instanceof InetSocketAddress) {
+                host = ((InetSocketAddress) remoteAddress).getHostString();
+                port = ((InetSocketAddress) remoteAddress).getPort();
+            }
+            SslHandler sslHandler = R66SslContexts.newClientHandler(ctx.alloc(), host, port);
+            ctx.pipeline().replace(this, "ssl", sslHandler);
+            ctx.pipeline().context(sslHandler).connect(remoteAddress, localAddress, promise);
+        }
+    }
+
     /**
      * @return the waarpSslContextFactory
      */
@@ -102,6 +127,9 @@ public class NetworkSslServerInitializer extends ChannelInitializer<SocketChanne
      */
     public static void setWaarpSslContextFactory(WaarpSslContextFactory waarpSslContextFactory) {
         NetworkSslServerInitializer.waarpSslContextFactory = waarpSslContextFactory;
+        if (waarpSslContextFactory != null) {
+            R66SslContexts.initialize(waarpSecureKeyStore, waarpSslContextFactory);
+        }
     }
 
     /**
@@ -0,0 +1,293 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler.ssl;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.SimpleTrustManagerFactory;
+
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.waarp.common.crypto.ssl.WaarpSecureKeyStore;
+import org.waarp.common.crypto.ssl.WaarpSslContextFactory;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+/**
+ * SSL engines of the R66 channels (client and server roles).<br>
+ * <br>
+ * If OpenSSL is asked and netty-tcnative is available, engines come from Netty OpenSSL contexts
+ * built on the same key and trust stores; else (or if the OpenSSL contexts cannot be built) from
+ * the JDK contexts of WaarpSslContextFactory. In both cases, the session caches (size and
+ * timeout) are configurable, client engines are created with the peer host and port such that
+ * sessions can be resumed on reconnection, and the number of handshakes and resumed ones are
+ * counted for Monitoring.<br>
+ * <br>
+ * Session tickets are used by default by OpenSSL; for the JDK engine, they are set through the
+ * jdk.tls.*.enableSessionTicketExtension properties (Java 13 and above), before the creation of
+ * the contexts. Since those properties apply to the whole JVM (including the HTTP and REST
+ * servers), they are only set if the option is explicitly configured.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class R66SslContexts {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(R66SslContexts.class);
+
+    private static boolean askOpenSsl = false;
+    /**
+     * Number of cached sessions by role, 0 for the engine default
+     */
+    private static int sessionCacheSize = 0;
+    /**
+     * Timeout in seconds of cached sessions, 0 for the engine default
+     */
+    private static long sessionTimeout = 0;
+    /**
+     * True or False if configured, null for the engine default
+     */
+    private static Boolean sessionTickets = null;
+
+    private static WaarpSslContextFactory jdkFactory;
+    private static volatile SslContext openSslServer = null;
+    private static volatile SslContext openSslClient = null;
+
+    private static final AtomicLong handshakes = new AtomicLong();
+    private static final AtomicLong resumed = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    private R66SslContexts() {
+    }
+
+    /**
+     * To be called before initialize
+     *
+     * @param openSsl
+     *            True to use OpenSSL engines if available
+     * @param cacheSize
+     *            number of cached sessions by role (0 for default)
+     * @param timeout
+     *            timeout in seconds of cached sessions (0 for default)
+     * @param tickets
+     *            True to allow session tickets, False to forbid them, null to keep the engine
+     *            default (the JVM wide properties being then untouched)
+     */
+    public static void setOptions(boolean openSsl, int cacheSize, long timeout, Boolean tickets) {
+        askOpenSsl = openSsl;
+        sessionCacheSize = cacheSize < 0 ? 0 : cacheSize;
+        sessionTimeout = timeout < 0 ? 0 : timeout;
+        sessionTickets = tickets;
+        if (tickets != null) {
+            String value = tickets.toString();
+            System.setProperty("jdk.tls.server.enableSessionTicketExtension", value);
+            System.setProperty("jdk.tls.client.enableSessionTicketExtension", value);
+        }
+    }
+
+    /**
+     * Initialize the contexts from the key and trust stores
+     *
+     * @param keyStore
+     * @param factory
+     *            the JDK based factory (used as fallback)
+     */
+    public static void initialize(WaarpSecureKeyStore keyStore, WaarpSslContextFactory factory) {
+        jdkFactory = factory;
+        openSslServer = null;
+        openSslClient = null;
+        if (askOpenSsl) {
+            if (OpenSsl.isAvailable()) {
+                try {
+                    TrustManagerFactory trustManagerFactory =
+                            new WrappedTrustManagerFactory(keyStore.getSecureTrustManagerFactory()
+                                    .getTrustManagers());
+                    SslContextBuilder server = SslContextBuilder.forServer(keyStore.getKeyManagerFactory())
+                            .sslProvider(SslProvider.OPENSSL)
+                            .trustManager(trustManagerFactory)
+                            .clientAuth(factory.needClientAuthentication() ? ClientAuth.REQUIRE
+                                    : ClientAuth.NONE)
+                            .sessionCacheSize(sessionCacheSize)
+                            .sessionTimeout(sessionTimeout);
+                    SslContextBuilder client = SslContextBuilder.forClient()
+                            .sslProvider(SslProvider.OPENSSL)
+                            .keyManager(keyStore.getKeyManagerFactory())
+                            .trustManager(trustManagerFactory)
+                            .sessionCacheSize(sessionCacheSize)
+                            .sessionTimeout(sessionTimeout);
+                    openSslServer = server.build();
+                    openSslClient = client.build();
+                    logger.warn("SSL uses OpenSSL engine: " + OpenSsl.versionString());
+                } catch (SSLException e) {
+                    logger.warn("OpenSSL engine cannot be initialized, use JDK engine", e);
+                    openSslServer = null;
+                    openSslClient = null;
+                } catch (RuntimeException e) {
+                    logger.warn("OpenSSL engine cannot be initialized, use JDK engine", e);
+                    openSslServer = null;
+                    openSslClient = null;
+                }
+            } else {
+                logger.warn("OpenSSL engine not available, use JDK engine: "
+                        + OpenSsl.unavailabilityCause());
+            }
+        }
+        if (openSslServer == null) {
+            setSessionContext(factory.getServerContext().getServerSessionContext());
+            setSessionContext(factory.getClientContext().getClientSessionContext());
+        }
+    }
+
+    private static void setSessionContext(SSLSessionContext context) {
+        if (context == null) {
+            return;
+        }
+        if (sessionCacheSize > 0) {
+            context.setSessionCacheSize(sessionCacheSize);
+        }
+        if (sessionTimeout > 0) {
+            context.setSessionTimeout((int) Math.min(sessionTimeout, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     *
+     * @return True if the OpenSSL engine is in use
+     */
+    public static boolean isOpenSsl() {
+        return openSslServer != null;
+    }
+
+    /**
+     *
+     * @return True or False if session tickets are allowed or not by the configuration, null for
+     *         the engine default
+     */
+    public static Boolean isSessionTickets() {
+        return sessionTickets;
+    }
+
+    /**
+     *
+     * @param alloc
+     * @param needClientAuth
+     * @return a new SslHandler for the server role
+     */
+    public static SslHandler newServerHandler(ByteBufAllocator alloc, boolean needClientAuth) {
+        SslContext context = openSslServer;
+        if (context != null) {
+            return context.newHandler(alloc);
+        }
+        return jdkFactory.initInitializer(true, needClientAuth);
+    }
+
+    /**
+     *
+     * @param alloc
+     * @param host
+     *            the peer host (null if unknown, then no session resumption)
+     * @param port
+     *            the peer port
+     * @return a new SslHandler for the client role
+     */
+    public static SslHandler newClientHandler(ByteBufAllocator alloc, String host, int port) {
+        SslContext context = openSslClient;
+        if (context != null) {
+            if (host == null) {
+                return context.newHandler(alloc);
+            }
+            return context.newHandler(alloc, host, port);
+        }
+        if (host == null) {
+            return jdkFactory.initInitializer(false, false);
+        }
+        // with peer host and port, the JDK client reuses cached sessions
+        SSLEngine engine = jdkFactory.getClientContext().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        return new SslHandler(engine);
+    }
+
+    /**
+     * Account one handshake
+     *
+     * @param success
+     * @param isResumed
+     *            True if the session was resumed (abbreviated handshake)
+     */
+    static void handshakeDone(boolean success, boolean isResumed) {
+        if (!success) {
+            failed.incrementAndGet();
+            return;
+        }
+        handshakes.incrementAndGet();
+        if (isResumed) {
+            resumed.incrementAndGet();
+        }
+    }
+
+    /**
+     *
+     * @return handshakes, resumed handshakes, failed handshakes, resumption ratio in percent
+     */
+    public static long[] getStatistics() {
+        long nb = handshakes.get();
+        long nbResumed = resumed.get();
+        return new long[] { nb, nbResumed, failed.get(), nb > 0 ? nbResumed * 100 / nb : 0 };
+    }
+
+    /**
+     * TrustManagerFactory from the trust managers of the WaarpSecureKeyStore
+     */
+    private static class WrappedTrustManagerFactory extends SimpleTrustManagerFactory {
+        private final TrustManager[] trustManagers;
+
+        WrappedTrustManagerFactory(TrustManager[] trustManagers) {
+            this.trustManagers = trustManagers;
+        }
+
+        @Override
+        protected void engineInit(KeyStore keyStore) throws Exception {
+        }
+
+        @Override
+        protected void engineInit(ManagerFactoryParameters managerFactoryParameters)
+                throws Exception {
+        }
+
+        @Override
+        protected TrustManager[] engineGetTrustManagers() {
+            return trustManagers;
+        }
+    }
+}
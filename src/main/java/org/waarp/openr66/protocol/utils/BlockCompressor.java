@@ -0,0 +1,194 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+
+/**
+ * Per block compression of the data of one transfer, once negotiated with the partner.<br>
+ * <br>
+ * Each block is prefixed by one flag byte: RAW if the block is sent as is, DEFLATED if followed by
+ * the uncompressed length (int) and the deflated data. Blocks that do not shrink are sent RAW, and
+ * after MAXMISS consecutive such blocks, compression is not tried for a growing number of blocks
+ * (up to MAXSKIP) before probing again, such that already compressed files cost almost nothing.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class BlockCompressor {
+    public static final byte RAW = 0;
+    public static final byte DEFLATED = 1;
+    /**
+     * Number of consecutive blocks that do not shrink before skipping compression
+     */
+    private static final int MAXMISS = 4;
+    /**
+     * Maximum number of blocks not compressed before probing again
+     */
+    private static final int MAXSKIP = 64;
+
+    private Deflater deflater = null;
+    private Inflater inflater = null;
+    private byte[] work = null;
+    private int miss = 0;
+    private int skip = 0;
+    private int nextSkip = MAXMISS;
+    private long rawBytes = 0;
+    private long sentBytes = 0;
+
+    /**
+     * Compress the block if useful. The given buffer is released if a new one is returned.
+     *
+     * @param block
+     * @return the buffer to send as data of the DataPacket
+     */
+    public synchronized ByteBuf compress(ByteBuf block) {
+        int length = block.readableBytes();
+        rawBytes += length;
+        if (skip > 0 || length == 0) {
+            skip--;
+            sentBytes += length + 1;
+            return Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(new byte[] { RAW }), block);
+        }
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        byte[] source = new byte[length];
+        block.getBytes(block.readerIndex(), source);
+        if (work == null || work.length < length) {
+            work = new byte[length];
+        }
+        deflater.reset();
+        deflater.setInput(source);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished() && size < length) {
+            size += deflater.deflate(work, size, length - size);
+        }
+        if (!deflater.finished() || size + 5 >= length) {
+            // does not shrink
+            miss++;
+            if (miss >= MAXMISS) {
+                skip = nextSkip;
+                nextSkip = Math.min(nextSkip * 2, MAXSKIP);
+                miss = 0;
+            }
+            sentBytes += length + 1;
+            return Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(new byte[] { RAW }), block);
+        }
+        miss = 0;
+        nextSkip = MAXMISS;
+        ByteBuf result = Unpooled.buffer(size + 5);
+        result.writeByte(DEFLATED);
+        result.writeInt(length);
+        result.writeBytes(work, 0, size);
+        block.release();
+        sentBytes += size + 5;
+        return result;
+    }
+
+    /**
+     * Decompress the data of one DataPacket. The given buffer is released if a new one is returned.
+     *
+     * @param data
+     * @param maxLength
+     *            the greatest uncompressed length allowed (from the negotiated block size)
+     * @return the uncompressed block
+     * @throws OpenR66ProtocolPacketException
+     */
+    public synchronized ByteBuf decompress(ByteBuf data, int maxLength)
+            throws OpenR66ProtocolPacketException {
+        if (data.readableBytes() < 1) {
+            throw new OpenR66ProtocolPacketException("Not enough data");
+        }
+        byte flag = data.readByte();
+        if (flag == RAW) {
+            return data;
+        }
+        if (flag != DEFLATED || data.readableBytes() < 4) {
+            throw new OpenR66ProtocolPacketException("Bad compressed block");
+        }
+        int length = data.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new OpenR66ProtocolPacketException("Bad compressed block length: " + length);
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        byte[] source = new byte[data.readableBytes()];
+        data.readBytes(source);
+        byte[] result = new byte[length];
+        inflater.reset();
+        inflater.setInput(source);
+        try {
+            int size = 0;
+            while (size < length && !inflater.finished()) {
+                int read = inflater.inflate(result, size, length - size);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += read;
+            }
+            if (size != length) {
+                throw new OpenR66ProtocolPacketException("Bad compressed block length");
+            }
+        } catch (DataFormatException e) {
+            throw new OpenR66ProtocolPacketException("Bad compressed block", e);
+        }
+        data.release();
+        return Unpooled.wrappedBuffer(result);
+    }
+
+    /**
+     *
+     * @return the number of bytes before compression
+     */
+    public synchronized long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     *
+     * @return the number of bytes sent after compression
+     */
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Release the native resources
+     */
+    public synchronized void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        work = null;
+    }
+}
@@ -0,0 +1,505 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+
+/**
+ * Delta (rsync like) encoding of the data of one transfer, once negotiated with the partner.<br>
+ * <br>
+ * The receiver computes the signatures of the previous version of the file (for each block of
+ * the signature size: a rolling checksum and a strong hash) and sends them before answering the
+ * request. The sender then encodes each block of the transfer as COPY instructions of the blocks
+ * of the previous version and LITERAL bytes, and the receiver rebuilds the very same block.<br>
+ * <br>
+ * Each DataPacket still carries exactly one block of the file once decoded, such that the rank,
+ * the restart position, the block hashes and the global digest are unchanged.<br>
+ * <br>
+ * Each block is prefixed by one flag byte: RAW if the block is sent as is, DELTA if followed by
+ * the instructions (COPY: index and count of signature blocks; LITERAL: length and bytes).
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class BlockDelta {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(BlockDelta.class);
+
+    public static final byte RAW = 0;
+    public static final byte DELTA = 1;
+    private static final byte COPY = 1;
+    private static final byte LITERAL = 2;
+    /**
+     * Maximum number of signatures, such that the signatures stay below 3 MB
+     */
+    private static final int MAXSIGNATURES = 1 << 18;
+    /**
+     * Minimum size of a signature block
+     */
+    private static final int MINSIGNATUREBLOCK = 512;
+    /**
+     * Number of signature blocks within one transfer block (when possible), such that a shifted
+     * content is still found within each block
+     */
+    private static final int SUBBLOCKS = 16;
+    private static final String STRONGALGO = "MD5";
+
+    private final int signatureBlock;
+    private final int nbSignatures;
+    private final int[] weak;
+    private final long[] strong;
+    /**
+     * Hash table of the weak checksums: first index by bucket, then next index by signature
+     */
+    private final int[] heads;
+    private final int[] next;
+    private final ByteBuf signatures;
+    private RandomAccessFile previous = null;
+    /**
+     * Maximum length of a decoded block (receiver side)
+     */
+    private int maxLength = Integer.MAX_VALUE;
+    private MessageDigest digest = null;
+    private long rawBytes = 0;
+    private long sentBytes = 0;
+
+    private BlockDelta(int signatureBlock, int[] weak, long[] strong, ByteBuf signatures) {
+        this.signatureBlock = signatureBlock;
+        this.nbSignatures = weak.length;
+        this.weak = weak;
+        this.strong = strong;
+        this.signatures = signatures;
+        int size = Integer.highestOneBit(Math.max(nbSignatures, 1)) * 4;
+        heads = new int[size];
+        next = new int[nbSignatures];
+        for (int i = 0; i < size; i++) {
+            heads[i] = -1;
+        }
+        for (int i = nbSignatures - 1; i >= 0; i--) {
+            int bucket = bucket(weak[i]);
+            next[i] = heads[bucket];
+            heads[bucket] = i;
+        }
+    }
+
+    private int bucket(int checksum) {
+        int hash = checksum * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (heads.length - 1);
+    }
+
+    /**
+     *
+     * @param fileSize
+     * @param blocksize
+     *            block size of the transfer
+     * @return the size of the signature blocks for this file size
+     */
+    public static int getSignatureBlock(long fileSize, int blocksize) {
+        long size = Math.max(blocksize / SUBBLOCKS, MINSIGNATUREBLOCK);
+        size = Math.max(size, (fileSize + MAXSIGNATURES - 1) / MAXSIGNATURES);
+        return (int) Math.min(size, blocksize);
+    }
+
+    /**
+     * Receiver side: compute the signatures of the previous version of the file
+     *
+     * @param file
+     *            the previous version of the file
+     * @param blocksize
+     *            block size of the transfer
+     * @return the BlockDelta able to decode the blocks, or null if no previous version is usable
+     */
+    public static BlockDelta createReceiver(File file, int blocksize) {
+        return createReceiver(file, blocksize, 0);
+    }
+
+    /**
+     * Receiver side: compute the signatures of the previous version of the file, giving up if not
+     * done in time
+     *
+     * @param file
+     *            the previous version of the file
+     * @param blocksize
+     *            block size of the transfer
+     * @param deadline
+     *            time (ms) after which the computation is abandoned, 0 for none
+     * @return the BlockDelta able to decode the blocks, or null if no previous version is usable
+     */
+    public static BlockDelta createReceiver(File file, int blocksize, long deadline) {
+        if (file == null || !file.isFile() || !file.canRead()) {
+            return null;
+        }
+        long fileSize = file.length();
+        int signatureBlock = getSignatureBlock(fileSize, blocksize);
+        if (fileSize < signatureBlock) {
+            return null;
+        }
+        // only full signature blocks
+        int nb = (int) (fileSize / signatureBlock);
+        int[] weak = new int[nb];
+        long[] strong = new long[nb];
+        ByteBuf signatures = Unpooled.buffer(8 + nb * 12);
+        signatures.writeInt(signatureBlock);
+        signatures.writeInt(nb);
+        InputStream inputStream = null;
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(STRONGALGO);
+            inputStream = new BufferedInputStream(new FileInputStream(file), Math.max(blocksize, 65536));
+            byte[] buffer = new byte[signatureBlock];
+            for (int i = 0; i < nb; i++) {
+                if (deadline > 0 && (i & 0xFFF) == 0 && System.currentTimeMillis() > deadline) {
+                    logger.info("Signatures of " + file + " not computed in time, full transfer");
+                    signatures.release();
+                    return null;
+                }
+                int read = 0;
+                while (read < signatureBlock) {
+                    int n = inputStream.read(buffer, read, signatureBlock - read);
+                    if (n < 0) {
+                        // file changed while reading
+                        signatures.release();
+                        return null;
+                    }
+                    read += n;
+                }
+                weak[i] = checksum(buffer, 0, signatureBlock);
+                strong[i] = strongHash(messageDigest, buffer, 0, signatureBlock);
+                signatures.writeInt(weak[i]);
+                signatures.writeLong(strong[i]);
+            }
+            BlockDelta delta = new BlockDelta(signatureBlock, weak, strong, signatures);
+            delta.previous = new RandomAccessFile(file, "r");
+            delta.maxLength = blocksize;
+            return delta;
+        } catch (IOException e) {
+            logger.warn("Cannot compute the signatures of " + file + ": " + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("Cannot compute the signatures: " + e.getMessage());
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        signatures.release();
+        return null;
+    }
+
+    /**
+     * Sender side: load the signatures received from the receiver. The given buffer is released.
+     *
+     * @param data
+     *            the signatures, or null to send all the blocks RAW (no signature available)
+     * @return the BlockDelta able to encode the blocks
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static BlockDelta createSender(ByteBuf data) throws OpenR66ProtocolPacketException {
+        if (data == null) {
+            return new BlockDelta(MINSIGNATUREBLOCK, new int[0], new long[0], null);
+        }
+        try {
+            if (data.readableBytes() < 8) {
+                throw new OpenR66ProtocolPacketException("Not enough data");
+            }
+            int signatureBlock = data.readInt();
+            int nb = data.readInt();
+            if (signatureBlock < 1 || nb < 0 || nb > MAXSIGNATURES || data.readableBytes() != nb * 12) {
+                throw new OpenR66ProtocolPacketException("Bad delta signatures");
+            }
+            int[] weak = new int[nb];
+            long[] strong = new long[nb];
+            for (int i = 0; i < nb; i++) {
+                weak[i] = data.readInt();
+                strong[i] = data.readLong();
+            }
+            return new BlockDelta(signatureBlock, weak, strong, null);
+        } finally {
+            data.release();
+        }
+    }
+
+    /**
+     * Rolling checksum (as rsync): low 16 bits the sum of the bytes, high 16 bits the sum of the
+     * partial sums
+     */
+    private static int checksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    private static long strongHash(MessageDigest messageDigest, byte[] data, int offset, int length) {
+        messageDigest.reset();
+        messageDigest.update(data, offset, length);
+        byte[] hash = messageDigest.digest();
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     *
+     * @return the signatures to send to the sender (receiver side)
+     */
+    public ByteBuf getSignatures() {
+        return signatures == null ? null : signatures.duplicate().retain();
+    }
+
+    /**
+     *
+     * @return the number of signatures
+     */
+    public int getNbSignatures() {
+        return nbSignatures;
+    }
+
+    private int findMatch(int checksum, byte[] data, int offset) {
+        int index = heads[bucket(checksum)];
+        long hash = 0;
+        boolean computed = false;
+        while (index >= 0) {
+            if (weak[index] == checksum) {
+                if (!computed) {
+                    hash = strongHash(digest, data, offset, signatureBlock);
+                    computed = true;
+                }
+                if (strong[index] == hash) {
+                    return index;
+                }
+            }
+            index = next[index];
+        }
+        return -1;
+    }
+
+    private static void literal(ByteBuf result, byte[] data, int from, int to) {
+        if (to > from) {
+            result.writeByte(LITERAL);
+            result.writeInt(to - from);
+            result.writeBytes(data, from, to - from);
+        }
+    }
+
+    private static ByteBuf raw(ByteBuf block) {
+        return Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(new byte[] { RAW }), block);
+    }
+
+    /**
+     * Encode the block as COPY and LITERAL if useful. The given buffer is released if a new one is
+     * returned.
+     *
+     * @param block
+     * @return the buffer to send as data of the DataPacket
+     */
+    public synchronized ByteBuf encode(ByteBuf block) {
+        int length = block.readableBytes();
+        rawBytes += length;
+        if (nbSignatures == 0 || length < signatureBlock) {
+            sentBytes += length + 1;
+            return raw(block);
+        }
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(STRONGALGO);
+            } catch (NoSuchAlgorithmException e) {
+                sentBytes += length + 1;
+                return raw(block);
+            }
+        }
+        byte[] data = new byte[length];
+        block.getBytes(block.readerIndex(), data);
+        ByteBuf result = Unpooled.buffer(length / 4 + 16);
+        result.writeByte(DELTA);
+        int literalStart = 0;
+        int copyIndex = -1;
+        int copyCount = 0;
+        int copyCountPosition = -1;
+        int pos = 0;
+        int a = 0;
+        int b = 0;
+        boolean rolling = false;
+        while (pos + signatureBlock <= length) {
+            if (!rolling) {
+                int checksum = checksum(data, pos, signatureBlock);
+                a = checksum & 0xFFFF;
+                b = checksum >>> 16;
+                rolling = true;
+            }
+            int checksum = (a & 0xFFFF) | (b << 16);
+            int index = findMatch(checksum, data, pos);
+            if (index >= 0) {
+                if (pos > literalStart) {
+                    literal(result, data, literalStart, pos);
+                    copyIndex = -1;
+                }
+                if (copyIndex >= 0 && index == copyIndex + copyCount) {
+                    // extend the previous COPY
+                    copyCount++;
+                    result.setInt(copyCountPosition, copyCount);
+                } else {
+                    result.writeByte(COPY);
+                    result.writeInt(index);
+                    copyCountPosition = result.writerIndex();
+                    result.writeInt(1);
+                    copyIndex = index;
+                    copyCount = 1;
+                }
+                pos += signatureBlock;
+                literalStart = pos;
+                rolling = false;
+                continue;
+            }
+            if (pos + signatureBlock < length) {
+                // roll by one byte
+                int out = data[pos] & 0xFF;
+                int in = data[pos + signatureBlock] & 0xFF;
+                a = (a - out + in) & 0xFFFF;
+                b = (b - signatureBlock * out + a) & 0xFFFF;
+            }
+            pos++;
+        }
+        if (copyIndex < 0 && literalStart == 0) {
+            // nothing found
+            result.release();
+            sentBytes += length + 1;
+            return raw(block);
+        }
+        literal(result, data, literalStart, length);
+        if (result.readableBytes() >= length + 1) {
+            result.release();
+            sentBytes += length + 1;
+            return raw(block);
+        }
+        block.release();
+        sentBytes += result.readableBytes();
+        return result;
+    }
+
+    /**
+     * Decode the data of one DataPacket from the previous version of the file. The given buffer is
+     * released if a new one is returned.
+     *
+     * @param data
+     * @return the block of the file
+     * @throws OpenR66ProtocolPacketException
+     */
+    public synchronized ByteBuf decode(ByteBuf data) throws OpenR66ProtocolPacketException {
+        if (data.readableBytes() < 1) {
+            throw new OpenR66ProtocolPacketException("Not enough data");
+        }
+        byte flag = data.readByte();
+        if (flag == RAW) {
+            return data;
+        }
+        if (flag != DELTA || previous == null) {
+            throw new OpenR66ProtocolPacketException("Bad delta block");
+        }
+        ByteBuf result = Unpooled.buffer(data.readableBytes() * 2);
+        try {
+            while (data.isReadable()) {
+                byte op = data.readByte();
+                if (op == COPY && data.readableBytes() >= 8) {
+                    int index = data.readInt();
+                    int count = data.readInt();
+                    if (index < 0 || count <= 0 || index > nbSignatures - count
+                            || (long) count * signatureBlock > maxLength - result.readableBytes()) {
+                        throw new OpenR66ProtocolPacketException("Bad delta copy: " + index);
+                    }
+                    byte[] copy = new byte[count * signatureBlock];
+                    previous.seek((long) index * signatureBlock);
+                    previous.readFully(copy);
+                    result.writeBytes(copy);
+                } else if (op == LITERAL && data.readableBytes() >= 4) {
+                    int length = data.readInt();
+                    if (length < 0 || length > data.readableBytes()
+                            || length > maxLength - result.readableBytes()) {
+                        throw new OpenR66ProtocolPacketException("Bad delta literal");
+                    }
+                    result.writeBytes(data, length);
+                } else {
+                    throw new OpenR66ProtocolPacketException("Bad delta block");
+                }
+            }
+        } catch (IOException e) {
+            result.release();
+            throw new OpenR66ProtocolPacketException("Cannot read the previous version", e);
+        } catch (OpenR66ProtocolPacketException e) {
+            result.release();
+            throw e;
+        }
+        data.release();
+        return result;
+    }
+
+    /**
+     *
+     * @return the number of bytes before encoding
+     */
+    public synchronized long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     *
+     * @return the number of bytes sent after encoding
+     */
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Release the previous version of the file
+     */
+    public synchronized void end() {
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+            }
+            previous = null;
+        }
+        if (signatures != null && signatures.refCnt() > 0) {
+            signatures.release();
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+
+/**
+ * Block size of the transfers tuned by partner (DbHostAuth host id) on the sender side.<br>
+ * <br>
+ * At the end of each transfer sent, the throughput of the DATA phase is added to the average of
+ * the block size used. The next transfer to the same partner goes one step (x2 or /2) towards the
+ * neighbour with the better throughput, or probes an unknown neighbour: greater blocks while
+ * sending one block takes less than a round trip (the per block overhead matters), smaller blocks
+ * when it takes much more (restart granularity and latency matter). A transfer ending in error
+ * after some blocks halves the block size. Once stable, the neighbours are probed again from time
+ * to time to follow the changes of the link.<br>
+ * <br>
+ * The round trip is estimated from the CONNECT phase of the requester. The block size always
+ * stays within the local bounds (blocksizemin, blocksizemax) and the ones declared by the partner.
+ * The tuned values are saved in the archive directory (blocksize.tuning) when they change and at
+ * shutdown.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class BlockSizeTuner {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(BlockSizeTuner.class);
+
+    public static final String TUNINGNAME = "blocksize.tuning";
+
+    /**
+     * Minimum number of blocks for a transfer to be significant for the throughput
+     */
+    private static final int MINBLOCKS = 16;
+    /**
+     * Stable transfers before probing the neighbours again
+     */
+    private static final int PROBEPERIOD = 20;
+    /**
+     * Gain needed to move to a neighbour
+     */
+    private static final double MARGIN = 0.05;
+
+    private static volatile BlockSizeTuner tuner = null;
+
+    /**
+     * Tuning state of one partner
+     *
+     * @author Frederic Bregier
+     *
+     */
+    private static class PartnerState {
+        private int size;
+        private long rttMicros = 0;
+        private int stable = 0;
+        /**
+         * Average throughput (B/s) by block size
+         */
+        private final Map<Integer, Long> throughputs = new HashMap<Integer, Long>();
+
+        private PartnerState(int size) {
+            this.size = size;
+        }
+    }
+
+    private final File tuningFile;
+    private final Map<String, PartnerState> partners = new ConcurrentHashMap<String, PartnerState>();
+
+    /**
+     * Create (or reload) the tuner once at startup
+     */
+    public static synchronized void initialize() {
+        if (tuner != null) {
+            return;
+        }
+        File file = new File(Configuration.configuration.getBaseDirectory()
+                + Configuration.configuration.getArchivePath(), TUNINGNAME);
+        BlockSizeTuner newTuner = new BlockSizeTuner(file);
+        newTuner.load();
+        tuner = newTuner;
+    }
+
+    /**
+     *
+     * @return the tuner, or null if the block size is not tuned
+     */
+    public static BlockSizeTuner getTuner() {
+        return tuner;
+    }
+
+    /**
+     * Save the tuned values
+     */
+    public static synchronized void close() {
+        if (tuner != null) {
+            tuner.save();
+            tuner = null;
+        }
+    }
+
+    private BlockSizeTuner(File tuningFile) {
+        this.tuningFile = tuningFile;
+    }
+
+    /**
+     *
+     * @param partner
+     *            the configuration declared by the partner (null if unknown)
+     * @return the lowest block size usable with this partner
+     */
+    public static int getLowerBound(PartnerConfiguration partner) {
+        int min = Configuration.configuration.getBlockSizeMin();
+        if (partner != null && partner.getBlockSizeMin() > min) {
+            min = partner.getBlockSizeMin();
+        }
+        return Math.min(min, getUpperBound(partner));
+    }
+
+    /**
+     *
+     * @param partner
+     *            the configuration declared by the partner (null if unknown)
+     * @return the greatest block size usable with this partner (the local BLOCKSIZE if the
+     *         partner does not declare its own bound)
+     */
+    public static int getUpperBound(PartnerConfiguration partner) {
+        int max = Configuration.configuration.getMaxAcceptedBlockSize();
+        if (partner == null || partner.getBlockSizeMax() <= 0) {
+            return Math.min(max, Configuration.configuration.getBLOCKSIZE());
+        }
+        return Math.min(max, partner.getBlockSizeMax());
+    }
+
+    private static int clamp(int size, PartnerConfiguration partner) {
+        return Math.max(getLowerBound(partner), Math.min(getUpperBound(partner), size));
+    }
+
+    /**
+     *
+     * @param hostId
+     * @param partner
+     *            the configuration declared by the partner (null if unknown)
+     * @return the block size to use to send to this partner
+     */
+    public int getBlockSize(String hostId, PartnerConfiguration partner) {
+        PartnerState state = partners.get(hostId);
+        if (state == null) {
+            return clamp(Configuration.configuration.getBLOCKSIZE(), partner);
+        }
+        synchronized (state) {
+            return clamp(state.size, partner);
+        }
+    }
+
+    private PartnerState getState(String hostId, int size) {
+        PartnerState state = partners.get(hostId);
+        if (state == null) {
+            synchronized (partners) {
+                state = partners.get(hostId);
+                if (state == null) {
+                    state = new PartnerState(size);
+                    partners.put(hostId, state);
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Account the end of a session on the sender side
+     *
+     * @param session
+     */
+    public void transferEnded(R66Session session) {
+        DbTaskRunner runner = session.getRunner();
+        if (runner == null || !runner.isSender() || runner.isSendThrough()
+                || session.getLocalChannelReference() == null) {
+            return;
+        }
+        String hostId = runner.isSelfRequested() ? runner.getRequester() : runner.getRequested();
+        PartnerConfiguration partner = session.getLocalChannelReference().getPartner();
+        int size = session.getBlockSize();
+        long connect = session.getPhases().getMicros(PHASE.CONNECT);
+        if (runner.isAllDone()) {
+            long end = runner.getOriginalSize() > 0 ? runner.getOriginalSize()
+                    : (long) runner.getRank() * size;
+            long bytes = end - session.getRestart().getPosition();
+            transferDone(hostId, partner, size, bytes, session.getPhases().getMicros(PHASE.DATA),
+                    connect > 0 ? connect / 2 : 0);
+        } else if (runner.getRank() > 0) {
+            transferInError(hostId, partner, size);
+        }
+    }
+
+    /**
+     * A transfer was sent with success
+     *
+     * @param hostId
+     * @param partner
+     * @param size
+     *            the block size used
+     * @param bytes
+     *            the bytes sent
+     * @param micros
+     *            the duration of the DATA phase
+     * @param rttMicros
+     *            the round trip estimated for this transfer (0 if unknown)
+     */
+    public void transferDone(String hostId, PartnerConfiguration partner, int size, long bytes,
+            long micros, long rttMicros) {
+        if (size <= 0 || micros <= 0 || bytes < (long) MINBLOCKS * size) {
+            // not significant
+            return;
+        }
+        PartnerState state = getState(hostId, size);
+        boolean changed;
+        synchronized (state) {
+            if (rttMicros > 0) {
+                state.rttMicros = state.rttMicros == 0 ? rttMicros
+                        : (state.rttMicros * 3 + rttMicros) / 4;
+            }
+            long throughput = bytes * 1000000 / micros;
+            Long previous = state.throughputs.get(size);
+            if (previous != null) {
+                throughput = (previous * 3 + throughput) / 4;
+            }
+            state.throughputs.put(size, throughput);
+            if (size != state.size) {
+                // imposed by the bounds or by the partner
+                return;
+            }
+            int next = nextSize(state, throughput, clamp(size * 2, partner), clamp(size / 2, partner));
+            changed = next != state.size;
+            state.size = next;
+        }
+        if (changed) {
+            logger.debug("Block size for " + hostId + " tuned from " + size + " to " + state.size);
+            save();
+        }
+    }
+
+    private static int nextSize(PartnerState state, long throughput, int up, int down) {
+        int size = state.size;
+        Long upThroughput = up > size ? state.throughputs.get(up) : null;
+        Long downThroughput = down < size ? state.throughputs.get(down) : null;
+        if (upThroughput != null && upThroughput > throughput * (1 + MARGIN)) {
+            state.stable = 0;
+            return up;
+        }
+        if (downThroughput != null && downThroughput > throughput * (1 + MARGIN)) {
+            state.stable = 0;
+            return down;
+        }
+        // micros to send one block
+        long blockMicros = throughput > 0 ? size * 1000000L / throughput : 0;
+        if (up > size && upThroughput == null
+                && (state.rttMicros == 0 || blockMicros < state.rttMicros)) {
+            return up;
+        }
+        if (down < size && downThroughput == null && state.rttMicros > 0
+                && blockMicros > 4 * state.rttMicros) {
+            return down;
+        }
+        if (++state.stable >= PROBEPERIOD) {
+            // the link may have changed since the neighbours were measured
+            state.stable = 0;
+            state.throughputs.remove(up);
+            state.throughputs.remove(down);
+        }
+        return size;
+    }
+
+    /**
+     * A transfer sent ended in error after some blocks
+     *
+     * @param hostId
+     * @param partner
+     * @param size
+     *            the block size used
+     */
+    public void transferInError(String hostId, PartnerConfiguration partner, int size) {
+        PartnerState state = getState(hostId, size);
+        boolean changed;
+        synchronized (state) {
+            Long previous = state.throughputs.get(size);
+            if (previous != null) {
+                state.throughputs.put(size, previous / 2);
+            }
+            state.stable = 0;
+            int next = clamp(Math.min(state.size, size) / 2, partner);
+            changed = next != state.size;
+            state.size = next;
+        }
+        if (changed) {
+            logger.debug("Block size for " + hostId + " decreased from " + size + " to "
+                    + state.size + " after an error");
+            save();
+        }
+    }
+
+    /**
+     * Read the saved values: one line per partner "hostid size rtt [size:throughput]..."
+     */
+    private void load() {
+        if (!tuningFile.canRead()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(tuningFile),
+                    WaarpStringUtils.UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length < 3) {
+                    continue;
+                }
+                try {
+                    PartnerState state = new PartnerState(Integer.parseInt(fields[1]));
+                    state.rttMicros = Long.parseLong(fields[2]);
+                    for (int i = 3; i < fields.length; i++) {
+                        int pos = fields[i].indexOf(':');
+                        if (pos > 0) {
+                            state.throughputs.put(Integer.parseInt(fields[i].substring(0, pos)),
+                                    Long.parseLong(fields[i].substring(pos + 1)));
+                        }
+                    }
+                    partners.put(fields[0], state);
+                } catch (NumberFormatException e) {
+                    // ignore truncated line
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Block size tuning cannot be read: " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        logger.info("Block size tuning loaded: " + partners.size() + " partners");
+    }
+
+    private synchronized void save() {
+        File tmp = new File(tuningFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                    WaarpStringUtils.UTF8));
+            for (Map.Entry<String, PartnerState> entry : partners.entrySet()) {
+                PartnerState state = entry.getValue();
+                StringBuilder builder = new StringBuilder(entry.getKey());
+                synchronized (state) {
+                    builder.append(' ').append(state.size).append(' ').append(state.rttMicros);
+                    for (Map.Entry<Integer, Long> throughput : state.throughputs.entrySet()) {
+                        builder.append(' ').append(throughput.getKey()).append(':')
+                                .append(throughput.getValue());
+                    }
+                }
+                writer.write(builder.append('\n').toString());
+            }
+            writer.close();
+            writer = null;
+            Files.move(tmp.toPath(), tuningFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Block size tuning cannot be saved: " + e.getMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
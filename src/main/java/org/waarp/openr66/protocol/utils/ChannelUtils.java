@@ -26,6 +26,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.ChannelGroupFutureListener;
@@ -40,6 +41,7 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
 import org.waarp.openr66.context.R66FiniteDualStates;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbTaskRunner;
@@ -210,6 +212,7 @@ public class ChannelUtils extends Thread {
             LocalChannelReference localChannelReference, DataBlock block)
             throws OpenR66ProtocolPacketException {
         ByteBuf md5 = Unpooled.EMPTY_BUFFER;
+        localChannelReference.getSession().getPhases().begin(PHASE.DATA);
         DbTaskRunner runner = localChannelReference.getSession().getRunner();
         if (RequestPacket.isMD5Mode(runner.getMode())) {
             md5 = FileUtils.getHash(block.getBlock(), Configuration.configuration.getDigest());
@@ -217,9 +220,30 @@ public class ChannelUtils extends Thread {
         if (runner.getRank() % 100 == 1 || localChannelReference.getSessionState() != R66FiniteDualStates.DATAS) {
             localChannelReference.sessionNewState(R66FiniteDualStates.DATAS);
         }
-        DataPacket data = new DataPacket(runner.getRank(), block.getBlock(), md5);// was block.getBlock().copy()
+        ByteBuf buffer = block.getBlock();
+        BlockDelta delta = localChannelReference.getBlockDelta();
+        if (delta != null) {
+            // hash is computed on the original block
+            buffer = delta.encode(buffer);
+        }
+        BlockCompressor compressor = localChannelReference.getBlockCompressor();
+        if (compressor != null) {
+            // hash is computed on the uncompressed block
+            buffer = compressor.compress(buffer);
+        }
+        DataPacket data = new DataPacket(runner.getRank(), buffer, md5);// was block.getBlock().copy()
+        final int size = buffer.readableBytes() + md5.readableBytes();
         ChannelFuture future = writeAbstractLocalPacket(localChannelReference, data, false);
+        // retained until flushed to the network
+        final LocalChannelReference lcr = localChannelReference;
+        lcr.acquireBuffer(size);
+        future.addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture future) throws Exception {
+                lcr.releaseBuffer(size);
+            }
+        });
         runner.incrementRank();
+        localChannelReference.getSession().getPhases().end(PHASE.DATA);
         return future;
     }
 
@@ -0,0 +1,443 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.openr66.context.task.TaskType;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+
+/**
+ * Content addressed index of the recently received files (size and global digest to path), used
+ * to skip the transfer of a content the receiver already holds.<br>
+ * <br>
+ * The index is bounded (least recently used entries are dropped) and persisted as a journal
+ * (dedup.index in the archive directory) replayed at startup and compacted when it grows too much.
+ * If the journal is missing or was written with another digest algorithm, it is rebuilt in the
+ * background from the files of the in directory.<br>
+ * <br>
+ * An entry is only trusted if its file still has the same size and modification time; post tasks
+ * may move, change or delete the received files.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class DedupIndex {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(DedupIndex.class);
+
+    public static final String INDEXNAME = "dedup.index";
+
+    private static volatile DedupIndex index = null;
+
+    private static class Entry {
+        private final String path;
+        private final long modified;
+
+        private Entry(String path, long modified) {
+            this.path = path;
+            this.modified = modified;
+        }
+    }
+
+    private final int maxEntries;
+    private final String algo;
+    private final File indexFile;
+    private final LinkedHashMap<String, Entry> entries;
+    private Writer journal = null;
+    private int journalLines = 0;
+
+    /**
+     * Create (or reload) the index once at startup
+     *
+     * @param maxEntries
+     *            maximum number of files in the index
+     */
+    public static synchronized void initialize(int maxEntries) {
+        if (index != null || maxEntries <= 0) {
+            return;
+        }
+        File file = new File(Configuration.configuration.getBaseDirectory()
+                + Configuration.configuration.getArchivePath(), INDEXNAME);
+        DedupIndex newIndex = new DedupIndex(file, maxEntries);
+        if (!newIndex.load()) {
+            File dir = new File(Configuration.configuration.getBaseDirectory()
+                    + Configuration.configuration.getInPath());
+            Configuration.configuration.launchInFixedDelay(new RebuildIndex(newIndex, dir), 0,
+                    TimeUnit.SECONDS);
+        }
+        index = newIndex;
+    }
+
+    /**
+     *
+     * @return the index, or null if the deduplication is not enabled
+     */
+    public static DedupIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Flush and close the journal of the index
+     */
+    public static synchronized void close() {
+        if (index != null) {
+            index.closeJournal();
+            index = null;
+        }
+    }
+
+    private DedupIndex(File indexFile, int maxEntries) {
+        this.indexFile = indexFile;
+        this.maxEntries = maxEntries;
+        this.algo = Configuration.configuration.getDigest().name;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DedupIndex.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     *
+     * @return the name of the digest algorithm of the index
+     */
+    public String getAlgo() {
+        return algo;
+    }
+
+    private static String getKey(long size, String digest) {
+        return size + " " + digest.toLowerCase();
+    }
+
+    /**
+     * Replay the journal
+     *
+     * @return False if the journal is missing or not usable, so that the index has to be rebuilt
+     */
+    private synchronized boolean load() {
+        if (!indexFile.canRead()) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile),
+                    WaarpStringUtils.UTF8));
+            String line = reader.readLine();
+            if (!algo.equals(line)) {
+                logger.warn("Dedup index with another digest will be rebuilt: " + line);
+                return false;
+            }
+            while ((line = reader.readLine()) != null) {
+                // size digest modified path
+                String[] fields = line.split(" ", 4);
+                if (fields.length != 4) {
+                    continue;
+                }
+                try {
+                    entries.put(getKey(Long.parseLong(fields[0]), fields[1]),
+                            new Entry(fields[3], Long.parseLong(fields[2])));
+                } catch (NumberFormatException e) {
+                    // ignore truncated line
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Dedup index cannot be read and will be rebuilt: " + e.getMessage());
+            entries.clear();
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        logger.info("Dedup index loaded: " + entries.size() + " files");
+        compact();
+        return true;
+    }
+
+    /**
+     * Rewrite the journal from the current entries
+     */
+    private synchronized void compact() {
+        closeJournal();
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                    WaarpStringUtils.UTF8));
+            writer.write(algo);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeLine(writer, entry.getKey(), entry.getValue());
+            }
+            writer.close();
+            writer = null;
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            journalLines = entries.size();
+        } catch (IOException e) {
+            logger.warn("Dedup index cannot be saved: " + e.getMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private static void writeLine(Writer writer, String key, Entry entry) throws IOException {
+        // key is "size digest"
+        writer.write(key);
+        writer.write(' ');
+        writer.write(Long.toString(entry.modified));
+        writer.write(' ');
+        writer.write(entry.path);
+        writer.write('\n');
+    }
+
+    private synchronized void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Add a received file to the index
+     *
+     * @param file
+     * @param digest
+     *            the global digest of the file with the algorithm of the index
+     */
+    public synchronized void register(File file, String digest) {
+        long size = file.length();
+        if (size <= 0 || digest == null) {
+            return;
+        }
+        String key = getKey(size, digest);
+        Entry entry = new Entry(file.getAbsolutePath(), file.lastModified());
+        entries.put(key, entry);
+        if (journalLines > 2 * maxEntries) {
+            compact();
+            return;
+        }
+        try {
+            if (journal == null) {
+                journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true),
+                        WaarpStringUtils.UTF8));
+            }
+            writeLine(journal, key, entry);
+            journal.flush();
+            journalLines++;
+        } catch (IOException e) {
+            logger.warn("Dedup index cannot be saved: " + e.getMessage());
+            closeJournal();
+        }
+    }
+
+    /**
+     *
+     * @param size
+     * @param digest
+     * @return the file with this size and digest, or null if none is known
+     */
+    public synchronized File lookup(long size, String digest) {
+        if (size <= 0 || digest == null) {
+            return null;
+        }
+        String key = getKey(size, digest);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        File file = new File(entry.path);
+        if (!file.isFile() || file.length() != size || file.lastModified() != entry.modified) {
+            // moved or changed since received
+            entries.remove(key);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     *
+     * @return the number of files in the index
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * A hard link shares the content between the earlier file and the new one: a task changing
+     * the new file in place (instead of writing another file) would change the earlier one too.
+     *
+     * @param tasks
+     *            the post tasks of the rule for the receiver
+     * @return True if none of these tasks may change the received file in place
+     */
+    public static boolean canShareContent(String[][] tasks) {
+        if (tasks == null) {
+            return true;
+        }
+        for (String[] task : tasks) {
+            if (task == null || task.length == 0 || task[0] == null) {
+                continue;
+            }
+            TaskType type;
+            try {
+                type = TaskType.valueOf(task[0]);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            switch (type) {
+                case EXEC:
+                case EXECMOVE:
+                case EXECOUTPUT:
+                case EXECJAVA:
+                case CHMOD:
+                case UNZEROED:
+                    return false;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create the target file with the content of the source file
+     *
+     * @param source
+     * @param target
+     * @param hardLink
+     *            if True, try first a hard link (the target then shares the very same content, so
+     *            any change in place of one file is seen by the other, see canShareContent)
+     * @throws OpenR66ProtocolSystemException
+     */
+    public static void materialize(File source, File target, boolean hardLink)
+            throws OpenR66ProtocolSystemException {
+        if (hardLink) {
+            try {
+                Files.deleteIfExists(target.toPath());
+                Files.createLink(target.toPath(), source.toPath());
+                return;
+            } catch (IOException e) {
+                logger.debug("Hard link not possible, copy instead: " + e.getMessage());
+            } catch (UnsupportedOperationException e) {
+                logger.debug("Hard link not possible, copy instead: " + e.getMessage());
+            }
+        }
+        try {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new OpenR66ProtocolSystemException("Cannot copy " + source.getPath(), e);
+        }
+    }
+
+    /**
+     * Rebuild the index from the most recent files of a directory
+     *
+     * @author Frederic Bregier
+     *
+     */
+    private static class RebuildIndex extends Thread {
+        private final DedupIndex dedupIndex;
+        private final File dir;
+
+        private RebuildIndex(DedupIndex dedupIndex, File dir) {
+            this.dedupIndex = dedupIndex;
+            this.dir = dir;
+        }
+
+        private void listFiles(File directory, List<File> files) {
+            File[] list = directory.listFiles();
+            if (list == null) {
+                return;
+            }
+            for (File file : list) {
+                if (file.isDirectory()) {
+                    listFiles(file, files);
+                } else if (file.isFile() && file.length() > 0) {
+                    files.add(file);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            List<File> files = new ArrayList<File>();
+            listFiles(dir, files);
+            // most recent last, such that they are the last dropped
+            Collections.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    long diff = o1.lastModified() - o2.lastModified();
+                    return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                }
+            });
+            int first = Math.max(0, files.size() - dedupIndex.maxEntries);
+            synchronized (dedupIndex) {
+                dedupIndex.entries.clear();
+                dedupIndex.compact();
+            }
+            int nb = 0;
+            for (File file : files.subList(first, files.size())) {
+                try {
+                    dedupIndex.register(file, FileUtils.getHash(file));
+                    nb++;
+                } catch (OpenR66ProtocolSystemException e) {
+                    logger.debug("File not indexed: " + file.getPath());
+                }
+            }
+            logger.info("Dedup index rebuilt from " + dir.getPath() + ": " + nb + " files");
+        }
+    }
+}
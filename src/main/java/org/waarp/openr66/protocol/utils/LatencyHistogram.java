@@ -0,0 +1,152 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Concurrent latency histogram in microseconds, with logarithmic buckets (as HdrHistogram): values
+ * below SUBBUCKETS are exact, above each power of 2 is split in SUBBUCKETS buckets, so that any
+ * value is known within 12.5%. Values are capped to MAXBITS bits (about 12 days).<br>
+ * <br>
+ * Recording is lock free and allocation free.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class LatencyHistogram {
+    private static final int SUBBITS = 3;
+    private static final int SUBBUCKETS = 1 << SUBBITS;
+    private static final int MAXBITS = 40;
+    private static final long MAXVALUE = (1L << MAXBITS) - 1;
+    private static final int NBBUCKETS = (MAXBITS - SUBBITS + 1) * SUBBUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NBBUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     *
+     * @param value
+     *            in microseconds
+     * @return the index of the bucket of this value
+     */
+    private static int index(long value) {
+        if (value < SUBBUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUBBITS)) & (SUBBUCKETS - 1);
+        return (exp - SUBBITS + 1) * SUBBUCKETS + sub;
+    }
+
+    /**
+     *
+     * @param index
+     * @return the highest value of the bucket
+     */
+    private static long highestValue(int index) {
+        if (index < SUBBUCKETS) {
+            return index;
+        }
+        int exp = index / SUBBUCKETS + SUBBITS - 1;
+        int sub = index % SUBBUCKETS;
+        return ((long) (SUBBUCKETS + sub + 1) << (exp - SUBBITS)) - 1;
+    }
+
+    /**
+     * Record one value
+     *
+     * @param micros
+     *            latency in microseconds
+     */
+    public void record(long micros) {
+        long value = micros < 0 ? 0 : (micros > MAXVALUE ? MAXVALUE : micros);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current = max.get();
+        while (value > current) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+            current = max.get();
+        }
+    }
+
+    /**
+     *
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     *
+     * @return the sum of the recorded values
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     *
+     * @param percentile
+     *            between 0 and 100
+     * @return the value (within the precision of the buckets) below which this percentage of the
+     *         recorded values are
+     */
+    public long getValueAtPercentile(double percentile) {
+        long nb = count.get();
+        if (nb == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(nb * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long cumul = 0;
+        for (int i = 0; i < NBBUCKETS; i++) {
+            cumul += counts.get(i);
+            if (cumul >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Add the summary of the histogram (values in microseconds) to the node
+     *
+     * @param node
+     */
+    public void exportAsJson(ObjectNode node) {
+        long nb = count.get();
+        node.put("Count", nb);
+        node.put("AvgUs", nb > 0 ? total.get() / nb : 0);
+        node.put("P50Us", getValueAtPercentile(50));
+        node.put("P90Us", getValueAtPercentile(90));
+        node.put("P99Us", getValueAtPercentile(99));
+        node.put("MaxUs", max.get());
+    }
+}
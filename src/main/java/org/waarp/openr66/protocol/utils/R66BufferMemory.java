@@ -0,0 +1,224 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.utils.R66Metrics.COUNTER;
+
+/**
+ * Node wide accounting of the transfer buffers retained in memory (blocks received and not yet
+ * written to the file, blocks sent and not yet flushed to the network), against the
+ * maxGlobalMemory of the configuration.<br>
+ * <br>
+ * Above the limit, the network channels delivering blocks stop reading (autoRead off) and the
+ * sending runners wait, until the usage goes back under the low watermark (3/4 of the limit).
+ * Above the low watermark, new requests are refused with ServerOverloaded, such that the
+ * partner retries later.<br>
+ * <br>
+ * A paused channel is always resumed after a quarter of the connection timeout, even if the memory
+ * is still in use, such that a stuck transfer cannot make the others time out.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class R66BufferMemory {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(R66BufferMemory.class);
+
+    private static final long CHECKDELAY = 100;
+
+    private static final AtomicLong used = new AtomicLong();
+    private static final AtomicLong peak = new AtomicLong();
+    private static final Set<Channel> paused =
+            Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
+
+    private R66BufferMemory() {
+    }
+
+    /**
+     *
+     * @return the limit in bytes (0 or less if none)
+     */
+    public static long getLimit() {
+        return Configuration.configuration.getMaxGlobalMemory();
+    }
+
+    private static long getLowWatermark(long limit) {
+        return limit - limit / 4;
+    }
+
+    /**
+     * Account retained bytes
+     *
+     * @param size
+     */
+    public static void acquire(long size) {
+        long current = used.addAndGet(size);
+        long max = peak.get();
+        while (current > max && !peak.compareAndSet(max, current)) {
+            max = peak.get();
+        }
+    }
+
+    /**
+     * Release bytes accounted with acquire, resuming the paused channels if the usage is now under
+     * the low watermark
+     *
+     * @param size
+     */
+    public static void release(long size) {
+        long current = used.addAndGet(-size);
+        if (!paused.isEmpty() && current < getLowWatermark(getLimit())) {
+            for (Channel channel : paused) {
+                resume(channel);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return True if the usage is above the low watermark, such that no new request should be
+     *         accepted
+     */
+    public static boolean isOverloaded() {
+        long limit = getLimit();
+        return limit > 0 && used.get() >= getLowWatermark(limit);
+    }
+
+    /**
+     *
+     * @return True if the usage is above the limit
+     */
+    public static boolean isOverLimit() {
+        long limit = getLimit();
+        return limit > 0 && used.get() >= limit;
+    }
+
+    /**
+     * Called after a block was read from this network channel: above the limit, stop reading from
+     * it until the usage goes back under the low watermark
+     *
+     * @param channel
+     */
+    public static void checkNetworkRead(Channel channel) {
+        if (!isOverLimit() || !paused.add(channel)) {
+            return;
+        }
+        channel.config().setAutoRead(false);
+        R66Metrics.increment(COUNTER.MEMORYPAUSES);
+        logger.debug("Buffer memory limit reached, pause reading from " + channel.remoteAddress());
+        ResumeCheck check = new ResumeCheck(channel);
+        check.future = channel.eventLoop().scheduleAtFixedRate(check, CHECKDELAY, CHECKDELAY,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static void resume(Channel channel) {
+        if (paused.remove(channel)) {
+            channel.config().setAutoRead(true);
+            logger.debug("Resume reading from " + channel.remoteAddress());
+        }
+    }
+
+    /**
+     * Called by a sending runner before building a new block: wait while the usage is above the
+     * limit (at most half of the connection timeout)
+     */
+    public static void awaitBelowLimit() {
+        if (!isOverLimit()) {
+            return;
+        }
+        long end = System.currentTimeMillis() + Configuration.configuration.getTIMEOUTCON() / 2;
+        while (used.get() >= getLowWatermark(getLimit()) && System.currentTimeMillis() < end) {
+            try {
+                Thread.sleep(CHECKDELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the bytes currently accounted
+     */
+    public static long getUsed() {
+        return used.get();
+    }
+
+    /**
+     *
+     * @return the highest value of the bytes accounted since the start
+     */
+    public static long getPeak() {
+        return peak.get();
+    }
+
+    /**
+     *
+     * @return the number of network channels currently not reading
+     */
+    public static int getPausedChannels() {
+        return paused.size();
+    }
+
+    /**
+     * Resume a paused channel once under the low watermark, or once closed, or after a quarter of
+     * the connection timeout
+     *
+     * @author Frederic Bregier
+     *
+     */
+    private static class ResumeCheck implements Runnable {
+        private final Channel channel;
+        private final long end;
+        private volatile ScheduledFuture<?> future;
+
+        private ResumeCheck(Channel channel) {
+            this.channel = channel;
+            this.end = System.currentTimeMillis() + Configuration.configuration.getTIMEOUTCON() / 4;
+        }
+
+        @Override
+        public void run() {
+            if (paused.contains(channel)) {
+                if (channel.isActive() && used.get() >= getLowWatermark(getLimit())
+                        && System.currentTimeMillis() < end) {
+                    return;
+                }
+                resume(channel);
+            }
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import io.netty.handler.traffic.TrafficCounter;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.waarp.openr66.commander.InternalRunner;
+import org.waarp.openr66.context.R66TransferPhases;
+import org.waarp.openr66.context.R66TransferPhases.PHASE;
+import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Registry of the metrics of the server, fed directly by the network and local handlers, the
+ * internal runner, the runners and the global traffic shaper, such that reading them never needs
+ * the database. Used by the metrics endpoint of the REST service (text exposition format, see
+ * exportAsText) and by the SNMP Monitoring for the live values.<br>
+ * <br>
+ * Counters are lock free (AtomicLongArray, one slot per COUNTER).
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class R66Metrics {
+    /**
+     * Counters (monotonic since the start of the server)
+     */
+    public static enum COUNTER {
+        NETWORKOPENED("r66_network_connections_opened_total", null,
+                "Network connections opened or accepted"),
+        NETWORKCLOSED("r66_network_connections_closed_total", null,
+                "Network connections closed"),
+        LOCALOPENED("r66_local_channels_opened_total", null,
+                "Local channels (one per request) opened"),
+        RUNNERSUBMITTED("r66_runner_submitted_total", null,
+                "Transfers submitted by the internal runner"),
+        RUNNERPOSTPONED("r66_runner_postponed_total", null,
+                "Transfers postponed by the internal runner since too many were running"),
+        INSTARTED("r66_transfers_started_total", "direction=\"in\"",
+                "Transfers started, requested by a partner (in) or by this host (out)"),
+        OUTSTARTED("r66_transfers_started_total", "direction=\"out\"", null),
+        INDONE("r66_transfers_done_total", "direction=\"in\"", "Transfers done with success"),
+        OUTDONE("r66_transfers_done_total", "direction=\"out\"", null),
+        INERROR("r66_transfers_error_total", "direction=\"in\"", "Transfers ended in error"),
+        OUTERROR("r66_transfers_error_total", "direction=\"out\"", null),
+        STEPPRETASK("r66_runner_steps_total", "step=\"PRETASK\"",
+                "Steps entered by the runners"),
+        STEPTRANSFERTASK("r66_runner_steps_total", "step=\"TRANSFERTASK\"", null),
+        STEPPOSTTASK("r66_runner_steps_total", "step=\"POSTTASK\"", null),
+        STEPERRORTASK("r66_runner_steps_total", "step=\"ERRORTASK\"", null),
+        STEPALLDONETASK("r66_runner_steps_total", "step=\"ALLDONETASK\"", null),
+        READBYTES("r66_network_read_bytes_total", null, "Bytes read by the R66 protocol"),
+        WRITTENBYTES("r66_network_written_bytes_total", null, "Bytes written by the R66 protocol"),
+        MEMORYPAUSES("r66_buffer_memory_read_pauses_total", null,
+                "Network channels paused since the buffer memory limit was reached"),
+        MEMORYREFUSED("r66_buffer_memory_refused_requests_total", null,
+                "Requests refused since the buffer memory was above its low watermark");
+
+        public final String metric;
+        public final String labels;
+        public final String help;
+
+        private COUNTER(String metric, String labels, String help) {
+            this.metric = metric;
+            this.labels = labels;
+            this.help = help;
+        }
+    }
+
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTER.values().length);
+    private static final AtomicLong activeIn = new AtomicLong();
+    private static final AtomicLong activeOut = new AtomicLong();
+    private static final long startTime = System.currentTimeMillis();
+
+    private R66Metrics() {
+    }
+
+    /**
+     * Increment the counter
+     *
+     * @param counter
+     */
+    public static void increment(COUNTER counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * Add the value to the counter
+     *
+     * @param counter
+     * @param value
+     */
+    public static void add(COUNTER counter, long value) {
+        counters.addAndGet(counter.ordinal(), value);
+    }
+
+    /**
+     *
+     * @param counter
+     * @return the current value of the counter
+     */
+    public static long get(COUNTER counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * A transfer starts on this side
+     *
+     * @param inbound
+     *            True if requested by the partner
+     */
+    public static void transferStarted(boolean inbound) {
+        if (inbound) {
+            activeIn.incrementAndGet();
+            increment(COUNTER.INSTARTED);
+        } else {
+            activeOut.incrementAndGet();
+            increment(COUNTER.OUTSTARTED);
+        }
+    }
+
+    /**
+     * A transfer started with transferStarted ends on this side
+     *
+     * @param inbound
+     * @param success
+     */
+    public static void transferEnded(boolean inbound, boolean success) {
+        if (inbound) {
+            activeIn.decrementAndGet();
+            increment(success ? COUNTER.INDONE : COUNTER.INERROR);
+        } else {
+            activeOut.decrementAndGet();
+            increment(success ? COUNTER.OUTDONE : COUNTER.OUTERROR);
+        }
+    }
+
+    /**
+     * A runner enters a new step
+     *
+     * @param step
+     */
+    public static void stepEntered(TASKSTEP step) {
+        switch (step) {
+            case PRETASK:
+                increment(COUNTER.STEPPRETASK);
+                break;
+            case TRANSFERTASK:
+                increment(COUNTER.STEPTRANSFERTASK);
+                break;
+            case POSTTASK:
+                increment(COUNTER.STEPPOSTTASK);
+                break;
+            case ERRORTASK:
+                increment(COUNTER.STEPERRORTASK);
+                break;
+            case ALLDONETASK:
+                increment(COUNTER.STEPALLDONETASK);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Accounting of the global traffic shaper at each check interval
+     *
+     * @param counter
+     */
+    public static void trafficAccounting(TrafficCounter counter) {
+        add(COUNTER.READBYTES, counter.lastReadBytes());
+        add(COUNTER.WRITTENBYTES, counter.lastWrittenBytes());
+    }
+
+    /**
+     *
+     * @return the number of transfers currently running requested by a partner
+     */
+    public static long getActiveIn() {
+        return activeIn.get();
+    }
+
+    /**
+     *
+     * @return the number of transfers currently running requested by this host
+     */
+    public static long getActiveOut() {
+        return activeOut.get();
+    }
+
+    /**
+     *
+     * @return the number of network connections currently opened
+     */
+    public static long getNetworkConnections() {
+        return get(COUNTER.NETWORKOPENED) - get(COUNTER.NETWORKCLOSED);
+    }
+
+    /**
+     *
+     * @return the global read throughput in B/s (0 if no traffic shaper)
+     */
+    public static long getReadThroughput() {
+        if (Configuration.configuration.getGlobalTrafficShapingHandler() == null) {
+            return 0;
+        }
+        return Configuration.configuration.getGlobalTrafficShapingHandler().trafficCounter()
+                .lastReadThroughput();
+    }
+
+    /**
+     *
+     * @return the global write throughput in B/s (0 if no traffic shaper)
+     */
+    public static long getWriteThroughput() {
+        if (Configuration.configuration.getGlobalTrafficShapingHandler() == null) {
+            return 0;
+        }
+        return Configuration.configuration.getGlobalTrafficShapingHandler().trafficCounter()
+                .lastWriteThroughput();
+    }
+
+    private static void header(StringBuilder builder, String metric, String type, String help) {
+        builder.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder builder, String metric, String help, long value) {
+        header(builder, metric, "gauge", help);
+        builder.append(metric).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void summaries(StringBuilder builder, String metric, String label,
+            Map<String, LatencyHistogram[]> map) {
+        for (Map.Entry<String, LatencyHistogram[]> entry : map.entrySet()) {
+            String key = escape(entry.getKey());
+            for (PHASE phase : PHASE.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                long count = histogram.getCount();
+                if (count == 0) {
+                    continue;
+                }
+                String labels = label + "=\"" + key + "\",phase=\"" + phase.name() + "\"";
+                builder.append(metric).append('{').append(labels).append(",quantile=\"0.5\"} ")
+                        .append(histogram.getValueAtPercentile(50)).append('\n');
+                builder.append(metric).append('{').append(labels).append(",quantile=\"0.9\"} ")
+                        .append(histogram.getValueAtPercentile(90)).append('\n');
+                builder.append(metric).append('{').append(labels).append(",quantile=\"0.99\"} ")
+                        .append(histogram.getValueAtPercentile(99)).append('\n');
+                builder.append(metric).append("_sum{").append(labels).append("} ")
+                        .append(histogram.getTotal()).append('\n');
+                builder.append(metric).append("_count{").append(labels).append("} ")
+                        .append(count).append('\n');
+            }
+        }
+    }
+
+    /**
+     *
+     * @return all the metrics in the text exposition format (version 0.0.4)
+     */
+    public static String exportAsText() {
+        StringBuilder builder = new StringBuilder(4096);
+        String last = null;
+        for (COUNTER counter : COUNTER.values()) {
+            if (!counter.metric.equals(last)) {
+                header(builder, counter.metric, "counter", counter.help);
+                last = counter.metric;
+            }
+            builder.append(counter.metric);
+            if (counter.labels != null) {
+                builder.append('{').append(counter.labels).append('}');
+            }
+            builder.append(' ').append(get(counter)).append('\n');
+        }
+        header(builder, "r66_transfers_active", "gauge", "Transfers currently running");
+        builder.append("r66_transfers_active{direction=\"in\"} ").append(getActiveIn()).append('\n');
+        builder.append("r66_transfers_active{direction=\"out\"} ").append(getActiveOut()).append('\n');
+        gauge(builder, "r66_network_connections", "Network connections currently opened",
+                getNetworkConnections());
+        if (Configuration.configuration.getLocalTransaction() != null) {
+            gauge(builder, "r66_local_channels", "Local channels currently opened",
+                    Configuration.configuration.getLocalTransaction().getNumberLocalChannel());
+        }
+        InternalRunner internalRunner = Configuration.configuration.getInternalRunner();
+        if (internalRunner != null) {
+            gauge(builder, "r66_runner_active", "Transfers currently run by the internal runner",
+                    internalRunner.nbInternalRunner());
+        }
+        gauge(builder, "r66_network_read_bytes_per_second", "Last global read throughput",
+                getReadThroughput());
+        gauge(builder, "r66_network_written_bytes_per_second", "Last global write throughput",
+                getWriteThroughput());
+        gauge(builder, "r66_buffer_memory_bytes", "Bytes of transfer buffers currently retained",
+                R66BufferMemory.getUsed());
+        gauge(builder, "r66_buffer_memory_peak_bytes", "Highest bytes of transfer buffers retained",
+                R66BufferMemory.getPeak());
+        gauge(builder, "r66_buffer_memory_limit_bytes", "Limit of the transfer buffers",
+                R66BufferMemory.getLimit());
+        gauge(builder, "r66_buffer_memory_paused_channels",
+                "Network channels currently not reading due to the buffer memory limit",
+                R66BufferMemory.getPausedChannels());
+        gauge(builder, "r66_threads", "Active threads", Thread.activeCount());
+        gauge(builder, "r66_uptime_seconds", "Seconds since the start",
+                (System.currentTimeMillis() - startTime) / 1000);
+        header(builder, "r66_rule_phase_microseconds", "summary",
+                "Duration of the phases of the transfers by rule");
+        summaries(builder, "r66_rule_phase_microseconds", "rule", R66TransferPhases.getByRule());
+        header(builder, "r66_partner_phase_microseconds", "summary",
+                "Duration of the phases of the transfers by partner");
+        summaries(builder, "r66_partner_phase_microseconds", "partner",
+                R66TransferPhases.getByPartner());
+        return builder.toString();
+    }
+}
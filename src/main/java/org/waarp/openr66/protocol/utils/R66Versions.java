@@ -24,7 +24,11 @@ public enum R66Versions {
     /**
      * Add support for FileInformation change
      */
-    V3_0_4;
+    V3_0_4,
+    /**
+     * Add the Change Log table for multiple monitors
+     */
+    V3_0_5;
 
     public String getVersion() {
         return this.name().substring(1).replace('_', '.');
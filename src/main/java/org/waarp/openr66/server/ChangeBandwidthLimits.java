@@ -45,7 +45,8 @@ import org.waarp.openr66.protocol.utils.R66Future;
 
 /**
  * This command enables the dynamic change of bandwidth limitation. It does not changed the valuesin
- * the database but only dynamic values while the server is running and until it is shutdown.
+ * the database but only dynamic values while the server is running and until it is shutdown,
+ * except the bandwidth classes by partner and by rule which are saved in the HostConfiguration.
  * 
  * @author Frederic Bregier
  * 
@@ -61,6 +62,8 @@ public class ChangeBandwidthLimits implements Runnable {
             "   -rglob limitGlobalRead\n" +
             "   -wsess limitSessionWrite\n" +
             "   -rsess limitSessionWrite\n" +
+            "   -partner hostid -plimit limitPartnerWrite (0 to remove, saved in HostConfiguration)\n" +
+            "   -rule idrule -weight ruleWeight (0 to remove, saved in HostConfiguration)\n" +
             "   -host host (optional)";
 
     protected final R66Future future;
@@ -70,6 +73,10 @@ public class ChangeBandwidthLimits implements Runnable {
     protected final long readSessionLimit;
     protected final NetworkTransaction networkTransaction;
     protected DbHostAuth host;
+    protected String partner = null;
+    protected long partnerLimit = -1;
+    protected String idRule = null;
+    protected int ruleWeight = -1;
 
     public ChangeBandwidthLimits(R66Future future, long wgl, long rgl, long wsl, long rsl,
             NetworkTransaction networkTransaction) {
@@ -86,6 +93,29 @@ public class ChangeBandwidthLimits implements Runnable {
         this.host = host;
     }
 
+    /**
+     * Set the bandwidth classes to change (saved in the HostConfiguration of the server)
+     * 
+     * @param partner
+     *            the partner whose limit is to set (null for none)
+     * @param partnerLimit
+     *            the limit in bytes/s (0 to remove, <0 for unchanged)
+     * @param idRule
+     *            the rule whose weight is to set (null for none)
+     * @param ruleWeight
+     *            the weight (0 to remove, <0 for unchanged)
+     */
+    public void setBandwidthClasses(String partner, long partnerLimit, String idRule, int ruleWeight) {
+        this.partner = partner;
+        this.partnerLimit = partnerLimit;
+        this.idRule = idRule;
+        this.ruleWeight = ruleWeight;
+    }
+
+    private boolean hasBandwidthClasses() {
+        return (partner != null && partnerLimit >= 0) || (idRule != null && ruleWeight >= 0);
+    }
+
     /**
      * Prior to call this method, the pipeline and NetworkTransaction must have been initialized. It
      * is the responsibility of the caller to finish all network resources.
@@ -127,7 +157,7 @@ public class ChangeBandwidthLimits implements Runnable {
             BandwidthJsonPacket node = new BandwidthJsonPacket();
             if (writeGlobalLimit < 0 && readGlobalLimit < 0 && writeSessionLimit < 0 && readSessionLimit < 0) {
                 // will ask current values instead
-                node.setSetter(false);
+                node.setSetter(hasBandwidthClasses());
                 valid = new JsonCommandPacket(node, LocalPacketFactory.BANDWIDTHPACKET);
             } else {
                 node.setSetter(true);
@@ -137,7 +167,16 @@ public class ChangeBandwidthLimits implements Runnable {
                 node.setReadsession(readSessionLimit);
                 valid = new JsonCommandPacket(node, LocalPacketFactory.BANDWIDTHPACKET);
             }
+            if (hasBandwidthClasses()) {
+                node.setPartner(partner);
+                node.setPartnerlimit(partnerLimit);
+                node.setIdrule(idRule);
+                node.setRuleweight(ruleWeight);
+            }
         } else {
+            if (hasBandwidthClasses()) {
+                logger.warn("Bandwidth classes not supported by " + host.getHostid() + ", ignored");
+            }
             if (writeGlobalLimit < 0 && readGlobalLimit < 0 && writeSessionLimit < 0 && readSessionLimit < 0) {
                 // will ask current values instead
                 valid = new ValidPacket("-1",
@@ -172,6 +211,10 @@ public class ChangeBandwidthLimits implements Runnable {
     protected static long swriteSessionLimit = -1;
     protected static long sreadSessionLimit = -1;
     protected static String stohost = null;
+    protected static String spartner = null;
+    protected static long spartnerLimit = -1;
+    protected static String sidRule = null;
+    protected static int sruleWeight = -1;
 
     protected static boolean getParams(String[] args) {
         if (args.length < 3) {
@@ -197,6 +240,18 @@ public class ChangeBandwidthLimits implements Runnable {
                 } else if (args[i].equalsIgnoreCase("-rsess")) {
                     i++;
                     sreadSessionLimit = Long.parseLong(args[i]);
+                } else if (args[i].equalsIgnoreCase("-partner")) {
+                    i++;
+                    spartner = args[i];
+                } else if (args[i].equalsIgnoreCase("-plimit")) {
+                    i++;
+                    spartnerLimit = Long.parseLong(args[i]);
+                } else if (args[i].equalsIgnoreCase("-rule")) {
+                    i++;
+                    sidRule = args[i];
+                } else if (args[i].equalsIgnoreCase("-weight")) {
+                    i++;
+                    sruleWeight = Integer.parseInt(args[i]);
                 } else if (args[i].equalsIgnoreCase("-host")) {
                     i++;
                     stohost = args[i];
@@ -205,7 +260,8 @@ public class ChangeBandwidthLimits implements Runnable {
             }
         }
         if (swriteGlobalLimit == -1 && sreadGlobalLimit == -1 &&
-                swriteSessionLimit == -1 && sreadSessionLimit == -1) {
+                swriteSessionLimit == -1 && sreadSessionLimit == -1 &&
+                (spartner == null || spartnerLimit < 0) && (sidRule == null || sruleWeight < 0)) {
             logger.error(_INFO_ARGS);
             return false;
         }
@@ -233,6 +289,7 @@ public class ChangeBandwidthLimits implements Runnable {
             ChangeBandwidthLimits transaction = new ChangeBandwidthLimits(future,
                     swriteGlobalLimit, sreadGlobalLimit, swriteSessionLimit, sreadSessionLimit,
                     networkTransaction);
+            transaction.setBandwidthClasses(spartner, spartnerLimit, sidRule, sruleWeight);
             if (stohost != null) {
                 try {
                     transaction.setHost(new DbHostAuth(DbConstant.admin.getSession(), stohost));
@@ -88,7 +88,12 @@ public class ServerExportConfiguration {
             String filename = dir.getAbsolutePath() + File.separator + hostname
                     + "_Runners.run.xml";
             try {
-                DbTaskRunner.writeXMLWriter(filename);
+                if (Configuration.configuration.isSaveTaskRunnerWithJournal()) {
+                    // XML view of the NoDb Journal
+                    DbTaskRunner.writeXmlJournalNoDb(filename);
+                } else {
+                    DbTaskRunner.writeXMLWriter(filename);
+                }
             } catch (WaarpDatabaseNoConnectionException e1) {
                 logger.error("Error", e1);
                 DbConstant.admin.close();
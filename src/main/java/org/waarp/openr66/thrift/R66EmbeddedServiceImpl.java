@@ -26,6 +26,13 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.thrift.TException;
 import org.waarp.common.command.exception.CommandAbstractException;
@@ -33,6 +40,7 @@ import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
 import org.waarp.openr66.commander.ClientRunner;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.filesystem.R66File;
@@ -54,7 +62,17 @@ import org.waarp.thrift.r66.R66Service;
 import org.waarp.thrift.r66.RequestMode;
 
 /**
- * Embedded service attached with the Thrift service
+ * Embedded service attached with the Thrift service.<br>
+ * <br>
+ * With the blocking Thrift server (one thread per connection), the database work of the requests
+ * is done within a bounded executor. With the non blocking Thrift server, the workers are already
+ * a bounded pool, so the database work is done directly by them; as the R66Service processor of
+ * WaarpThrift is synchronous, a worker stays busy until its request is answered, so SYNCTRANSFER
+ * requests are refused (ASYNCTRANSFER then INFO requests must be used).<br>
+ * <br>
+ * Batch versions of the requests (transferRequestQueries and infoTransferQueries) are available
+ * for embedded callers only, the R66Service IDL of WaarpThrift having no batch methods: their
+ * database work is done in parallel within the bounded executor.
  * 
  * @author Frederic Bregier
  *
@@ -129,42 +147,117 @@ public class R66EmbeddedServiceImpl implements R66Service.Iface {
         return taskRunner;
     }
 
-    public R66Result transferRequestQuery(R66Request request) throws TException {
+    /**
+     * Default number of threads doing the database work of the requests
+     */
+    public static final int DEFAULT_DBTHREADS = 8;
+
+    /**
+     * Bounded executor for the database work, such that the number of concurrent database
+     * accesses does not depend on the number of Thrift connections
+     */
+    private final ThreadPoolExecutor dbExecutor;
+    /**
+     * True for the non blocking server: SYNCTRANSFER requests are refused and the database work
+     * of single requests is done by the calling worker
+     */
+    private final boolean nonBlocking;
+
+    public R66EmbeddedServiceImpl() {
+        this(DEFAULT_DBTHREADS, false);
+    }
+
+    /**
+     * 
+     * @param dbThreads
+     *            number of threads doing the database work of the requests
+     * @param nonBlocking
+     *            True for the non blocking server, whose workers cannot wait for the end of the
+     *            transfers (SYNCTRANSFER refused) and do the database work themselves
+     */
+    public R66EmbeddedServiceImpl(int dbThreads, boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+        if (dbThreads <= 0) {
+            dbThreads = DEFAULT_DBTHREADS;
+        }
+        dbExecutor = new ThreadPoolExecutor(dbThreads, dbThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(dbThreads * 64),
+                new WaarpThreadFactory("ThriftDb"), new ThreadPoolExecutor.CallerRunsPolicy());
+        dbExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stop the executor of database work
+     */
+    public void releaseResources() {
+        dbExecutor.shutdownNow();
+    }
+
+    /**
+     * Run the task within the database executor and wait for its result, or directly by the
+     * calling worker of the non blocking server, since waiting there would not release it
+     * 
+     * @param task
+     * @return the result of the task
+     * @throws TException
+     */
+    private <T> T runOnDbExecutor(Callable<T> task) throws TException {
+        if (nonBlocking) {
+            try {
+                return task.call();
+            } catch (TException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new TException(e);
+            }
+        }
+        Future<T> future;
+        try {
+            future = dbExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            // shutdown in progress
+            throw new TException("Service is stopping", e);
+        }
+        return getResult(future);
+    }
+
+    private <T> T getResult(Future<T> future) throws TException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw new TException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TException) {
+                throw (TException) cause;
+            }
+            throw new TException(cause);
+        }
+    }
+
+    /**
+     * Prepare and save the transfer, without waiting for it even in SYNCTRANSFER mode
+     * 
+     * @param request
+     * @param result
+     *            the result to fill
+     * @return the runner or null in error (result being filled)
+     */
+    private DbTaskRunner submitTransfer(R66Request request, R66Result result) {
         DbTaskRunner runner = initRequest(request);
         if (runner != null) {
             runner.changeUpdatedInfo(AbstractDbData.UpdatedInfo.TOSUBMIT);
             boolean isSender = runner.isSender();
             if (!runner.forceSaveStatus()) {
                 logger.warn("Cannot prepare task");
-                return new R66Result(request.getMode(), ErrorCode.CommandNotFound,
-                        "ERROR: Cannot prepare transfer");
+                result.setCode(ErrorCode.CommandNotFound);
+                result.setResultinfo("ERROR: Cannot prepare transfer");
+                return null;
             }
-            R66Result result = new R66Result(request.getMode(), ErrorCode.InitOk,
-                    "Transfer Scheduled");
-            if (request.getMode() == RequestMode.SYNCTRANSFER) {
-                // now need to wait but first, reload the runner
-                try {
-                    runner.select();
-                    while (!runner.isFinished()) {
-                        try {
-                            Thread.sleep(1000);
-                            runner.select();
-                        } catch (InterruptedException e) {
-                            break;
-                        }
-                    }
-                    runner.setSender(isSender);
-                } catch (WaarpDatabaseException e1) {
-                }
-                setResultFromRunner(runner, result);
-                if (runner.isAllDone()) {
-                    result.setCode(ErrorCode.CompleteOk);
-                    result.setResultinfo("Transfer Done");
-                } else {
-                    result.setCode(ErrorCode.valueOf(runner.getErrorInfo().name()));
-                    result.setResultinfo(runner.getErrorInfo().mesg);
-                }
-            } else {
+            result.setCode(ErrorCode.InitOk);
+            result.setResultinfo("Transfer Scheduled");
+            if (request.getMode() != RequestMode.SYNCTRANSFER) {
                 try {
                     runner.select();
                 } catch (WaarpDatabaseException e) {
@@ -172,13 +265,150 @@ public class R66EmbeddedServiceImpl implements R66Service.Iface {
                 runner.setSender(isSender);
                 setResultFromRunner(runner, result);
             }
-            return result;
+            return runner;
         } else {
             logger.warn("ERROR: Transfer NOT scheduled");
-            R66Result result = new R66Result(request.getMode(), ErrorCode.Internal,
-                    "ERROR: Transfer NOT scheduled");
+            result.setCode(ErrorCode.Internal);
+            result.setResultinfo("ERROR: Transfer NOT scheduled");
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the end of a transfer submitted in SYNCTRANSFER mode
+     * 
+     * @param runner
+     * @param result
+     */
+    private void waitTransfer(DbTaskRunner runner, R66Result result) {
+        boolean isSender = runner.isSender();
+        // now need to wait but first, reload the runner
+        try {
+            runner.select();
+            while (!runner.isFinished()) {
+                try {
+                    Thread.sleep(1000);
+                    runner.select();
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            runner.setSender(isSender);
+        } catch (WaarpDatabaseException e1) {
+        }
+        setResultFromRunner(runner, result);
+        if (runner.isAllDone()) {
+            result.setCode(ErrorCode.CompleteOk);
+            result.setResultinfo("Transfer Done");
+        } else {
+            result.setCode(ErrorCode.valueOf(runner.getErrorInfo().name()));
+            result.setResultinfo(runner.getErrorInfo().mesg);
+        }
+    }
+
+    public R66Result transferRequestQuery(final R66Request request) throws TException {
+        final R66Result result = new R66Result(request.getMode(), ErrorCode.Internal, "");
+        if (isRefused(request, result)) {
             return result;
         }
+        DbTaskRunner runner = runOnDbExecutor(new Callable<DbTaskRunner>() {
+            public DbTaskRunner call() {
+                return submitTransfer(request, result);
+            }
+        });
+        if (runner != null && request.getMode() == RequestMode.SYNCTRANSFER) {
+            // waiting is done by the caller, not to block the database executor
+            waitTransfer(runner, result);
+        }
+        return result;
+    }
+
+    /**
+     * 
+     * @param request
+     * @param result
+     *            the result to fill if refused
+     * @return True if the request is a SYNCTRANSFER refused by the non blocking server
+     */
+    private boolean isRefused(R66Request request, R66Result result) {
+        if (nonBlocking && request.getMode() == RequestMode.SYNCTRANSFER) {
+            logger.warn("SYNCTRANSFER refused by the non blocking Thrift service");
+            result.setCode(ErrorCode.Unimplemented);
+            result.setResultinfo("ERROR: SYNCTRANSFER not allowed in non blocking mode, use ASYNCTRANSFER");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Submit several transfers in one call (Java API only, not part of the R66Service IDL). The
+     * database work is done in parallel within the database executor. The transfers in
+     * SYNCTRANSFER mode are waited for once all the transfers are submitted (refused as in
+     * transferRequestQuery with the non blocking server).
+     * 
+     * @param requests
+     * @return the results, in the order of the requests
+     * @throws TException
+     */
+    public List<R66Result> transferRequestQueries(List<R66Request> requests) throws TException {
+        int size = requests.size();
+        List<R66Result> results = new ArrayList<R66Result>(size);
+        List<Future<DbTaskRunner>> futures = new ArrayList<Future<DbTaskRunner>>(size);
+        for (final R66Request request : requests) {
+            final R66Result result = new R66Result(request.getMode(), ErrorCode.Internal, "");
+            results.add(result);
+            if (isRefused(request, result)) {
+                futures.add(null);
+                continue;
+            }
+            try {
+                futures.add(dbExecutor.submit(new Callable<DbTaskRunner>() {
+                    public DbTaskRunner call() {
+                        return submitTransfer(request, result);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                throw new TException("Service is stopping", e);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (futures.get(i) == null) {
+                continue;
+            }
+            DbTaskRunner runner = getResult(futures.get(i));
+            if (runner != null && requests.get(i).getMode() == RequestMode.SYNCTRANSFER) {
+                waitTransfer(runner, results.get(i));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Query several transfers in one call (as infoTransferQuery, Java API only, not part of the
+     * R66Service IDL). The database work is done in parallel within the database executor.
+     * 
+     * @param requests
+     * @return the results, in the order of the requests
+     * @throws TException
+     */
+    public List<R66Result> infoTransferQueries(List<R66Request> requests) throws TException {
+        List<Future<R66Result>> futures = new ArrayList<Future<R66Result>>(requests.size());
+        for (final R66Request request : requests) {
+            try {
+                futures.add(dbExecutor.submit(new Callable<R66Result>() {
+                    public R66Result call() throws TException {
+                        return infoTransferQueryInternal(request);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                throw new TException("Service is stopping", e);
+            }
+        }
+        List<R66Result> results = new ArrayList<R66Result>(requests.size());
+        for (Future<R66Result> future : futures) {
+            results.add(getResult(future));
+        }
+        return results;
     }
 
     private void setResultFromRunner(DbTaskRunner runner, R66Result result) {
@@ -293,7 +523,15 @@ public class R66EmbeddedServiceImpl implements R66Service.Iface {
         }
     }
 
-    public R66Result infoTransferQuery(R66Request request) throws TException {
+    public R66Result infoTransferQuery(final R66Request request) throws TException {
+        return runOnDbExecutor(new Callable<R66Result>() {
+            public R66Result call() throws TException {
+                return infoTransferQueryInternal(request);
+            }
+        });
+    }
+
+    private R66Result infoTransferQueryInternal(R66Request request) throws TException {
         RequestMode mode = request.getMode();
         if (mode != RequestMode.INFOREQUEST) {
             // error
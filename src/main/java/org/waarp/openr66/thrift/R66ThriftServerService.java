@@ -26,6 +26,8 @@ import java.net.UnknownHostException;
 
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TServerTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -35,7 +37,12 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.thrift.r66.R66Service;
 
 /**
- * Main Thrift server service
+ * Main Thrift server service<br>
+ * <br>
+ * In non blocking mode, connections are handled by a few selector threads and requests by a
+ * bounded pool of workers, using the framed transport (clients must use TFramedTransport). Since
+ * the workers cannot wait for the end of the transfers, SYNCTRANSFER requests are then refused. In
+ * blocking mode (default), each connection holds one thread.
  * 
  * @author Frederic Bregier
  * 
@@ -51,12 +58,31 @@ public class R66ThriftServerService implements Runnable {
     protected TServerTransport serverTransport = null;
     protected TServer server = null;
     protected WaarpFuture serviceReady;
+    protected boolean nonBlocking = false;
+    protected int workerThreads = 0;
+    protected R66EmbeddedServiceImpl service = null;
 
     public R66ThriftServerService(WaarpFuture serviceReady, int port) {
         this.serviceReady = serviceReady;
         this.port = port;
     }
 
+    /**
+     * 
+     * @param serviceReady
+     * @param port
+     * @param nonBlocking
+     *            True for the non blocking server with framed transport
+     * @param workerThreads
+     *            number of threads handling the requests (and the database work), 0 for default
+     */
+    public R66ThriftServerService(WaarpFuture serviceReady, int port, boolean nonBlocking,
+            int workerThreads) {
+        this(serviceReady, port);
+        this.nonBlocking = nonBlocking;
+        this.workerThreads = workerThreads;
+    }
+
     public boolean awaitInitialization() {
         if (serviceReady != null) {
             try {
@@ -86,12 +112,23 @@ public class R66ThriftServerService implements Runnable {
                 }
             }
             InetSocketAddress address = new InetSocketAddress(addr, port);
-            serverTransport = new TServerSocket(address);
+            service = new R66EmbeddedServiceImpl(workerThreads, nonBlocking);
             R66Service.Processor<R66EmbeddedServiceImpl> processor =
-                    new R66Service.Processor<R66EmbeddedServiceImpl>(
-                            new R66EmbeddedServiceImpl());
-            server = new TThreadPoolServer(
-                    new TThreadPoolServer.Args(serverTransport).processor(processor));
+                    new R66Service.Processor<R66EmbeddedServiceImpl>(service);
+            if (nonBlocking) {
+                TNonblockingServerSocket nonblockingTransport = new TNonblockingServerSocket(address);
+                serverTransport = nonblockingTransport;
+                TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(nonblockingTransport);
+                args.processor(processor);
+                args.selectorThreads(2);
+                args.workerThreads(workerThreads > 0 ? workerThreads
+                        : R66EmbeddedServiceImpl.DEFAULT_DBTHREADS);
+                server = new TThreadedSelectorServer(args);
+            } else {
+                serverTransport = new TServerSocket(address);
+                server = new TThreadPoolServer(
+                        new TThreadPoolServer.Args(serverTransport).processor(processor));
+            }
             serviceReady.setSuccess();
             server.serve();
         } catch (TTransportException e) {
@@ -106,6 +143,9 @@ public class R66ThriftServerService implements Runnable {
             logger.debug("Stop Thrift Server");
             server.stop();
         }
+        if (service != null) {
+            service.releaseResources();
+        }
         if (serverTransport != null) {
             logger.debug("Stop Thrift Transport");
             serverTransport.close();
@@ -0,0 +1,112 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.utils.BlockCompressor;
+
+/**
+ * Round trip of BlockCompressor on compressible and not compressible blocks (including the blocks
+ * sent RAW while compression is skipped), and rejection of the compressed blocks announcing a
+ * negative length or a length greater than the block size.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestBlockCompressor {
+    private static final int BLOCKSIZE = 0x10000;
+
+    /**
+     * @param args
+     *            none
+     */
+    public static void main(String[] args) {
+        Random random = new Random(66);
+        BlockCompressor sender = new BlockCompressor();
+        BlockCompressor receiver = new BlockCompressor();
+        int errors = 0;
+        for (int i = 0; i < 200; i++) {
+            byte[] block = new byte[i % 7 == 0 ? random.nextInt(BLOCKSIZE) : BLOCKSIZE];
+            if (i < 100) {
+                // text like
+                for (int j = 0; j < block.length; j++) {
+                    block[j] = (byte) ('a' + random.nextInt(8));
+                }
+            } else {
+                // already compressed like
+                random.nextBytes(block);
+            }
+            ByteBuf sent = sender.compress(Unpooled.copiedBuffer(block));
+            try {
+                ByteBuf received = receiver.decompress(sent, BLOCKSIZE);
+                byte[] result = new byte[received.readableBytes()];
+                received.readBytes(result);
+                received.release();
+                if (!Arrays.equals(block, result)) {
+                    System.err.println("Block " + i + " differs");
+                    errors++;
+                }
+            } catch (OpenR66ProtocolPacketException e) {
+                System.err.println("Block " + i + ": " + e.getMessage());
+                errors++;
+            }
+        }
+        System.out.println("raw: " + sender.getRawBytes() + "\tsent: " + sender.getSentBytes());
+        if (sender.getSentBytes() >= sender.getRawBytes()) {
+            System.err.println("Compression never used");
+            errors++;
+        }
+        errors += checkRejected(receiver, -1);
+        errors += checkRejected(receiver, BLOCKSIZE + 1);
+        errors += checkRejected(receiver, Integer.MAX_VALUE);
+        sender.end();
+        receiver.end();
+        System.out.println(errors == 0 ? "OK" : "ERRORS: " + errors);
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    private static int checkRejected(BlockCompressor receiver, int length) {
+        ByteBuf bad = Unpooled.buffer(16);
+        bad.writeByte(BlockCompressor.DEFLATED);
+        bad.writeInt(length);
+        bad.writeLong(0);
+        try {
+            receiver.decompress(bad, BLOCKSIZE);
+            System.err.println("Length " + length + " not rejected");
+            return 1;
+        } catch (OpenR66ProtocolPacketException e) {
+            return 0;
+        } catch (RuntimeException e) {
+            System.err.println("Length " + length + ": " + e);
+            return 1;
+        } catch (OutOfMemoryError e) {
+            System.err.println("Length " + length + ": " + e);
+            return 1;
+        } finally {
+            if (bad.refCnt() > 0) {
+                bad.release();
+            }
+        }
+    }
+}
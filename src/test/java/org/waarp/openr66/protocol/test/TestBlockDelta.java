@@ -0,0 +1,141 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.utils.BlockDelta;
+
+/**
+ * Round trip of BlockDelta: the new version of a file is encoded block by block against the
+ * signatures of its previous version, then decoded from the previous version, for identical,
+ * shifted (bytes inserted or removed at the beginning), modified, appended and unrelated
+ * content.<br>
+ * <br>
+ * The decoded content must be the new version; except for the unrelated content, the encoded size
+ * must be far below the raw size.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestBlockDelta {
+    private static final int BLOCKSIZE = 0x10000;
+    private static final int FILESIZE = 1024 * 1024 + 1234;
+
+    /**
+     * @param args
+     *            none
+     */
+    public static void main(String[] args) throws IOException {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        Random random = new Random(66);
+        byte[] previous = new byte[FILESIZE];
+        random.nextBytes(previous);
+        File file = File.createTempFile("delta", ".previous");
+        file.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(previous);
+        } finally {
+            outputStream.close();
+        }
+
+        byte[] inserted = new byte[37];
+        random.nextBytes(inserted);
+        byte[] shifted = concat(inserted, previous);
+        byte[] removed = Arrays.copyOfRange(previous, 4321, previous.length);
+        byte[] modified = previous.clone();
+        for (int i = 0; i < modified.length; i += 200000) {
+            modified[i] ^= 0x5A;
+        }
+        byte[] appended = concat(previous, inserted);
+        byte[] unrelated = new byte[FILESIZE];
+        random.nextBytes(unrelated);
+
+        int errors = 0;
+        errors += check("identical", file, previous.clone(), true);
+        errors += check("shifted", file, shifted, true);
+        errors += check("removed", file, removed, true);
+        errors += check("modified", file, modified, true);
+        errors += check("appended", file, appended, true);
+        errors += check("unrelated", file, unrelated, false);
+        System.out.println(errors == 0 ? "OK" : "ERRORS: " + errors);
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static int check(String name, File file, byte[] content, boolean shouldReduce) {
+        BlockDelta receiver = BlockDelta.createReceiver(file, BLOCKSIZE);
+        if (receiver == null) {
+            System.err.println(name + ": no signatures");
+            return 1;
+        }
+        try {
+            BlockDelta sender = BlockDelta.createSender(receiver.getSignatures());
+            byte[] decoded = new byte[content.length];
+            int position = 0;
+            for (int offset = 0; offset < content.length; offset += BLOCKSIZE) {
+                int length = Math.min(BLOCKSIZE, content.length - offset);
+                ByteBuf encoded = sender.encode(Unpooled.copiedBuffer(content, offset, length));
+                ByteBuf block = receiver.decode(encoded);
+                if (block.readableBytes() != length) {
+                    System.err.println(name + ": bad block length at " + offset + ": "
+                            + block.readableBytes() + " instead of " + length);
+                    block.release();
+                    return 1;
+                }
+                block.readBytes(decoded, position, length);
+                block.release();
+                position += length;
+            }
+            sender.end();
+            if (!Arrays.equals(content, decoded)) {
+                System.err.println(name + ": decoded content differs");
+                return 1;
+            }
+            long raw = sender.getRawBytes();
+            long sent = sender.getSentBytes();
+            System.out.println(name + "\traw: " + raw + "\tsent: " + sent);
+            if (shouldReduce && sent * 4 > raw) {
+                System.err.println(name + ": delta not used");
+                return 1;
+            }
+            return 0;
+        } catch (OpenR66ProtocolPacketException e) {
+            System.err.println(name + ": " + e.getMessage());
+            return 1;
+        } finally {
+            receiver.end();
+        }
+    }
+}
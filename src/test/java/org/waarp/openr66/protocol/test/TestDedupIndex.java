@@ -0,0 +1,156 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import org.waarp.openr66.protocol.utils.DedupIndex;
+import org.waarp.openr66.protocol.utils.FileUtils;
+
+/**
+ * DedupIndex: register and lookup by size and digest, invalidation of the files changed or removed
+ * since registered, bound of the number of entries, reload of the journal on restart, copy of the
+ * content and restriction of the hard link to the rules without task changing the file in place.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestDedupIndex {
+    private static final int MAXENTRIES = 3;
+    private static int errors = 0;
+
+    private static void check(boolean test, String message) {
+        if (!test) {
+            System.err.println("Error: " + message);
+            errors++;
+        }
+    }
+
+    private static File write(File dir, String name, String content) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * @param args
+     *            none
+     */
+    public static void main(String[] args) throws IOException, OpenR66ProtocolSystemException {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        File dir = File.createTempFile("dedup", "");
+        dir.delete();
+        File in = new File(dir, "in");
+        File arch = new File(dir, "arch");
+        in.mkdirs();
+        arch.mkdirs();
+        Configuration.configuration.setBaseDirectory(dir.getAbsolutePath());
+        Configuration.configuration.setArchivePath("/arch");
+        // an empty journal, such that no rebuild is launched
+        write(arch, DedupIndex.INDEXNAME, Configuration.configuration.getDigest().name + "\n");
+        DedupIndex.initialize(MAXENTRIES);
+        DedupIndex index = DedupIndex.getIndex();
+        check(index != null && index.size() == 0, "index not initialized empty");
+
+        File first = write(in, "first", "first content");
+        File second = write(in, "second", "second content");
+        File changed = write(in, "changed", "changed content");
+        File removed = write(in, "removed", "removed content");
+        String digestFirst = FileUtils.getHash(first);
+        String digestSecond = FileUtils.getHash(second);
+        String digestChanged = FileUtils.getHash(changed);
+        String digestRemoved = FileUtils.getHash(removed);
+
+        index.register(first, digestFirst);
+        index.register(second, digestSecond);
+        index.register(changed, digestChanged);
+        check(first.equals(index.lookup(first.length(), digestFirst)), "first not found");
+        check(index.lookup(first.length() + 1, digestFirst) == null, "found with another size");
+        check(index.lookup(first.length(), digestSecond) == null, "found with another digest");
+        check(second.equals(index.lookup(second.length(), digestSecond.toUpperCase())),
+                "digest not case insensitive");
+
+        // changed since registered
+        changed.setLastModified(changed.lastModified() - 10000);
+        check(index.lookup(changed.length(), digestChanged) == null, "changed file still found");
+        check(index.size() == 2, "changed file not dropped: " + index.size());
+
+        // bounded, least recently used dropped (first then second were looked up)
+        index.register(removed, digestRemoved);
+        index.register(changed, digestChanged);
+        check(index.size() == MAXENTRIES, "not bounded: " + index.size());
+        check(index.lookup(first.length(), digestFirst) == null, "least recently used not dropped");
+        check(second.equals(index.lookup(second.length(), digestSecond)), "second dropped");
+
+        // reload of the journal
+        DedupIndex.close();
+        DedupIndex.initialize(MAXENTRIES);
+        index = DedupIndex.getIndex();
+        check(index != null && index.size() == MAXENTRIES, "journal not reloaded: "
+                + (index == null ? -1 : index.size()));
+        check(second.equals(index.lookup(second.length(), digestSecond)), "second not reloaded");
+        check(changed.equals(index.lookup(changed.length(), digestChanged)), "changed not reloaded");
+
+        // removed since registered
+        removed.delete();
+        check(index.lookup("removed content".length(), digestRemoved) == null,
+                "removed file still found");
+
+        // materialize
+        File target = new File(in, "target");
+        DedupIndex.materialize(second, target, false);
+        check(digestSecond.equals(FileUtils.getHash(target)), "copy differs");
+        check(DedupIndex.canShareContent(null), "no task cannot share");
+        check(DedupIndex.canShareContent(new String[][] { { "LOG", "x", "0" },
+                { "MOVE", "/out", "0" } }), "LOG and MOVE cannot share");
+        check(!DedupIndex.canShareContent(new String[][] { { "LOG", "x", "0" },
+                { "EXEC", "script", "1000" } }), "EXEC can share");
+        check(!DedupIndex.canShareContent(new String[][] { { "CHMOD", "u=rw", "0" } }),
+                "CHMOD can share");
+
+        DedupIndex.close();
+        File[] files = in.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        files = arch.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        in.delete();
+        arch.delete();
+        dir.delete();
+        System.out.println(errors == 0 ? "OK" : "ERRORS: " + errors);
+        System.exit(errors == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,298 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.openr66.client.DirectTransfer;
+import org.waarp.openr66.configuration.FileBasedConfiguration;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.server.R66Server;
+import org.waarp.openr66.server.ServerInitDatabase;
+
+/**
+ * Self contained loopback harness: one R66 server in this JVM, with an in memory H2 database,
+ * sending to itself (hosta for plain, hostas for SSL) such that sender and receiver run in the
+ * same process. Measures transfers per second and MB/s across file sizes, block sizes, SSL on/off
+ * and MD5 on/off, with the number of database statements issued per transfer (both sides),
+ * measured with the fast path disabled then enabled when a fast path size is given.<br>
+ * <br>
+ * Uses the test keys and certificates of the given configuration directory (as src/main/config).
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public class TestLoopbackTransfer {
+    private static final String HOST = "hosta";
+    private static final String HOSTSSL = "hostas";
+    private static final String RULE = "loopback";
+
+    /**
+     * @param args
+     *            configDirectory [nbTransfers] [sizes in KB as 1,1024] [block sizes as 8192,65536]
+     *            [parallel] [port] [fast path size in bytes, 0 for disabled]
+     */
+    public static void main(String[] args) throws Exception {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        if (args.length < 1) {
+            System.err.println("Need configDirectory [nbTransfers] [sizesKB] [blockSizes] [parallel] [port] [fastPathSize]");
+            System.err.println("  as src/main/config 20 1,1024,65536 8192,65536 4 16666 0");
+            return;
+        }
+        File configDirectory = new File(args[0]);
+        int nb = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int[] sizes = getList(args.length > 2 ? args[2] : "1,1024,65536");
+        int[] blocks = getList(args.length > 3 ? args[3] : "8192,65536");
+        int parallel = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        int port = args.length > 5 ? Integer.parseInt(args[5]) : 16666;
+        long fastPathSize = args.length > 6 ? Long.parseLong(args[6]) : 0;
+
+        File home = Files.createTempDirectory("r66loopback").toFile();
+        String config = writeConfiguration(home, configDirectory, port);
+        if (!FileBasedConfiguration.setConfigurationInitDatabase(Configuration.configuration, config)) {
+            System.err.println("Cannot load the generated configuration: " + config);
+            System.exit(1);
+        }
+        Configuration.configuration.setFastPathSize(fastPathSize);
+        try {
+            ServerInitDatabase.initdb();
+        } catch (WaarpDatabaseNoConnectionException e) {
+            System.err.println("Cannot create the in memory database: " + e.getMessage());
+            System.exit(1);
+        }
+        ServerInitDatabase.loadRules(new File(home, "conf"));
+        ServerInitDatabase.loadHostAuth(new File(home, "conf/authent.xml").getAbsolutePath());
+        if (!R66Server.initialize(config)) {
+            System.err.println("Cannot start the server");
+            System.exit(1);
+        }
+        NetworkTransaction networkTransaction =
+                Configuration.configuration.getInternalRunner().getNetworkTransaction();
+        ExecutorService executorService = Executors.newFixedThreadPool(parallel);
+        System.out.println("SizeKB\tBlock\tSSL\tMD5\tTransfers/s\tMB/s\tErrors\tDb/transfer"
+                + (fastPathSize > 0 ? "\tDb/transfer without fast path" : ""));
+        try {
+            File in = new File(home, "in");
+            for (int size : sizes) {
+                String filename = createFile(new File(home, "out"), size);
+                for (int block : blocks) {
+                    for (int ssl = 0; ssl < 2; ssl++) {
+                        for (int md5 = 0; md5 < 2; md5++) {
+                            // warm up
+                            run(executorService, networkTransaction, ssl == 1 ? HOSTSSL : HOST,
+                                    filename, md5 == 1, block, Math.min(parallel, nb));
+                            String without = "";
+                            if (fastPathSize > 0) {
+                                Configuration.configuration.setFastPathSize(0);
+                                long statements = DbTaskRunner.getDbStatements();
+                                run(executorService, networkTransaction, ssl == 1 ? HOSTSSL : HOST,
+                                        filename, md5 == 1, block, nb);
+                                statements = DbTaskRunner.getDbStatements() - statements;
+                                without = "\t" + (statements / nb);
+                                clean(in);
+                                Configuration.configuration.setFastPathSize(fastPathSize);
+                            }
+                            long statements = DbTaskRunner.getDbStatements();
+                            long start = System.currentTimeMillis();
+                            int errors = run(executorService, networkTransaction,
+                                    ssl == 1 ? HOSTSSL : HOST, filename, md5 == 1, block, nb);
+                            long delay = Math.max(1, System.currentTimeMillis() - start);
+                            statements = DbTaskRunner.getDbStatements() - statements;
+                            int success = nb - errors;
+                            System.out.println(size + "\t" + block + "\t" + (ssl == 1) + "\t"
+                                    + (md5 == 1) + "\t" + (success * 1000L / delay) + "\t"
+                                    + (success * (long) size * 1000L / 1024 / delay) + "\t" + errors
+                                    + "\t" + (statements / nb) + without);
+                            clean(in);
+                        }
+                    }
+                }
+            }
+        } finally {
+            executorService.shutdown();
+            ChannelUtils.exit();
+        }
+        System.exit(0);
+    }
+
+    private static int[] getList(String arg) {
+        String[] values = arg.split(",");
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Run nb transfers of the file, at most as many in parallel as the executor allows
+     *
+     * @return the number of transfers in error
+     */
+    private static int run(ExecutorService executorService, NetworkTransaction networkTransaction,
+            String host, String filename, boolean md5, int block, int nb) {
+        R66Future[] futures = new R66Future[nb];
+        for (int i = 0; i < nb; i++) {
+            futures[i] = new R66Future(true);
+            executorService.execute(new DirectTransfer(futures[i], host, filename, RULE,
+                    "loopback", md5, block, DbConstant.ILLEGALVALUE, networkTransaction));
+        }
+        int errors = 0;
+        for (R66Future future : futures) {
+            future.awaitUninterruptibly();
+            if (!future.isSuccess()) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    private static String createFile(File directory, int sizeKB) throws IOException {
+        String filename = "loopback_" + sizeKB + "KB";
+        byte[] block = new byte[1024];
+        new Random(sizeKB).nextBytes(block);
+        FileOutputStream out = new FileOutputStream(new File(directory, filename));
+        try {
+            for (int i = 0; i < sizeKB; i++) {
+                out.write(block);
+            }
+        } finally {
+            out.close();
+        }
+        return filename;
+    }
+
+    private static void clean(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), WaarpStringUtils.UTF8);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the server configuration, the authentications and the rule under home
+     *
+     * @return the server configuration file
+     */
+    private static String writeConfiguration(File home, File configDirectory, int port)
+            throws IOException {
+        for (String dir : new String[] { "in", "out", "arch", "work", "conf" }) {
+            new File(home, dir).mkdirs();
+        }
+        String certs = new File(configDirectory, "certs").getAbsolutePath() + File.separator;
+        String keyfile = certs + "test-passwd.ggp";
+        write(new File(home, "conf/authent.xml"), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<authent>\n"
+                + "  <entry><hostid>" + HOST + "</hostid><address>127.0.0.1</address><port>" + port
+                + "</port><isssl>False</isssl><keyfile>" + keyfile + "</keyfile></entry>\n"
+                + "  <entry><hostid>" + HOSTSSL + "</hostid><address>127.0.0.1</address><port>"
+                + (port + 1) + "</port><isssl>True</isssl><admin>True</admin><keyfile>" + keyfile
+                + "</keyfile></entry>\n"
+                + "</authent>\n");
+        write(new File(home, "conf/" + RULE + ".rule.xml"), "<rule>\n"
+                + "  <idrule>" + RULE + "</idrule>\n"
+                + "  <hostids><hostid>" + HOST + "</hostid><hostid>" + HOSTSSL + "</hostid></hostids>\n"
+                + "  <mode>1</mode>\n"
+                + "</rule>\n");
+        File config = new File(home, "config-loopback.xml");
+        write(config, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<config>\n"
+                + "  <identity>\n"
+                + "    <hostid>" + HOST + "</hostid>\n"
+                + "    <sslhostid>" + HOSTSSL + "</sslhostid>\n"
+                + "    <cryptokey>" + certs + "test-key.des</cryptokey>\n"
+                + "    <authentfile>" + new File(home, "conf/authent.xml").getAbsolutePath()
+                + "</authentfile>\n"
+                + "  </identity>\n"
+                + "  <server>\n"
+                + "    <serveradmin>monadmin</serveradmin>\n"
+                + "    <serverpasswd>c5f4876737cf351a</serverpasswd>\n"
+                + "    <usenossl>True</usenossl>\n"
+                + "    <usessl>True</usessl>\n"
+                + "    <httpadmin>" + new File(configDirectory, "../httpadmin/i18n").getAbsolutePath()
+                + "</httpadmin>\n"
+                + "    <admkeypath>" + certs + "testsslnocert.jks</admkeypath>\n"
+                + "    <admkeystorepass>testsslnocert</admkeystorepass>\n"
+                + "    <admkeypass>testalias</admkeypass>\n"
+                + "  </server>\n"
+                + "  <network>\n"
+                + "    <serverport>" + port + "</serverport>\n"
+                + "    <serversslport>" + (port + 1) + "</serversslport>\n"
+                + "    <serverhttpport>0</serverhttpport>\n"
+                + "    <serverhttpsport>0</serverhttpsport>\n"
+                + "  </network>\n"
+                + "  <ssl>\n"
+                + "    <keypath>" + certs + "testsslnocert.jks</keypath>\n"
+                + "    <keystorepass>testsslnocert</keystorepass>\n"
+                + "    <keypass>testalias</keypass>\n"
+                + "    <trustkeypath>" + certs + "testcert.jks</trustkeypath>\n"
+                + "    <trustkeystorepass>testcert</trustkeystorepass>\n"
+                + "    <trustuseclientauthenticate>False</trustuseclientauthenticate>\n"
+                + "  </ssl>\n"
+                + "  <directory>\n"
+                + "    <serverhome>" + home.getAbsolutePath() + "</serverhome>\n"
+                + "    <in>in</in>\n"
+                + "    <out>out</out>\n"
+                + "    <arch>arch</arch>\n"
+                + "    <work>work</work>\n"
+                + "    <conf>conf</conf>\n"
+                + "  </directory>\n"
+                + "  <limit>\n"
+                + "    <timeoutcon>30000</timeoutcon>\n"
+                + "  </limit>\n"
+                + "  <db>\n"
+                + "    <dbdriver>h2</dbdriver>\n"
+                + "    <dbserver>jdbc:h2:mem:r66loopback;MODE=Oracle;DB_CLOSE_DELAY=-1</dbserver>\n"
+                + "    <dbuser>waarp</dbuser>\n"
+                + "    <dbpasswd>waarp</dbpasswd>\n"
+                + "  </db>\n"
+                + "</config>\n");
+        return config.getAbsolutePath();
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+
+/**
+ * Concurrency stress test of the registry of NetworkTransaction: many threads propose the shutdown
+ * of hundreds of partners at the same time (as during a reconnect storm) while checking their
+ * status. Each partner has a twin address with the very same hashCode (IP + 1, port - 1), which is
+ * never shut down: a twin seen as in shutdown means two partners were merged.<br>
+ * <br>
+ * No network connection is opened.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestNetworkTransactionRegistry {
+    private static final int PORT = 6666;
+
+    /**
+     * @param args
+     *            [nbThreads] [nbPartners] [rounds]
+     */
+    public static void main(String[] args) throws Exception {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        final int nbThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final int nbPartners = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        Configuration.configuration.pipelineInit();
+
+        final List<InetSocketAddress> partners = new ArrayList<InetSocketAddress>(nbPartners);
+        final List<InetSocketAddress> twins = new ArrayList<InetSocketAddress>(nbPartners);
+        for (int i = 0; i < nbPartners; i++) {
+            // 10.66.x.y with y even, such that the twin IP + 1 is never a partner IP
+            InetSocketAddress partner = getAddress(i * 2, PORT);
+            InetSocketAddress twin = getAddress(i * 2 + 1, PORT - 1);
+            if (partner.hashCode() != twin.hashCode()) {
+                System.err.println("Twin addresses should share the hashCode: " + partner + " " + twin);
+                System.exit(1);
+            }
+            partners.add(partner);
+            twins.add(twin);
+        }
+
+        final AtomicLong operations = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(nbThreads);
+        for (int t = 0; t < nbThreads; t++) {
+            final List<Integer> order = new ArrayList<Integer>(nbPartners);
+            for (int i = 0; i < nbPartners; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order);
+            Thread thread = new Thread("Storm" + t) {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int round = 0; round < rounds; round++) {
+                            for (Integer i : order) {
+                                InetSocketAddress partner = partners.get(i);
+                                NetworkTransaction.proposeShutdownNetworkChannel(partner);
+                                if (!NetworkTransaction.isShuttingdownNetworkChannel(partner)) {
+                                    errors.incrementAndGet();
+                                }
+                                if (NetworkTransaction.isShuttingdownNetworkChannel(twins.get(i))) {
+                                    errors.incrementAndGet();
+                                }
+                                NetworkTransaction.nbAttachedConnection(twins.get(i), null);
+                                operations.addAndGet(4);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        endLatch.countDown();
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long start = System.nanoTime();
+        startLatch.countDown();
+        endLatch.await();
+        long delay = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+        int merged = 0;
+        for (int i = 0; i < nbPartners; i++) {
+            if (NetworkTransaction.isShuttingdownNetworkChannel(twins.get(i))) {
+                merged++;
+            }
+        }
+        System.out.println("Threads\tPartners\tRounds\tOps/s\tErrors\tMerged");
+        System.out.println(nbThreads + "\t" + nbPartners + "\t" + rounds + "\t"
+                + (operations.get() * 1000 / delay) + "\t" + errors.get() + "\t" + merged);
+        System.out.println(NetworkTransaction.hashStatus());
+        System.exit(errors.get() == 0 && merged == 0 ? 0 : 1);
+    }
+
+    private static InetSocketAddress getAddress(int rank, int port) throws UnknownHostException {
+        byte[] ip = new byte[] { 10, 66, (byte) (rank >> 8), (byte) rank };
+        return new InetSocketAddress(InetAddress.getByAddress(ip), port);
+    }
+}
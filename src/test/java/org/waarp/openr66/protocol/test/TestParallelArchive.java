@@ -0,0 +1,277 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.context.task.archive.ParallelTar;
+import org.waarp.openr66.context.task.archive.ParallelZip;
+
+/**
+ * ParallelZip and ParallelTar round trips:<br>
+ * - Zip created from a directory read back by java.util.zip, with the entries named relative to
+ * the directory (or by base name only), as ZipUtility did,<br>
+ * - Zip64 (more than 65535 entries) read back by java.util.zip,<br>
+ * - Zip created by java.util.zip extracted by ParallelZip,<br>
+ * - Tar created from a directory (with a name longer than 100 characters) extracted back.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestParallelArchive {
+    private static final int ZIP64ENTRIES = 70000;
+    private static int errors = 0;
+
+    private static void check(boolean test, String message) {
+        if (!test) {
+            System.err.println("Error: " + message);
+            errors++;
+        }
+    }
+
+    private static byte[] content(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            // half compressible
+            data[i] = (byte) (i % 2 == 0 ? 'a' + random.nextInt(4) : random.nextInt());
+        }
+        return data;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File sub : files) {
+                delete(sub);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Check the Zip file content against the source directory through java.util.zip
+     *
+     * @param relative
+     *            True if the entries are named relative to the directory, else by base name
+     */
+    private static void checkZip(File zip, File source, String[] paths, boolean relative)
+            throws IOException {
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            Set<String> names = new HashSet<String>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    names.add(entry.getName());
+                }
+            }
+            check(names.size() == paths.length, "zip entries " + names + " relative " + relative);
+            for (String path : paths) {
+                String name = relative ? path : new File(path).getName();
+                ZipEntry entry = zipFile.getEntry(name);
+                check(entry != null, "zip entry missing: " + name);
+                if (entry == null) {
+                    continue;
+                }
+                InputStream in = zipFile.getInputStream(entry);
+                try {
+                    check(Arrays.equals(read(new File(source, path)), read(in)),
+                            "zip entry differs: " + name);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static void testZip(File dir, String[] paths) throws IOException {
+        File source = new File(dir, "source");
+        File zip = new File(dir, "test.zip");
+        check(ParallelZip.createZipFromDirectory(source.getAbsolutePath(), zip.getAbsolutePath(),
+                true), "zip from directory failed");
+        checkZip(zip, source, paths, true);
+        // archive created within the directory is not added to itself
+        File inner = new File(source, "inner.zip");
+        check(ParallelZip.createZipFromDirectory(source.getAbsolutePath(),
+                inner.getAbsolutePath(), false), "flat zip from directory failed");
+        checkZip(inner, source, paths, false);
+        inner.delete();
+
+        // extraction of a Zip written by java.util.zip
+        File javaZip = new File(dir, "java.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(javaZip));
+        try {
+            for (String path : paths) {
+                out.putNextEntry(new ZipEntry(path));
+                out.write(read(new File(source, path)));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        File target = new File(dir, "unzip");
+        ParallelZip.unZip(javaZip, target);
+        for (String path : paths) {
+            check(Arrays.equals(read(new File(source, path)), read(new File(target, path))),
+                    "unzip differs: " + path);
+        }
+        delete(target);
+        zip.delete();
+        javaZip.delete();
+    }
+
+    private static void testZip64(File dir, Random random) throws IOException {
+        File small = new File(dir, "small");
+        byte[] data = content(random, 100);
+        write(small, data);
+        List<File> files = new ArrayList<File>(ZIP64ENTRIES);
+        List<String> names = new ArrayList<String>(ZIP64ENTRIES);
+        for (int i = 0; i < ZIP64ENTRIES; i++) {
+            files.add(small);
+            names.add("d" + (i % 100) + "/f" + i);
+        }
+        File zip = new File(dir, "test64.zip");
+        FileOutputStream out = new FileOutputStream(zip);
+        try {
+            ParallelZip.createZip(files, names, out);
+        } finally {
+            out.close();
+        }
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            check(zipFile.size() == ZIP64ENTRIES, "zip64 entries: " + zipFile.size());
+            for (int i = 0; i < ZIP64ENTRIES; i += 9999) {
+                ZipEntry entry = zipFile.getEntry("d" + (i % 100) + "/f" + i);
+                check(entry != null, "zip64 entry missing: " + i);
+                if (entry == null) {
+                    continue;
+                }
+                InputStream in = zipFile.getInputStream(entry);
+                try {
+                    check(Arrays.equals(data, read(in)), "zip64 entry differs: " + i);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        zip.delete();
+        small.delete();
+    }
+
+    private static void testTar(File dir, String[] paths) throws IOException {
+        File source = new File(dir, "source");
+        File tar = new File(dir, "test.tar");
+        check(ParallelTar.createTarFromDirectory(source.getAbsolutePath(), tar.getAbsolutePath(),
+                true), "tar from directory failed");
+        File target = new File(dir, "untar");
+        ParallelTar.unTar(tar, target);
+        for (String path : paths) {
+            File file = new File(target, path);
+            check(file.isFile(), "untar missing: " + path);
+            if (file.isFile()) {
+                check(Arrays.equals(read(new File(source, path)), read(file)),
+                        "untar differs: " + path);
+            }
+        }
+        delete(target);
+        tar.delete();
+    }
+
+    /**
+     * @param args
+     *            none
+     */
+    public static void main(String[] args) throws IOException {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        File dir = File.createTempFile("archive", "");
+        dir.delete();
+        File source = new File(dir, "source");
+        Random random = new Random(66);
+        StringBuilder longName = new StringBuilder("long");
+        while (longName.length() < 150) {
+            longName.append("_name");
+        }
+        String[] paths = new String[] {
+                "empty.txt", "small.txt", "large.bin", "sub/one.txt", "sub/deeper/two.txt",
+                "sub/" + longName + ".txt" };
+        int[] sizes = new int[] { 0, 1000, 3 * 128 * 1024 + 17, 5000, 70000, 300 };
+        for (int i = 0; i < paths.length; i++) {
+            write(new File(source, paths[i]), content(random, sizes[i]));
+        }
+        try {
+            testZip(dir, paths);
+            testZip64(dir, random);
+            testTar(dir, paths);
+        } finally {
+            delete(dir);
+        }
+        System.out.println(errors == 0 ? "OK" : "ERRORS: " + errors);
+        System.exit(errors == 0 ? 0 : 1);
+    }
+}
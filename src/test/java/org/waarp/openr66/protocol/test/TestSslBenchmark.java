@@ -0,0 +1,155 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.crypto.ssl.WaarpSecureKeyStore;
+import org.waarp.common.crypto.ssl.WaarpSslContextFactory;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.protocol.networkhandler.ssl.R66SslContexts;
+
+/**
+ * Benchmark of the SSL engines of R66 on loopback: handshake rate (with session resumption) and
+ * bulk throughput, using a local key store (as the ones of certs/).
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public class TestSslBenchmark {
+    private static final AtomicLong received = new AtomicLong();
+
+    /**
+     * @param args
+     *            keystore keystorepass keypass openssl(True/False) [nbHandshakes] [MB to send]
+     */
+    public static void main(String[] args) throws Exception {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        if (args.length < 4) {
+            System.err.println("Need keystore keystorepass keypass openssl [nbHandshakes] [MB]");
+            System.err.println("  as certs/openr66.store password password True");
+            return;
+        }
+        int nbHandshakes = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        int nbMB = args.length > 5 ? Integer.parseInt(args[5]) : 512;
+        WaarpSecureKeyStore keyStore = new WaarpSecureKeyStore(args[0], args[1], args[2]);
+        keyStore.initEmptyTrustStore();
+        R66SslContexts.setOptions(Boolean.parseBoolean(args[3]), 1024, 300, true);
+        R66SslContexts.initialize(keyStore, new WaarpSslContextFactory(keyStore));
+        System.out.println("OpenSSL engine: " + R66SslContexts.isOpenSsl());
+
+        EventLoopGroup group = new NioEventLoopGroup(4);
+        try {
+            ServerBootstrap serverBootstrap = new ServerBootstrap();
+            serverBootstrap.group(group).channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) throws Exception {
+                            ch.pipeline().addLast("ssl",
+                                    R66SslContexts.newServerHandler(ch.alloc(), false));
+                            ch.pipeline().addLast("sink", new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                    if (msg instanceof ByteBuf) {
+                                        received.addAndGet(((ByteBuf) msg).readableBytes());
+                                    }
+                                    ReferenceCountUtil.release(msg);
+                                }
+                            });
+                        }
+                    });
+            Channel server = serverBootstrap.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+            final InetSocketAddress address = (InetSocketAddress) server.localAddress();
+            Bootstrap bootstrap = new Bootstrap();
+            bootstrap.group(group).channel(NioSocketChannel.class)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) throws Exception {
+                            ch.pipeline().addLast("ssl", R66SslContexts.newClientHandler(ch.alloc(),
+                                    address.getHostString(), address.getPort()));
+                        }
+                    });
+
+            // Handshakes: sequential reconnections, as R66 clients do
+            int resumed = 0;
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < nbHandshakes; i++) {
+                long startConnection = System.currentTimeMillis();
+                Channel channel = bootstrap.connect(address).sync().channel();
+                SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+                if (!sslHandler.handshakeFuture().await().isSuccess()) {
+                    System.err.println("Handshake in error: " + sslHandler.handshakeFuture().cause());
+                    channel.close().sync();
+                    return;
+                }
+                if (sslHandler.engine().getSession().getCreationTime() < startConnection) {
+                    resumed++;
+                }
+                channel.close().sync();
+            }
+            long end = System.currentTimeMillis();
+            System.out.println("Handshakes: " + nbHandshakes + " in " + (end - start) + " ms: "
+                    + (nbHandshakes * 1000L / Math.max(1, end - start)) + " /s, resumed: " + resumed);
+
+            // Throughput: one connection, 64KB writes
+            Channel channel = bootstrap.connect(address).sync().channel();
+            channel.pipeline().get(SslHandler.class).handshakeFuture().sync();
+            byte[] block = new byte[65536];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) i;
+            }
+            long total = (long) nbMB * 1024 * 1024;
+            received.set(0);
+            start = System.currentTimeMillis();
+            for (long sent = 0; sent < total; sent += block.length) {
+                channel.writeAndFlush(Unpooled.wrappedBuffer(block)).sync();
+            }
+            while (received.get() < total) {
+                Thread.sleep(1);
+            }
+            end = System.currentTimeMillis();
+            System.out.println("Throughput: " + nbMB + " MB in " + (end - start) + " ms: "
+                    + (nbMB * 1000L / Math.max(1, end - start)) + " MB/s");
+            channel.close().sync();
+            server.close().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+}
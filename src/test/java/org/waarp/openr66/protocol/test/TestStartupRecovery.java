@@ -0,0 +1,198 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.io.File;
+import java.sql.Timestamp;
+
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.commander.CommanderNoDb;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbHostAuth;
+import org.waarp.openr66.database.data.DbRule;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.journal.TaskRunnerJournal;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+
+/**
+ * Startup recovery without Database through CommanderNoDb.startupRecovery, with synthetic runner
+ * sets saved either as XML files or within the TaskRunner Journal:<br>
+ * - the interrupted runners (and only them) are resubmitted,<br>
+ * - runners updated after the given startup time are not touched,<br>
+ * - the time of the Journal reopening (saved index) and of the recovery is reported.<br>
+ * <br>
+ * Arguments: directory [-nb number of runners] [-active percentage of interrupted runners]
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestStartupRecovery {
+    private static WaarpLogger logger;
+
+    static int nb = 10000;
+    static int active = 5;
+
+    private static final String HOSTA = "hosta";
+    private static final String HOSTB = "hostb";
+    private static final String RULE = "rule";
+
+    private static void setup(File dir) throws WaarpDatabaseException {
+        Configuration.configuration.setHOST_ID(HOSTA);
+        Configuration.configuration.setBaseDirectory(dir.getAbsolutePath());
+        Configuration.configuration.setArchivePath("/arch");
+        Configuration.configuration.setSaveTaskRunnerWithNoDb(true);
+        new File(dir, "arch").mkdirs();
+        new DbHostAuth(null, HOSTB, "127.0.0.1", 6666, false, "hostb".getBytes(), false, false)
+                .insert();
+        new DbRule(null, RULE, null, RequestPacket.TRANSFERMODE.SENDMODE.ordinal(), "/in",
+                "/out", "/arch", "/work", null, null, null, null, null, null).insert();
+    }
+
+    /**
+     * Create the synthetic runners
+     *
+     * @return the number of interrupted runners
+     */
+    private static int createRunners() throws WaarpDatabaseException {
+        DbRule rule = new DbRule(null, RULE);
+        int modulo = active > 0 ? 100 / active : Integer.MAX_VALUE;
+        int interrupted = 0;
+        for (int i = 0; i < nb; i++) {
+            RequestPacket request = new RequestPacket(RULE,
+                    RequestPacket.TRANSFERMODE.SENDMODE.ordinal(), "/data/out/file" + i + ".csv",
+                    65536, 0, DbConstant.ILLEGALVALUE, "synthetic", 1000, "_");
+            DbTaskRunner runner = new DbTaskRunner(null, rule, true, request, HOSTB, null);
+            if (i % modulo == 0) {
+                runner.changeUpdatedInfo(i % 2 == 0 ? UpdatedInfo.RUNNING
+                        : UpdatedInfo.INTERRUPTED);
+                interrupted++;
+            } else {
+                runner.changeUpdatedInfo(UpdatedInfo.DONE);
+            }
+            runner.update();
+        }
+        return interrupted;
+    }
+
+    /**
+     * @return the number of errors
+     */
+    private static int check(String name, int interrupted) {
+        CommanderNoDb commander = new CommanderNoDb(null);
+        CommanderNoDb.todoList.clear();
+        // all runners are updated after this startup time, so handled by this instance
+        commander.startupRecovery(new Timestamp(0));
+        int errors = 0;
+        if (!CommanderNoDb.todoList.isEmpty()) {
+            logger.error(name + ": " + CommanderNoDb.todoList.size()
+                    + " runners resubmitted while updated after the startup");
+            errors++;
+        }
+        long start = System.currentTimeMillis();
+        commander.startupRecovery(new Timestamp(System.currentTimeMillis() + 1000));
+        long delay = System.currentTimeMillis() - start;
+        if (CommanderNoDb.todoList.size() != interrupted) {
+            logger.error(name + ": " + CommanderNoDb.todoList.size() + " runners resubmitted instead of "
+                    + interrupted);
+            errors++;
+        }
+        logger.warn(name + ": " + nb + " runners, recovery of " + CommanderNoDb.todoList.size()
+                + " interrupted runners: " + delay + " ms");
+        CommanderNoDb.todoList.clear();
+        return errors;
+    }
+
+    private static int testXml() throws WaarpDatabaseException {
+        Configuration.configuration.setSaveTaskRunnerWithJournal(false);
+        int interrupted = createRunners();
+        return check("XML files", interrupted);
+    }
+
+    private static int testJournal(File dir) throws Exception {
+        Configuration.configuration.setSaveTaskRunnerWithJournal(true);
+        int interrupted = createRunners();
+        // restart: the index is saved on close and reloaded on open
+        Configuration.configuration.closeTaskRunnerJournal();
+        long start = System.currentTimeMillis();
+        TaskRunnerJournal journal = Configuration.configuration.getTaskRunnerJournal();
+        long open = System.currentTimeMillis() - start;
+        logger.warn("Journal: " + journal.size() + " runners, reopened in " + open + " ms");
+        int errors = check("Journal", interrupted);
+        // crash: no saved index, so the segments are scanned
+        Configuration.configuration.closeTaskRunnerJournal();
+        new File(new File(dir, "arch"), TaskRunnerJournal.INDEX_FILE).delete();
+        start = System.currentTimeMillis();
+        journal = Configuration.configuration.getTaskRunnerJournal();
+        open = System.currentTimeMillis() - start;
+        logger.warn("Journal: " + journal.size() + " runners, rebuilt in " + open + " ms");
+        if (journal.size() != nb) {
+            logger.error("Journal: " + journal.size() + " runners after rebuild instead of " + nb);
+            errors++;
+        }
+        Configuration.configuration.closeTaskRunnerJournal();
+        return errors;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File sub : files) {
+                delete(sub);
+            }
+        }
+        file.delete();
+    }
+
+    public static void main(String[] args) {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        logger = WaarpLoggerFactory.getLogger(TestStartupRecovery.class);
+        if (args.length < 1) {
+            logger.error("Needs a directory as first argument");
+            return;
+        }
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("-nb")) {
+                i++;
+                nb = Integer.parseInt(args[i]);
+            } else if (args[i].equalsIgnoreCase("-active")) {
+                i++;
+                active = Integer.parseInt(args[i]);
+            }
+        }
+        File dir = new File(args[0]);
+        dir.mkdirs();
+        int errors = 0;
+        try {
+            setup(dir);
+            errors += testJournal(dir);
+            errors += testXml();
+        } catch (Exception e) {
+            logger.error("Test in error", e);
+            errors++;
+        } finally {
+            delete(new File(dir, "arch"));
+        }
+        System.out.println(errors == 0 ? "OK" : "ERRORS: " + errors);
+        System.exit(errors == 0 ? 0 : 1);
+    }
+}
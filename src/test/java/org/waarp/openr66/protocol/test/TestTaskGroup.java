@@ -0,0 +1,165 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.waarp.common.database.DbAdmin;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.TaskType;
+import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbRule;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
+
+/**
+ * Post tasks of a rule run through DbTaskRunner.run() with a group of concurrent tasks:<br>
+ * - the tasks that share the session file view (EXECOUTPUT, EXECJAVA, BUNDLE, moves) are never
+ * grouped,<br>
+ * - a group in success is fully run before the next task, and the runner ends normally,<br>
+ * - a group with failed tasks reports the first failure in the order of the rule, all tasks of the
+ * group have been run, the next task is not run and the step stays at the start of the group such
+ * that a restart runs the full group again.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestTaskGroup {
+    private static final String GROUP = "g1";
+    private static int errors = 0;
+
+    private static void check(boolean test, String message) {
+        if (!test) {
+            System.err.println("Error: " + message);
+            errors++;
+        }
+    }
+
+    private static String[] task(TaskType type, String arg, int delay, String group) {
+        return new String[] { type.name(), arg, Integer.toString(delay), "", group };
+    }
+
+    private static DbTaskRunner newRunner(File in, File out, String[][] posttasks)
+            throws WaarpDatabaseException {
+        DbRule rule = new DbRule(null, "idRule", (String[]) null, TRANSFERMODE.RECVMODE.ordinal(),
+                out.getAbsolutePath(), null, null, in.getAbsolutePath(), null, posttasks, null,
+                null, null, null);
+        RequestPacket requestPacket = new RequestPacket(rule.getIdRule(), rule.getMode(),
+                "file.txt", Configuration.BUFFERSIZEDEFAULT, 1, 1, "group test", 10,
+                PartnerConfiguration.BAR_SEPARATOR_FIELD);
+        R66Session session = new R66Session();
+        session.getAuth().specialNoSessionAuth(false, Configuration.configuration.getHOST_ID());
+        DbTaskRunner runner = new DbTaskRunner(null, session, rule, false, requestPacket);
+        session.setBadRunner(runner, ErrorCode.QueryAlreadyFinished);
+        session.setNoSessionRunner(runner, null);
+        return runner;
+    }
+
+    /**
+     * @param args
+     *            none
+     */
+    public static void main(String[] args) throws IOException, WaarpDatabaseException {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        DbConstant.admin = new DbAdmin();
+        File dir = File.createTempFile("taskgroup", "");
+        dir.delete();
+        File in = new File(dir, "in");
+        File out = new File(dir, "out");
+        in.mkdirs();
+        out.mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(new File(in, "file.txt"));
+        try {
+            outputStream.write("0123456789".getBytes());
+        } finally {
+            outputStream.close();
+        }
+
+        check(!TaskType.EXECOUTPUT.isConcurrent(), "EXECOUTPUT concurrent");
+        check(!TaskType.EXECJAVA.isConcurrent(), "EXECJAVA concurrent");
+        check(!TaskType.BUNDLE.isConcurrent(), "BUNDLE concurrent");
+        check(!TaskType.MOVE.isConcurrent(), "MOVE concurrent");
+        check(TaskType.LOG.isConcurrent(), "LOG not concurrent");
+
+        // group in success then one more task
+        File a = new File(out, "a.log");
+        File b = new File(out, "b.log");
+        File c = new File(out, "c.log");
+        File after = new File(out, "after.log");
+        DbTaskRunner runner = newRunner(in, out, new String[][] {
+                task(TaskType.LOG, "a " + a.getAbsolutePath(), 2, GROUP),
+                task(TaskType.LOG, "b " + b.getAbsolutePath(), 2, GROUP),
+                task(TaskType.LOG, "c " + c.getAbsolutePath(), 2, GROUP),
+                task(TaskType.LOG, "after " + after.getAbsolutePath(), 2, "") });
+        try {
+            runner.run();
+        } catch (OpenR66RunnerErrorException e) {
+            check(false, "group in success: " + e.getMessage());
+        }
+        check(a.isFile() && b.isFile() && c.isFile(), "group in success not fully run");
+        check(after.isFile(), "task after the group not run");
+        a.delete();
+        b.delete();
+        c.delete();
+        after.delete();
+
+        // group in error: the COPY (first in the rule) fails before the VALIDFILEPATH
+        File nowhere = new File(dir, "nowhere/really");
+        runner = newRunner(in, out, new String[][] {
+                task(TaskType.LOG, "before " + a.getAbsolutePath(), 2, ""),
+                task(TaskType.LOG, "b " + b.getAbsolutePath(), 2, GROUP),
+                task(TaskType.COPY, nowhere.getAbsolutePath(), 0, GROUP),
+                task(TaskType.VALIDFILEPATH, nowhere.getAbsolutePath(), 0, GROUP),
+                task(TaskType.LOG, "c " + c.getAbsolutePath(), 2, GROUP),
+                task(TaskType.LOG, "after " + after.getAbsolutePath(), 2, "") });
+        try {
+            runner.run();
+            check(false, "group in error not reported");
+        } catch (OpenR66RunnerErrorException e) {
+            check(e.getMessage() == null || !e.getMessage().contains("File not Validated"),
+                    "not the first error of the group: " + e.getMessage());
+        }
+        check(a.isFile(), "task before the group not run");
+        check(b.isFile() && c.isFile(), "group in error not fully run");
+        check(!after.isFile(), "task after a group in error run");
+        check(runner.getStep() == 1, "step " + runner.getStep() + " instead of the group start");
+
+        File[] files = out.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        new File(in, "file.txt").delete();
+        in.delete();
+        out.delete();
+        dir.delete();
+        System.out.println(errors == 0 ? "OK" : "ERRORS: " + errors);
+        System.exit(errors == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import org.waarp.common.database.DbAdmin;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.configuration.FileBasedConfiguration;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.TaskTemplate;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbRule;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
+
+/**
+ * Micro benchmark of the substitution of task arguments: template compiled at each call against
+ * template compiled once by the rule.
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public class TestTaskTemplate {
+
+    /**
+     * @param args
+     *            config [number of iterations]
+     */
+    public static void main(String[] args) {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(
+                null));
+        if (args.length < 1) {
+            System.err.println("Need config [nbIterations]");
+            return;
+        }
+        if (!FileBasedConfiguration
+                .setClientConfigurationFromXml(Configuration.configuration, args[0])) {
+            System.err.println("Needs a correct configuration file as first argument");
+            return;
+        }
+        int nb = 1000000;
+        if (args.length > 1) {
+            nb = Integer.parseInt(args[1]);
+        }
+        String filename = "testfile.txt";
+        String argTransfer = "basic information";
+        String[] argRules = new String[] {
+                "/path/to/a/fixed/file/without/variable",
+                "#TRUEFULLPATH# #ORIGINALFILENAME# #DATE#_#HOUR#_%s_%s",
+                "-file #TRUEFULLPATH# -to #REQUESTEDHOST# -rule #RULE# -id #FULLTRANSFERID# "
+                        + "-info %s %s -size #FILESIZE# -block #BLOCKSIZE# #NOWAIT#",
+                "#INPATH#/#REQUESTERHOST#/#TRANSFERID#_#ORIGINALFILENAME# #ERRORCODE# #ERRORMSG#" };
+        R66Session session = new R66Session();
+        DbRule rule = new DbRule(null, "idRule", (String) null, TRANSFERMODE.SENDMODE.ordinal(),
+                null, null, null, null, null, null, null, null, null, null);
+        RequestPacket requestPacket = new RequestPacket(rule.getIdRule(), rule.getMode(), filename,
+                Configuration.BUFFERSIZEDEFAULT, 1, 1, argTransfer, 0,
+                PartnerConfiguration.BAR_SEPARATOR_FIELD);
+        DbTaskRunner runner = null;
+        DbConstant.admin = new DbAdmin();
+        session.getAuth().specialNoSessionAuth(false, "false");
+        try {
+            runner = new DbTaskRunner(null, session, rule, false, requestPacket);
+        } catch (WaarpDatabaseException e) {
+        }
+        session.setBadRunner(runner, ErrorCode.QueryAlreadyFinished);
+
+        for (String argRule : argRules) {
+            // warm up
+            String result = null;
+            for (int i = 0; i < nb / 10; i++) {
+                result = TaskTemplate.compile(argRule).render(session);
+                result = rule.getTaskTemplate(argRule).render(session);
+            }
+            System.out.println("ARG: " + argRule + "\n => " + result);
+            long start = System.nanoTime();
+            for (int i = 0; i < nb; i++) {
+                result = TaskTemplate.compile(argRule).render(session);
+            }
+            long compiled = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < nb; i++) {
+                result = rule.getTaskTemplate(argRule).render(session);
+            }
+            long cached = System.nanoTime() - start;
+            start = System.nanoTime();
+            Object[] array = null;
+            for (int i = 0; i < nb; i++) {
+                array = runner.getFileInformationArray();
+            }
+            long split = System.nanoTime() - start;
+            System.out.println("Compile each time: " + (compiled / nb) + " ns/op, "
+                    + "compiled by rule: " + (cached / nb) + " ns/op, "
+                    + "transfer argument: " + (split / nb) + " ns/op (" + array.length + ")");
+        }
+    }
+}
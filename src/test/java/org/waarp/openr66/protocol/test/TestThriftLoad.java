@@ -0,0 +1,126 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.waarp.thrift.r66.R66Request;
+import org.waarp.thrift.r66.R66Result;
+import org.waarp.thrift.r66.R66Service;
+import org.waarp.thrift.r66.RequestMode;
+
+/**
+ * Load test of the Thrift R66 service, as an orchestrator does: many concurrent clients, each
+ * opening a short-lived connection to submit one transfer.
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public class TestThriftLoad {
+
+    /**
+     * @param args
+     *            host port framed(True for non blocking server) rule destuid file [nbClients]
+     *            [nbCalls by client]
+     */
+    public static void main(String[] args) {
+        if (args.length < 6) {
+            System.err.println("Need host port framed rule destuid file [nbClients] [nbCalls]");
+            return;
+        }
+        final String host = args[0];
+        final int port = Integer.parseInt(args[1]);
+        final boolean framed = Boolean.parseBoolean(args[2]);
+        final String rule = args[3];
+        final String destuid = args[4];
+        final String file = args[5];
+        int nbClients = 100;
+        if (args.length > 6) {
+            nbClients = Integer.parseInt(args[6]);
+        }
+        final int nbCalls = args.length > 7 ? Integer.parseInt(args[7]) : 10;
+        final AtomicLong success = new AtomicLong();
+        final AtomicLong error = new AtomicLong();
+        final AtomicLong maxLatency = new AtomicLong();
+        ExecutorService executorService = Executors.newFixedThreadPool(nbClients);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nbClients; i++) {
+            executorService.execute(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < nbCalls; j++) {
+                        long startCall = System.currentTimeMillis();
+                        TTransport transport = new TSocket(host, port);
+                        if (framed) {
+                            transport = new TFramedTransport(transport);
+                        }
+                        try {
+                            TProtocol protocol = new TBinaryProtocol(transport);
+                            R66Service.Client client = new R66Service.Client(protocol);
+                            transport.open();
+                            R66Request request = new R66Request(RequestMode.ASYNCTRANSFER);
+                            request.setDestuid(destuid);
+                            request.setRule(rule);
+                            request.setFile(file);
+                            request.setInfo("Load test from Thrift");
+                            R66Result result = client.transferRequestQuery(request);
+                            if (result.getCode() == org.waarp.thrift.r66.ErrorCode.InitOk) {
+                                success.incrementAndGet();
+                            } else {
+                                error.incrementAndGet();
+                            }
+                        } catch (TException e) {
+                            error.incrementAndGet();
+                        } finally {
+                            transport.close();
+                        }
+                        long latency = System.currentTimeMillis() - startCall;
+                        long max = maxLatency.get();
+                        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+                            max = maxLatency.get();
+                        }
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+        }
+        long end = System.currentTimeMillis();
+        long total = success.get() + error.get();
+        System.out.println("Clients: " + nbClients + " Calls: " + total + " Success: " + success.get()
+                + " Error: " + error.get());
+        System.out.println("Delay: " + (end - start) + " ms : "
+                + (total * 1000 / Math.max(1, end - start)) + " calls/s, max latency: "
+                + maxLatency.get() + " ms");
+    }
+
+}